@@ -1,7 +1,11 @@
 package library;
+import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
 import java.util.Scanner;
+import java.util.function.BiFunction;
+import java.util.function.ToIntFunction;
 
 import library.borrowbook.BorrowBookControl;
 import library.borrowbook.BorrowBookUI;
@@ -9,16 +13,16 @@ import library.borrowbook.IBorrowBookControl;
 import library.entities.IBook;
 import library.entities.ICalendar;
 import library.entities.ILibrary;
-import library.entities.ILoan;
 import library.entities.IPatron;
 import library.entities.helpers.BookHelper;
 import library.entities.helpers.CalendarFileHelper;
-import library.entities.helpers.LibraryFileHelper;
+import library.entities.helpers.LibraryJournalHelper;
 import library.entities.helpers.LoanHelper;
 import library.entities.helpers.PatronHelper;
 import library.fixbook.FixBookControl;
 import library.fixbook.FixBookUI;
 import library.fixbook.IFixBookControl;
+import library.importbooks.CatalogImporter;
 import library.payfine.IPayFineControl;
 import library.payfine.PayFineControl;
 import library.payfine.PayFineUI;
@@ -29,13 +33,15 @@ import library.returnbook.ReturnBookUI;
 
 public class Main {
 	
+    private static final int PAGE_SIZE = 20;
+
     private static Scanner scannerInput;
     private static ILibrary library;
     private static String menuString;
     private static ICalendar calendar;
     private static SimpleDateFormat dateFormat;
     
-    private static LibraryFileHelper libraryHelper;
+    private static LibraryJournalHelper libraryHelper;
     private static CalendarFileHelper calendarHelper;
 	
 	
@@ -45,10 +51,12 @@ public class Main {
         stringBuilder.append("\nLibrary Main Menu\n\n")
             .append("  M  : add patron\n")
             .append("  LM : list patrons\n")
+            .append("  FM : find patrons\n")
             .append("\n")
             .append("  B  : add book\n")
             .append("  LB : list books\n")
             .append("  FB : fix books\n")
+            .append("  BI : import books\n")
             .append("\n")
             .append("  L  : take out a loan\n")
             .append("  R  : return a loan\n")
@@ -67,7 +75,7 @@ public class Main {
 
     public static void main(String[] args) {		
         try {	
-        	libraryHelper = new LibraryFileHelper(new BookHelper(), new PatronHelper(), new LoanHelper());
+        	libraryHelper = new LibraryJournalHelper(new BookHelper(), new PatronHelper(), new LoanHelper());
         	calendarHelper = new CalendarFileHelper();
         	
             scannerInput = new Scanner(System.in);
@@ -75,14 +83,6 @@ public class Main {
             library = libraryHelper.loadLibrary();
             
             dateFormat = new SimpleDateFormat("dd/MM/yyyy");
-	
-            for (IPatron patron : library.getPatronList()) {
-                output(patron);
-            }
-            output(" ");
-            for (IBook book : library.getBookList()) {
-                output(book);
-            }
 						
             menuString = getMenuString();
 			
@@ -106,6 +106,10 @@ public class Main {
                         listPatrons();
                         break;
 					
+                    case "FM": 
+                        findPatrons();
+                        break;
+					
                     case "B": 
                         addBook();
                         libraryHelper.saveLibrary(library);
@@ -115,6 +119,12 @@ public class Main {
                         listBooks();
                         break;
 					
+                    case "BI": 
+                        importBooks();
+                        libraryHelper.saveLibrary(library);
+                        libraryHelper.checkpoint(library);
+                        break;
+					
                     case "FB": 
                         fixBooks();
                         libraryHelper.saveLibrary(library);
@@ -146,6 +156,8 @@ public class Main {
                         break;
 					
                     case "Q": 
+                        libraryHelper.checkpoint(library);
+                        libraryHelper.close();
                         isDone = true;
                         break;
 					
@@ -168,28 +180,65 @@ public class Main {
 
 
     private static void listLoans() {
-        output("");
-        for (ILoan loan : library.getCurrentLoansList()) {
-            output(loan + "\n");
-        }		
+        listPages(library::getCurrentLoanPage, loan -> loan.getBook().getId());
     }
 
 
 
     private static void listBooks() {
-        output("");
-        for (IBook book : library.getBookList()) {
-            output(book + "\n");
-        }		
+        listPages(library::getBookPage, IBook::getId);
     }
 
 
 
     private static void listPatrons() {
+        listPages(library::getPatronPage, IPatron::getId);
+    }
+
+
+
+    /* prints a page at a time, asking before fetching the next one */
+    private static <T> void listPages(BiFunction<Integer, Integer, List<T>> pageAfter, ToIntFunction<T> cursor) {
         output("");
-        for (IPatron patron : library.getPatronList()) {
-            output(patron + "\n");
-        }		
+        int afterId = 0;
+        while (true) {
+            List<T> page = pageAfter.apply(afterId, PAGE_SIZE);
+            for (T item : page) {
+                output(item + "\n");
+            }
+            if (page.size() < PAGE_SIZE || !getUserInput("More? (Y/N): ").trim().equalsIgnoreCase("Y")) {
+                break;
+            }
+            afterId = cursor.applyAsInt(page.get(page.size() - 1));
+        }
+    }
+
+
+
+    private static void findPatrons() {
+        try {
+            String query = getUserInput("Enter last name, email or phone number: ").trim();
+            List<IPatron> patrons;
+            if (query.matches("[0-9]+")) {
+                patrons = library.findPatronsByPhoneNumber(Long.parseLong(query));
+            }
+            else if (query.contains("@")) {
+                patrons = library.findPatronsByPrefix(IPatron.PatronField.EMAIL_ADDRESS, query, 20);
+            }
+            else {
+                patrons = library.findPatronsByPrefix(IPatron.PatronField.LAST_NAME, query, 20);
+            }
+            output("");
+            for (IPatron patron : patrons) {
+                output(patron + "\n");
+            }
+            if (patrons.isEmpty()) {
+                output("No patrons found\n");
+            }
+			
+        } catch (NumberFormatException e) {
+            output("\nInvalid phone number\n");
+        }
     }
 
 
@@ -238,6 +287,19 @@ public class Main {
 		
     }
 
+
+    private static void importBooks() {
+        String fileName = getUserInput("Enter CSV or JSON-lines file: ");
+        try {
+            CatalogImporter importer = new CatalogImporter(library);
+            CatalogImporter.ImportProgress result = importer.importFile(Paths.get(fileName), progress -> output(progress));
+            output("\nImported " + result.getBooksImported() + " books\n");
+			
+        } catch (RuntimeException e) {
+            output("\n" + e.getMessage() + "\n");
+        }
+    }
+
 	
     private static void addPatron() {
         try {
@@ -116,9 +116,7 @@ public class BorrowBookControl implements IBorrowBookControl {
         if (!controlState.equals(BorrowControlState.FINALISING)) {
             throw new RuntimeException("BorrowBookControl: cannot call commitLoans except in FINALISING state");
         }	
-        for (ILoan loan : pendingLoans) {
-            library.commitLoan(loan);
-        }
+        library.commitLoans(pendingLoans);
         borrowBookUI.display("Completed Loan Slip");
         for (ILoan loan : pendingLoans) {
             borrowBookUI.display(loan);
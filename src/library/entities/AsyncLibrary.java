@@ -0,0 +1,321 @@
+package library.entities;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * IAsyncLibrary that runs each request on a fixed pool of threads against
+ * an ILibrary that is safe for several threads to use, such as a
+ * ConcurrentLibrary, a VersionedLibrary or a PipelinedLibrary.
+ *
+ * At most maxInFlight requests are queued or running at once. A caller
+ * making one more waits in the call until an earlier request completes, so
+ * callers that produce requests faster than the library serves them are
+ * slowed down rather than filling memory with queued work.
+ */
+public class AsyncLibrary implements IAsyncLibrary, AutoCloseable {
+
+    private static final AtomicInteger POOLS = new AtomicInteger();
+
+    private final ILibrary library;
+    private final ExecutorService executor;
+    private final Semaphore inFlight;
+
+
+    public AsyncLibrary(ILibrary library, int threads, int maxInFlight) {
+        if (threads < 1 || maxInFlight < 1) {
+            throw new RuntimeException("AsyncLibrary: constructor : threads and maxInFlight must be positive.");
+        }
+        this.library = library;
+        this.inFlight = new Semaphore(maxInFlight);
+        String pool = "library-async-" + POOLS.incrementAndGet() + "-";
+        AtomicInteger thread = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread worker = new Thread(runnable, pool + thread.incrementAndGet());
+                    worker.setDaemon(true);
+                    return worker;
+                });
+    }
+
+
+    /* the number of further requests that can be made without waiting */
+    public int getAvailablePermits() {
+        return inFlight.availablePermits();
+    }
+
+
+    @Override
+    public <T> CompletableFuture<T> call(Function<? super ILibrary, T> work) {
+        inFlight.acquireUninterruptibly();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                T value = null;
+                Throwable failure = null;
+                try {
+                    value = work.apply(library);
+                }
+                catch (Throwable e) {
+                    failure = e;
+                }
+                finally {
+                    /* released before completing, as stages chained on result may make requests of their own */
+                    inFlight.release();
+                }
+                if (failure != null) {
+                    result.completeExceptionally(failure);
+                }
+                else {
+                    result.complete(value);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            inFlight.release();
+            throw new RuntimeException("AsyncLibrary: call : library is closed.");
+        }
+        return result;
+    }
+
+
+    /**
+     * Finishes the requests already made and stops the threads. Later
+     * requests throw a RuntimeException.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    @Override
+    public CompletableFuture<IPatron> addPatron(String lastName, String firstName, String email, long phoneNo) {
+        return call(library -> library.addPatron(lastName, firstName, email, phoneNo));
+    }
+
+
+    @Override
+    public CompletableFuture<IBook> addBook(String author, String title, String callNumber) {
+        return call(library -> library.addBook(author, title, callNumber));
+    }
+
+
+    @Override
+    public CompletableFuture<List<IBook>> addBooks(List<String[]> books) {
+        return call(library -> library.addBooks(books));
+    }
+
+
+    @Override
+    public CompletableFuture<List<IPatron>> getPatronList() {
+        return call(library -> library.getPatronList());
+    }
+
+
+    @Override
+    public CompletableFuture<List<IBook>> getBookList() {
+        return call(library -> library.getBookList());
+    }
+
+
+    @Override
+    public CompletableFuture<List<ILoan>> getCurrentLoansList() {
+        return call(library -> library.getCurrentLoansList());
+    }
+
+
+    @Override
+    public CompletableFuture<List<ILoan>> getAllLoansList() {
+        return call(library -> library.getAllLoansList());
+    }
+
+
+    @Override
+    public CompletableFuture<List<IBook>> getBookPage(int afterId, int limit) {
+        return call(library -> library.getBookPage(afterId, limit));
+    }
+
+
+    @Override
+    public CompletableFuture<List<IPatron>> getPatronPage(int afterId, int limit) {
+        return call(library -> library.getPatronPage(afterId, limit));
+    }
+
+
+    @Override
+    public CompletableFuture<List<ILoan>> getCurrentLoanPage(int afterBookId, int limit) {
+        return call(library -> library.getCurrentLoanPage(afterBookId, limit));
+    }
+
+
+    @Override
+    public CompletableFuture<List<ILoan>> getLoanPage(int afterId, int limit) {
+        return call(library -> library.getLoanPage(afterId, limit));
+    }
+
+
+    @Override
+    public CompletableFuture<ILoan> getLoanById(int loanId) {
+        return call(library -> library.getLoanById(loanId));
+    }
+
+
+    @Override
+    public CompletableFuture<IPatron> getPatronById(int patronId) {
+        return call(library -> library.getPatronById(patronId));
+    }
+
+
+    @Override
+    public CompletableFuture<IBook> getBookById(int bookId) {
+        return call(library -> library.getBookById(bookId));
+    }
+
+
+    @Override
+    public CompletableFuture<List<IBook>> findBooks(IBook.BookField field, String value) {
+        return call(library -> library.findBooks(field, value));
+    }
+
+
+    @Override
+    public CompletableFuture<List<IBook>> findBooksByPrefix(IBook.BookField field, String prefix, int limit) {
+        return call(library -> library.findBooksByPrefix(field, prefix, limit));
+    }
+
+
+    @Override
+    public CompletableFuture<List<IBook>> findBooksInRange(IBook.BookField field, String from, String to, int limit) {
+        return call(library -> library.findBooksInRange(field, from, to, limit));
+    }
+
+
+    @Override
+    public CompletableFuture<List<IBook>> searchBooks(String query, int limit, boolean availableOnly) {
+        return call(library -> library.searchBooks(query, limit, availableOnly));
+    }
+
+
+    @Override
+    public CompletableFuture<List<IPatron>> findPatrons(IPatron.PatronField field, String value) {
+        return call(library -> library.findPatrons(field, value));
+    }
+
+
+    @Override
+    public CompletableFuture<List<IPatron>> findPatronsByPrefix(IPatron.PatronField field, String prefix, int limit) {
+        return call(library -> library.findPatronsByPrefix(field, prefix, limit));
+    }
+
+
+    @Override
+    public CompletableFuture<List<IPatron>> findPatronsByPhoneNumber(long phoneNo) {
+        return call(library -> library.findPatronsByPhoneNumber(phoneNo));
+    }
+
+
+    @Override
+    public CompletableFuture<ILoan> getCurrentLoanByBookId(int bookId) {
+        return call(library -> library.getCurrentLoanByBookId(bookId));
+    }
+
+
+    @Override
+    public CompletableFuture<Boolean> patronCanBorrow(IPatron patron) {
+        return call(library -> library.patronCanBorrow(patron));
+    }
+
+
+    @Override
+    public CompletableFuture<Boolean> patronWillReachLoanMax(IPatron patron, int numberOfPendingLoans) {
+        return call(library -> library.patronWillReachLoanMax(patron, numberOfPendingLoans));
+    }
+
+
+    @Override
+    public CompletableFuture<ILoan> issueLoan(IBook book, IPatron patron) {
+        return call(library -> library.issueLoan(book, patron));
+    }
+
+
+    @Override
+    public CompletableFuture<Void> commitLoan(ILoan loan) {
+        return call(library -> {
+            library.commitLoan(loan);
+            return null;
+        });
+    }
+
+
+    @Override
+    public CompletableFuture<Void> commitLoans(List<ILoan> pendingLoans) {
+        return call(library -> {
+            library.commitLoans(pendingLoans);
+            return null;
+        });
+    }
+
+
+    @Override
+    public CompletableFuture<Void> dischargeLoan(ILoan currentLoan, boolean isDamaged) {
+        return call(library -> {
+            library.dischargeLoan(currentLoan, isDamaged);
+            return null;
+        });
+    }
+
+
+    @Override
+    public CompletableFuture<List<ILoan>> dischargeLoans(List<BookReturn> returns) {
+        return call(library -> library.dischargeLoans(returns));
+    }
+
+
+    @Override
+    public CompletableFuture<List<ILoan>> checkCurrentLoansOverDue() {
+        return call(library -> library.checkCurrentLoansOverDue());
+    }
+
+
+    @Override
+    public CompletableFuture<Double> calculateOverDueFine(ILoan loan) {
+        return call(library -> library.calculateOverDueFine(loan));
+    }
+
+
+    @Override
+    public CompletableFuture<Double> payFine(IPatron patron, double amount) {
+        return call(library -> library.payFine(patron, amount));
+    }
+
+
+    @Override
+    public CompletableFuture<Void> repairBook(IBook currentBook) {
+        return call(library -> {
+            library.repairBook(currentBook);
+            return null;
+        });
+    }
+
+
+    @Override
+    public CompletableFuture<CirculationStatistics> getStatistics() {
+        return call(library -> library.getStatistics());
+    }
+
+}
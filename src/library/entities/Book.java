@@ -1,9 +1,31 @@
 package library.entities;
 import java.io.Serializable;
-
-@SuppressWarnings("serial")
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * A book in the catalog. Its state changes by compareAndSet, so of two desks
+ * trying the same transition at once exactly one succeeds and the other gets
+ * a RuntimeException, without either taking a lock. The state field is
+ * only read and written through the STATE handle, whose compareAndSet and
+ * acquire reads order it with the other fields, so it need not be volatile.
+ */
 public class Book implements Serializable, IBook {
 
+    // Pinned to the value of the first release, so a library.obj it wrote still loads.
+    private static final long serialVersionUID = -4016689171672520674L;
+
+    private static final VarHandle STATE;
+
+    static {
+        try {
+            STATE = MethodHandles.lookup().findVarHandle(Book.class, "state", BookState.class);
+        }
+        catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     private String title;
     private String author;
     private String callNumber;
@@ -44,55 +66,63 @@ public class Book implements Serializable, IBook {
     }
 
     
+    @Override
+    public String getAuthor() {
+        return author;
+    }
+
+    
+    @Override
+    public String getCallNumber() {
+        return callNumber;
+    }
+
+    
+    /* package-private getter for persistence */
+    BookState getState() {
+        return (BookState) STATE.getAcquire(this);
+    }
+
+    
     @Override
     public boolean isAvailable() {
-        return state == BookState.AVAILABLE;
+        return getState() == BookState.AVAILABLE;
     }
 
     
     @Override
     public boolean isOnLoan() {
-        return state == BookState.ON_LOAN;
+        return getState() == BookState.ON_LOAN;
     }
 
     
     @Override
     public boolean isDamaged() {
-        return state != BookState.DAMAGED;
+        return getState() != BookState.DAMAGED;
     }
 
     
     @Override
     public void borrowFromLibrary() {
-        if (state.equals(BookState.AVAILABLE)) {
-            state = BookState.ON_LOAN;
-        } else {
-            throw new RuntimeException(String.format("Book: cannot borrow while book is in state: %s", state));
+        if (!STATE.compareAndSet(this, BookState.AVAILABLE, BookState.ON_LOAN)) {
+            throw new RuntimeException(String.format("Book: cannot borrow while book is in state: %s", getState()));
         }
-
     }
 
     
     @Override
     public void returnToLibrary(boolean isDamaged) {
-        if (state.equals(BookState.ON_LOAN)) {
-            if (isDamaged) {
-                state = BookState.DAMAGED;
-            } else {
-                state = BookState.AVAILABLE;
-            }
-        } else {
-            throw new RuntimeException(String.format("Book: cannot Return while book is in state: %s", state));
+        BookState returned = isDamaged ? BookState.DAMAGED : BookState.AVAILABLE;
+        if (!STATE.compareAndSet(this, BookState.ON_LOAN, returned)) {
+            throw new RuntimeException(String.format("Book: cannot Return while book is in state: %s", getState()));
         }
     }
 
     
     @Override
     public void repair() {
-        if (state.equals(BookState.DAMAGED)) {
-            state = BookState.AVAILABLE;
-        } else {
-            throw new RuntimeException(String.format("Book: cannot repair while book is in state: %s", state));
+        if (!STATE.compareAndSet(this, BookState.DAMAGED, BookState.AVAILABLE)) {
+            throw new RuntimeException(String.format("Book: cannot repair while book is in state: %s", getState()));
         }
     }
 
@@ -103,7 +133,7 @@ public class Book implements Serializable, IBook {
             .append("  Title:  ").append(title).append("\n")
             .append("  Author: ").append(author).append("\n")
             .append("  CallNo: ").append(callNumber).append("\n")
-            .append("  State:  ").append(state);
+            .append("  State:  ").append(getState());
 
         return stringBuilder.toString();
     }
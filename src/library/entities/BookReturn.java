@@ -0,0 +1,28 @@
+package library.entities;
+
+/**
+ * A book handed back, for example through the book drop, and whether it
+ * came back damaged.
+ */
+public final class BookReturn {
+
+    private final int bookId;
+    private final boolean isDamaged;
+
+
+    public BookReturn(int bookId, boolean isDamaged) {
+        this.bookId = bookId;
+        this.isDamaged = isDamaged;
+    }
+
+
+    public int getBookId() {
+        return bookId;
+    }
+
+
+    public boolean isDamaged() {
+        return isDamaged;
+    }
+
+}
@@ -2,28 +2,79 @@ package library.entities;
 import java.util.Date;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * The library's current date. Changing the date is synchronized; reading it
+ * and the due date for it is not, as every commit and discharge on every
+ * desk does so.
+ */
 public class Calendar implements ICalendar {
 	
-    private static ICalendar self;
-    private static java.util.Calendar calendar;
+    private static volatile ICalendar self;
+    private static final ThreadLocal<ICalendar> threadCalendar = new ThreadLocal<>();
+    private java.util.Calendar calendar;
+    private volatile long today;
+    private volatile DueDate lastDueDate;
+	
+	
+    /* due date last computed, for the day it was computed on */
+    private static final class DueDate {
+        final long today;
+        final int loanPeriod;
+        final long dueDate;
+
+        DueDate(long today, int loanPeriod, long dueDate) {
+            this.today = today;
+            this.loanPeriod = loanPeriod;
+            this.dueDate = dueDate;
+        }
+    }
 	
 	
     private Calendar() {
         calendar = java.util.Calendar.getInstance();
+        setDate(calendar.getTime());
     }
 
     
     public static ICalendar getInstance() {
+        ICalendar local = threadCalendar.get();
+        if (local != null) {
+            return local;
+        }
         if (self == null) {
-            self = new Calendar();
+            synchronized (Calendar.class) {
+                if (self == null) {
+                    self = new Calendar();
+                }
+            }
         }
         return self;
     }
 
+
+    /**
+     * Gives the calling thread a calendar of its own, set to the current date,
+     * which getInstance returns on that thread until releaseThreadCalendar is
+     * called. Journal replay on a background thread moves this calendar
+     * instead of the one the desks are using.
+     */
+    public static ICalendar useThreadCalendar() {
+        Calendar local = new Calendar();
+        local.setDate(getInstance().getDate());
+        threadCalendar.set(local);
+        return local;
+    }
+
+
+    public static void releaseThreadCalendar() {
+        threadCalendar.remove();
+    }
+
     
     @Override
-    public void incrementDate(int days) {
+    public synchronized void incrementDate(int days) {
         calendar.add(java.util.Calendar.DATE, days);		
+        today = calendar.getTimeInMillis();
     }
 
     
@@ -35,6 +86,7 @@ public class Calendar implements ICalendar {
             calendar.set(java.util.Calendar.MINUTE, 0);  
             calendar.set(java.util.Calendar.SECOND, 0);  
             calendar.set(java.util.Calendar.MILLISECOND, 0);
+            today = calendar.getTimeInMillis();
         }
         catch (Exception e) {
             throw new RuntimeException(e);
@@ -43,32 +95,34 @@ public class Calendar implements ICalendar {
 
     
     @Override
-    public synchronized Date getDate() {
-        try {
-            calendar.set(java.util.Calendar.HOUR_OF_DAY, 0);  
-            calendar.set(java.util.Calendar.MINUTE, 0);  
-            calendar.set(java.util.Calendar.SECOND, 0);  
-            calendar.set(java.util.Calendar.MILLISECOND, 0);
-            return calendar.getTime();
-        }
-        catch (Exception e) {
-            throw new RuntimeException(e);
-        }	
+    public Date getDate() {
+        return new Date(today);
     }
 
     
     @Override
-    public synchronized Date getDueDate(int loanPeriod) {
+    public Date getDueDate(int loanPeriod) {
+        long now = today;
+        DueDate last = lastDueDate;
+        if (last == null || last.today != now || last.loanPeriod != loanPeriod) {
+            last = computeDueDate(loanPeriod);
+        }
+        return new Date(last.dueDate);
+    }
+
+
+    private synchronized DueDate computeDueDate(int loanPeriod) {
         Date dateNow = getDate();
         calendar.add(java.util.Calendar.DATE, loanPeriod);
         Date dueDate = calendar.getTime();
         calendar.setTime(dateNow);
-        return dueDate;
+        lastDueDate = new DueDate(dateNow.getTime(), loanPeriod, dueDate.getTime());
+        return lastDueDate;
     }
 
     
     @Override
-    public synchronized long getDaysDifference(Date targetDate) {	
+    public long getDaysDifference(Date targetDate) {	
         long diffMilliseconds = getDate().getTime() - targetDate.getTime();
         long diffDays = TimeUnit.DAYS.convert(diffMilliseconds, TimeUnit.MILLISECONDS);
         return diffDays;
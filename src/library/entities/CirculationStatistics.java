@@ -0,0 +1,64 @@
+package library.entities;
+
+/**
+ * Counts of the library's books by state, of its overdue loans, and the
+ * fines owed by all patrons together, as they stood when the statistics
+ * were taken.
+ */
+public final class CirculationStatistics {
+
+    private final int availableBooks;
+    private final int booksOnLoan;
+    private final int damagedBooks;
+    private final long overDueLoans;
+    private final double finesOwed;
+
+
+    CirculationStatistics(int availableBooks, int booksOnLoan, int damagedBooks, long overDueLoans,
+            double finesOwed) {
+        this.availableBooks = availableBooks;
+        this.booksOnLoan = booksOnLoan;
+        this.damagedBooks = damagedBooks;
+        this.overDueLoans = overDueLoans;
+        this.finesOwed = finesOwed;
+    }
+
+
+    public int getAvailableBooks() {
+        return availableBooks;
+    }
+
+
+    public int getBooksOnLoan() {
+        return booksOnLoan;
+    }
+
+
+    public int getDamagedBooks() {
+        return damagedBooks;
+    }
+
+
+    public long getOverDueLoans() {
+        return overDueLoans;
+    }
+
+
+    public double getFinesOwed() {
+        return finesOwed;
+    }
+
+
+    public String toString() {
+        StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append("Circulation\n")
+            .append("  Available: ").append(availableBooks).append("\n")
+            .append("  On loan:   ").append(booksOnLoan).append("\n")
+            .append("  Damaged:   ").append(damagedBooks).append("\n")
+            .append("  Overdue:   ").append(overDueLoans).append("\n")
+            .append("  Fines:     ").append(String.format("%.2f", finesOwed));
+
+        return stringBuilder.toString();
+    }
+
+}
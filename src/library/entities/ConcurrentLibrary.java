@@ -0,0 +1,497 @@
+package library.entities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+import library.entities.helpers.IBookHelper;
+import library.entities.helpers.ILoanHelper;
+import library.entities.helpers.IPatronHelper;
+
+/**
+ * Library that several circulation desks can use at once.
+ *
+ * The maps are ConcurrentHashMaps and ids are issued from atomic counters.
+ * Operations that change a book or a patron hold the lock of its stripe:
+ * bookLocks[bookId % stripes] and patronLocks[patronId % stripes], always the
+ * book's before the patron's, so loans of unrelated books and patrons commit
+ * and discharge in parallel. commitLoans and dischargeLoans take the locks
+ * of all their books in stripe order, then those of their patrons in stripe
+ * order. Under those locks commitLoan and dischargeLoan
+ * check again that the book and patron are still in the state the desk saw,
+ * and throw a RuntimeException before changing anything if another desk got
+ * there first.
+ *
+ * Entities read outside the library's methods may not reflect changes that
+ * are in progress on another desk.
+ */
+@SuppressWarnings("serial")
+public class ConcurrentLibrary extends Library {
+
+    public static final int DEFAULT_STRIPES = 64;
+
+    private final AtomicInteger nextBookId;
+    private final AtomicInteger nextPatronId;
+    private final AtomicInteger nextLoanId;
+
+    private final ReentrantLock[] bookLocks;
+    private final ReentrantLock[] patronLocks;
+
+
+    public ConcurrentLibrary(IBookHelper bookHelper, IPatronHelper patronHelper, ILoanHelper loanHelper) {
+        this(bookHelper, patronHelper, loanHelper, DEFAULT_STRIPES);
+    }
+
+
+    public ConcurrentLibrary(IBookHelper bookHelper, IPatronHelper patronHelper, ILoanHelper loanHelper,
+            int stripes) {
+        this(bookHelper, patronHelper, loanHelper, new ConcurrentHashMap<>(), new ConcurrentHashMap<>(),
+                new ConcurrentHashMap<>(), new ConcurrentHashMap<>(), new ConcurrentHashMap<>(), 1, 1, 1, stripes);
+    }
+
+
+    /**
+     * A concurrent copy of library, for sharing a library loaded by one of
+     * the helpers between desks. The copy shares the original's entities, so
+     * the original must not be used afterwards.
+     */
+    public ConcurrentLibrary(Library library, IBookHelper bookHelper, IPatronHelper patronHelper,
+            ILoanHelper loanHelper) {
+        this(bookHelper, patronHelper, loanHelper, new ConcurrentHashMap<>(library.getCatalog()),
+                new ConcurrentHashMap<>(library.getPatrons()), new ConcurrentHashMap<>(library.getLoans()),
+                new ConcurrentHashMap<>(library.getCurrentLoans()), new ConcurrentHashMap<>(library.getDamagedBooks()),
+                library.getCurrentlyIssuingBookId(), library.getCurrentlyIssuingPatronId(),
+                library.getCurrentlyIssuingLoanId(), DEFAULT_STRIPES);
+    }
+
+
+    /* package-private for VersionedLibrary, whose maps are not ConcurrentHashMaps but are as thread safe */
+    ConcurrentLibrary(IBookHelper bookHelper, IPatronHelper patronHelper, ILoanHelper loanHelper,
+            Map<Integer, IBook> catalog, Map<Integer, IPatron> patrons,
+            Map<Integer, ILoan> loans, Map<Integer, ILoan> currentLoans,
+            Map<Integer, IBook> damagedBooks,
+            int currentlyIssuingBookId, int currentlyIssuingPatronId, int currentlyIssuingLoanId, int stripes) {
+        super(bookHelper, patronHelper, loanHelper, catalog, patrons, loans, currentLoans, damagedBooks);
+        if (stripes < 1) {
+            throw new RuntimeException("ConcurrentLibrary: constructor : stripes must be positive.");
+        }
+        nextBookId = new AtomicInteger(currentlyIssuingBookId);
+        nextPatronId = new AtomicInteger(currentlyIssuingPatronId);
+        nextLoanId = new AtomicInteger(currentlyIssuingLoanId);
+        bookLocks = makeLocks(stripes);
+        patronLocks = makeLocks(stripes);
+    }
+
+
+    private static ReentrantLock[] makeLocks(int stripes) {
+        ReentrantLock[] locks = new ReentrantLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        return locks;
+    }
+
+
+    private ReentrantLock bookLock(IBook book) {
+        return bookLocks[Math.floorMod(book.getId(), bookLocks.length)];
+    }
+
+
+    private ReentrantLock patronLock(IPatron patron) {
+        return patronLocks[Math.floorMod(patron.getId(), patronLocks.length)];
+    }
+
+
+    /*
+     * Package-private hooks around the changes each operation makes to the
+     * maps, called with the operation's locks held. VersionedLibrary
+     * publishes the changes as one version in endChanges.
+     */
+    void beginChanges() {
+    }
+
+
+    void endChanges() {
+    }
+
+
+    @Override
+    int getCurrentlyIssuingBookId() {
+        return nextBookId.get();
+    }
+
+
+    @Override
+    int getCurrentlyIssuingPatronId() {
+        return nextPatronId.get();
+    }
+
+
+    @Override
+    int getCurrentlyIssuingLoanId() {
+        return nextLoanId.get();
+    }
+
+
+    @Override
+    int getNextBookId() {
+        return nextBookId.getAndIncrement();
+    }
+
+
+    @Override
+    int getNextBookIds(int count) {
+        return nextBookId.getAndAdd(count);
+    }
+
+
+    @Override
+    int getNextPatronId() {
+        return nextPatronId.getAndIncrement();
+    }
+
+
+    @Override
+    int getNextLoanId() {
+        return nextLoanId.getAndIncrement();
+    }
+
+
+    @Override
+    int getNextLoanIds(int count) {
+        return nextLoanId.getAndAdd(count);
+    }
+
+
+    @Override
+    public void commitLoan(ILoan loan) {
+        IBook book = loan.getBook();
+        IPatron patron = loan.getPatron();
+        ReentrantLock bookLock = bookLock(book);
+        ReentrantLock patronLock = patronLock(patron);
+        bookLock.lock();
+        patronLock.lock();
+        beginChanges();
+        try {
+            if (!book.isAvailable() || getCurrentLoans().containsKey(book.getId())) {
+                throw new RuntimeException(String.format("ConcurrentLibrary: commitLoan: book %d is not available",
+                        book.getId()));
+            }
+            if (!patronCanBorrow(patron)) {
+                throw new RuntimeException(String.format("ConcurrentLibrary: commitLoan: patron %d cannot borrow",
+                        patron.getId()));
+            }
+            super.commitLoan(loan);
+        }
+        finally {
+            endChanges();
+            patronLock.unlock();
+            bookLock.unlock();
+        }
+    }
+
+
+    @Override
+    public void commitLoans(List<ILoan> pendingLoans) {
+        if (pendingLoans.isEmpty()) {
+            return;
+        }
+        IPatron patron = pendingLoans.get(0).getPatron();
+        List<ReentrantLock> locks = stripeLocks(bookLocks,
+                pendingLoans.stream().mapToInt(loan -> loan.getBook().getId()));
+        ReentrantLock patronLock = patronLock(patron);
+        for (ReentrantLock bookLock : locks) {
+            bookLock.lock();
+        }
+        patronLock.lock();
+        beginChanges();
+        try {
+            if (!patronCanBorrow(patron)) {
+                throw new RuntimeException(String.format("ConcurrentLibrary: commitLoans: patron %d cannot borrow",
+                        patron.getId()));
+            }
+            super.commitLoans(pendingLoans);
+        }
+        finally {
+            endChanges();
+            patronLock.unlock();
+            for (int i = locks.size() - 1; i >= 0; i--) {
+                locks.get(i).unlock();
+            }
+        }
+    }
+
+
+    /* the distinct locks of the ids' stripes, in stripe order */
+    private static List<ReentrantLock> stripeLocks(ReentrantLock[] locks, IntStream ids) {
+        BitSet stripes = new BitSet(locks.length);
+        ids.forEach(id -> stripes.set(Math.floorMod(id, locks.length)));
+        List<ReentrantLock> stripeLocks = new ArrayList<>(stripes.cardinality());
+        for (int stripe = stripes.nextSetBit(0); stripe >= 0; stripe = stripes.nextSetBit(stripe + 1)) {
+            stripeLocks.add(locks[stripe]);
+        }
+        return stripeLocks;
+    }
+
+
+    /*
+     * The loans are looked up before the locks are taken, to find the
+     * patrons whose locks are needed. A loan discharged by another desk in
+     * the meantime is no longer the book's current loan once the locks are
+     * held, and is skipped.
+     */
+    @Override
+    public List<ILoan> dischargeLoans(List<BookReturn> returns) {
+        ILoan[] returned = getCurrentLoansOf(returns);
+        List<ReentrantLock> locks = stripeLocks(bookLocks, returns.stream().mapToInt(BookReturn::getBookId));
+        locks.addAll(stripeLocks(patronLocks,
+                Arrays.stream(returned).filter(Objects::nonNull).mapToInt(loan -> loan.getPatron().getId())));
+        for (ReentrantLock lock : locks) {
+            lock.lock();
+        }
+        beginChanges();
+        try {
+            return super.dischargeLoans(returns, returned);
+        }
+        finally {
+            endChanges();
+            for (int i = locks.size() - 1; i >= 0; i--) {
+                locks.get(i).unlock();
+            }
+        }
+    }
+
+
+    @Override
+    public void dischargeLoan(ILoan loan, boolean isDamaged) {
+        IBook book = loan.getBook();
+        ReentrantLock bookLock = bookLock(book);
+        ReentrantLock patronLock = patronLock(loan.getPatron());
+        bookLock.lock();
+        patronLock.lock();
+        beginChanges();
+        try {
+            if (getCurrentLoans().get(book.getId()) != loan) {
+                throw new RuntimeException(String.format("ConcurrentLibrary: dischargeLoan: loan %d is not current",
+                        loan.getId()));
+            }
+            super.dischargeLoan(loan, isDamaged);
+        }
+        finally {
+            endChanges();
+            patronLock.unlock();
+            bookLock.unlock();
+        }
+    }
+
+
+    /**
+     * Checks each loan now due under its book and patron locks, skipping
+     * those discharged since they were taken from the due date index.
+     */
+    @Override
+    public List<ILoan> checkCurrentLoansOverDue() {
+        Date currentDate = Calendar.getInstance().getDate();
+        List<ILoan> overdue = new ArrayList<>();
+        for (ILoan loan : takeLoansDueBefore(currentDate)) {
+            ReentrantLock bookLock = bookLock(loan.getBook());
+            ReentrantLock patronLock = patronLock(loan.getPatron());
+            bookLock.lock();
+            patronLock.lock();
+            beginChanges();
+            try {
+                if (getCurrentLoans().get(loan.getBook().getId()) == loan && checkLoanOverDue(loan, currentDate)) {
+                    overdue.add(loan);
+                }
+            }
+            finally {
+                endChanges();
+                patronLock.unlock();
+                bookLock.unlock();
+            }
+        }
+        return overdue;
+    }
+
+
+    /*
+     * The due date, catalog and patron indexes are shared by every desk;
+     * their updates are short, so one lock over them does not serialise the
+     * desks noticeably.
+     */
+    @Override
+    synchronized void indexDueDate(ILoan loan) {
+        super.indexDueDate(loan);
+    }
+
+
+    @Override
+    synchronized void unindexDueDate(ILoan loan) {
+        super.unindexDueDate(loan);
+    }
+
+
+    /*
+     * The first call builds the index from the current loans with every
+     * stripe lock held, so that no desk is halfway through committing or
+     * discharging a loan while currentLoans is read; the locks are taken
+     * before this object's, as the desks take them.
+     */
+    @Override
+    List<ILoan> takeLoansDueBefore(Date date) {
+        synchronized (this) {
+            if (hasDueDateIndex()) {
+                return super.takeLoansDueBefore(date);
+            }
+        }
+        lockAll();
+        try {
+            synchronized (this) {
+                return super.takeLoansDueBefore(date);
+            }
+        }
+        finally {
+            unlockAll();
+        }
+    }
+
+
+    @Override
+    synchronized void indexBook(IBook book) {
+        super.indexBook(book);
+    }
+
+
+    @Override
+    synchronized int[] findBookIds(IBook.BookField field, String from, SortedKeyIndex.Stop<String> stop, int limit) {
+        return super.findBookIds(field, from, stop, limit);
+    }
+
+
+    @Override
+    synchronized int[] searchBookIds(String query, int limit, IntPredicate filter) {
+        return super.searchBookIds(query, limit, filter);
+    }
+
+
+    @Override
+    synchronized void indexPatron(IPatron patron) {
+        super.indexPatron(patron);
+    }
+
+
+    @Override
+    synchronized int[] findPatronIds(IPatron.PatronField field, String from, SortedKeyIndex.Stop<String> stop, int limit) {
+        return super.findPatronIds(field, from, stop, limit);
+    }
+
+
+    @Override
+    synchronized int[] findPatronIdsByPhoneNumber(long phoneNo) {
+        return super.findPatronIdsByPhoneNumber(phoneNo);
+    }
+
+
+    @Override
+    synchronized int[][] getPatronIndexOrders() {
+        return super.getPatronIndexOrders();
+    }
+
+
+    /*
+     * Counts with every book and patron lock held, so that no operation is
+     * halfway through changing a loan or a fine; those changes are counted
+     * under the same locks once the counters exist. Not synchronized, as
+     * desks call the synchronized index hooks while holding their locks;
+     * two desks counting at once are ordered by the locks themselves.
+     */
+    @Override
+    CirculationCounters startCounting() {
+        lockAll();
+        try {
+            return super.startCounting();
+        }
+        finally {
+            unlockAll();
+        }
+    }
+
+
+    /* every book lock and then every patron lock, in stripe order */
+    private void lockAll() {
+        for (ReentrantLock lock : bookLocks) {
+            lock.lock();
+        }
+        for (ReentrantLock lock : patronLocks) {
+            lock.lock();
+        }
+    }
+
+
+    private void unlockAll() {
+        for (ReentrantLock lock : patronLocks) {
+            lock.unlock();
+        }
+        for (ReentrantLock lock : bookLocks) {
+            lock.unlock();
+        }
+    }
+
+
+    @Override
+    public void repairBook(IBook currentBook) {
+        ReentrantLock bookLock = bookLock(currentBook);
+        bookLock.lock();
+        beginChanges();
+        try {
+            super.repairBook(currentBook);
+        }
+        finally {
+            endChanges();
+            bookLock.unlock();
+        }
+    }
+
+
+    @Override
+    public double payFine(IPatron patron, double amount) {
+        ReentrantLock patronLock = patronLock(patron);
+        patronLock.lock();
+        beginChanges();
+        try {
+            return super.payFine(patron, amount);
+        }
+        finally {
+            endChanges();
+            patronLock.unlock();
+        }
+    }
+
+
+    /*
+     * Under the patron's lock, as the patron finds its overdue loans the
+     * first time they are asked for, and loans going overdue or discharged
+     * change them under the same lock.
+     */
+    @Override
+    public boolean patronCanBorrow(IPatron patron) {
+        ReentrantLock patronLock = patronLock(patron);
+        patronLock.lock();
+        try {
+            return super.patronCanBorrow(patron);
+        }
+        finally {
+            patronLock.unlock();
+        }
+    }
+
+}
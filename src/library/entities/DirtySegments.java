@@ -0,0 +1,70 @@
+package library.entities;
+
+import java.util.BitSet;
+import java.util.EnumMap;
+import java.util.Map;
+
+import library.entities.LibrarySegmentStore.SegmentType;
+
+/**
+ * Set of segments changed since the last flush of a LibrarySegmentStore, kept
+ * as one bit per segment index for each segment type.
+ */
+public final class DirtySegments {
+
+    private final Map<SegmentType, BitSet> segments = new EnumMap<>(SegmentType.class);
+
+
+    public DirtySegments() {
+        for (SegmentType type : SegmentType.values()) {
+            segments.put(type, new BitSet());
+        }
+    }
+
+
+    /**
+     * Marks the segment holding the entry for id as changed. For current
+     * loans and damaged books the id is the book id.
+     */
+    public void mark(SegmentType type, int id) {
+        segments.get(type).set(LibrarySegmentStore.segmentIndex(id));
+    }
+
+
+    /* package-private: segments are marked by id everywhere else */
+    void markSegment(SegmentType type, int index) {
+        segments.get(type).set(index);
+    }
+
+
+    BitSet get(SegmentType type) {
+        return segments.get(type);
+    }
+
+
+    public boolean isEmpty() {
+        for (BitSet bits : segments.values()) {
+            if (!bits.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    public int getSegmentCount() {
+        int count = 0;
+        for (BitSet bits : segments.values()) {
+            count += bits.cardinality();
+        }
+        return count;
+    }
+
+
+    public void clear() {
+        for (BitSet bits : segments.values()) {
+            bits.clear();
+        }
+    }
+
+}
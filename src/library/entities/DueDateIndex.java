@@ -0,0 +1,61 @@
+package library.entities;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Current loans that are not yet overdue, bucketed by due date. Due dates
+ * fall on midnight, so there is one bucket per day that loans are due on,
+ * and taking the loans due before a date visits only those loans however
+ * far the date has moved.
+ */
+final class DueDateIndex {
+
+    private final TreeMap<Long, IntObjectMap<ILoan>> byDueDate = new TreeMap<>();
+    private int size;
+
+
+    void add(ILoan loan) {
+        IntObjectMap<ILoan> bucket = byDueDate.computeIfAbsent(loan.getDueDate().getTime(),
+                dueDate -> new IntObjectMap<>());
+        if (bucket.put(loan.getId(), loan) == null) {
+            size++;
+        }
+    }
+
+
+    void remove(ILoan loan) {
+        long dueDate = loan.getDueDate().getTime();
+        IntObjectMap<ILoan> bucket = byDueDate.get(dueDate);
+        if (bucket != null && bucket.remove(loan.getId()) != null) {
+            size--;
+            if (bucket.isEmpty()) {
+                byDueDate.remove(dueDate);
+            }
+        }
+    }
+
+
+    /**
+     * Removes and returns the loans due before date, in due date order.
+     */
+    List<ILoan> takeDueBefore(Date date) {
+        NavigableMap<Long, IntObjectMap<ILoan>> due = byDueDate.headMap(date.getTime(), false);
+        List<ILoan> loans = new ArrayList<>();
+        for (IntObjectMap<ILoan> bucket : due.values()) {
+            bucket.forEachEntry((loanId, loan) -> loans.add(loan));
+        }
+        size -= loans.size();
+        due.clear();
+        return loans;
+    }
+
+
+    int size() {
+        return size;
+    }
+
+}
@@ -0,0 +1,95 @@
+package library.entities;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * ILibrary's operations, returning at once with a future of the result
+ * instead of blocking, so that a desk or server can have several requests
+ * in flight, such as looking up a patron and a book together and then
+ * committing the loan once both have arrived. A future fails with the
+ * RuntimeException the ILibrary method would have thrown.
+ *
+ * Requests in flight at the same time may run in any order; one that needs
+ * another's result should be chained on its future. ILibrary's streams have
+ * no counterpart here, as a stream is read after the call has returned; use
+ * the pages instead.
+ */
+public interface IAsyncLibrary {
+
+    /**
+     * Runs work against the library in the same way as the other requests,
+     * for example to save the library after a change without blocking.
+     */
+    <T> CompletableFuture<T> call(Function<? super ILibrary, T> work);
+
+    CompletableFuture<IPatron> addPatron(String lastName, String firstName, String email, long phoneNo);
+
+    CompletableFuture<IBook> addBook(String author, String title, String callNumber);
+
+    CompletableFuture<List<IBook>> addBooks(List<String[]> books);
+
+    CompletableFuture<List<IPatron>> getPatronList();
+
+    CompletableFuture<List<IBook>> getBookList();
+
+    CompletableFuture<List<ILoan>> getCurrentLoansList();
+
+    CompletableFuture<List<ILoan>> getAllLoansList();
+
+    CompletableFuture<List<IBook>> getBookPage(int afterId, int limit);
+
+    CompletableFuture<List<IPatron>> getPatronPage(int afterId, int limit);
+
+    CompletableFuture<List<ILoan>> getCurrentLoanPage(int afterBookId, int limit);
+
+    CompletableFuture<List<ILoan>> getLoanPage(int afterId, int limit);
+
+    CompletableFuture<ILoan> getLoanById(int loanId);
+
+    CompletableFuture<IPatron> getPatronById(int patronId);
+
+    CompletableFuture<IBook> getBookById(int bookId);
+
+    CompletableFuture<List<IBook>> findBooks(IBook.BookField field, String value);
+
+    CompletableFuture<List<IBook>> findBooksByPrefix(IBook.BookField field, String prefix, int limit);
+
+    CompletableFuture<List<IBook>> findBooksInRange(IBook.BookField field, String from, String to, int limit);
+
+    CompletableFuture<List<IBook>> searchBooks(String query, int limit, boolean availableOnly);
+
+    CompletableFuture<List<IPatron>> findPatrons(IPatron.PatronField field, String value);
+
+    CompletableFuture<List<IPatron>> findPatronsByPrefix(IPatron.PatronField field, String prefix, int limit);
+
+    CompletableFuture<List<IPatron>> findPatronsByPhoneNumber(long phoneNo);
+
+    CompletableFuture<ILoan> getCurrentLoanByBookId(int bookId);
+
+    CompletableFuture<Boolean> patronCanBorrow(IPatron patron);
+
+    CompletableFuture<Boolean> patronWillReachLoanMax(IPatron patron, int numberOfPendingLoans);
+
+    CompletableFuture<ILoan> issueLoan(IBook book, IPatron patron);
+
+    CompletableFuture<Void> commitLoan(ILoan loan);
+
+    CompletableFuture<Void> commitLoans(List<ILoan> pendingLoans);
+
+    CompletableFuture<Void> dischargeLoan(ILoan currentLoan, boolean isDamaged);
+
+    CompletableFuture<List<ILoan>> dischargeLoans(List<BookReturn> returns);
+
+    CompletableFuture<List<ILoan>> checkCurrentLoansOverDue();
+
+    CompletableFuture<Double> calculateOverDueFine(ILoan loan);
+
+    CompletableFuture<Double> payFine(IPatron patron, double amount);
+
+    CompletableFuture<Void> repairBook(IBook currentBook);
+
+    CompletableFuture<CirculationStatistics> getStatistics();
+
+}
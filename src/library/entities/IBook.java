@@ -6,10 +6,29 @@ public interface IBook {
         AVAILABLE, ON_LOAN, DAMAGED
     };
 
+    enum BookField {
+        AUTHOR, TITLE, CALL_NUMBER;
+
+        public String of(IBook book) {
+            switch (this) {
+            case AUTHOR:
+                return book.getAuthor();
+            case TITLE:
+                return book.getTitle();
+            default:
+                return book.getCallNumber();
+            }
+        }
+    };
+
     int getId();
 
     String getTitle();
 
+    String getAuthor();
+
+    String getCallNumber();
+
     boolean isAvailable();
 
     boolean isOnLoan();
@@ -1,6 +1,7 @@
 package library.entities;
 
 import java.util.List;
+import java.util.stream.Stream;
 
 public interface ILibrary {
 
@@ -15,6 +16,12 @@ public interface ILibrary {
 
     IBook addBook(String author, String title, String callNumber);
 
+    /**
+     * Adds a batch of books, each given as author, title and call number, with
+     * a block of consecutive ids. Returns the books in the order given.
+     */
+    List<IBook> addBooks(List<String[]> books);
+
     List<IPatron> getPatronList();
 
     List<IBook> getBookList();
@@ -22,11 +29,98 @@ public interface ILibrary {
     List<ILoan> getCurrentLoansList();
 
     List<ILoan> getAllLoansList();
+
+    Stream<ILoan> getAllLoans();
+
+    /**
+     * Every book, in no particular order, read from the catalog as the
+     * stream is consumed rather than copied.
+     */
+    Stream<IBook> getBookStream();
+
+    /**
+     * Every patron, in no particular order, read as the stream is consumed.
+     */
+    Stream<IPatron> getPatronStream();
+
+    /**
+     * Every current loan, in no particular order, read as the stream is
+     * consumed.
+     */
+    Stream<ILoan> getCurrentLoanStream();
+
+    /**
+     * Up to limit books with ids after afterId, in id order. Pass 0 for the
+     * first page and the last book's id for each page after it.
+     */
+    List<IBook> getBookPage(int afterId, int limit);
+
+    /**
+     * Up to limit patrons with ids after afterId, in id order. Pass 0 for
+     * the first page and the last patron's id for each page after it.
+     */
+    List<IPatron> getPatronPage(int afterId, int limit);
+
+    /**
+     * Up to limit current loans of books with ids after afterBookId, in book
+     * id order. Pass 0 for the first page and the last loan's book id for
+     * each page after it.
+     */
+    List<ILoan> getCurrentLoanPage(int afterBookId, int limit);
+
+    /**
+     * Up to limit loans, current or not, with ids after afterId, in id
+     * order. Pass 0 for the first page and the last loan's id for each page
+     * after it.
+     */
+    List<ILoan> getLoanPage(int afterId, int limit);
+
+    ILoan getLoanById(int loanId);
     
     IPatron getPatronById(int patronId);
 
     IBook getBookById(int bookId);
 
+    /**
+     * Books whose field equals value, in id order.
+     */
+    List<IBook> findBooks(IBook.BookField field, String value);
+
+    /**
+     * Up to limit books whose field starts with prefix, ordered by field
+     * and then id.
+     */
+    List<IBook> findBooksByPrefix(IBook.BookField field, String prefix, int limit);
+
+    /**
+     * Up to limit books whose field is at least from and less than to,
+     * ordered by field and then id.
+     */
+    List<IBook> findBooksInRange(IBook.BookField field, String from, String to, int limit);
+
+    /**
+     * Up to limit books with any word of query in their title or author,
+     * most relevant first. With availableOnly, books that are on loan or
+     * damaged are left out.
+     */
+    List<IBook> searchBooks(String query, int limit, boolean availableOnly);
+
+    /**
+     * Patrons whose field equals value, ignoring case, in id order.
+     */
+    List<IPatron> findPatrons(IPatron.PatronField field, String value);
+
+    /**
+     * Up to limit patrons whose field starts with prefix, ignoring case,
+     * ordered by field and then id.
+     */
+    List<IPatron> findPatronsByPrefix(IPatron.PatronField field, String prefix, int limit);
+
+    /**
+     * Patrons with the given phone number, in id order.
+     */
+    List<IPatron> findPatronsByPhoneNumber(long phoneNo);
+
     ILoan getCurrentLoanByBookId(int bookId);
 
     boolean patronCanBorrow(IPatron patron);
@@ -37,9 +131,28 @@ public interface ILibrary {
 
     void commitLoan(ILoan loan);
 
+    /**
+     * Commits a patron's pending loans together, all due on the same date.
+     * Throws a RuntimeException without committing any of them if the loans
+     * are not all pending loans for one patron, or if any of their books is
+     * not available.
+     */
+    void commitLoans(List<ILoan> pendingLoans);
+
     void dischargeLoan(ILoan currentLoan, boolean isDamaged);
 
-    void checkCurrentLoansOverDue();
+    /**
+     * Discharges the current loans of the returned books, charging every
+     * fine as of the same date, and returns the loans discharged. Books that
+     * are not on loan are skipped.
+     */
+    List<ILoan> dischargeLoans(List<BookReturn> returns);
+
+    /**
+     * Marks the current loans whose due date has passed as overdue, and
+     * returns the loans that were marked.
+     */
+    List<ILoan> checkCurrentLoansOverDue();
 
     double calculateOverDueFine(ILoan loan);
 
@@ -47,4 +160,10 @@ public interface ILibrary {
 
     void repairBook(IBook currentBook);
 
+    /**
+     * How many books are available, on loan and damaged, how many loans are
+     * overdue, and the fines owed in total, without a scan of the library.
+     */
+    CirculationStatistics getStatistics();
+
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package library.entities;
 
 import java.util.List;
+import java.util.stream.Stream;
 
 public interface IPatron {
 
@@ -8,18 +9,48 @@ public interface IPatron {
         CAN_BORROW, RESTRICTED
     };
 
+    enum PatronField {
+        LAST_NAME, FIRST_NAME, EMAIL_ADDRESS;
+
+        public String of(IPatron patron) {
+            switch (this) {
+            case LAST_NAME:
+                return patron.getLastName();
+            case FIRST_NAME:
+                return patron.getFirstName();
+            default:
+                return patron.getEmailAddress();
+            }
+        }
+    };
+
     int getId();
 
     String getLastName();
 
     String getFirstName();
 
+    String getEmailAddress();
+
+    long getPhoneNumber();
+
     List<ILoan> getLoans();
 
+    /**
+     * The patron's current loans, read as the stream is consumed rather than
+     * copied like getLoans().
+     */
+    Stream<ILoan> getLoanStream();
+
     double getFinesPayable();
 
     boolean hasOverDueLoans();
 
+    /**
+     * Called by one of the patron's loans when it goes overdue.
+     */
+    void loanOverDue(ILoan loan);
+
     void restrictBorrowing();
 
     void allowBorrowing();
@@ -0,0 +1,532 @@
+package library.entities;
+
+import java.io.Serializable;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Map from int to object, stored in two parallel arrays with open addressing
+ * and linear probing, so entries need no node or boxed key of their own.
+ *
+ * Keys are spread as HashMap spreads them, which leaves the sequential ids
+ * the library issues in consecutive slots and iterated in order. Removal
+ * shifts the following entries of the probe run back instead of leaving
+ * tombstones. Null values are not allowed; an empty slot is one with a null
+ * value.
+ *
+ * The int methods (get, containsKey, put, remove) and forEachEntry do not
+ * box or allocate. The Map methods box their keys as usual; iterators of
+ * keySet and values allocate nothing per entry, those of entrySet one entry
+ * each. Iterators are fail-fast and support remove.
+ */
+public final class IntObjectMap<V> extends AbstractMap<Integer, V> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int MIN_CAPACITY = 8;
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    public interface IntObjectConsumer<V> {
+        void accept(int key, V value);
+    }
+
+    private int[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+    private int resizeAt;
+    private transient int modCount;
+
+
+    public IntObjectMap() {
+        this(MIN_CAPACITY);
+    }
+
+
+    /**
+     * A map that holds expectedSize entries without growing.
+     */
+    public IntObjectMap(int expectedSize) {
+        if (expectedSize < 0) {
+            throw new RuntimeException("IntObjectMap: constructor : expectedSize cannot be negative.");
+        }
+        allocate(capacityFor(expectedSize));
+    }
+
+
+    public IntObjectMap(Map<Integer, ? extends V> map) {
+        this(map.size());
+        putAll(map);
+    }
+
+
+    private static int capacityFor(int expectedSize) {
+        long capacity = MIN_CAPACITY;
+        while (capacity * 3 / 4 < expectedSize) {
+            capacity <<= 1;
+        }
+        if (capacity > MAX_CAPACITY) {
+            throw new RuntimeException("IntObjectMap: too many entries: " + expectedSize);
+        }
+        return (int) capacity;
+    }
+
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+        resizeAt = capacity / 4 * 3;
+    }
+
+
+    private int slotOf(int key) {
+        return (key ^ (key >>> 16)) & mask;
+    }
+
+
+    /* slot holding key, or -1 */
+    private int find(int key) {
+        Object[] values = this.values;
+        int[] keys = this.keys;
+        for (int slot = slotOf(key); values[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int slot = find(key);
+        return slot < 0 ? null : (V) values[slot];
+    }
+
+
+    public boolean containsKey(int key) {
+        return find(key) >= 0;
+    }
+
+
+    /**
+     * Associates value with key, returning the value it replaces or null.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (value == null) {
+            throw new RuntimeException("IntObjectMap: put : value cannot be null.");
+        }
+        int slot = slotOf(key);
+        while (values[slot] != null) {
+            if (keys[slot] == key) {
+                V previous = (V) values[slot];
+                values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        modCount++;
+        if (++size > resizeAt) {
+            resize(values.length << 1);
+        }
+        return null;
+    }
+
+
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int slot = find(key);
+        if (slot < 0) {
+            return null;
+        }
+        V previous = (V) values[slot];
+        removeSlot(slot);
+        return previous;
+    }
+
+
+    /*
+     * Empties slot, then moves back each later entry of the run whose home
+     * slot does not lie between the gap and itself, so every entry can still
+     * be reached from its home slot.
+     */
+    private void removeSlot(int slot) {
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while (values[next] != null) {
+            int home = slotOf(keys[next]);
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        values[gap] = null;
+        size--;
+        modCount++;
+    }
+
+
+    private void resize(int capacity) {
+        if (capacity > MAX_CAPACITY) {
+            throw new RuntimeException("IntObjectMap: too many entries: " + size);
+        }
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int slot = slotOf(oldKeys[i]);
+                while (values[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+
+    /**
+     * Calls action with every entry, in iteration order. The map must not be
+     * changed meanwhile.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEachEntry(IntObjectConsumer<? super V> action) {
+        int expected = modCount;
+        int first = firstSlot();
+        for (int step = 0; step < values.length; step++) {
+            int slot = (first + step) & mask;
+            if (values[slot] != null) {
+                action.accept(keys[slot], (V) values[slot]);
+            }
+        }
+        if (modCount != expected) {
+            throw new ConcurrentModificationException();
+        }
+    }
+
+
+    /**
+     * Up to limit keys greater than after, in ascending order. Probes the
+     * keys after after one by one while that costs less than a pass over the
+     * table, then finds the rest in one pass, so a page of sequential ids
+     * costs about limit lookups and a page of sparse ones at most a pass.
+     */
+    public int[] keysAfter(int after, int limit) {
+        int[] found = new int[Math.max(0, Math.min(limit, size))];
+        int count = 0;
+        int key = after;
+        for (int probes = 0; count < found.length && probes < values.length && key < Integer.MAX_VALUE; probes++) {
+            if (find(++key) >= 0) {
+                found[count++] = key;
+            }
+        }
+        if (count < found.length && key < Integer.MAX_VALUE) {
+            int[] rest = smallestKeysAfter(key, found.length - count);
+            System.arraycopy(rest, 0, found, count, rest.length);
+            count += rest.length;
+        }
+        return count == found.length ? found : Arrays.copyOf(found, count);
+    }
+
+
+    /* the count smallest keys greater than after, ascending, kept in a max-heap during one pass */
+    private int[] smallestKeysAfter(int after, int count) {
+        int[] heap = new int[count];
+        int held = 0;
+        for (int slot = 0; slot < values.length; slot++) {
+            if (values[slot] == null || keys[slot] <= after) {
+                continue;
+            }
+            int key = keys[slot];
+            if (held < count) {
+                int i = held++;
+                while (i > 0 && heap[(i - 1) / 2] < key) {
+                    heap[i] = heap[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                heap[i] = key;
+            }
+            else if (key < heap[0]) {
+                int i = 0;
+                for (int child = 1; child < held; child = 2 * i + 1) {
+                    if (child + 1 < held && heap[child + 1] > heap[child]) {
+                        child++;
+                    }
+                    if (heap[child] <= key) {
+                        break;
+                    }
+                    heap[i] = heap[child];
+                    i = child;
+                }
+                heap[i] = key;
+            }
+        }
+        int[] sorted = Arrays.copyOf(heap, held);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+
+    @Override
+    public V get(Object key) {
+        return key instanceof Integer ? get(((Integer) key).intValue()) : null;
+    }
+
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof Integer && containsKey(((Integer) key).intValue());
+    }
+
+
+    @Override
+    public boolean containsValue(Object value) {
+        if (value == null) {
+            return false;
+        }
+        for (Object candidate : values) {
+            if (value.equals(candidate)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    @Override
+    public V put(Integer key, V value) {
+        return put(key.intValue(), value);
+    }
+
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public V replace(Integer key, V value) {
+        if (value == null) {
+            throw new RuntimeException("IntObjectMap: replace : value cannot be null.");
+        }
+        int slot = find(key.intValue());
+        if (slot < 0) {
+            return null;
+        }
+        V previous = (V) values[slot];
+        values[slot] = value;
+        return previous;
+    }
+
+
+    @Override
+    public V remove(Object key) {
+        return key instanceof Integer ? remove(((Integer) key).intValue()) : null;
+    }
+
+
+    @Override
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+        modCount++;
+    }
+
+
+    @Override
+    public Set<Integer> keySet() {
+        return new AbstractSet<Integer>() {
+            @Override
+            public Iterator<Integer> iterator() {
+                return new SlotIterator<Integer>() {
+                    @Override
+                    Integer at(int slot) {
+                        return keys[slot];
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public boolean contains(Object key) {
+                return containsKey(key);
+            }
+        };
+    }
+
+
+    @Override
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new SlotIterator<V>() {
+                    @SuppressWarnings("unchecked")
+                    @Override
+                    V at(int slot) {
+                        return (V) values[slot];
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+
+    @Override
+    public Set<Map.Entry<Integer, V>> entrySet() {
+        return new AbstractSet<Map.Entry<Integer, V>>() {
+            @Override
+            public Iterator<Map.Entry<Integer, V>> iterator() {
+                return new SlotIterator<Map.Entry<Integer, V>>() {
+                    @Override
+                    Map.Entry<Integer, V> at(int slot) {
+                        return new Entry(slot);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+
+    private final class Entry implements Map.Entry<Integer, V> {
+
+        private final int key;
+        private V value;
+
+        @SuppressWarnings("unchecked")
+        Entry(int slot) {
+            key = keys[slot];
+            value = (V) values[slot];
+        }
+
+        @Override
+        public Integer getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public V setValue(V value) {
+            V previous = put(key, value);
+            this.value = value;
+            return previous;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) other;
+            return Integer.valueOf(key).equals(entry.getKey()) && value.equals(entry.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return key ^ value.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+
+
+    /*
+     * Slot from which iteration starts: the one after an empty slot, so no
+     * probe run wraps around the end of the walk. An entry removed during
+     * the walk is then only ever replaced by an entry from a later slot of
+     * its run, one not yet visited.
+     */
+    private int firstSlot() {
+        int slot = 0;
+        while (values[slot] != null) {
+            slot++;
+        }
+        return (slot + 1) & mask;
+    }
+
+
+    private abstract class SlotIterator<T> implements Iterator<T> {
+
+        private final int first = firstSlot();
+        private int step;
+        private int current = -1;
+        private int currentStep;
+        private int expected = modCount;
+
+        abstract T at(int slot);
+
+        @Override
+        public boolean hasNext() {
+            while (step < values.length && values[(first + step) & mask] == null) {
+                step++;
+            }
+            return step < values.length;
+        }
+
+        @Override
+        public T next() {
+            if (modCount != expected) {
+                throw new ConcurrentModificationException();
+            }
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            currentStep = step++;
+            current = (first + currentStep) & mask;
+            return at(current);
+        }
+
+        @Override
+        public void remove() {
+            if (current < 0) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expected) {
+                throw new ConcurrentModificationException();
+            }
+            removeSlot(current);
+            step = currentStep;
+            current = -1;
+            expected = modCount;
+        }
+    }
+
+}
@@ -0,0 +1,280 @@
+package library.entities;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Map from entity id to entity whose initial contents live in a snapshot and
+ * are decoded when each id is looked up. Ids in the snapshot run from 1 to
+ * maxId. Puts and removes are held in memory on top of the snapshot contents.
+ *
+ * Decoded entries are held only while something else refers to them, as in
+ * PagedEntityMap, so walking every entry for a checkpoint does not leave the
+ * whole snapshot decoded on the heap. Every instance still reachable is found
+ * again by id, so a lookup never returns a second copy of an entity in use;
+ * one that is no longer reachable is decoded afresh, which is why the Library
+ * puts an entity back after changing it.
+ */
+abstract class LazyEntityMap<V> extends AbstractMap<Integer, V> {
+
+    private final int maxId;
+    private int size;
+
+    private final Map<Integer, V> loaded = new HashMap<>();
+    private final Set<Integer> removed = new HashSet<>();
+    private final Map<Integer, EntityReference<V>> inUse = new HashMap<>();
+    private final ReferenceQueue<V> collected = new ReferenceQueue<>();
+
+
+    LazyEntityMap(int maxId, int storedCount) {
+        this.maxId = maxId;
+        this.size = storedCount;
+    }
+
+
+    /**
+     * True if the snapshot holds an entry for id, which is between 1 and maxId.
+     */
+    protected abstract boolean isStored(int id);
+
+
+    /**
+     * Decodes the snapshot entry for id. Implementations that can reach this
+     * map again while decoding, through a cycle of references, must call
+     * remember before following the cycle.
+     */
+    protected abstract V load(int id);
+
+
+    protected final void remember(int id, V value) {
+        inUse.put(id, new EntityReference<>(id, value, collected));
+    }
+
+
+    /**
+     * The instance put for id, or decoded and still in use, without decoding it.
+     */
+    protected final V remembered(int id) {
+        V value = loaded.get(id);
+        if (value == null) {
+            EntityReference<V> reference = inUse.get(id);
+            if (reference != null) {
+                value = reference.get();
+            }
+        }
+        return value;
+    }
+
+
+    /* package-private for testing only */
+    int getResidentCount() {
+        expungeCollected();
+        return loaded.size() + inUse.size();
+    }
+
+
+    private boolean inSnapshot(int id) {
+        return id >= 1 && id <= maxId && !removed.contains(id) && isStored(id);
+    }
+
+
+    @Override
+    public V get(Object key) {
+        if (!(key instanceof Integer)) {
+            return null;
+        }
+        expungeCollected();
+        int id = (Integer) key;
+        V value = remembered(id);
+        if (value == null && inSnapshot(id)) {
+            value = load(id);
+            remember(id, value);
+        }
+        return value;
+    }
+
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (!(key instanceof Integer)) {
+            return false;
+        }
+        int id = (Integer) key;
+        return loaded.containsKey(id) || inSnapshot(id);
+    }
+
+
+    /**
+     * Up to limit keys greater than after, in ascending order, found without
+     * decoding their entities. Snapshot ids are probed one by one, which
+     * reads a byte of the mapping for each.
+     */
+    int[] keysAfter(int after, int limit) {
+        int[] found = new int[Math.max(0, Math.min(limit, size))];
+        int count = 0;
+        for (int id = Math.max(after, 0) + 1; id <= maxId && count < found.length; id++) {
+            if (loaded.containsKey(id) || inSnapshot(id)) {
+                found[count++] = id;
+            }
+        }
+        if (count < found.length) {
+            int last = Math.max(after, maxId);
+            int[] added = loaded.keySet().stream().mapToInt(Integer::intValue).filter(id -> id > last).sorted()
+                    .limit(found.length - count).toArray();
+            System.arraycopy(added, 0, found, count, added.length);
+            count += added.length;
+        }
+        return count == found.length ? found : Arrays.copyOf(found, count);
+    }
+
+
+    @Override
+    public V put(Integer key, V value) {
+        if (value == null) {
+            throw new NullPointerException("LazyEntityMap: null values are not supported");
+        }
+        V previous = get(key);
+        removed.remove(key);
+        loaded.put(key, value);
+        inUse.remove(key);
+        if (previous == null) {
+            size++;
+        }
+        return previous;
+    }
+
+
+    @Override
+    public V remove(Object key) {
+        V previous = get(key);
+        if (previous != null) {
+            int id = (Integer) key;
+            loaded.remove(id);
+            inUse.remove(id);
+            removed.add(id);
+            size--;
+        }
+        return previous;
+    }
+
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+
+    @Override
+    public Set<Entry<Integer, V>> entrySet() {
+        return new AbstractSet<Entry<Integer, V>>() {
+
+            @Override
+            public Iterator<Entry<Integer, V>> iterator() {
+                return new EntryIterator();
+            }
+
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+
+    private void expungeCollected() {
+        Object reference;
+        while ((reference = collected.poll()) != null) {
+            EntityReference<?> entity = (EntityReference<?>) reference;
+            if (inUse.get(entity.id) == entity) {
+                inUse.remove(entity.id);
+            }
+        }
+    }
+
+
+    private static final class EntityReference<V> extends WeakReference<V> {
+
+        final int id;
+
+
+        EntityReference(int id, V value, ReferenceQueue<V> queue) {
+            super(value, queue);
+            this.id = id;
+        }
+    }
+
+
+    /*
+     * Walks snapshot ids in order, then the entries added beyond them.
+     */
+    private class EntryIterator implements Iterator<Entry<Integer, V>> {
+
+        private int nextId = 0;
+        private Iterator<Integer> addedIds;
+        private Entry<Integer, V> next;
+
+
+        EntryIterator() {
+            advance();
+        }
+
+
+        private void advance() {
+            next = null;
+            while (addedIds == null && ++nextId <= maxId) {
+                V value = get(nextId);
+                if (value != null) {
+                    next = new SimpleImmutableEntry<>(nextId, value);
+                    return;
+                }
+            }
+            if (addedIds == null) {
+                List<Integer> ids = new ArrayList<>();
+                for (Integer id : loaded.keySet()) {
+                    if (id < 1 || id > maxId) {
+                        ids.add(id);
+                    }
+                }
+                addedIds = ids.iterator();
+            }
+            while (addedIds.hasNext()) {
+                Integer id = addedIds.next();
+                V value = loaded.get(id);
+                if (value != null) {
+                    next = new SimpleImmutableEntry<>(id, value);
+                    return;
+                }
+            }
+        }
+
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+
+        @Override
+        public Entry<Integer, V> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Entry<Integer, V> entry = next;
+            advance();
+            return entry;
+        }
+    }
+
+}
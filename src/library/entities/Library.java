@@ -2,23 +2,42 @@ package library.entities;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import library.entities.helpers.IBookHelper;
 import library.entities.helpers.ILoanHelper;
 import library.entities.helpers.IPatronHelper;
 
 
-@SuppressWarnings("serial")
 public class Library implements Serializable, ILibrary {
+
+    // Pinned to the value of the first release, so a library.obj it wrote still loads.
+    private static final long serialVersionUID = -8609545994303955787L;
+
+    // Patron names and email addresses are looked up regardless of case.
+    private static final SortedKeyIndex.Order<String> PATRON_KEY_ORDER = SortedKeyIndex.CASE_INSENSITIVE_ORDER;
 	
     private int currentlyIssuingBookId;
     private int currentlyIssuingPatronId;
     private int currentlyIssuingLoanId;
 	
+    // The maps may store encoded copies, as those of PagedLibraryStore do,
+    // so an entity is put back with replace after it changes.
     private Map<Integer, IBook> catalog;
     private Map<Integer, IPatron> patrons;
     private Map<Integer, ILoan> loans;
@@ -28,6 +47,27 @@ public class Library implements Serializable, ILibrary {
     private IBookHelper bookHelper;
     private IPatronHelper patronHelper;
     private ILoanHelper loanHelper;
+    
+    private transient LoanArchive loanArchive;
+
+    // Built by the first overdue check and kept up to date from then on.
+    private transient DueDateIndex dueDates;
+    // Built by the first query on each field, likewise.
+    private transient SortedKeyIndex<String>[] catalogIndexes;
+    private transient TextIndex textIndex;
+    // Built together by the first patron lookup, or restored from a snapshot.
+    private transient SortedKeyIndex<String>[] patronIndexes;
+    private transient SortedKeyIndex<Long> phoneNumberIndex;
+    // Orders stored in a mapped snapshot, read by the first patron lookup.
+    private transient Supplier<int[][]> storedPatronIndexOrders;
+    // Counted by the first call to getStatistics and kept up to date from then on.
+    private transient volatile CirculationCounters counters;
+
+    /* striped, so desks updating them do not contend on one field */
+    static final class CirculationCounters {
+        final LongAdder overDueLoans = new LongAdder();
+        final DoubleAdder finesOwed = new DoubleAdder();
+    }
 	
 
     public Library(IBookHelper bookHelper, IPatronHelper patronHelper, ILoanHelper loanHelper) {
@@ -35,11 +75,11 @@ public class Library implements Serializable, ILibrary {
         this.patronHelper = patronHelper;
         this.loanHelper = loanHelper;
         
-        catalog = new HashMap<>();
-        patrons = new HashMap<>();
-        loans = new HashMap<>();
-        currentLoans = new HashMap<>();
-        damagedBooks = new HashMap<>();
+        catalog = new IntObjectMap<>();
+        patrons = new IntObjectMap<>();
+        loans = new IntObjectMap<>();
+        currentLoans = new IntObjectMap<>();
+        damagedBooks = new IntObjectMap<>();
         currentlyIssuingBookId = 1;
         currentlyIssuingPatronId = 1;		
         currentlyIssuingLoanId = 1;		
@@ -65,22 +105,138 @@ public class Library implements Serializable, ILibrary {
         currentlyIssuingPatronId = 1;		
         currentlyIssuingLoanId = 1;		
     }
+    
+    /**
+     * package-private constructor for restoring a persisted library.
+     */
+    Library(IBookHelper bookHelper, IPatronHelper patronHelper, ILoanHelper loanHelper,
+    		Map<Integer, IBook> catalog, Map<Integer, IPatron> patrons,
+    		Map<Integer, ILoan> loans, Map<Integer, ILoan> currentLoans,
+    		Map<Integer, IBook> damagedBooks,
+    		int currentlyIssuingBookId, int currentlyIssuingPatronId, int currentlyIssuingLoanId) {
+        this(bookHelper, patronHelper, loanHelper, catalog, patrons, loans, currentLoans, damagedBooks);
+        this.currentlyIssuingBookId = currentlyIssuingBookId;
+        this.currentlyIssuingPatronId = currentlyIssuingPatronId;
+        this.currentlyIssuingLoanId = currentlyIssuingLoanId;
+    }
 
 	
-    private int getNextBookId() {
+    /* package-private getters for persistence */
+    Map<Integer, IBook> getCatalog() {
+        return catalog;
+    }
+
+    Map<Integer, IPatron> getPatrons() {
+        return patrons;
+    }
+
+    Map<Integer, ILoan> getLoans() {
+        return loans;
+    }
+
+    Map<Integer, ILoan> getCurrentLoans() {
+        return currentLoans;
+    }
+
+    Map<Integer, IBook> getDamagedBooks() {
+        return damagedBooks;
+    }
+
+    int getCurrentlyIssuingBookId() {
+        return currentlyIssuingBookId;
+    }
+
+    int getCurrentlyIssuingPatronId() {
+        return currentlyIssuingPatronId;
+    }
+
+    int getCurrentlyIssuingLoanId() {
+        return currentlyIssuingLoanId;
+    }
+
+
+    /**
+     * Moves loans to archive as they are discharged, instead of keeping them
+     * in the loans map. Loans already discharged stay where they are until
+     * archiveDischargedLoans is called.
+     */
+    public void attachLoanArchive(LoanArchive archive) {
+        this.loanArchive = archive;
+    }
+
+
+    /**
+     * Moves every discharged loan still in the loans map to the attached
+     * archive. Returns the number of loans moved.
+     */
+    public int archiveDischargedLoans() {
+        if (loanArchive == null) {
+            throw new RuntimeException("Library: archiveDischargedLoans: no loan archive attached");
+        }
+        List<ILoan> discharged = getDischargedLoans();
+        for (ILoan loan : discharged) {
+            loanArchive.append(loan);
+            loans.remove(loan.getId());
+        }
+        return discharged.size();
+    }
+
+
+    /**
+     * Removes every discharged loan from the loans map without archiving it,
+     * for a copy of a library whose discharged loans are already in the
+     * original's archive. Returns the number of loans removed.
+     */
+    public int dropDischargedLoans() {
+        List<ILoan> discharged = getDischargedLoans();
+        for (ILoan loan : discharged) {
+            loans.remove(loan.getId());
+        }
+        return discharged.size();
+    }
+
+
+    private List<ILoan> getDischargedLoans() {
+        List<ILoan> discharged = new ArrayList<>();
+        for (ILoan loan : loans.values()) {
+            if (loan instanceof Loan && ((Loan) loan).getState() == ILoan.LoanState.DISCHARGED) {
+                discharged.add(loan);
+            }
+        }
+        return discharged;
+    }
+
+	
+    /* package-private so ConcurrentLibrary can issue ids atomically */
+    int getNextBookId() {
         return currentlyIssuingBookId++;
     }
 
+
+    /* returns the first of count consecutive ids */
+    int getNextBookIds(int count) {
+        int firstId = currentlyIssuingBookId;
+        currentlyIssuingBookId += count;
+        return firstId;
+    }
+
 	
-    private int getNextPatronId() {
+    int getNextPatronId() {
         return currentlyIssuingPatronId++;
     }
 
 	
-    private int getNextLoanId() {
+    int getNextLoanId() {
         return currentlyIssuingLoanId++;
     }        
 
+
+    int getNextLoanIds(int count) {
+        int firstId = currentlyIssuingLoanId;
+        currentlyIssuingLoanId += count;
+        return firstId;
+    }
+
 	
     @Override
     public List<IPatron> getPatronList() {		
@@ -102,7 +258,156 @@ public class Library implements Serializable, ILibrary {
 
     @Override
     public List<ILoan> getAllLoansList() {
-        return new ArrayList<ILoan>(loans.values());
+        if (loanArchive == null) {
+            return new ArrayList<ILoan>(loans.values());
+        }
+        return getAllLoans().collect(Collectors.toList());
+    }
+
+
+    /**
+     * The loans in the loans map followed by those in the archive. Archived
+     * loans are decoded as the stream reaches them.
+     */
+    @Override
+    public Stream<ILoan> getAllLoans() {
+        if (loanArchive == null) {
+            return loans.values().stream();
+        }
+        return Stream.concat(loans.values().stream(), loanArchive.stream(catalog::get, patrons::get));
+    }
+
+
+    @Override
+    public Stream<IBook> getBookStream() {
+        return catalog.values().stream();
+    }
+
+
+    @Override
+    public Stream<IPatron> getPatronStream() {
+        return patrons.values().stream();
+    }
+
+
+    @Override
+    public Stream<ILoan> getCurrentLoanStream() {
+        return currentLoans.values().stream();
+    }
+
+
+    @Override
+    public List<IBook> getBookPage(int afterId, int limit) {
+        return page(catalog, keysAfter(catalog, afterId, limit));
+    }
+
+
+    @Override
+    public List<IPatron> getPatronPage(int afterId, int limit) {
+        return page(patrons, keysAfter(patrons, afterId, limit));
+    }
+
+
+    @Override
+    public List<ILoan> getCurrentLoanPage(int afterBookId, int limit) {
+        return page(currentLoans, keysAfter(currentLoans, afterBookId, limit));
+    }
+
+
+    /**
+     * The ids of the loans map and of the archive are merged, and the
+     * archived loans of the page are read together, so each archive block
+     * is inflated once.
+     */
+    @Override
+    public List<ILoan> getLoanPage(int afterId, int limit) {
+        int[] loanIds = keysAfter(loans, afterId, limit);
+        if (loanArchive == null) {
+            return page(loans, loanIds);
+        }
+        int[] archivedIds = loanArchive.getLoanIdsAfter(afterId, limit);
+        int[] pageIds = new int[Math.min(Math.max(0, limit), loanIds.length + archivedIds.length)];
+        boolean[] archived = new boolean[pageIds.length];
+        int count = 0;
+        for (int l = 0, a = 0; count < pageIds.length && (l < loanIds.length || a < archivedIds.length); count++) {
+            if (a == archivedIds.length || (l < loanIds.length && loanIds[l] <= archivedIds[a])) {
+                if (a < archivedIds.length && loanIds[l] == archivedIds[a]) {
+                    a++;
+                }
+                pageIds[count] = loanIds[l++];
+            }
+            else {
+                archived[count] = true;
+                pageIds[count] = archivedIds[a++];
+            }
+        }
+        int[] fromArchive = IntStream.range(0, count).filter(i -> archived[i]).map(i -> pageIds[i]).toArray();
+        Iterator<ILoan> archivedLoans = loanArchive.getLoans(fromArchive, catalog::get, patrons::get).iterator();
+        List<ILoan> page = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ILoan loan = archived[i] ? archivedLoans.next() : lookup(loans, pageIds[i]);
+            if (loan != null) {
+                page.add(loan);
+            }
+        }
+        return page;
+    }
+
+
+    private static <V> List<V> page(Map<Integer, V> map, int[] ids) {
+        List<V> page = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            V value = lookup(map, id);
+            if (value != null) {
+                page.add(value);
+            }
+        }
+        return page;
+    }
+
+
+    /*
+     * Up to limit keys of map greater than afterId, in ascending order. The
+     * maps that can list their keys in order, or cheaply find them, do so;
+     * for any other map the ids after the cursor are probed while that costs
+     * less than a pass over the map, and the rest are found in one pass.
+     */
+    private static int[] keysAfter(Map<Integer, ?> map, int afterId, int limit) {
+        if (map instanceof IntObjectMap) {
+            return ((IntObjectMap<?>) map).keysAfter(afterId, limit);
+        }
+        if (map instanceof PagedEntityMap) {
+            return ((PagedEntityMap<?>) map).keysAfter(afterId, limit);
+        }
+        if (map instanceof LazyEntityMap) {
+            return ((LazyEntityMap<?>) map).keysAfter(afterId, limit);
+        }
+        int[] found = new int[Math.max(0, Math.min(limit, map.size()))];
+        int count = 0;
+        int id = afterId;
+        for (int probes = 0; count < found.length && probes < map.size() && id < Integer.MAX_VALUE; probes++) {
+            if (map.containsKey(++id)) {
+                found[count++] = id;
+            }
+        }
+        if (count < found.length && id < Integer.MAX_VALUE) {
+            int last = id;
+            int[] rest = map.keySet().stream().mapToInt(Integer::intValue).filter(key -> key > last).sorted()
+                    .limit(found.length - count).toArray();
+            System.arraycopy(rest, 0, found, count, rest.length);
+            count += rest.length;
+        }
+        return count == found.length ? found : Arrays.copyOf(found, count);
+    }
+
+
+    @Override
+    public ILoan getLoanById(int loanId) {
+        ILoan loan = loans.get(loanId);
+        if (loan == null && loanArchive != null) {
+            loan = loanArchive.getLoan(loanId, catalog::get, patrons::get);
+        }
+        return loan;
     }
 
 
@@ -113,7 +418,7 @@ public class Library implements Serializable, ILibrary {
         IPatron patron = patronHelper.makePatron(lastName, firstName, email, phoneNo, patronId);
         
         patrons.put(patronId, patron);	
-        
+        indexPatron(patron);
         return patron;
     }
 
@@ -125,25 +430,277 @@ public class Library implements Serializable, ILibrary {
         IBook book = bookHelper.makeBook(author, title, callNumber, bookId);
         
         catalog.put(bookId, book);		        
+        indexBook(book);
         return book;
     }
 
+
+    @Override
+    public List<IBook> addBooks(List<String[]> books) {
+        int firstId = getNextBookIds(books.size());
+
+        List<IBook> added = new ArrayList<>(books.size());
+        for (int i = 0; i < books.size(); i++) {
+            String[] fields = books.get(i);
+            IBook book = bookHelper.makeBook(fields[0], fields[1], fields[2], firstId + i);
+            catalog.put(firstId + i, book);
+            indexBook(book);
+            added.add(book);
+        }
+        return added;
+    }
+
 	
     @Override
     public IPatron getPatronById(int patronId) {
-        if (patrons.containsKey(patronId)) {
-            return patrons.get(patronId);
-        }
-        return null;
+        return lookup(patrons, patronId);
     }
 
 	
     @Override
     public IBook getBookById(int bookId) {
-        if (catalog.containsKey(bookId)) {
-            return catalog.get(bookId);		
+        return lookup(catalog, bookId);
+    }
+
+
+    @Override
+    public List<IBook> findBooks(IBook.BookField field, String value) {
+        return booksOf(findBookIds(field, value, key -> !key.equals(value), Integer.MAX_VALUE));
+    }
+
+
+    @Override
+    public List<IBook> findBooksByPrefix(IBook.BookField field, String prefix, int limit) {
+        return booksOf(findBookIds(field, prefix, key -> !key.startsWith(prefix), limit));
+    }
+
+
+    @Override
+    public List<IBook> findBooksInRange(IBook.BookField field, String from, String to, int limit) {
+        return booksOf(findBookIds(field, from, key -> key.compareTo(to) >= 0, limit));
+    }
+
+
+    @Override
+    public List<IBook> searchBooks(String query, int limit, boolean availableOnly) {
+        IntPredicate filter = availableOnly ? bookId -> lookup(catalog, bookId).isAvailable() : null;
+        return booksOf(searchBookIds(query, limit, filter));
+    }
+
+
+    private List<IBook> booksOf(int[] bookIds) {
+        List<IBook> books = new ArrayList<>(bookIds.length);
+        for (int bookId : bookIds) {
+            books.add(lookup(catalog, bookId));
         }
-        return null;
+        return books;
+    }
+
+
+    @Override
+    public List<IPatron> findPatrons(IPatron.PatronField field, String value) {
+        return patronsOf(findPatronIds(field, value, key -> !key.equalsIgnoreCase(value), Integer.MAX_VALUE));
+    }
+
+
+    @Override
+    public List<IPatron> findPatronsByPrefix(IPatron.PatronField field, String prefix, int limit) {
+        return patronsOf(findPatronIds(field, prefix, key -> !key.regionMatches(true, 0, prefix, 0, prefix.length()), limit));
+    }
+
+
+    @Override
+    public List<IPatron> findPatronsByPhoneNumber(long phoneNo) {
+        return patronsOf(findPatronIdsByPhoneNumber(phoneNo));
+    }
+
+
+    private List<IPatron> patronsOf(int[] patronIds) {
+        List<IPatron> found = new ArrayList<>(patronIds.length);
+        for (int patronId : patronIds) {
+            found.add(lookup(patrons, patronId));
+        }
+        return found;
+    }
+
+
+    /* package-private hooks on the catalog and text indexes, synchronized by ConcurrentLibrary */
+    void indexBook(IBook book) {
+        if (catalogIndexes != null) {
+            for (IBook.BookField field : IBook.BookField.values()) {
+                SortedKeyIndex<String> index = catalogIndexes[field.ordinal()];
+                if (index != null) {
+                    index.add(field.of(book), book.getId());
+                }
+            }
+        }
+        if (textIndex != null) {
+            textIndex.add(book);
+        }
+    }
+
+
+    int[] findBookIds(IBook.BookField field, String from, SortedKeyIndex.Stop<String> stop, int limit) {
+        if (catalogIndexes == null) {
+            catalogIndexes = newIndexArray(IBook.BookField.values().length);
+        }
+        SortedKeyIndex<String> index = catalogIndexes[field.ordinal()];
+        if (index == null) {
+            index = new SortedKeyIndex<>(catalog.values(), field::of, IBook::getId, SortedKeyIndex.NATURAL_ORDER);
+            catalogIndexes[field.ordinal()] = index;
+        }
+        return index.find(from, stop, limit);
+    }
+
+
+    int[] searchBookIds(String query, int limit, IntPredicate filter) {
+        if (textIndex == null) {
+            textIndex = new TextIndex(catalog.values());
+        }
+        return textIndex.search(query, limit, filter);
+    }
+
+
+    /* one index per field; an array of a generic type cannot be created directly */
+    @SuppressWarnings("unchecked")
+    private static SortedKeyIndex<String>[] newIndexArray(int length) {
+        return (SortedKeyIndex<String>[]) new SortedKeyIndex<?>[length];
+    }
+
+
+    /* package-private hooks on the patron indexes, synchronized by ConcurrentLibrary */
+    void indexPatron(IPatron patron) {
+        if (patronIndexes != null) {
+            for (IPatron.PatronField field : IPatron.PatronField.values()) {
+                patronIndexes[field.ordinal()].add(field.of(patron), patron.getId());
+            }
+            phoneNumberIndex.add(patron.getPhoneNumber(), patron.getId());
+        }
+    }
+
+
+    int[] findPatronIds(IPatron.PatronField field, String from, SortedKeyIndex.Stop<String> stop, int limit) {
+        buildPatronIndexes();
+        return patronIndexes[field.ordinal()].find(from, stop, limit);
+    }
+
+
+    int[] findPatronIdsByPhoneNumber(long phoneNo) {
+        buildPatronIndexes();
+        return phoneNumberIndex.find(phoneNo, key -> key != phoneNo, Integer.MAX_VALUE);
+    }
+
+
+    private void buildPatronIndexes() {
+        if (patronIndexes == null && storedPatronIndexOrders != null) {
+            int[][] orders = storedPatronIndexOrders.get();
+            storedPatronIndexOrders = null;
+            setPatronIndexOrders(orders);
+        }
+        if (patronIndexes == null) {
+            SortedKeyIndex<String>[] byField = newIndexArray(IPatron.PatronField.values().length);
+            for (IPatron.PatronField field : IPatron.PatronField.values()) {
+                byField[field.ordinal()] = new SortedKeyIndex<>(patrons.values(), field::of, IPatron::getId, PATRON_KEY_ORDER);
+            }
+            phoneNumberIndex = new SortedKeyIndex<>(patrons.values(), IPatron::getPhoneNumber, IPatron::getId,
+                    SortedKeyIndex.NUMERIC_ORDER);
+            patronIndexes = byField;
+        }
+    }
+
+
+    /*
+     * The patron ids in the order of each patron index, one array per
+     * PatronField and then one by phone number, building the indexes if
+     * need be. LibrarySnapshotCodec and MappedLibrarySnapshot save them
+     * so that a loaded library does not have to sort its patrons again.
+     */
+    int[][] getPatronIndexOrders() {
+        buildPatronIndexes();
+        int[][] orders = new int[patronIndexes.length + 1][];
+        for (int i = 0; i < patronIndexes.length; i++) {
+            orders[i] = patronIndexes[i].ids();
+        }
+        orders[patronIndexes.length] = phoneNumberIndex.ids();
+        return orders;
+    }
+
+
+    /*
+     * Restores the patron indexes from getPatronIndexOrders, unless the
+     * orders do not index exactly the patrons in this library, in which case
+     * nothing changes and false is returned. The order itself is trusted:
+     * checking it means reading every key in index order, all over the heap,
+     * which at millions of patrons costs about as much as sorting afresh.
+     */
+    boolean setPatronIndexOrders(int[][] orders) {
+        IPatron.PatronField[] fields = IPatron.PatronField.values();
+        if (orders.length != fields.length + 1) {
+            return false;
+        }
+        SortedKeyIndex<String>[] byField = newIndexArray(fields.length);
+        for (IPatron.PatronField field : fields) {
+            String[] keys = keysOf(orders[field.ordinal()], field::of, new String[0]);
+            if (keys == null) {
+                return false;
+            }
+            byField[field.ordinal()] = new SortedKeyIndex<>(keys, orders[field.ordinal()], PATRON_KEY_ORDER);
+        }
+        Long[] phoneNumbers = keysOf(orders[fields.length], IPatron::getPhoneNumber, new Long[0]);
+        if (phoneNumbers == null) {
+            return false;
+        }
+        phoneNumberIndex = new SortedKeyIndex<>(phoneNumbers, orders[fields.length], SortedKeyIndex.NUMERIC_ORDER);
+        patronIndexes = byField;
+        return true;
+    }
+
+
+    /*
+     * Restores the patron indexes from orders, read when they are first
+     * needed, so opening a mapped snapshot stays cheap. If the patrons have
+     * changed by then so that the orders no longer match, the indexes are
+     * sorted afresh instead.
+     */
+    void setStoredPatronIndexOrders(Supplier<int[][]> orders) {
+        storedPatronIndexOrders = orders;
+    }
+
+
+    /* the keys of the patrons in order, or null unless order holds every patron with a key */
+    private <K> K[] keysOf(int[] order, Function<IPatron, K> key, K[] type) {
+        int keyed = 0;
+        for (IPatron patron : patrons.values()) {
+            if (key.apply(patron) != null) {
+                keyed++;
+            }
+        }
+        if (order.length != keyed) {
+            return null;
+        }
+        K[] keys = Arrays.copyOf(type, order.length);
+        BitSet seen = new BitSet();
+        for (int i = 0; i < order.length; i++) {
+            IPatron patron = lookup(patrons, order[i]);
+            keys[i] = patron == null ? null : key.apply(patron);
+            if (keys[i] == null || seen.get(order[i])) {
+                return null;
+            }
+            seen.set(order[i]);
+        }
+        return keys;
+    }
+
+
+    /*
+     * One probe, without boxing the id when the map is an IntObjectMap.
+     * None of the maps hold null values.
+     */
+    private static <V> V lookup(Map<Integer, V> map, int id) {
+        if (map instanceof IntObjectMap) {
+            return ((IntObjectMap<V>) map).get(id);
+        }
+        return map.get(id);
     }
 
 		
@@ -197,18 +754,65 @@ public class Library implements Serializable, ILibrary {
         IBook book = loan.getBook();
         Integer bookId = book.getId();
         currentLoans.put(bookId, loan);
+        indexDueDate(loan);
 
         IPatron patron = loan.getPatron();
         setPatronBorrowingRestrictions(patron);        
+        
+        catalog.replace(bookId, book);
+        patrons.replace(patron.getId(), patron);
+    }
+
+
+    @Override
+    public void commitLoans(List<ILoan> pendingLoans) {
+        if (pendingLoans.isEmpty()) {
+            return;
+        }
+        IPatron patron = checkPendingLoans(pendingLoans);
+        Date dueDate = Calendar.getInstance().getDueDate(LOAN_PERIOD);
+        int firstLoanId = getNextLoanIds(pendingLoans.size());
+
+        for (int i = 0; i < pendingLoans.size(); i++) {
+            ILoan loan = pendingLoans.get(i);
+            int loanId = firstLoanId + i;
+            loan.commit(loanId, dueDate);
+            loans.put(loanId, loan);
+
+            IBook book = loan.getBook();
+            Integer bookId = book.getId();
+            currentLoans.put(bookId, loan);
+            indexDueDate(loan);
+            catalog.replace(bookId, book);
+        }
+        setPatronBorrowingRestrictions(patron);
+        patrons.replace(patron.getId(), patron);
+    }
+
+
+    /* returns the patron of the loans, having checked that every one of them can be committed */
+    private IPatron checkPendingLoans(List<ILoan> pendingLoans) {
+        IPatron patron = pendingLoans.get(0).getPatron();
+        BitSet bookIds = new BitSet();
+        for (ILoan loan : pendingLoans) {
+            if (!loan.isPending() || loan.getPatron() != patron) {
+                throw new RuntimeException(String.format(
+                        "Library: commitLoans : loans must be pending loans for patron %d", patron.getId()));
+            }
+            IBook book = loan.getBook();
+            int bookId = book.getId();
+            if (!book.isAvailable() || currentLoans.containsKey(bookId) || bookIds.get(bookId)) {
+                throw new RuntimeException(String.format("Library: commitLoans : book %d is not available", bookId));
+            }
+            bookIds.set(bookId);
+        }
+        return patron;
     }
 	
 	
     @Override
     public ILoan getCurrentLoanByBookId(int bookId) {
-        if (currentLoans.containsKey(bookId)) {
-            return currentLoans.get(bookId);
-        }
-        return null;
+        return lookup(currentLoans, bookId);
     }
 
 	
@@ -219,25 +823,115 @@ public class Library implements Serializable, ILibrary {
         
         double overDueFine = calculateOverDueFine(loan);
         patron.incurFine(overDueFine);	
+        countFines(overDueFine);
+        if (loan.isOverDue()) {
+            countOverDueLoans(-1);
+        }
 		
         Integer bookId = book.getId();
         if (isDamaged) {
             patron.incurFine(DAMAGE_FEE);
+            countFines(DAMAGE_FEE);
             damagedBooks.put(bookId, book);
         }
         loan.discharge(isDamaged); 
         
         currentLoans.remove(bookId);        
+        unindexDueDate(loan);
         setPatronBorrowingRestrictions(patron);
+        
+        loans.replace(loan.getId(), loan);
+        catalog.replace(bookId, book);
+        patrons.replace(patron.getId(), patron);
+        if (loanArchive != null) {
+            loanArchive.append(loan);
+            loans.remove(loan.getId());
+        }
     }
     
 
+    @Override
+    public List<ILoan> dischargeLoans(List<BookReturn> returns) {
+        return dischargeLoans(returns, getCurrentLoansOf(returns));
+    }
+
+
+    /* the current loan of each returned book, or null if it is not on loan */
+    ILoan[] getCurrentLoansOf(List<BookReturn> returns) {
+        ILoan[] returned = new ILoan[returns.size()];
+        for (int i = 0; i < returned.length; i++) {
+            returned[i] = currentLoans.get(returns.get(i).getBookId());
+        }
+        return returned;
+    }
+
+
+    /*
+     * Discharges returned[i] for returns.get(i) if it is still the book's
+     * current loan. Fines are added up per patron, so each patron is charged
+     * and has their restrictions set once however many books they returned.
+     */
+    List<ILoan> dischargeLoans(List<BookReturn> returns, ILoan[] returned) {
+        Date today = Calendar.getInstance().getDate();
+        List<ILoan> discharged = new ArrayList<>(returns.size());
+        Map<IPatron, Double> finesByPatron = new LinkedHashMap<>();
+        double fines = 0.0;
+        int overDueLoans = 0;
+
+        for (int i = 0; i < returned.length; i++) {
+            ILoan loan = returned[i];
+            Integer bookId = returns.get(i).getBookId();
+            if (loan == null || currentLoans.get(bookId) != loan) {
+                continue;
+            }
+            boolean isDamaged = returns.get(i).isDamaged();
+            IBook book = loan.getBook();
+
+            double fine = calculateOverDueFine(loan, today);
+            if (loan.isOverDue()) {
+                overDueLoans++;
+            }
+            if (isDamaged) {
+                fine += DAMAGE_FEE;
+                damagedBooks.put(bookId, book);
+            }
+            finesByPatron.merge(loan.getPatron(), fine, Double::sum);
+            fines += fine;
+            loan.discharge(isDamaged);
+
+            currentLoans.remove(bookId);
+            unindexDueDate(loan);
+            loans.replace(loan.getId(), loan);
+            catalog.replace(bookId, book);
+            if (loanArchive != null) {
+                loanArchive.append(loan);
+                loans.remove(loan.getId());
+            }
+            discharged.add(loan);
+        }
+        for (Map.Entry<IPatron, Double> patronFines : finesByPatron.entrySet()) {
+            IPatron patron = patronFines.getKey();
+            patron.incurFine(patronFines.getValue());
+            setPatronBorrowingRestrictions(patron);
+            patrons.replace(patron.getId(), patron);
+        }
+        countFines(fines);
+        countOverDueLoans(-overDueLoans);
+        return discharged;
+    }
+
+
     @Override
     public double calculateOverDueFine(ILoan loan) {
+        return calculateOverDueFine(loan, Calendar.getInstance().getDate());
+    }
+
+
+    private static double calculateOverDueFine(ILoan loan, Date today) {
         double fine = 0.0;
         if (loan.isOverDue()) {
             Date dueDate = loan.getDueDate();
-            long daysOverDue = Calendar.getInstance().getDaysDifference(dueDate);
+            long daysOverDue = TimeUnit.DAYS.convert(today.getTime() - dueDate.getTime(), TimeUnit.MILLISECONDS);
             fine = daysOverDue * FINE_PER_DAY;
         }
         return fine;     
@@ -245,16 +939,71 @@ public class Library implements Serializable, ILibrary {
     
 
     @Override
-    public void checkCurrentLoansOverDue() {
-        boolean overdue;
+    public List<ILoan> checkCurrentLoansOverDue() {
         Date currentDate = Calendar.getInstance().getDate();
-        for (ILoan loan : currentLoans.values()) {
-            overdue = loan.checkOverDue(currentDate);
-            if (overdue) {
-                IPatron patron = loan.getPatron();
-                setPatronBorrowingRestrictions(patron);
+        List<ILoan> overdue = new ArrayList<>();
+        for (ILoan loan : takeLoansDueBefore(currentDate)) {
+            if (checkLoanOverDue(loan, currentDate)) {
+                overdue.add(loan);
             }
         }		
+        return overdue;
+    }
+
+
+    /* package-private so ConcurrentLibrary can check each loan under its locks */
+    boolean checkLoanOverDue(ILoan loan, Date currentDate) {
+        if (loan.checkOverDue(currentDate)) {
+            countOverDueLoans(1);
+            IPatron patron = loan.getPatron();
+            setPatronBorrowingRestrictions(patron);
+            loans.replace(loan.getId(), loan);
+            patrons.replace(patron.getId(), patron);
+            return true;
+        }
+        return false;
+    }
+
+
+    /* package-private hooks on the due date index, synchronized by ConcurrentLibrary */
+    void indexDueDate(ILoan loan) {
+        if (dueDates != null) {
+            dueDates.add(loan);
+        }
+    }
+
+
+    void unindexDueDate(ILoan loan) {
+        if (dueDates != null) {
+            dueDates.remove(loan);
+        }
+    }
+
+
+    /*
+     * A loan is put into currentLoans before it is indexed, so one committed
+     * while the index is built is either found by the build or indexed after
+     * it.
+     */
+    boolean hasDueDateIndex() {
+        return dueDates != null;
+    }
+
+
+    /*
+     * Removes from the index and returns the loans due before date. The
+     * first call indexes the current loans not yet overdue.
+     */
+    List<ILoan> takeLoansDueBefore(Date date) {
+        if (dueDates == null) {
+            dueDates = new DueDateIndex();
+            for (ILoan loan : currentLoans.values()) {
+                if (!loan.isOverDue()) {
+                    dueDates.add(loan);
+                }
+            }
+        }
+        return dueDates.takeDueBefore(date);
     }
 
 
@@ -264,6 +1013,7 @@ public class Library implements Serializable, ILibrary {
         if (damagedBooks.containsKey(currentBookId)) {
             currentBook.repair();
             damagedBooks.remove(currentBookId);
+            catalog.replace(currentBookId, currentBook);
         }
         else {
             throw new RuntimeException("Library: repairBook: book is not damaged");
@@ -274,7 +1024,63 @@ public class Library implements Serializable, ILibrary {
     @Override
     public double payFine(IPatron patron, double amount) {
         double change = patron.payFine(amount);
+        countFines(change - amount);
         setPatronBorrowingRestrictions(patron);        
+        patrons.replace(patron.getId(), patron);
         return change;
     }
+
+
+    /**
+     * Books on loan and damaged are the sizes of the current loans and the
+     * damaged books, and the rest of the catalog is available; overdue loans
+     * and fines owed are counted once and then kept up to date by the
+     * operations that change them, so taking the statistics costs O(1).
+     */
+    @Override
+    public CirculationStatistics getStatistics() {
+        CirculationCounters counters = this.counters;
+        if (counters == null) {
+            counters = startCounting();
+        }
+        int onLoan = currentLoans.size();
+        int damaged = damagedBooks.size();
+        return new CirculationStatistics(catalog.size() - onLoan - damaged, onLoan, damaged,
+                counters.overDueLoans.sum(), counters.finesOwed.sum());
+    }
+
+
+    /* package-private so ConcurrentLibrary can count with every desk held still */
+    CirculationCounters startCounting() {
+        if (this.counters != null) {
+            return this.counters;
+        }
+        CirculationCounters counters = new CirculationCounters();
+        for (ILoan loan : currentLoans.values()) {
+            if (loan.isOverDue()) {
+                counters.overDueLoans.increment();
+            }
+        }
+        for (IPatron patron : patrons.values()) {
+            counters.finesOwed.add(patron.getFinesPayable());
+        }
+        this.counters = counters;
+        return counters;
+    }
+
+
+    private void countOverDueLoans(int change) {
+        CirculationCounters counters = this.counters;
+        if (counters != null) {
+            counters.overDueLoans.add(change);
+        }
+    }
+
+
+    private void countFines(double change) {
+        CirculationCounters counters = this.counters;
+        if (counters != null && change != 0) {
+            counters.finesOwed.add(change);
+        }
+    }
 }
@@ -0,0 +1,144 @@
+package library.entities;
+
+import java.util.Map;
+
+import library.entities.IBook.BookState;
+
+/**
+ * Point-in-time copy of the persistent state of a Library, held in arrays
+ * indexed by id - 1. Strings are shared with the entities, everything else is
+ * copied, so the image stays consistent while the library keeps changing and
+ * can be written out by another thread.
+ *
+ * A state of 0 marks an empty slot; otherwise it is the state ordinal plus one.
+ */
+public final class LibraryImage {
+
+    final int nextBookId;
+    final int nextPatronId;
+    final int nextLoanId;
+    final int currentLoanCount;
+    final int damagedCount;
+
+    final byte[] bookStates;
+    final String[] authors;
+    final String[] titles;
+    final String[] callNumbers;
+    final int[] currentLoanIds;
+    final int bookCount;
+
+    final byte[] patronStates;
+    final String[] lastNames;
+    final String[] firstNames;
+    final String[] emailAddresses;
+    final long[] phoneNumbers;
+    final double[] finesPayable;
+    final int[][] patronLoanIds;
+    final int patronCount;
+    final int[][] patronIndexOrders;
+
+    final byte[] loanStates;
+    final int[] loanBookIds;
+    final int[] loanPatronIds;
+    final long[] dueDates;
+    final int loanCount;
+
+
+    private LibraryImage(Library library) {
+        nextBookId = library.getCurrentlyIssuingBookId();
+        nextPatronId = library.getCurrentlyIssuingPatronId();
+        nextLoanId = library.getCurrentlyIssuingLoanId();
+
+        Map<Integer, IBook> catalog = library.getCatalog();
+        Map<Integer, ILoan> currentLoans = library.getCurrentLoans();
+        int maxBookId = nextBookId - 1;
+        bookStates = new byte[maxBookId];
+        authors = new String[maxBookId];
+        titles = new String[maxBookId];
+        callNumbers = new String[maxBookId];
+        currentLoanIds = new int[maxBookId];
+        int damaged = 0;
+        for (IBook book : catalog.values()) {
+            int slot = book.getId() - 1;
+            BookState state = ((Book) book).getState();
+            if (state == BookState.DAMAGED) {
+                damaged++;
+            }
+            bookStates[slot] = (byte) (state.ordinal() + 1);
+            authors[slot] = book.getAuthor();
+            titles[slot] = book.getTitle();
+            callNumbers[slot] = book.getCallNumber();
+        }
+        for (ILoan loan : currentLoans.values()) {
+            currentLoanIds[loan.getBook().getId() - 1] = loan.getId();
+        }
+        bookCount = catalog.size();
+        currentLoanCount = currentLoans.size();
+        damagedCount = damaged;
+
+        Map<Integer, IPatron> patrons = library.getPatrons();
+        int maxPatronId = nextPatronId - 1;
+        patronStates = new byte[maxPatronId];
+        lastNames = new String[maxPatronId];
+        firstNames = new String[maxPatronId];
+        emailAddresses = new String[maxPatronId];
+        phoneNumbers = new long[maxPatronId];
+        finesPayable = new double[maxPatronId];
+        patronLoanIds = new int[maxPatronId][];
+        for (IPatron patron : patrons.values()) {
+            int slot = patron.getId() - 1;
+            patronStates[slot] = (byte) (((Patron) patron).getState().ordinal() + 1);
+            lastNames[slot] = patron.getLastName();
+            firstNames[slot] = patron.getFirstName();
+            emailAddresses[slot] = patron.getEmailAddress();
+            phoneNumbers[slot] = patron.getPhoneNumber();
+            finesPayable[slot] = patron.getFinesPayable();
+            patronLoanIds[slot] = patron.getLoanStream().mapToInt(ILoan::getId).toArray();
+        }
+        patronCount = patrons.size();
+        patronIndexOrders = library.getPatronIndexOrders();
+
+        Map<Integer, ILoan> loans = library.getLoans();
+        int maxLoanId = nextLoanId - 1;
+        loanStates = new byte[maxLoanId];
+        loanBookIds = new int[maxLoanId];
+        loanPatronIds = new int[maxLoanId];
+        dueDates = new long[maxLoanId];
+        for (ILoan loan : loans.values()) {
+            int slot = loan.getId() - 1;
+            loanStates[slot] = (byte) (((Loan) loan).getState().ordinal() + 1);
+            loanBookIds[slot] = loan.getBook().getId();
+            loanPatronIds[slot] = loan.getPatron().getId();
+            dueDates[slot] = loan.getDueDate().getTime();
+        }
+        loanCount = loans.size();
+    }
+
+
+    /**
+     * Copies the state of library. Must be called from the thread that
+     * mutates the library; the image itself can then be read from any thread.
+     */
+    public static LibraryImage capture(ILibrary library) {
+        if (!(library instanceof Library)) {
+            throw new RuntimeException("LibraryImage: can only capture a Library");
+        }
+        return new LibraryImage((Library) library);
+    }
+
+
+    public int getBookCount() {
+        return bookCount;
+    }
+
+
+    public int getPatronCount() {
+        return patronCount;
+    }
+
+
+    public int getLoanCount() {
+        return loanCount;
+    }
+
+}
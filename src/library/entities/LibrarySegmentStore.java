@@ -0,0 +1,595 @@
+package library.entities;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import library.entities.IBook.BookState;
+import library.entities.ILoan.LoanState;
+import library.entities.IPatron.PatronState;
+import library.entities.helpers.IBookHelper;
+import library.entities.helpers.ILoanHelper;
+import library.entities.helpers.IPatronHelper;
+
+/**
+ * Directory of segment files holding a Library, one set per map: catalog,
+ * patrons, loans, current loans and damaged books. Each segment covers
+ * SEGMENT_SIZE consecutive ids, so a flush rewrites only the segments whose
+ * entries changed.
+ *
+ * Segment files carry the generation of the flush that wrote them. A flush
+ * writes the changed segments under a new generation and then replaces the
+ * manifest, which lists the current file of every segment along with the id
+ * counters; the rename of the manifest is the commit point, so a crash in the
+ * middle of a flush leaves the previous generation loadable. Superseded files
+ * are deleted once the new manifest is in place.
+ *
+ *   manifest  - magic | version | generation | next ids | (type, index, generation)*
+ *   segment   - magic | version | type | index | count | records | crc32
+ */
+public final class LibrarySegmentStore {
+
+    public enum SegmentType { BOOKS, PATRONS, LOANS, CURRENT_LOANS, DAMAGED_BOOKS }
+
+    public static final int SEGMENT_SIZE = 1 << 16;
+    public static final String MANIFEST_FILE = "manifest";
+
+    private static final int MAGIC = 0x42524c47;	// "BRLG"
+    private static final int MANIFEST_MAGIC = 0x42524c58;	// "BRLX"
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path directory;
+    private final Map<SegmentType, TreeMap<Integer, Long>> segments = new EnumMap<>(SegmentType.class);
+    private long generation;
+
+
+    public LibrarySegmentStore(Path directory) {
+        this.directory = directory;
+        for (SegmentType type : SegmentType.values()) {
+            segments.put(type, new TreeMap<>());
+        }
+    }
+
+
+    static int segmentIndex(int id) {
+        return (id - 1) / SEGMENT_SIZE;
+    }
+
+
+    public boolean exists() {
+        return Files.exists(directory.resolve(MANIFEST_FILE));
+    }
+
+
+    public long getGeneration() {
+        return generation;
+    }
+
+
+    /**
+     * Reads every segment listed in the manifest, decoding them in parallel,
+     * and links the entities into a Library. Files left behind by a flush that
+     * did not commit are deleted.
+     */
+    public ILibrary load(IBookHelper bookHelper, IPatronHelper patronHelper, ILoanHelper loanHelper) throws IOException {
+        int nextBookId;
+        int nextPatronId;
+        int nextLoanId;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(directory.resolve(MANIFEST_FILE))))) {
+            if (in.readInt() != MANIFEST_MAGIC) {
+                throw new IOException("LibrarySegmentStore: not a segment manifest");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException(String.format("LibrarySegmentStore: unsupported version: %d", version));
+            }
+            generation = in.readLong();
+            nextBookId = in.readInt();
+            nextPatronId = in.readInt();
+            nextLoanId = in.readInt();
+            for (TreeMap<Integer, Long> typeSegments : segments.values()) {
+                typeSegments.clear();
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                SegmentType type = SegmentType.values()[in.readByte()];
+                int index = in.readInt();
+                segments.get(type).put(index, in.readLong());
+            }
+        }
+        deleteUnlisted();
+
+        List<Future<Segment>> reads = new ArrayList<>();
+        ExecutorService readers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            for (Map.Entry<SegmentType, TreeMap<Integer, Long>> typeSegments : segments.entrySet()) {
+                SegmentType type = typeSegments.getKey();
+                for (Map.Entry<Integer, Long> segment : typeSegments.getValue().entrySet()) {
+                    Path path = segmentPath(type, segment.getKey(), segment.getValue());
+                    reads.add(readers.submit(() -> readSegment(path, type)));
+                }
+            }
+            List<Segment> read = new ArrayList<>(reads.size());
+            for (Future<Segment> segment : reads) {
+                read.add(segment.get());
+            }
+            return link(read, bookHelper, patronHelper, loanHelper, nextBookId, nextPatronId, nextLoanId);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("LibrarySegmentStore: interrupted while loading", e);
+        }
+        finally {
+            readers.shutdown();
+        }
+    }
+
+
+    /**
+     * Writes the segments marked in dirty and commits them with a new
+     * manifest. Segments left with no entries are dropped.
+     */
+    public void flush(ILibrary library, DirtySegments dirty) throws IOException {
+        if (!(library instanceof Library)) {
+            throw new RuntimeException("LibrarySegmentStore: can only flush a Library");
+        }
+        Library source = (Library) library;
+        Files.createDirectories(directory);
+        long nextGeneration = generation + 1;
+
+        Map<SegmentType, TreeMap<Integer, Long>> committed = new EnumMap<>(SegmentType.class);
+        List<Path> superseded = new ArrayList<>();
+        for (SegmentType type : SegmentType.values()) {
+            TreeMap<Integer, Long> typeSegments = new TreeMap<>(segments.get(type));
+            BitSet indexes = dirty.get(type);
+            for (int index = indexes.nextSetBit(0); index >= 0; index = indexes.nextSetBit(index + 1)) {
+                Long previous = typeSegments.remove(index);
+                if (previous != null) {
+                    superseded.add(segmentPath(type, index, previous));
+                }
+                if (writeSegment(source, type, index, nextGeneration)) {
+                    typeSegments.put(index, nextGeneration);
+                }
+            }
+            committed.put(type, typeSegments);
+        }
+        writeManifest(source, nextGeneration, committed);
+
+        generation = nextGeneration;
+        segments.putAll(committed);
+        for (Path path : superseded) {
+            Files.deleteIfExists(path);
+        }
+    }
+
+
+    /**
+     * Writes every segment of library, replacing whatever the store held.
+     */
+    public void flushAll(ILibrary library) throws IOException {
+        if (!(library instanceof Library)) {
+            throw new RuntimeException("LibrarySegmentStore: can only flush a Library");
+        }
+        Library source = (Library) library;
+        DirtySegments dirty = new DirtySegments();
+        markAll(dirty, SegmentType.BOOKS, source.getCurrentlyIssuingBookId());
+        markAll(dirty, SegmentType.CURRENT_LOANS, source.getCurrentlyIssuingBookId());
+        markAll(dirty, SegmentType.DAMAGED_BOOKS, source.getCurrentlyIssuingBookId());
+        markAll(dirty, SegmentType.PATRONS, source.getCurrentlyIssuingPatronId());
+        markAll(dirty, SegmentType.LOANS, source.getCurrentlyIssuingLoanId());
+        for (Map.Entry<SegmentType, TreeMap<Integer, Long>> typeSegments : segments.entrySet()) {
+            for (Integer index : typeSegments.getValue().keySet()) {
+                dirty.markSegment(typeSegments.getKey(), index);
+            }
+        }
+        flush(source, dirty);
+    }
+
+
+    private static void markAll(DirtySegments dirty, SegmentType type, int nextId) {
+        for (int id = 1; id < nextId; id += SEGMENT_SIZE) {
+            dirty.mark(type, id);
+        }
+    }
+
+
+    private Path segmentPath(SegmentType type, int index, long segmentGeneration) {
+        return directory.resolve(String.format("%s-%06d-%d.seg", type.name().toLowerCase(), index, segmentGeneration));
+    }
+
+
+    private void deleteUnlisted() throws IOException {
+        List<Path> listed = new ArrayList<>();
+        for (Map.Entry<SegmentType, TreeMap<Integer, Long>> typeSegments : segments.entrySet()) {
+            for (Map.Entry<Integer, Long> segment : typeSegments.getValue().entrySet()) {
+                listed.add(segmentPath(typeSegments.getKey(), segment.getKey(), segment.getValue()));
+            }
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.seg")) {
+            for (Path file : files) {
+                if (!listed.contains(file)) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+
+    private void writeManifest(Library source, long manifestGeneration, Map<SegmentType, TreeMap<Integer, Long>> committed)
+            throws IOException {
+        Path path = directory.resolve(MANIFEST_FILE);
+        Path tempPath = directory.resolve(MANIFEST_FILE + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(tempPath.toFile())) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            out.writeInt(MANIFEST_MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(manifestGeneration);
+            out.writeInt(source.getCurrentlyIssuingBookId());
+            out.writeInt(source.getCurrentlyIssuingPatronId());
+            out.writeInt(source.getCurrentlyIssuingLoanId());
+            int count = 0;
+            for (TreeMap<Integer, Long> typeSegments : committed.values()) {
+                count += typeSegments.size();
+            }
+            out.writeInt(count);
+            for (Map.Entry<SegmentType, TreeMap<Integer, Long>> typeSegments : committed.entrySet()) {
+                for (Map.Entry<Integer, Long> segment : typeSegments.getValue().entrySet()) {
+                    out.writeByte(typeSegments.getKey().ordinal());
+                    out.writeInt(segment.getKey());
+                    out.writeLong(segment.getValue());
+                }
+            }
+            out.flush();
+            fileOut.getChannel().force(true);
+        }
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+
+    /*
+     * Returns false, writing nothing, if the segment has no entries.
+     */
+    private boolean writeSegment(Library source, SegmentType type, int index, long segmentGeneration) throws IOException {
+        int firstId = index * SEGMENT_SIZE + 1;
+        int lastId = firstId + SEGMENT_SIZE - 1;
+        List<Object> entries = new ArrayList<>();
+        for (int id = firstId; id <= lastId; id++) {
+            Object entry = entry(source, type, id);
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        if (entries.isEmpty()) {
+            return false;
+        }
+
+        try (FileOutputStream fileOut = new FileOutputStream(segmentPath(type, index, segmentGeneration).toFile())) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(fileOut, BUFFER_SIZE), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeByte(type.ordinal());
+            out.writeInt(index);
+            out.writeInt(entries.size());
+            for (Object entry : entries) {
+                writeEntry(out, type, entry);
+            }
+            out.writeInt((int) checked.getChecksum().getValue());
+            out.flush();
+            fileOut.getChannel().force(true);
+        }
+        return true;
+    }
+
+
+    private static Object entry(Library source, SegmentType type, int id) {
+        switch (type) {
+        case BOOKS:
+            return source.getCatalog().get(id);
+        case PATRONS:
+            return source.getPatrons().get(id);
+        case LOANS:
+            return source.getLoans().get(id);
+        case CURRENT_LOANS:
+            return source.getCurrentLoans().get(id);
+        case DAMAGED_BOOKS:
+            return source.getDamagedBooks().get(id);
+        default:
+            throw new RuntimeException(String.format("LibrarySegmentStore: unknown segment type: %s", type));
+        }
+    }
+
+
+    private static void writeEntry(DataOutputStream out, SegmentType type, Object entry) throws IOException {
+        switch (type) {
+        case BOOKS:
+            Book book = (Book) entry;
+            out.writeInt(book.getId());
+            out.writeByte(book.getState().ordinal());
+            writeString(out, book.getAuthor());
+            writeString(out, book.getTitle());
+            writeString(out, book.getCallNumber());
+            break;
+        case PATRONS:
+            Patron patron = (Patron) entry;
+            out.writeInt(patron.getId());
+            out.writeByte(patron.getState().ordinal());
+            writeString(out, patron.getLastName());
+            writeString(out, patron.getFirstName());
+            writeString(out, patron.getEmailAddress());
+            out.writeLong(patron.getPhoneNumber());
+            out.writeDouble(patron.getFinesPayable());
+            int[] loanIds = patron.getLoanStream().mapToInt(ILoan::getId).toArray();
+            out.writeInt(loanIds.length);
+            for (int loanId : loanIds) {
+                out.writeInt(loanId);
+            }
+            break;
+        case LOANS:
+            Loan loan = (Loan) entry;
+            out.writeInt(loan.getId());
+            out.writeByte(loan.getState().ordinal());
+            out.writeInt(loan.getBook().getId());
+            out.writeInt(loan.getPatron().getId());
+            out.writeLong(loan.getDueDate().getTime());
+            break;
+        case CURRENT_LOANS:
+            ILoan currentLoan = (ILoan) entry;
+            out.writeInt(currentLoan.getBook().getId());
+            out.writeInt(currentLoan.getId());
+            break;
+        case DAMAGED_BOOKS:
+            out.writeInt(((IBook) entry).getId());
+            break;
+        default:
+            throw new RuntimeException(String.format("LibrarySegmentStore: unknown segment type: %s", type));
+        }
+    }
+
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+
+    /*
+     * Runs on a reader thread. Books and patrons are built here; everything
+     * that refers to another entity is kept as ids until link.
+     */
+    private static Segment readSegment(Path path, SegmentType type) throws IOException {
+        try (InputStream file = Files.newInputStream(path)) {
+            CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(file, BUFFER_SIZE), new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readByte() != type.ordinal()) {
+                throw new IOException(String.format("LibrarySegmentStore: bad segment header: %s", path));
+            }
+            in.readInt();
+            int count = in.readInt();
+            Segment segment = new Segment(type, count);
+            for (int i = 0; i < count; i++) {
+                segment.read(in, i);
+            }
+            int expected = (int) checked.getChecksum().getValue();
+            if (in.readInt() != expected) {
+                throw new IOException(String.format("LibrarySegmentStore: checksum mismatch: %s", path));
+            }
+            return segment;
+        }
+    }
+
+
+    private static Library link(List<Segment> read, IBookHelper bookHelper, IPatronHelper patronHelper,
+            ILoanHelper loanHelper, int nextBookId, int nextPatronId, int nextLoanId) {
+        Map<SegmentType, Integer> sizes = new EnumMap<>(SegmentType.class);
+        for (Segment segment : read) {
+            sizes.merge(segment.type, segment.count, Integer::sum);
+        }
+        Map<Integer, IBook> catalog = new IntObjectMap<>(sizeOf(sizes.get(SegmentType.BOOKS)));
+        Map<Integer, IPatron> patrons = new IntObjectMap<>(sizeOf(sizes.get(SegmentType.PATRONS)));
+        Map<Integer, ILoan> loans = new IntObjectMap<>(sizeOf(sizes.get(SegmentType.LOANS)));
+        Map<Integer, ILoan> currentLoans = new IntObjectMap<>(sizeOf(sizes.get(SegmentType.CURRENT_LOANS)));
+        Map<Integer, IBook> damagedBooks = new IntObjectMap<>(sizeOf(sizes.get(SegmentType.DAMAGED_BOOKS)));
+
+        for (Segment segment : read) {
+            if (segment.type == SegmentType.BOOKS) {
+                for (int i = 0; i < segment.count; i++) {
+                    catalog.put(segment.ids[i], segment.books[i]);
+                }
+            }
+            else if (segment.type == SegmentType.PATRONS) {
+                for (int i = 0; i < segment.count; i++) {
+                    patrons.put(segment.ids[i], segment.patrons[i]);
+                }
+            }
+        }
+        LoanState[] loanStates = LoanState.values();
+        for (Segment segment : read) {
+            if (segment.type == SegmentType.LOANS) {
+                for (int i = 0; i < segment.count; i++) {
+                    IBook book = catalog.get(segment.bookIds[i]);
+                    IPatron patron = patrons.get(segment.patronIds[i]);
+                    if (book == null || patron == null) {
+                        throw new RuntimeException(String.format(
+                                "LibrarySegmentStore: loan %d refers to a missing book or patron", segment.ids[i]));
+                    }
+                    loans.put(segment.ids[i], new Loan(book, patron, segment.ids[i], new Date(segment.dueDates[i]),
+                            loanStates[segment.states[i]]));
+                }
+            }
+        }
+        for (Segment segment : read) {
+            switch (segment.type) {
+            case PATRONS:
+                for (int i = 0; i < segment.count; i++) {
+                    for (int loanId : segment.patronLoanIds[i]) {
+                        segment.patronLoans.get(i).put(loanId, loans.get(loanId));
+                    }
+                }
+                break;
+            case CURRENT_LOANS:
+                for (int i = 0; i < segment.count; i++) {
+                    currentLoans.put(segment.ids[i], loans.get(segment.loanIds[i]));
+                }
+                break;
+            case DAMAGED_BOOKS:
+                for (int i = 0; i < segment.count; i++) {
+                    damagedBooks.put(segment.ids[i], catalog.get(segment.ids[i]));
+                }
+                break;
+            default:
+                break;
+            }
+        }
+        return new Library(bookHelper, patronHelper, loanHelper, catalog, patrons, loans, currentLoans, damagedBooks,
+                nextBookId, nextPatronId, nextLoanId);
+    }
+
+
+    private static int sizeOf(Integer size) {
+        return size == null ? 0 : size;
+    }
+
+
+    /*
+     * Decoded contents of one segment file, in parallel arrays.
+     */
+    private static final class Segment {
+
+        private static final BookState[] BOOK_STATES = BookState.values();
+        private static final PatronState[] PATRON_STATES = PatronState.values();
+
+        final SegmentType type;
+        final int count;
+        final int[] ids;
+        IBook[] books;
+        IPatron[] patrons;
+        List<Map<Integer, ILoan>> patronLoans;
+        int[][] patronLoanIds;
+        byte[] states;
+        int[] bookIds;
+        int[] patronIds;
+        long[] dueDates;
+        int[] loanIds;
+
+
+        Segment(SegmentType type, int count) {
+            this.type = type;
+            this.count = count;
+            this.ids = new int[count];
+            switch (type) {
+            case BOOKS:
+                books = new IBook[count];
+                break;
+            case PATRONS:
+                patrons = new IPatron[count];
+                patronLoans = new ArrayList<>(count);
+                patronLoanIds = new int[count][];
+                break;
+            case LOANS:
+                states = new byte[count];
+                bookIds = new int[count];
+                patronIds = new int[count];
+                dueDates = new long[count];
+                break;
+            case CURRENT_LOANS:
+                loanIds = new int[count];
+                break;
+            default:
+                break;
+            }
+        }
+
+
+        void read(DataInputStream in, int i) throws IOException {
+            ids[i] = in.readInt();
+            switch (type) {
+            case BOOKS:
+                BookState bookState = BOOK_STATES[in.readByte()];
+                String author = readString(in);
+                String title = readString(in);
+                String callNumber = readString(in);
+                books[i] = new Book(author, title, callNumber, ids[i], bookState);
+                break;
+            case PATRONS:
+                PatronState patronState = PATRON_STATES[in.readByte()];
+                String lastName = readString(in);
+                String firstName = readString(in);
+                String email = readString(in);
+                long phoneNo = in.readLong();
+                double finesPayable = in.readDouble();
+                int[] loans = new int[in.readInt()];
+                for (int j = 0; j < loans.length; j++) {
+                    loans[j] = in.readInt();
+                }
+                Map<Integer, ILoan> patronLoanMap = new IntObjectMap<>();
+                patronLoans.add(patronLoanMap);
+                patrons[i] = new Patron(lastName, firstName, email, phoneNo, ids[i], patronState, patronLoanMap);
+                if (finesPayable != 0.0) {
+                    patrons[i].incurFine(finesPayable);
+                }
+                patronLoanIds[i] = loans;
+                break;
+            case LOANS:
+                states[i] = in.readByte();
+                bookIds[i] = in.readInt();
+                patronIds[i] = in.readInt();
+                dueDates[i] = in.readLong();
+                break;
+            case CURRENT_LOANS:
+                loanIds[i] = in.readInt();
+                break;
+            default:
+                break;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,490 @@
+package library.entities;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import library.entities.IBook.BookState;
+import library.entities.ILoan.LoanState;
+import library.entities.IPatron.PatronState;
+import library.entities.helpers.IBookHelper;
+import library.entities.helpers.ILoanHelper;
+import library.entities.helpers.IPatronHelper;
+
+/**
+ * Hand-written binary format for the state of a Library.
+ *
+ * Layout, after a fixed magic number:
+ *
+ *   version | sequence | next book, patron and loan ids
+ *   string table      - every distinct author, title, call number and name
+ *   books             - id, string refs, state
+ *   patrons           - id, string refs, phone, fines, state
+ *   loans             - id, book id, patron id, due date delta, state
+ *   damaged book ids
+ *   patron indexes    - for each index, the patron ids in index order
+ *
+ * Integers are unsigned LEB128 varints; the due date is stored as the
+ * zig-zag encoded difference from the previous loan's due date. Loans refer to
+ * books and patrons by id, and the current loan maps are rebuilt from loan
+ * state on read. The sequence is an opaque number saved alongside the
+ * library, used by LibraryJournalHelper to mark the journal position.
+ *
+ * Version 2 added the patron indexes, which spare a loaded library from
+ * sorting its patrons again; version 1 snapshots are still read, and their
+ * indexes are built on the first lookup.
+ */
+public final class LibrarySnapshotCodec {
+
+    public static final int MAGIC = 0x42524c53;	// "BRLS"
+    public static final int VERSION = 2;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+
+    private LibrarySnapshotCodec() {
+    }
+
+
+    /**
+     * A decoded library together with the sequence number it was saved with.
+     */
+    public static final class Snapshot {
+
+        private final ILibrary library;
+        private final long sequence;
+
+
+        Snapshot(ILibrary library, long sequence) {
+            this.library = library;
+            this.sequence = sequence;
+        }
+
+
+        public ILibrary getLibrary() {
+            return library;
+        }
+
+
+        public long getSequence() {
+            return sequence;
+        }
+    }
+
+
+    public static void write(ILibrary library, long sequence, OutputStream out) throws IOException {
+        if (!(library instanceof Library)) {
+            throw new RuntimeException("LibrarySnapshotCodec: can only write a Library");
+        }
+        Library source = (Library) library;
+        Encoder encoder = new Encoder(out);
+
+        encoder.writeFixedInt(MAGIC);
+        encoder.writeVarInt(VERSION);
+        encoder.writeVarLong(sequence);
+        encoder.writeVarInt(source.getCurrentlyIssuingBookId());
+        encoder.writeVarInt(source.getCurrentlyIssuingPatronId());
+        encoder.writeVarInt(source.getCurrentlyIssuingLoanId());
+
+        StringTable strings = new StringTable();
+        Map<Integer, IBook> catalog = source.getCatalog();
+        Map<Integer, IPatron> patrons = source.getPatrons();
+        for (IBook book : catalog.values()) {
+            strings.add(book.getAuthor());
+            strings.add(book.getTitle());
+            strings.add(book.getCallNumber());
+        }
+        for (IPatron patron : patrons.values()) {
+            strings.add(patron.getLastName());
+            strings.add(patron.getFirstName());
+            strings.add(patron.getEmailAddress());
+        }
+        strings.writeTo(encoder);
+
+        encoder.writeVarInt(catalog.size());
+        for (IBook book : catalog.values()) {
+            encoder.writeVarInt(book.getId());
+            encoder.writeVarInt(strings.indexOf(book.getAuthor()));
+            encoder.writeVarInt(strings.indexOf(book.getTitle()));
+            encoder.writeVarInt(strings.indexOf(book.getCallNumber()));
+            encoder.writeByte(((Book) book).getState().ordinal());
+        }
+
+        encoder.writeVarInt(patrons.size());
+        for (IPatron patron : patrons.values()) {
+            encoder.writeVarInt(patron.getId());
+            encoder.writeVarInt(strings.indexOf(patron.getLastName()));
+            encoder.writeVarInt(strings.indexOf(patron.getFirstName()));
+            encoder.writeVarInt(strings.indexOf(patron.getEmailAddress()));
+            encoder.writeVarLong(patron.getPhoneNumber());
+            encoder.writeDouble(patron.getFinesPayable());
+            encoder.writeByte(((Patron) patron).getState().ordinal());
+        }
+
+        Map<Integer, ILoan> loans = source.getLoans();
+        encoder.writeVarInt(loans.size());
+        long previousDueDate = 0;
+        for (ILoan loan : loans.values()) {
+            Date dueDate = loan.getDueDate();
+            if (dueDate == null) {
+                throw new RuntimeException(String.format("LibrarySnapshotCodec: loan %d has no due date", loan.getId()));
+            }
+            encoder.writeVarInt(loan.getId());
+            encoder.writeVarInt(loan.getBook().getId());
+            encoder.writeVarInt(loan.getPatron().getId());
+            encoder.writeSignedVarLong(dueDate.getTime() - previousDueDate);
+            encoder.writeByte(((Loan) loan).getState().ordinal());
+            previousDueDate = dueDate.getTime();
+        }
+
+        Map<Integer, IBook> damagedBooks = source.getDamagedBooks();
+        encoder.writeVarInt(damagedBooks.size());
+        for (Integer bookId : damagedBooks.keySet()) {
+            encoder.writeVarInt(bookId);
+        }
+
+        int[][] patronIndexOrders = source.getPatronIndexOrders();
+        encoder.writeVarInt(patronIndexOrders.length);
+        for (int[] order : patronIndexOrders) {
+            encoder.writeVarInt(order.length);
+            for (int patronId : order) {
+                encoder.writeVarInt(patronId);
+            }
+        }
+        encoder.flush();
+    }
+
+
+    public static Snapshot read(InputStream in, IBookHelper bookHelper, IPatronHelper patronHelper,
+            ILoanHelper loanHelper) throws IOException {
+        Decoder decoder = new Decoder(in);
+
+        if (decoder.readFixedInt() != MAGIC) {
+            throw new IOException("LibrarySnapshotCodec: not a library snapshot");
+        }
+        int version = decoder.readVarInt();
+        if (version < 1 || version > VERSION) {
+            throw new IOException(String.format("LibrarySnapshotCodec: unsupported version: %d", version));
+        }
+        long sequence = decoder.readVarLong();
+        int nextBookId = decoder.readVarInt();
+        int nextPatronId = decoder.readVarInt();
+        int nextLoanId = decoder.readVarInt();
+
+        String[] strings = StringTable.readFrom(decoder);
+        BookState[] bookStates = BookState.values();
+        PatronState[] patronStates = PatronState.values();
+        LoanState[] loanStates = LoanState.values();
+
+        int bookCount = decoder.readVarInt();
+        Map<Integer, IBook> catalog = new IntObjectMap<>(bookCount);
+        for (int i = 0; i < bookCount; i++) {
+            int id = decoder.readVarInt();
+            String author = strings[decoder.readVarInt()];
+            String title = strings[decoder.readVarInt()];
+            String callNumber = strings[decoder.readVarInt()];
+            BookState state = bookStates[decoder.readByte()];
+            catalog.put(id, new Book(author, title, callNumber, id, state));
+        }
+
+        int patronCount = decoder.readVarInt();
+        Map<Integer, IPatron> patrons = new IntObjectMap<>(patronCount);
+        IntObjectMap<Map<Integer, ILoan>> patronLoans = new IntObjectMap<>(patronCount);
+        for (int i = 0; i < patronCount; i++) {
+            int id = decoder.readVarInt();
+            String lastName = strings[decoder.readVarInt()];
+            String firstName = strings[decoder.readVarInt()];
+            String email = strings[decoder.readVarInt()];
+            long phoneNo = decoder.readVarLong();
+            double finesPayable = decoder.readDouble();
+            PatronState state = patronStates[decoder.readByte()];
+
+            Map<Integer, ILoan> currentPatronLoans = new IntObjectMap<>();
+            IPatron patron = new Patron(lastName, firstName, email, phoneNo, id, state, currentPatronLoans);
+            if (finesPayable != 0.0) {
+                patron.incurFine(finesPayable);
+            }
+            patrons.put(id, patron);
+            patronLoans.put(id, currentPatronLoans);
+        }
+
+        int loanCount = decoder.readVarInt();
+        Map<Integer, ILoan> loans = new IntObjectMap<>(loanCount);
+        Map<Integer, ILoan> currentLoans = new IntObjectMap<>();
+        long dueDate = 0;
+        for (int i = 0; i < loanCount; i++) {
+            int id = decoder.readVarInt();
+            int bookId = decoder.readVarInt();
+            int patronId = decoder.readVarInt();
+            dueDate += decoder.readSignedVarLong();
+            LoanState state = loanStates[decoder.readByte()];
+
+            IBook book = catalog.get(bookId);
+            IPatron patron = patrons.get(patronId);
+            if (book == null || patron == null) {
+                throw new IOException(String.format("LibrarySnapshotCodec: loan %d refers to a missing book or patron", id));
+            }
+            ILoan loan = new Loan(book, patron, id, new Date(dueDate), state);
+            loans.put(id, loan);
+            if (state == LoanState.CURRENT || state == LoanState.OVER_DUE) {
+                currentLoans.put(bookId, loan);
+                patronLoans.get(patronId).put(id, loan);
+            }
+        }
+
+        int damagedCount = decoder.readVarInt();
+        Map<Integer, IBook> damagedBooks = new IntObjectMap<>(damagedCount);
+        for (int i = 0; i < damagedCount; i++) {
+            int bookId = decoder.readVarInt();
+            damagedBooks.put(bookId, catalog.get(bookId));
+        }
+
+        Library library = new Library(bookHelper, patronHelper, loanHelper, catalog, patrons, loans,
+                currentLoans, damagedBooks, nextBookId, nextPatronId, nextLoanId);
+
+        if (version >= 2) {
+            int[][] patronIndexOrders = new int[decoder.readVarInt()][];
+            for (int i = 0; i < patronIndexOrders.length; i++) {
+                patronIndexOrders[i] = new int[decoder.readVarInt()];
+                for (int j = 0; j < patronIndexOrders[i].length; j++) {
+                    patronIndexOrders[i][j] = decoder.readVarInt();
+                }
+            }
+            if (!library.setPatronIndexOrders(patronIndexOrders)) {
+                throw new IOException("LibrarySnapshotCodec: patron indexes do not match the patrons");
+            }
+        }
+        return new Snapshot(library, sequence);
+    }
+
+
+    /*
+     * Distinct strings in first-use order. Index 0 stands for null.
+     */
+    private static final class StringTable {
+
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+
+        void add(String value) {
+            if (value != null && !indexes.containsKey(value)) {
+                values.add(value);
+                indexes.put(value, values.size());
+            }
+        }
+
+
+        int indexOf(String value) {
+            return value == null ? 0 : indexes.get(value);
+        }
+
+
+        void writeTo(Encoder encoder) throws IOException {
+            encoder.writeVarInt(values.size());
+            for (String value : values) {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                encoder.writeVarInt(bytes.length);
+                encoder.writeBytes(bytes);
+            }
+        }
+
+
+        static String[] readFrom(Decoder decoder) throws IOException {
+            int count = decoder.readVarInt();
+            String[] strings = new String[count + 1];
+            for (int i = 1; i <= count; i++) {
+                byte[] bytes = decoder.readBytes(decoder.readVarInt());
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return strings;
+        }
+    }
+
+
+    private static final class Encoder {
+
+        private final OutputStream out;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position;
+
+
+        Encoder(OutputStream out) {
+            this.out = out;
+        }
+
+
+        void writeByte(int value) throws IOException {
+            if (position == buffer.length) {
+                drain();
+            }
+            buffer[position++] = (byte) value;
+        }
+
+
+        void writeFixedInt(int value) throws IOException {
+            writeByte(value >>> 24);
+            writeByte(value >>> 16);
+            writeByte(value >>> 8);
+            writeByte(value);
+        }
+
+
+        void writeVarInt(int value) throws IOException {
+            while ((value & ~0x7f) != 0) {
+                writeByte((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            writeByte(value);
+        }
+
+
+        void writeVarLong(long value) throws IOException {
+            while ((value & ~0x7fL) != 0) {
+                writeByte((int) ((value & 0x7f) | 0x80));
+                value >>>= 7;
+            }
+            writeByte((int) value);
+        }
+
+
+        void writeSignedVarLong(long value) throws IOException {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+
+        void writeDouble(double value) throws IOException {
+            long bits = Double.doubleToLongBits(value);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                writeByte((int) (bits >>> shift));
+            }
+        }
+
+
+        void writeBytes(byte[] bytes) throws IOException {
+            if (bytes.length > buffer.length - position) {
+                drain();
+                if (bytes.length > buffer.length) {
+                    out.write(bytes);
+                    return;
+                }
+            }
+            System.arraycopy(bytes, 0, buffer, position, bytes.length);
+            position += bytes.length;
+        }
+
+
+        void flush() throws IOException {
+            drain();
+            out.flush();
+        }
+
+
+        private void drain() throws IOException {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+
+    private static final class Decoder {
+
+        private final InputStream in;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int position;
+        private int limit;
+
+
+        Decoder(InputStream in) {
+            this.in = in;
+        }
+
+
+        int readByte() throws IOException {
+            if (position == limit) {
+                fill();
+            }
+            return buffer[position++] & 0xff;
+        }
+
+
+        int readFixedInt() throws IOException {
+            return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+        }
+
+
+        int readVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("LibrarySnapshotCodec: malformed varint");
+        }
+
+
+        long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("LibrarySnapshotCodec: malformed varlong");
+        }
+
+
+        long readSignedVarLong() throws IOException {
+            long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+
+        double readDouble() throws IOException {
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits = (bits << 8) | readByte();
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+
+        byte[] readBytes(int length) throws IOException {
+            byte[] bytes = new byte[length];
+            int copied = 0;
+            while (copied < length) {
+                if (position == limit) {
+                    fill();
+                }
+                int count = Math.min(length - copied, limit - position);
+                System.arraycopy(buffer, position, bytes, copied, count);
+                position += count;
+                copied += count;
+            }
+            return bytes;
+        }
+
+
+        private void fill() throws IOException {
+            limit = in.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                throw new EOFException("LibrarySnapshotCodec: unexpected end of snapshot");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+package library.entities;
+
+import java.util.stream.Stream;
+
+/**
+ * One published state of a VersionedLibrary's maps: its catalog, patrons,
+ * loans, current loans and damaged books as they stood together between two
+ * operations. A version never changes, so it can be read for as long as a
+ * report needs without holding up the desks, and every lookup and stream on
+ * it agrees with the others: a loan that is current in the version is in
+ * its loans, a damaged book is not on loan, and so on.
+ *
+ * The entities themselves are the library's, not copies, so the fields of a
+ * book, patron or loan read through an old version may already show later
+ * changes. Loans moved to a loan archive are no longer in the loans map,
+ * and so not in the versions published after they moved.
+ */
+public final class LibraryVersion {
+
+    static final int CATALOG = 0;
+    static final int PATRONS = 1;
+    static final int LOANS = 2;
+    static final int CURRENT_LOANS = 3;
+    static final int DAMAGED_BOOKS = 4;
+    static final int MAPS = 5;
+
+    static final LibraryVersion EMPTY = new LibraryVersion(new PersistentIntMap<?>[] {PersistentIntMap.empty(),
+            PersistentIntMap.empty(), PersistentIntMap.empty(), PersistentIntMap.empty(), PersistentIntMap.empty()});
+
+    private final PersistentIntMap<?>[] maps;
+
+
+    LibraryVersion(PersistentIntMap<?>[] maps) {
+        this.maps = maps;
+    }
+
+
+    /**
+     * The version of a library's maps as they are now.
+     */
+    static LibraryVersion copyOf(Library library) {
+        return new LibraryVersion(new PersistentIntMap<?>[] {PersistentIntMap.copyOf(library.getCatalog()),
+                PersistentIntMap.copyOf(library.getPatrons()), PersistentIntMap.copyOf(library.getLoans()),
+                PersistentIntMap.copyOf(library.getCurrentLoans()), PersistentIntMap.copyOf(library.getDamagedBooks())});
+    }
+
+
+    @SuppressWarnings("unchecked")
+    <V> PersistentIntMap<V> map(int map) {
+        return (PersistentIntMap<V>) maps[map];
+    }
+
+
+    /* this version with maps[map] replaced */
+    LibraryVersion with(int map, PersistentIntMap<?> replacement) {
+        if (maps[map] == replacement) {
+            return this;
+        }
+        PersistentIntMap<?>[] copy = maps.clone();
+        copy[map] = replacement;
+        return new LibraryVersion(copy);
+    }
+
+
+    public IBook getBookById(int bookId) {
+        return this.<IBook>map(CATALOG).get(bookId);
+    }
+
+
+    public IPatron getPatronById(int patronId) {
+        return this.<IPatron>map(PATRONS).get(patronId);
+    }
+
+
+    public ILoan getLoanById(int loanId) {
+        return this.<ILoan>map(LOANS).get(loanId);
+    }
+
+
+    public ILoan getCurrentLoanByBookId(int bookId) {
+        return this.<ILoan>map(CURRENT_LOANS).get(bookId);
+    }
+
+
+    public boolean isDamaged(int bookId) {
+        return map(DAMAGED_BOOKS).containsKey(bookId);
+    }
+
+
+    public int getBookCount() {
+        return maps[CATALOG].size();
+    }
+
+
+    public int getPatronCount() {
+        return maps[PATRONS].size();
+    }
+
+
+    public int getCurrentLoanCount() {
+        return maps[CURRENT_LOANS].size();
+    }
+
+
+    public Stream<IBook> getBookStream() {
+        return this.<IBook>map(CATALOG).values().stream();
+    }
+
+
+    public Stream<IPatron> getPatronStream() {
+        return this.<IPatron>map(PATRONS).values().stream();
+    }
+
+
+    public Stream<ILoan> getLoanStream() {
+        return this.<ILoan>map(LOANS).values().stream();
+    }
+
+
+    public Stream<ILoan> getCurrentLoanStream() {
+        return this.<ILoan>map(CURRENT_LOANS).values().stream();
+    }
+
+
+    public Stream<IBook> getDamagedBookStream() {
+        return this.<IBook>map(DAMAGED_BOOKS).values().stream();
+    }
+
+}
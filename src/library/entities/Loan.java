@@ -1,11 +1,35 @@
 package library.entities;
 import java.io.Serializable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
-@SuppressWarnings("serial")
+/**
+ * A loan of a book to a patron. Like Book, it changes state by compareAndSet
+ * through the STATE handle, so a loan is committed, goes overdue and is
+ * discharged at most once however many desks try at the same time.
+ *
+ * A commit claims the book first, then the patron, and moves the loan to
+ * CURRENT last, undoing the claims if a later step fails; a loan seen as
+ * CURRENT therefore always holds its book, its patron and its due date.
+ */
 public class Loan implements Serializable, ILoan {
 
+    // Pinned to the value of the first release, so a library.obj it wrote still loads.
+    private static final long serialVersionUID = -5356066336845697405L;
+
+    private static final VarHandle STATE;
+
+    static {
+        try {
+            STATE = MethodHandles.lookup().findVarHandle(Loan.class, "state", LoanState.class);
+        }
+        catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     private int loanId;
     private IBook book;
     private IPatron patron;
@@ -55,26 +79,50 @@ public class Loan implements Serializable, ILoan {
     }
 
     
+    /* package-private getter for persistence */
+    LoanState getState() {
+        return (LoanState) STATE.getAcquire(this);
+    }
+
+    
     @Override
     public void commit(int loanId, Date dueDate) {
-        if (state != LoanState.PENDING) {
+        if (!isPending()) {
             throw new RuntimeException("Cannot commit a non PENDING loan");
         }
-        this.loanId = loanId;
-        this.dueDate = dueDate;
-        this.state = LoanState.CURRENT;
-        
-        patron.takeOutLoan(this);
-        book.borrowFromLibrary();                
+        book.borrowFromLibrary();
+        try {
+            this.loanId = loanId;
+            this.dueDate = dueDate;
+            patron.takeOutLoan(this);
+            try {
+                if (!STATE.compareAndSet(this, LoanState.PENDING, LoanState.CURRENT)) {
+                    throw new RuntimeException("Cannot commit a non PENDING loan");
+                }
+            }
+            catch (RuntimeException e) {
+                patron.dischargeLoan(this);
+                throw e;
+            }
+        }
+        catch (RuntimeException e) {
+            this.loanId = 0;
+            this.dueDate = null;
+            book.returnToLibrary(false);
+            throw e;
+        }
     }
 
     
     @Override
     public void discharge(boolean isDamaged) {
-        if (! (state == LoanState.CURRENT || state == LoanState.OVER_DUE)) {
-            throw new RuntimeException("Cannot discharge a loand that is not CURRENT or OVERDUE");
-        }
-        state = LoanState.DISCHARGED;
+        LoanState current;
+        do {
+            current = getState();
+            if (! (current == LoanState.CURRENT || current == LoanState.OVER_DUE)) {
+                throw new RuntimeException("Cannot discharge a loand that is not CURRENT or OVERDUE");
+            }
+        } while (!STATE.compareAndSet(this, current, LoanState.DISCHARGED));
 
         patron.dischargeLoan(this);
         book.returnToLibrary(isDamaged);
@@ -83,8 +131,9 @@ public class Loan implements Serializable, ILoan {
 
     @Override
     public boolean checkOverDue(Date currentDate) {
-        if (state == LoanState.CURRENT && currentDate.after(dueDate)) {
-            this.state = LoanState.OVER_DUE;
+        if (getState() == LoanState.CURRENT && currentDate.after(dueDate)
+                && STATE.compareAndSet(this, LoanState.CURRENT, LoanState.OVER_DUE)) {
+            patron.loanOverDue(this);
             return true;
         }
         return false;
@@ -93,16 +142,16 @@ public class Loan implements Serializable, ILoan {
     
     @Override
     public boolean isOverDue() {
-        return state == LoanState.OVER_DUE;
+        return getState() == LoanState.OVER_DUE;
     }
 
     
     public boolean isCurrent() {
-        return state == LoanState.CURRENT;
+        return getState() == LoanState.CURRENT;
     }
     
     public boolean isPending() {
-        return state == LoanState.PENDING;
+        return getState() == LoanState.PENDING;
     }
 
     
@@ -121,7 +170,7 @@ public class Loan implements Serializable, ILoan {
             .append(patronlastName).append(", ").append(patronFirstName).append("\n")
             .append("  Book ").append(bookId).append(" : ").append(bookTitle).append("\n")
             .append("  DueDate: ").append(dueDateString).append("\n")
-            .append("  State: ").append(state);
+            .append("  State: ").append(getState());
         
         return stringBuilder.toString();
     }
@@ -0,0 +1,529 @@
+package library.entities;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import library.entities.ILoan.LoanState;
+
+/**
+ * Append-only file of discharged loans, kept out of the heap.
+ *
+ * Loans are written in blocks of up to BLOCK_SIZE. Each block lists its loan
+ * ids uncompressed, followed by the deflated book id, patron id and due date
+ * of each loan:
+ *
+ *   int count | int payload length | int[count] loan ids | payload | int crc32
+ *
+ * Opening the archive reads the id lists to build an index from loan id to
+ * block, so a lookup inflates one block. A torn block at the tail is cut off
+ * when the archive is opened. Archived loans are rebuilt on demand against
+ * the books and patrons of the library they came from.
+ *
+ * Appended loans are held in memory until flush writes the complete blocks
+ * or sync writes everything, so the owner decides when they may reach the
+ * file relative to its own log.
+ *
+ * The archive is synchronized, so desks of a ConcurrentLibrary can discharge
+ * loans into it at the same time.
+ */
+public final class LoanArchive implements AutoCloseable {
+
+    public static final int BLOCK_SIZE = 512;
+
+    private static final int MAGIC = 0x42524c41;	// "BRLA"
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 2;
+    private static final int LOAN_RECORD = 4 + 4 + 8;
+
+    private final Path path;
+    private final FileChannel channel;
+
+    /* block number + 1 of each archived loan id, 0 if not archived */
+    private int[] blockByLoanId = new int[1024];
+    private long[] blockOffsets = new long[64];
+    private int blockCount;
+    private long loanCount;
+
+    private final Map<Integer, ArchivedLoan> pending = new LinkedHashMap<>();
+    private int cachedBlock = -1;
+    private Map<Integer, ArchivedLoan> cachedLoans;
+
+
+    private LoanArchive(Path path, FileChannel channel) {
+        this.path = path;
+        this.channel = channel;
+    }
+
+
+    /**
+     * Opens the archive at path, creating it if needed, indexes its blocks and
+     * discards a torn block at its tail.
+     */
+    public static LoanArchive open(Path path) {
+        try {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            LoanArchive archive = new LoanArchive(path, channel);
+            if (channel.size() < HEADER_SIZE) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putShort(VERSION);
+                header.flip();
+                channel.truncate(0);
+                channel.write(header, 0);
+                channel.force(true);
+            }
+            long validLength = archive.scan();
+            if (validLength < channel.size()) {
+                channel.truncate(validLength);
+                channel.force(true);
+            }
+            return archive;
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    public Path getPath() {
+        return path;
+    }
+
+
+    /**
+     * Number of loans in the archive, including those not yet written.
+     */
+    public synchronized long getLoanCount() {
+        return loanCount + pending.size();
+    }
+
+
+    /**
+     * Number of appended loans not yet written to the file.
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+
+    public synchronized boolean contains(int loanId) {
+        return pending.containsKey(loanId) || blockOf(loanId) >= 0;
+    }
+
+
+    /**
+     * Adds a discharged loan. Loans already archived are ignored, so replaying
+     * a discharge does not duplicate it.
+     */
+    public synchronized void append(ILoan loan) {
+        if (loan.getId() <= 0 || loan.getDueDate() == null) {
+            throw new RuntimeException("LoanArchive: append: loan has not been committed");
+        }
+        if (contains(loan.getId())) {
+            return;
+        }
+        pending.put(loan.getId(), new ArchivedLoan(loan.getId(), loan.getBook().getId(), loan.getPatron().getId(),
+                loan.getDueDate().getTime()));
+    }
+
+
+    /**
+     * Writes the pending loans that fill complete blocks.
+     */
+    public synchronized void flush() {
+        while (pending.size() >= BLOCK_SIZE) {
+            writePending(BLOCK_SIZE);
+        }
+    }
+
+
+    /**
+     * Writes every pending loan and forces the file to the storage device.
+     */
+    public synchronized void sync() {
+        while (!pending.isEmpty()) {
+            writePending(Math.min(pending.size(), BLOCK_SIZE));
+        }
+        try {
+            channel.force(false);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    /**
+     * The archived loan with loanId, rebuilt with the books and patrons given
+     * by the lookups, or null if it is not archived.
+     */
+    public synchronized ILoan getLoan(int loanId, IntFunction<IBook> books, IntFunction<IPatron> patrons) {
+        ArchivedLoan archived = pending.get(loanId);
+        if (archived == null) {
+            int block = blockOf(loanId);
+            if (block < 0) {
+                return null;
+            }
+            archived = readBlock(block).get(loanId);
+        }
+        return archived.toLoan(books, patrons);
+    }
+
+
+    /**
+     * Up to limit ids of archived loans, written or not, greater than
+     * afterId, in ascending order.
+     */
+    public synchronized int[] getLoanIdsAfter(int afterId, int limit) {
+        int[] written = new int[Math.max(0, (int) Math.min(limit, loanCount))];
+        int count = 0;
+        for (int id = Math.max(afterId, 0) + 1; id < blockByLoanId.length && count < written.length; id++) {
+            if (blockByLoanId[id] != 0) {
+                written[count++] = id;
+            }
+        }
+        int[] unwritten = pending.keySet().stream().mapToInt(Integer::intValue).filter(id -> id > afterId).sorted()
+                .limit(Math.max(0, limit)).toArray();
+        int[] merged = new int[Math.min(Math.max(0, limit), count + unwritten.length)];
+        for (int i = 0, w = 0, u = 0; i < merged.length; i++) {
+            merged[i] = u == unwritten.length || (w < count && written[w] < unwritten[u]) ? written[w++] : unwritten[u++];
+        }
+        return merged;
+    }
+
+
+    /**
+     * The archived loans with loanIds, in that order, null where a loan is
+     * not archived. Each block is inflated once however many of the loans it
+     * holds.
+     */
+    public synchronized List<ILoan> getLoans(int[] loanIds, IntFunction<IBook> books, IntFunction<IPatron> patrons) {
+        ArchivedLoan[] found = new ArchivedLoan[loanIds.length];
+        long[] byBlock = new long[loanIds.length];
+        int written = 0;
+        for (int i = 0; i < loanIds.length; i++) {
+            found[i] = pending.get(loanIds[i]);
+            int block = found[i] == null ? blockOf(loanIds[i]) : -1;
+            if (block >= 0) {
+                byBlock[written++] = (long) block << 32 | i;
+            }
+        }
+        Arrays.sort(byBlock, 0, written);
+        for (int j = 0; j < written; j++) {
+            int i = (int) byBlock[j];
+            found[i] = readBlock((int) (byBlock[j] >>> 32)).get(loanIds[i]);
+        }
+        List<ILoan> loans = new ArrayList<>(loanIds.length);
+        for (ArchivedLoan archived : found) {
+            loans.add(archived == null ? null : archived.toLoan(books, patrons));
+        }
+        return loans;
+    }
+
+
+    /**
+     * Every archived loan, in the order archived, decoding one block at a time.
+     */
+    public synchronized Stream<ILoan> stream(IntFunction<IBook> books, IntFunction<IPatron> patrons) {
+        int blocks = blockCount;
+        List<ArchivedLoan> unwritten = new ArrayList<>(pending.values());
+        Iterator<ILoan> loans = new Iterator<ILoan>() {
+
+            private int block = 0;
+            private Iterator<ArchivedLoan> current = Collections.emptyIterator();
+
+
+            @Override
+            public boolean hasNext() {
+                while (!current.hasNext() && block <= blocks) {
+                    current = block < blocks ? readBlock(block).values().iterator() : unwritten.iterator();
+                    block++;
+                }
+                return current.hasNext();
+            }
+
+
+            @Override
+            public ILoan next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return current.next().toLoan(books, patrons);
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliterator(loans, loanCount + unwritten.size(),
+                Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.DISTINCT), false);
+    }
+
+
+    @Override
+    public synchronized void close() {
+        try {
+            sync();
+            channel.close();
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    private int blockOf(int loanId) {
+        if (loanId <= 0 || loanId >= blockByLoanId.length) {
+            return -1;
+        }
+        return blockByLoanId[loanId] - 1;
+    }
+
+
+    private void index(int loanId, int block) {
+        if (loanId >= blockByLoanId.length) {
+            blockByLoanId = Arrays.copyOf(blockByLoanId, Math.max(loanId + 1, blockByLoanId.length * 2));
+        }
+        blockByLoanId[loanId] = block + 1;
+    }
+
+
+    private void addBlock(long offset, int[] loanIds) {
+        if (blockCount == blockOffsets.length) {
+            blockOffsets = Arrays.copyOf(blockOffsets, blockCount * 2);
+        }
+        blockOffsets[blockCount] = offset;
+        for (int loanId : loanIds) {
+            index(loanId, blockCount);
+        }
+        blockCount++;
+        loanCount += loanIds.length;
+    }
+
+
+    /*
+     * Indexes every complete block and returns the length of the valid part
+     * of the file.
+     */
+    private long scan() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        channel.read(header, 0);
+        header.flip();
+        if (header.getInt() != MAGIC) {
+            throw new IOException(String.format("LoanArchive: not a loan archive: %s", path));
+        }
+        short version = header.getShort();
+        if (version != VERSION) {
+            throw new IOException(String.format("LoanArchive: unsupported version: %d", version));
+        }
+
+        long size = channel.size();
+        long offset = HEADER_SIZE;
+        ByteBuffer lengths = ByteBuffer.allocate(8);
+        while (offset + 8 <= size) {
+            lengths.clear();
+            channel.read(lengths, offset);
+            lengths.flip();
+            int count = lengths.getInt();
+            int payloadLength = lengths.getInt();
+            if (count <= 0 || count > BLOCK_SIZE || payloadLength < 0
+                    || offset + 8 + count * 4L + payloadLength + 4 > size) {
+                break;
+            }
+            ByteBuffer body = ByteBuffer.allocate(count * 4 + payloadLength + 4);
+            while (body.hasRemaining()) {
+                channel.read(body, offset + 8 + body.position());
+            }
+            body.flip();
+            CRC32 crc = new CRC32();
+            crc.update(body.array(), 0, count * 4 + payloadLength);
+            if (body.getInt(count * 4 + payloadLength) != (int) crc.getValue()) {
+                break;
+            }
+            int[] loanIds = new int[count];
+            body.asIntBuffer().get(loanIds);
+            addBlock(offset, loanIds);
+            offset += 8 + count * 4L + payloadLength + 4;
+        }
+        return offset;
+    }
+
+
+    /*
+     * Writes the first count pending loans as a block.
+     */
+    private void writePending(int count) {
+        try {
+            ByteArrayOutputStream records = new ByteArrayOutputStream(count * LOAN_RECORD);
+            DataOutputStream out = new DataOutputStream(records);
+            int[] loanIds = new int[count];
+            Iterator<ArchivedLoan> loans = pending.values().iterator();
+            for (int i = 0; i < count; i++) {
+                ArchivedLoan loan = loans.next();
+                loanIds[i] = loan.loanId;
+                out.writeInt(loan.bookId);
+                out.writeInt(loan.patronId);
+                out.writeLong(loan.dueDate);
+            }
+            byte[] payload = deflate(records.toByteArray());
+
+            ByteBuffer block = ByteBuffer.allocate(8 + count * 4 + payload.length + 4);
+            block.putInt(count).putInt(payload.length);
+            for (int loanId : loanIds) {
+                block.putInt(loanId);
+            }
+            block.put(payload);
+            CRC32 crc = new CRC32();
+            crc.update(block.array(), 8, count * 4 + payload.length);
+            block.putInt((int) crc.getValue());
+            block.flip();
+
+            long offset = channel.size();
+            while (block.hasRemaining()) {
+                channel.write(block, offset + block.position());
+            }
+            addBlock(offset, loanIds);
+            for (int loanId : loanIds) {
+                pending.remove(loanId);
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    /*
+     * The most recently read block is kept decoded, so lookups of loans
+     * archived together inflate it once.
+     */
+    private synchronized Map<Integer, ArchivedLoan> readBlock(int block) {
+        if (block == cachedBlock) {
+            return cachedLoans;
+        }
+        try {
+            long offset = blockOffsets[block];
+            ByteBuffer lengths = ByteBuffer.allocate(8);
+            channel.read(lengths, offset);
+            lengths.flip();
+            int count = lengths.getInt();
+            int payloadLength = lengths.getInt();
+            ByteBuffer body = ByteBuffer.allocate(count * 4 + payloadLength);
+            while (body.hasRemaining()) {
+                channel.read(body, offset + 8 + body.position());
+            }
+            body.flip();
+            int[] loanIds = new int[count];
+            body.asIntBuffer().get(loanIds);
+            byte[] records = inflate(body.array(), count * 4, payloadLength, count * LOAN_RECORD);
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(records));
+            Map<Integer, ArchivedLoan> loans = new LinkedHashMap<>();
+            for (int loanId : loanIds) {
+                loans.put(loanId, new ArchivedLoan(loanId, in.readInt(), in.readInt(), in.readLong()));
+            }
+            cachedBlock = block;
+            cachedLoans = loans;
+            return loans;
+        }
+        catch (IOException | DataFormatException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            List<byte[]> chunks = new ArrayList<>();
+            int length = 0;
+            while (!deflater.finished()) {
+                byte[] chunk = new byte[Math.max(64, data.length / 2)];
+                int written = deflater.deflate(chunk);
+                chunks.add(Arrays.copyOf(chunk, written));
+                length += written;
+            }
+            ByteBuffer result = ByteBuffer.allocate(length);
+            for (byte[] chunk : chunks) {
+                result.put(chunk);
+            }
+            return result.array();
+        }
+        finally {
+            deflater.end();
+        }
+    }
+
+
+    private static byte[] inflate(byte[] data, int offset, int length, int expectedLength) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data, offset, length);
+            byte[] result = new byte[expectedLength];
+            int read = 0;
+            while (read < expectedLength && !inflater.finished()) {
+                read += inflater.inflate(result, read, expectedLength - read);
+            }
+            if (read != expectedLength) {
+                throw new DataFormatException("LoanArchive: block shorter than its loan count");
+            }
+            return result;
+        }
+        finally {
+            inflater.end();
+        }
+    }
+
+
+    /*
+     * A discharged loan held by id, without references to its book or patron.
+     */
+    private static final class ArchivedLoan {
+
+        final int loanId;
+        final int bookId;
+        final int patronId;
+        final long dueDate;
+
+
+        ArchivedLoan(int loanId, int bookId, int patronId, long dueDate) {
+            this.loanId = loanId;
+            this.bookId = bookId;
+            this.patronId = patronId;
+            this.dueDate = dueDate;
+        }
+
+
+        ILoan toLoan(IntFunction<IBook> books, IntFunction<IPatron> patrons) {
+            IBook book = books.apply(bookId);
+            IPatron patron = patrons.apply(patronId);
+            if (book == null || patron == null) {
+                throw new RuntimeException(String.format("LoanArchive: loan %d refers to a missing book or patron", loanId));
+            }
+            return new Loan(book, patron, loanId, new Date(dueDate), LoanState.DISCHARGED);
+        }
+    }
+
+}
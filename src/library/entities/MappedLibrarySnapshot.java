@@ -0,0 +1,542 @@
+package library.entities;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import library.entities.IBook.BookState;
+import library.entities.ILoan.LoanState;
+import library.entities.IPatron.PatronState;
+import library.entities.helpers.IBookHelper;
+import library.entities.helpers.ILoanHelper;
+import library.entities.helpers.IPatronHelper;
+
+/**
+ * Library snapshot file laid out to be opened with FileChannel.map.
+ *
+ * Books, patrons and loans are stored as fixed-width records in slots indexed
+ * by id, so the record for an id is found by arithmetic instead of by reading
+ * the file. Opening a snapshot maps the sections and reads the header only;
+ * the library it returns decodes each entity the first time it is looked up.
+ *
+ *   header           - counters, section offsets and record counts
+ *   string data      - int length | utf-8 bytes, for every distinct string
+ *   string offsets   - long offset into string data of each string
+ *   books            - state | author, title, call number refs | current loan id
+ *   patrons          - state | name and email refs | phone | fines | loan list
+ *   patron loan ids  - current loan ids, referenced by the patron loan lists
+ *   loans            - state | book id | patron id | due date
+ *   patron indexes   - int length | patron ids, for each patron index order
+ *
+ * A state byte of 0 marks an empty slot; otherwise it is the state ordinal
+ * plus one. String ref 0 is null. Each section must be smaller than 2 GB.
+ * The patron index orders are read by the first patron lookup, so that the
+ * patrons need not be sorted again; version 1 snapshots have none.
+ */
+public final class MappedLibrarySnapshot {
+
+    public static final int MAGIC = 0x42524c4d;	// "BRLM"
+    public static final int VERSION = 2;
+
+    private static final int VERSION_1_HEADER_SIZE = 116;
+    private static final int HEADER_SIZE = VERSION_1_HEADER_SIZE + 4 + 8 + 8;
+    private static final int BOOK_RECORD = 1 + 4 * 4;
+    private static final int PATRON_RECORD = 1 + 3 * 4 + 8 + 8 + 4 + 4;
+    private static final int LOAN_RECORD = 1 + 4 + 4 + 8;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+
+    private MappedLibrarySnapshot() {
+    }
+
+
+    public static boolean isMappedSnapshot(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            return channel.read(magic, 0) == 4 && magic.getInt(0) == MAGIC;
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+
+    public static void write(ILibrary library, long sequence, Path path) throws IOException {
+        write(LibraryImage.capture(library), sequence, path);
+    }
+
+
+    /**
+     * Writes a snapshot of image. Only reads the image, so it can run on a
+     * different thread from the one that captured it.
+     */
+    public static void write(LibraryImage image, long sequence, Path path) throws IOException {
+        int maxBookId = image.nextBookId - 1;
+        int maxPatronId = image.nextPatronId - 1;
+        int maxLoanId = image.nextLoanId - 1;
+
+        Map<String, Integer> stringRefs = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        for (int slot = 0; slot < maxBookId; slot++) {
+            if (image.bookStates[slot] != 0) {
+                addString(image.authors[slot], stringRefs, strings);
+                addString(image.titles[slot], stringRefs, strings);
+                addString(image.callNumbers[slot], stringRefs, strings);
+            }
+        }
+        for (int slot = 0; slot < maxPatronId; slot++) {
+            if (image.patronStates[slot] != 0) {
+                addString(image.lastNames[slot], stringRefs, strings);
+                addString(image.firstNames[slot], stringRefs, strings);
+                addString(image.emailAddresses[slot], stringRefs, strings);
+            }
+        }
+
+        try (FileOutputStream fileOut = new FileOutputStream(path.toFile())) {
+            CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(fileOut, BUFFER_SIZE));
+            DataOutputStream out = new DataOutputStream(counter);
+            out.write(new byte[HEADER_SIZE]);
+
+            long stringDataOffset = counter.getCount();
+            long[] stringOffsets = new long[strings.size()];
+            for (int i = 0; i < strings.size(); i++) {
+                byte[] bytes = strings.get(i).getBytes(StandardCharsets.UTF_8);
+                stringOffsets[i] = counter.getCount() - stringDataOffset;
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            long stringOffsetsOffset = counter.getCount();
+            for (long offset : stringOffsets) {
+                out.writeLong(offset);
+            }
+
+            long bookOffset = counter.getCount();
+            for (int slot = 0; slot < maxBookId; slot++) {
+                if (image.bookStates[slot] == 0) {
+                    out.write(new byte[BOOK_RECORD]);
+                    continue;
+                }
+                out.writeByte(image.bookStates[slot]);
+                out.writeInt(stringRef(image.authors[slot], stringRefs));
+                out.writeInt(stringRef(image.titles[slot], stringRefs));
+                out.writeInt(stringRef(image.callNumbers[slot], stringRefs));
+                out.writeInt(image.currentLoanIds[slot]);
+            }
+
+            long patronOffset = counter.getCount();
+            int patronLoanCount = 0;
+            for (int slot = 0; slot < maxPatronId; slot++) {
+                if (image.patronStates[slot] == 0) {
+                    out.write(new byte[PATRON_RECORD]);
+                    continue;
+                }
+                out.writeByte(image.patronStates[slot]);
+                out.writeInt(stringRef(image.lastNames[slot], stringRefs));
+                out.writeInt(stringRef(image.firstNames[slot], stringRefs));
+                out.writeInt(stringRef(image.emailAddresses[slot], stringRefs));
+                out.writeLong(image.phoneNumbers[slot]);
+                out.writeDouble(image.finesPayable[slot]);
+                out.writeInt(patronLoanCount);
+                out.writeInt(image.patronLoanIds[slot].length);
+                patronLoanCount += image.patronLoanIds[slot].length;
+            }
+
+            long patronLoanOffset = counter.getCount();
+            for (int slot = 0; slot < maxPatronId; slot++) {
+                if (image.patronStates[slot] != 0) {
+                    for (int loanId : image.patronLoanIds[slot]) {
+                        out.writeInt(loanId);
+                    }
+                }
+            }
+
+            long loanOffset = counter.getCount();
+            for (int slot = 0; slot < maxLoanId; slot++) {
+                if (image.loanStates[slot] == 0) {
+                    out.write(new byte[LOAN_RECORD]);
+                    continue;
+                }
+                out.writeByte(image.loanStates[slot]);
+                out.writeInt(image.loanBookIds[slot]);
+                out.writeInt(image.loanPatronIds[slot]);
+                out.writeLong(image.dueDates[slot]);
+            }
+
+            long patronIndexOffset = counter.getCount();
+            for (int[] order : image.patronIndexOrders) {
+                out.writeInt(order.length);
+                for (int patronId : order) {
+                    out.writeInt(patronId);
+                }
+            }
+            long patronIndexSize = counter.getCount() - patronIndexOffset;
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(sequence)
+                .putInt(maxBookId + 1).putInt(maxPatronId + 1).putInt(maxLoanId + 1)
+                .putInt(strings.size()).putLong(stringDataOffset).putLong(stringOffsetsOffset)
+                .putInt(maxBookId).putInt(image.bookCount).putLong(bookOffset)
+                .putInt(maxPatronId).putInt(image.patronCount).putLong(patronOffset)
+                .putInt(maxLoanId).putInt(image.loanCount).putLong(loanOffset)
+                .putInt(patronLoanCount).putLong(patronLoanOffset)
+                .putInt(image.currentLoanCount).putInt(image.damagedCount)
+                .putInt(image.patronIndexOrders.length).putLong(patronIndexOffset).putLong(patronIndexSize);
+            header.flip();
+            FileChannel channel = fileOut.getChannel();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+        }
+    }
+
+
+    /**
+     * Maps the snapshot at path and returns a library that reads its entities
+     * from the mapping on demand. The mapping stays valid after the file is
+     * replaced by rename or deleted.
+     */
+    public static LibrarySnapshotCodec.Snapshot open(Path path, IBookHelper bookHelper, IPatronHelper patronHelper,
+            ILoanHelper loanHelper) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.limit(VERSION_1_HEADER_SIZE);
+            readHeader(channel, header);
+            if (header.getInt(0) != MAGIC) {
+                throw new IOException("MappedLibrarySnapshot: not a mapped library snapshot");
+            }
+            int version = header.getInt(4);
+            if (version < 1 || version > VERSION) {
+                throw new IOException(String.format("MappedLibrarySnapshot: unsupported version: %d", version));
+            }
+            if (version > 1) {
+                header.limit(HEADER_SIZE);
+                readHeader(channel, header);
+            }
+            header.flip();
+            header.position(8);
+            long sequence = header.getLong();
+            int nextBookId = header.getInt();
+            int nextPatronId = header.getInt();
+            int nextLoanId = header.getInt();
+
+            int stringCount = header.getInt();
+            long stringDataOffset = header.getLong();
+            long stringOffsetsOffset = header.getLong();
+            int maxBookId = header.getInt();
+            int bookCount = header.getInt();
+            long bookOffset = header.getLong();
+            int maxPatronId = header.getInt();
+            int patronCount = header.getInt();
+            long patronOffset = header.getLong();
+            int maxLoanId = header.getInt();
+            int loanCount = header.getInt();
+            long loanOffset = header.getLong();
+            int patronLoanCount = header.getInt();
+            long patronLoanOffset = header.getLong();
+            int currentLoanCount = header.getInt();
+            int damagedCount = header.getInt();
+            int patronIndexCount = version > 1 ? header.getInt() : 0;
+            long patronIndexOffset = version > 1 ? header.getLong() : 0;
+            long patronIndexSize = version > 1 ? header.getLong() : 0;
+
+            Reader reader = new Reader(
+                    map(channel, stringDataOffset, stringOffsetsOffset - stringDataOffset),
+                    map(channel, stringOffsetsOffset, (long) stringCount * 8),
+                    map(channel, bookOffset, (long) maxBookId * BOOK_RECORD),
+                    map(channel, patronOffset, (long) maxPatronId * PATRON_RECORD),
+                    map(channel, patronLoanOffset, (long) patronLoanCount * 4),
+                    map(channel, loanOffset, (long) maxLoanId * LOAN_RECORD),
+                    maxBookId, bookCount, maxPatronId, patronCount, maxLoanId, loanCount,
+                    currentLoanCount, damagedCount);
+
+            Library library = new Library(bookHelper, patronHelper, loanHelper, reader.catalog, reader.patrons,
+                    reader.loans, reader.currentLoans, reader.damagedBooks, nextBookId, nextPatronId, nextLoanId);
+            if (patronIndexCount > 0) {
+                ByteBuffer patronIndexes = map(channel, patronIndexOffset, patronIndexSize);
+                library.setStoredPatronIndexOrders(() -> readPatronIndexOrders(patronIndexes, patronIndexCount));
+            }
+            return new LibrarySnapshotCodec.Snapshot(library, sequence);
+        }
+    }
+
+
+    private static void readHeader(FileChannel channel, ByteBuffer header) throws IOException {
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                throw new IOException("MappedLibrarySnapshot: truncated header");
+            }
+        }
+    }
+
+
+    private static int[][] readPatronIndexOrders(ByteBuffer section, int count) {
+        int[][] orders = new int[count][];
+        int position = 0;
+        for (int i = 0; i < count; i++) {
+            orders[i] = new int[section.getInt(position)];
+            position += 4;
+            for (int j = 0; j < orders[i].length; j++) {
+                orders[i][j] = section.getInt(position);
+                position += 4;
+            }
+        }
+        return orders;
+    }
+
+
+    private static ByteBuffer map(FileChannel channel, long offset, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("MappedLibrarySnapshot: section larger than 2 GB");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+    }
+
+
+    private static void addString(String value, Map<String, Integer> refs, List<String> strings) {
+        if (value != null && !refs.containsKey(value)) {
+            strings.add(value);
+            refs.put(value, strings.size());
+        }
+    }
+
+
+    private static int stringRef(String value, Map<String, Integer> refs) {
+        return value == null ? 0 : refs.get(value);
+    }
+
+
+    /*
+     * Decodes records from the mapped sections into the lazy library maps.
+     */
+    private static final class Reader {
+
+        private final ByteBuffer stringData;
+        private final ByteBuffer stringOffsets;
+        private final ByteBuffer bookRecords;
+        private final ByteBuffer patronRecords;
+        private final ByteBuffer patronLoanIds;
+        private final ByteBuffer loanRecords;
+
+        private final BookState[] bookStates = BookState.values();
+        private final PatronState[] patronStates = PatronState.values();
+        private final LoanState[] loanStates = LoanState.values();
+
+        final LazyEntityMap<IBook> catalog;
+        final LazyEntityMap<IPatron> patrons;
+        final LazyEntityMap<ILoan> loans;
+        final LazyEntityMap<ILoan> currentLoans;
+        final LazyEntityMap<IBook> damagedBooks;
+
+
+        Reader(ByteBuffer stringData, ByteBuffer stringOffsets, ByteBuffer bookRecords,
+                ByteBuffer patronRecords, ByteBuffer patronLoanIds, ByteBuffer loanRecords,
+                int maxBookId, int bookCount, int maxPatronId, int patronCount, int maxLoanId, int loanCount,
+                int currentLoanCount, int damagedCount) {
+            this.stringData = stringData;
+            this.stringOffsets = stringOffsets;
+            this.bookRecords = bookRecords;
+            this.patronRecords = patronRecords;
+            this.patronLoanIds = patronLoanIds;
+            this.loanRecords = loanRecords;
+
+            catalog = new LazyEntityMap<IBook>(maxBookId, bookCount) {
+                @Override
+                protected boolean isStored(int id) {
+                    return bookRecords.get(bookPosition(id)) != 0;
+                }
+
+                @Override
+                protected IBook load(int id) {
+                    return loadBook(id);
+                }
+            };
+            patrons = new LazyEntityMap<IPatron>(maxPatronId, patronCount) {
+                @Override
+                protected boolean isStored(int id) {
+                    return patronRecords.get(patronPosition(id)) != 0;
+                }
+
+                @Override
+                protected IPatron load(int id) {
+                    return loadPatron(id, this);
+                }
+            };
+            loans = new LazyEntityMap<ILoan>(maxLoanId, loanCount) {
+                @Override
+                protected boolean isStored(int id) {
+                    return loanRecords.get(loanPosition(id)) != 0;
+                }
+
+                @Override
+                protected ILoan load(int id) {
+                    return loadLoan(id);
+                }
+            };
+            currentLoans = new LazyEntityMap<ILoan>(maxBookId, currentLoanCount) {
+                @Override
+                protected boolean isStored(int id) {
+                    return bookRecords.get(bookPosition(id)) != 0 && currentLoanId(id) != 0;
+                }
+
+                @Override
+                protected ILoan load(int id) {
+                    return loans.get(currentLoanId(id));
+                }
+            };
+            damagedBooks = new LazyEntityMap<IBook>(maxBookId, damagedCount) {
+                @Override
+                protected boolean isStored(int id) {
+                    return bookRecords.get(bookPosition(id)) == BookState.DAMAGED.ordinal() + 1;
+                }
+
+                @Override
+                protected IBook load(int id) {
+                    return catalog.get(id);
+                }
+            };
+        }
+
+
+        private static int bookPosition(int id) {
+            return (id - 1) * BOOK_RECORD;
+        }
+
+
+        private static int patronPosition(int id) {
+            return (id - 1) * PATRON_RECORD;
+        }
+
+
+        private static int loanPosition(int id) {
+            return (id - 1) * LOAN_RECORD;
+        }
+
+
+        private int currentLoanId(int bookId) {
+            return bookRecords.getInt(bookPosition(bookId) + 1 + 3 * 4);
+        }
+
+
+        private String string(int ref) {
+            if (ref == 0) {
+                return null;
+            }
+            int offset = (int) stringOffsets.getLong((ref - 1) * 8);
+            byte[] bytes = new byte[stringData.getInt(offset)];
+            stringData.get(offset + 4, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+
+        private IBook loadBook(int id) {
+            int position = bookPosition(id);
+            BookState state = bookStates[bookRecords.get(position) - 1];
+            String author = string(bookRecords.getInt(position + 1));
+            String title = string(bookRecords.getInt(position + 5));
+            String callNumber = string(bookRecords.getInt(position + 9));
+            return new Book(author, title, callNumber, id, state);
+        }
+
+
+        /*
+         * The patron is remembered before its current loans are decoded,
+         * because each of those loans looks the patron up again.
+         */
+        private IPatron loadPatron(int id, LazyEntityMap<IPatron> map) {
+            int position = patronPosition(id);
+            PatronState state = patronStates[patronRecords.get(position) - 1];
+            String lastName = string(patronRecords.getInt(position + 1));
+            String firstName = string(patronRecords.getInt(position + 5));
+            String email = string(patronRecords.getInt(position + 9));
+            long phoneNo = patronRecords.getLong(position + 13);
+            double finesPayable = patronRecords.getDouble(position + 21);
+            int loanListStart = patronRecords.getInt(position + 29);
+            int loanListCount = patronRecords.getInt(position + 33);
+
+            Map<Integer, ILoan> patronLoans = new IntObjectMap<>();
+            IPatron patron = new Patron(lastName, firstName, email, phoneNo, id, state, patronLoans);
+            if (finesPayable != 0.0) {
+                patron.incurFine(finesPayable);
+            }
+            map.remember(id, patron);
+            for (int i = 0; i < loanListCount; i++) {
+                int loanId = patronLoanIds.getInt((loanListStart + i) * 4);
+                patronLoans.put(loanId, loans.get(loanId));
+            }
+            return patron;
+        }
+
+
+        /*
+         * Looking up the patron can decode this loan as one of the patron's
+         * current loans; the instance created there is the one kept.
+         */
+        private ILoan loadLoan(int id) {
+            int position = loanPosition(id);
+            LoanState state = loanStates[loanRecords.get(position) - 1];
+            int bookId = loanRecords.getInt(position + 1);
+            int patronId = loanRecords.getInt(position + 5);
+            long dueDate = loanRecords.getLong(position + 9);
+
+            IPatron patron = patrons.get(patronId);
+            ILoan loan = loans.remembered(id);
+            if (loan != null) {
+                return loan;
+            }
+            IBook book = catalog.get(bookId);
+            if (book == null || patron == null) {
+                throw new RuntimeException(String.format("MappedLibrarySnapshot: loan %d refers to a missing book or patron", id));
+            }
+            return new Loan(book, patron, id, new Date(dueDate), state);
+        }
+    }
+
+
+    /*
+     * Counts bytes passed through, past the 2 GB limit of DataOutputStream.size.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+
+        long getCount() {
+            return count;
+        }
+    }
+
+}
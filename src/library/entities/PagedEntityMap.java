@@ -0,0 +1,244 @@
+package library.entities;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import library.storage.BPlusTree;
+
+/**
+ * Map from entity id to entity stored in a BPlusTree. Entities are decoded
+ * when they are looked up and written through to the tree when they are put,
+ * so the Library must put an entity back after changing it.
+ *
+ * The most recently used entities, up to workingSetSize, are held in memory;
+ * the rest may be collected. Every instance still reachable from elsewhere
+ * is found again by id, so a lookup never returns a second copy of an entity
+ * that is in use.
+ */
+abstract class PagedEntityMap<V> extends AbstractMap<Integer, V> {
+
+    private static final int ITERATION_BATCH = 256;
+
+    private final BPlusTree tree;
+    private final Map<Integer, V> workingSet;
+    private final Map<Integer, EntityReference<V>> inUse = new HashMap<>();
+    private final ReferenceQueue<V> collected = new ReferenceQueue<>();
+
+
+    PagedEntityMap(BPlusTree tree, int workingSetSize) {
+        this.tree = tree;
+        this.workingSet = new LinkedHashMap<Integer, V>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, V> eldest) {
+                return size() > workingSetSize;
+            }
+        };
+    }
+
+
+    protected abstract byte[] encode(V value);
+
+
+    /**
+     * Decodes the stored entry for id. Implementations that can reach this map
+     * again while decoding, through a cycle of references, must call remember
+     * before following the cycle.
+     */
+    protected abstract V decode(int id, byte[] bytes);
+
+
+    protected final void remember(int id, V value) {
+        workingSet.put(id, value);
+        inUse.put(id, new EntityReference<>(id, value, collected));
+    }
+
+
+    /**
+     * The instance in memory for id, without decoding it.
+     */
+    protected final V remembered(int id) {
+        V value = workingSet.get(id);
+        if (value == null) {
+            EntityReference<V> reference = inUse.get(id);
+            if (reference != null) {
+                value = reference.get();
+                if (value != null) {
+                    workingSet.put(id, value);
+                }
+            }
+        }
+        return value;
+    }
+
+
+    /* package-private for testing only */
+    int getResidentCount() {
+        expungeCollected();
+        return inUse.size();
+    }
+
+
+    @Override
+    public V get(Object key) {
+        if (!(key instanceof Integer)) {
+            return null;
+        }
+        expungeCollected();
+        int id = (Integer) key;
+        V value = remembered(id);
+        if (value == null) {
+            byte[] bytes = tree.get(id);
+            if (bytes != null) {
+                value = decode(id, bytes);
+                remember(id, value);
+            }
+        }
+        return value;
+    }
+
+
+    /**
+     * Up to limit keys greater than after, in ascending order, read from the
+     * tree without decoding their entities.
+     */
+    int[] keysAfter(int after, int limit) {
+        return after == Integer.MAX_VALUE || limit <= 0 ? new int[0] : tree.keysFrom(after + 1, limit);
+    }
+
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (!(key instanceof Integer)) {
+            return false;
+        }
+        int id = (Integer) key;
+        return remembered(id) != null || tree.containsKey(id);
+    }
+
+
+    @Override
+    public V put(Integer key, V value) {
+        if (value == null) {
+            throw new NullPointerException("PagedEntityMap: null values are not supported");
+        }
+        V previous = get(key);
+        tree.put(key, encode(value));
+        remember(key, value);
+        return previous;
+    }
+
+
+    @Override
+    public V remove(Object key) {
+        V previous = get(key);
+        if (previous != null) {
+            int id = (Integer) key;
+            tree.remove(id);
+            workingSet.remove(id);
+            inUse.remove(id);
+        }
+        return previous;
+    }
+
+
+    @Override
+    public int size() {
+        return (int) tree.size();
+    }
+
+
+    @Override
+    public Set<Map.Entry<Integer, V>> entrySet() {
+        return new AbstractSet<Map.Entry<Integer, V>>() {
+            @Override
+            public Iterator<Map.Entry<Integer, V>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return PagedEntityMap.this.size();
+            }
+        };
+    }
+
+
+    private void expungeCollected() {
+        Object reference;
+        while ((reference = collected.poll()) != null) {
+            EntityReference<?> entity = (EntityReference<?>) reference;
+            if (inUse.get(entity.id) == entity) {
+                inUse.remove(entity.id);
+            }
+        }
+    }
+
+
+    private static final class EntityReference<V> extends WeakReference<V> {
+
+        final int id;
+
+
+        EntityReference(int id, V value, ReferenceQueue<V> queue) {
+            super(value, queue);
+            this.id = id;
+        }
+    }
+
+
+    /*
+     * Walks the tree a batch of keys at a time, seeking past the last key
+     * returned, so entries put or removed during iteration do not upset it.
+     */
+    private final class EntryIterator implements Iterator<Map.Entry<Integer, V>> {
+
+        private int[] batch = tree.keysFrom(Integer.MIN_VALUE, ITERATION_BATCH);
+        private int index;
+        private Integer last;
+
+
+        @Override
+        public boolean hasNext() {
+            if (index < batch.length) {
+                return true;
+            }
+            if (batch.length < ITERATION_BATCH || batch[batch.length - 1] == Integer.MAX_VALUE) {
+                return false;
+            }
+            batch = tree.keysFrom(batch[batch.length - 1] + 1, ITERATION_BATCH);
+            index = 0;
+            return batch.length > 0;
+        }
+
+
+        @Override
+        public Map.Entry<Integer, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            last = batch[index++];
+            return new SimpleEntry<>(last, get(last));
+        }
+
+
+        @Override
+        public void remove() {
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+            PagedEntityMap.this.remove(last);
+            last = null;
+        }
+    }
+
+}
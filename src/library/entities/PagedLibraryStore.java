@@ -0,0 +1,354 @@
+package library.entities;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.Map;
+
+import library.entities.IBook.BookState;
+import library.entities.ILoan.LoanState;
+import library.entities.IPatron.PatronState;
+import library.entities.helpers.IBookHelper;
+import library.entities.helpers.ILoanHelper;
+import library.entities.helpers.IPatronHelper;
+import library.storage.BufferPool;
+import library.storage.PageStore;
+
+/**
+ * Library kept in a PageStore, with one B+tree per map: catalog, patrons and
+ * loans keyed by id, current loans and damaged books keyed by book id. The
+ * library's maps read entities from the trees on demand and write changes
+ * straight back, so only the working set of each map and the pages in the
+ * buffer pool are held in memory. Commit makes the changes durable.
+ *
+ *   book          - state | author | title | call number
+ *   patron        - state | last name | first name | email | phone | fines | loan ids
+ *   loan          - state | book id | patron id | due date
+ *   current loan  - loan id
+ *   damaged book  - empty
+ */
+public final class PagedLibraryStore implements AutoCloseable {
+
+    private static final int BOOKS = 0;
+    private static final int PATRONS = 1;
+    private static final int LOANS = 2;
+    private static final int CURRENT_LOANS = 3;
+    private static final int DAMAGED_BOOKS = 4;
+    private static final int TREE_COUNT = 5;
+
+    private static final int NEXT_BOOK_ID = 0;
+    private static final int NEXT_PATRON_ID = 1;
+    private static final int NEXT_LOAN_ID = 2;
+    private static final int COUNTER_COUNT = 3;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final PageStore store;
+    private final IBookHelper bookHelper;
+    private final IPatronHelper patronHelper;
+    private final ILoanHelper loanHelper;
+    private Library library;
+
+    private final BookState[] bookStates = BookState.values();
+    private final PatronState[] patronStates = PatronState.values();
+    private final LoanState[] loanStates = LoanState.values();
+
+    private final PagedEntityMap<IBook> catalog;
+    private final PagedEntityMap<IPatron> patrons;
+    private final PagedEntityMap<ILoan> loans;
+    private final PagedEntityMap<ILoan> currentLoans;
+    private final PagedEntityMap<IBook> damagedBooks;
+
+
+    private PagedLibraryStore(PageStore store, IBookHelper bookHelper, IPatronHelper patronHelper,
+            ILoanHelper loanHelper, int workingSetSize) {
+        this.store = store;
+        this.bookHelper = bookHelper;
+        this.patronHelper = patronHelper;
+        this.loanHelper = loanHelper;
+
+        catalog = new PagedEntityMap<IBook>(store.getTree(BOOKS), workingSetSize) {
+            @Override
+            protected byte[] encode(IBook book) {
+                return encodeBook((Book) book);
+            }
+
+            @Override
+            protected IBook decode(int id, byte[] bytes) {
+                return decodeBook(id, ByteBuffer.wrap(bytes));
+            }
+        };
+        patrons = new PagedEntityMap<IPatron>(store.getTree(PATRONS), workingSetSize) {
+            @Override
+            protected byte[] encode(IPatron patron) {
+                return encodePatron((Patron) patron);
+            }
+
+            @Override
+            protected IPatron decode(int id, byte[] bytes) {
+                return decodePatron(id, ByteBuffer.wrap(bytes), this);
+            }
+        };
+        loans = new PagedEntityMap<ILoan>(store.getTree(LOANS), workingSetSize) {
+            @Override
+            protected byte[] encode(ILoan loan) {
+                return encodeLoan((Loan) loan);
+            }
+
+            @Override
+            protected ILoan decode(int id, byte[] bytes) {
+                return decodeLoan(id, ByteBuffer.wrap(bytes));
+            }
+        };
+        currentLoans = new PagedEntityMap<ILoan>(store.getTree(CURRENT_LOANS), workingSetSize) {
+            @Override
+            protected byte[] encode(ILoan loan) {
+                return ByteBuffer.allocate(4).putInt(loan.getId()).array();
+            }
+
+            @Override
+            protected ILoan decode(int id, byte[] bytes) {
+                return loans.get(ByteBuffer.wrap(bytes).getInt());
+            }
+        };
+        damagedBooks = new PagedEntityMap<IBook>(store.getTree(DAMAGED_BOOKS), workingSetSize) {
+            @Override
+            protected byte[] encode(IBook book) {
+                return EMPTY;
+            }
+
+            @Override
+            protected IBook decode(int id, byte[] bytes) {
+                return catalog.get(id);
+            }
+        };
+        library = makeLibrary();
+    }
+
+
+    /**
+     * Opens the store at path, creating an empty one if there is none.
+     * bufferPages bounds the pages cached in memory and workingSetSize the
+     * entities each map keeps decoded.
+     */
+    public static PagedLibraryStore open(Path path, IBookHelper bookHelper, IPatronHelper patronHelper,
+            ILoanHelper loanHelper, int bufferPages, int workingSetSize) {
+        PageStore store = PageStore.open(path, TREE_COUNT, COUNTER_COUNT, bufferPages);
+        return new PagedLibraryStore(store, bookHelper, patronHelper, loanHelper, workingSetSize);
+    }
+
+
+    /**
+     * The library backed by this store. Its changes are written to the store
+     * as they are made, and are durable once committed.
+     */
+    public Library getLibrary() {
+        return library;
+    }
+
+
+    /**
+     * True if the store holds a committed library.
+     */
+    public boolean exists() {
+        return store.isCommitted();
+    }
+
+
+    /**
+     * Copies every entity of source into the store and commits, for moving a
+     * library kept elsewhere into it. The store must be empty. Libraries
+     * returned by getLibrary before the import must not be used after it.
+     */
+    public void importLibrary(ILibrary source) {
+        if (!(source instanceof Library)) {
+            throw new RuntimeException("PagedLibraryStore: importLibrary: library must be a Library");
+        }
+        if (!catalog.isEmpty() || !patrons.isEmpty() || !loans.isEmpty()) {
+            throw new RuntimeException("PagedLibraryStore: importLibrary: store is not empty");
+        }
+        Library from = (Library) source;
+        catalog.putAll(from.getCatalog());
+        patrons.putAll(from.getPatrons());
+        loans.putAll(from.getLoans());
+        currentLoans.putAll(from.getCurrentLoans());
+        damagedBooks.putAll(from.getDamagedBooks());
+        store.setCounter(NEXT_BOOK_ID, from.getCurrentlyIssuingBookId());
+        store.setCounter(NEXT_PATRON_ID, from.getCurrentlyIssuingPatronId());
+        store.setCounter(NEXT_LOAN_ID, from.getCurrentlyIssuingLoanId());
+        store.commit();
+        library = makeLibrary();
+    }
+
+
+    public void commit() {
+        store.setCounter(NEXT_BOOK_ID, library.getCurrentlyIssuingBookId());
+        store.setCounter(NEXT_PATRON_ID, library.getCurrentlyIssuingPatronId());
+        store.setCounter(NEXT_LOAN_ID, library.getCurrentlyIssuingLoanId());
+        store.commit();
+    }
+
+
+    public BufferPool getBufferPool() {
+        return store.getBufferPool();
+    }
+
+
+    /**
+     * Number of entities of all kinds currently decoded in memory.
+     */
+    public int getResidentCount() {
+        return catalog.getResidentCount() + patrons.getResidentCount() + loans.getResidentCount();
+    }
+
+
+    /**
+     * Closes the store. Changes since the last commit are lost.
+     */
+    @Override
+    public void close() {
+        store.close();
+    }
+
+
+    private Library makeLibrary() {
+        int nextBookId = (int) Math.max(1, store.getCounter(NEXT_BOOK_ID));
+        int nextPatronId = (int) Math.max(1, store.getCounter(NEXT_PATRON_ID));
+        int nextLoanId = (int) Math.max(1, store.getCounter(NEXT_LOAN_ID));
+        return new Library(bookHelper, patronHelper, loanHelper, catalog, patrons, loans, currentLoans,
+                damagedBooks, nextBookId, nextPatronId, nextLoanId);
+    }
+
+
+    private static byte[] encodeBook(Book book) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(book.getState().ordinal());
+            writeString(out, book.getAuthor());
+            writeString(out, book.getTitle());
+            writeString(out, book.getCallNumber());
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+
+    private static byte[] encodePatron(Patron patron) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(patron.getState().ordinal());
+            writeString(out, patron.getLastName());
+            writeString(out, patron.getFirstName());
+            writeString(out, patron.getEmailAddress());
+            out.writeLong(patron.getPhoneNumber());
+            out.writeDouble(patron.getFinesPayable());
+            int[] loanIds = patron.getLoanStream().mapToInt(ILoan::getId).toArray();
+            out.writeInt(loanIds.length);
+            for (int loanId : loanIds) {
+                out.writeInt(loanId);
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+
+    private static byte[] encodeLoan(Loan loan) {
+        return ByteBuffer.allocate(1 + 4 + 4 + 8)
+                .put((byte) loan.getState().ordinal())
+                .putInt(loan.getBook().getId())
+                .putInt(loan.getPatron().getId())
+                .putLong(loan.getDueDate().getTime())
+                .array();
+    }
+
+
+    private IBook decodeBook(int id, ByteBuffer in) {
+        BookState state = bookStates[in.get()];
+        String author = readString(in);
+        String title = readString(in);
+        String callNumber = readString(in);
+        return new Book(author, title, callNumber, id, state);
+    }
+
+
+    /*
+     * The patron is remembered before its current loans are decoded,
+     * because each of those loans looks the patron up again.
+     */
+    private IPatron decodePatron(int id, ByteBuffer in, PagedEntityMap<IPatron> map) {
+        PatronState state = patronStates[in.get()];
+        String lastName = readString(in);
+        String firstName = readString(in);
+        String email = readString(in);
+        long phoneNo = in.getLong();
+        double finesPayable = in.getDouble();
+
+        Map<Integer, ILoan> patronLoans = new IntObjectMap<>();
+        IPatron patron = new Patron(lastName, firstName, email, phoneNo, id, state, patronLoans);
+        if (finesPayable != 0.0) {
+            patron.incurFine(finesPayable);
+        }
+        map.remember(id, patron);
+        int loanCount = in.getInt();
+        for (int i = 0; i < loanCount; i++) {
+            int loanId = in.getInt();
+            patronLoans.put(loanId, loans.get(loanId));
+        }
+        return patron;
+    }
+
+
+    /*
+     * Looking up the patron can decode this loan as one of the patron's
+     * current loans; the instance created there is the one kept.
+     */
+    private ILoan decodeLoan(int id, ByteBuffer in) {
+        LoanState state = loanStates[in.get()];
+        int bookId = in.getInt();
+        int patronId = in.getInt();
+        long dueDate = in.getLong();
+
+        IPatron patron = patrons.get(patronId);
+        ILoan loan = loans.remembered(id);
+        if (loan != null) {
+            return loan;
+        }
+        IBook book = catalog.get(bookId);
+        if (book == null || patron == null) {
+            throw new RuntimeException(String.format("PagedLibraryStore: loan %d refers to a missing book or patron", id));
+        }
+        return new Loan(book, patron, id, new Date(dueDate), state);
+    }
+
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
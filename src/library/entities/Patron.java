@@ -1,13 +1,33 @@
 package library.entities;
 import java.io.Serializable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
-@SuppressWarnings("serial")
+/**
+ * A library patron. The borrowing state is read and written through the
+ * STATE handle, as Book's and Loan's are; the loans themselves change only
+ * under the library's lock for the patron.
+ */
 public class Patron implements Serializable, IPatron {
 
+    // Pinned to the value of the first release, so a library.obj it wrote still loads.
+    private static final long serialVersionUID = -3163439849204554289L;
+
+    private static final VarHandle STATE;
+
+    static {
+        try {
+            STATE = MethodHandles.lookup().findVarHandle(Patron.class, "state", PatronState.class);
+        }
+        catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     private String lastName;
     private String firstName;
     private String emailAddress;
@@ -19,6 +39,15 @@ public class Patron implements Serializable, IPatron {
 
     private Map<Integer, ILoan> loans;
 
+    /*
+     * The overdue loans among loans, found the first time they are needed
+     * and then kept up to date as loans go overdue and are discharged.
+     * Transient, and found lazily, because the snapshot readers fill loans
+     * after constructing the patron. Like loans, found and changed only
+     * under the library's lock for the patron.
+     */
+    private transient Map<Integer, ILoan> overDueLoans;
+
 
     public Patron(String lastName, String firstName, String email, long phoneNo, int id) {
         this.lastName = lastName;
@@ -28,7 +57,7 @@ public class Patron implements Serializable, IPatron {
         this.id = id;
         this.state = PatronState.CAN_BORROW;
 
-        this.loans = new HashMap<>();
+        this.loans = new IntObjectMap<>();
     }
 
     /**
@@ -63,12 +92,30 @@ public class Patron implements Serializable, IPatron {
     }
 
 
+    @Override
+    public String getEmailAddress() {
+        return emailAddress;
+    }
+
+
+    @Override
+    public long getPhoneNumber() {
+        return phoneNumber;
+    }
+
+
     @Override
     public List<ILoan> getLoans() {
         return new ArrayList<ILoan>(loans.values());
     }
 
 
+    @Override
+    public Stream<ILoan> getLoanStream() {
+        return loans.values().stream();
+    }
+
+
     @Override
     public int getNumberOfCurrentLoans() {
         return loans.size();
@@ -82,13 +129,13 @@ public class Patron implements Serializable, IPatron {
     
     /* package-private getter for testing */
     PatronState getState() {
-    	return this.state;
+    	return (PatronState) STATE.getAcquire(this);
     }
 
 
     @Override
     public void takeOutLoan(ILoan loan) {
-        if (this.state == PatronState.RESTRICTED) {
+        if (getState() == PatronState.RESTRICTED) {
             throw new RuntimeException("Patron cannot borrow in RESTRICTED state");
         }
         int loanId = loan.getId();
@@ -102,12 +149,24 @@ public class Patron implements Serializable, IPatron {
     
     @Override
     public boolean hasOverDueLoans() {
-        for (ILoan loan : loans.values()) {
-            if (loan.isOverDue()) {
-                return false;
+        if (overDueLoans == null) {
+            Map<Integer, ILoan> found = new IntObjectMap<>();
+            for (ILoan loan : loans.values()) {
+                if (loan.isOverDue()) {
+                    found.put(loan.getId(), loan);
+                }
             }
+            overDueLoans = found;
+        }
+        return !overDueLoans.isEmpty();
+    }
+
+
+    @Override
+    public void loanOverDue(ILoan loan) {
+        if (overDueLoans != null && loans.containsKey(loan.getId())) {
+            overDueLoans.put(loan.getId(), loan);
         }
-        return false;
     }
 
     @Override
@@ -118,13 +177,13 @@ public class Patron implements Serializable, IPatron {
     
     @Override
     public void restrictBorrowing() {
-        this.state = PatronState.RESTRICTED;
+        STATE.setRelease(this, PatronState.RESTRICTED);
     }
 
 
     @Override
     public void allowBorrowing() {
-        this.state = PatronState.CAN_BORROW;
+        STATE.setRelease(this, PatronState.CAN_BORROW);
     }
 
 
@@ -149,6 +208,9 @@ public class Patron implements Serializable, IPatron {
         int loanId = loan.getId();
         if (loans.containsKey(loanId)) {
             loans.remove(loanId);
+            if (overDueLoans != null) {
+                overDueLoans.remove(loanId);
+            }
         } else {
             throw new RuntimeException("No such loan held by patron");
         }
@@ -164,7 +226,7 @@ public class Patron implements Serializable, IPatron {
             .append("  Email: ").append(emailAddress).append("\n")
             .append("  Phone: ").append(phoneNumber).append("\n")
             .append("  Fines Owed :  ").append(finesPayableString).append("\n")
-            .append("  State: ").append(state).append("\n");
+            .append("  State: ").append(getState()).append("\n");
 
         for (ILoan loan : loans.values()) {
             stringBuilder.append(loan).append("\n");
@@ -0,0 +1,477 @@
+package library.entities;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable map from int to object, as a hash array mapped trie. put and
+ * remove return a new map that shares all but the path to the changed entry
+ * with this one, so a map taken at any moment stays valid and unchanged
+ * however the maps made from it change, and can be read by any number of
+ * threads without locks.
+ *
+ * The key is its own hash: each level of the trie branches 32 ways on the
+ * next five bits of the key, lowest first, so the sequential ids the library
+ * issues fill the trie evenly and a map of a few million entries is five
+ * levels deep. Each node keeps its entries inline, next to its children,
+ * rather than one node per entry, and is collapsed into its parent once it
+ * is down to one entry, so the trie stays as shallow as its keys allow.
+ * Null values are not allowed.
+ *
+ * get, containsKey, put and remove cost O(log32 n); put and remove copy one
+ * node per level. Iterators of values allocate nothing per entry.
+ */
+public final class PersistentIntMap<V> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    private static final int MAX_DEPTH = (32 + BITS - 1) / BITS;
+    private static final int[] NO_KEYS = new int[0];
+
+    private static final PersistentIntMap<?> EMPTY = new PersistentIntMap<>(new Node(0, 0, NO_KEYS, new Object[0]), 0);
+
+    /*
+     * Each of a node's 32 branches is empty, holds one entry, or holds a
+     * child node. keys and the first keys.length slots hold the entries, in
+     * branch order, and the rest of the slots hold the children, likewise.
+     * Nodes are never changed once built.
+     */
+    private static final class Node {
+        final int entryMap;
+        final int childMap;
+        final int[] keys;
+        final Object[] slots;
+
+        Node(int entryMap, int childMap, int[] keys, Object[] slots) {
+            this.entryMap = entryMap;
+            this.childMap = childMap;
+            this.keys = keys;
+            this.slots = slots;
+        }
+
+        int entryIndex(int bit) {
+            return Integer.bitCount(entryMap & (bit - 1));
+        }
+
+        int childIndex(int bit) {
+            return keys.length + Integer.bitCount(childMap & (bit - 1));
+        }
+
+        Node withSlot(int index, Object value) {
+            Object[] copy = slots.clone();
+            copy[index] = value;
+            return new Node(entryMap, childMap, keys, copy);
+        }
+
+        Node withEntry(int bit, int key, Object value) {
+            int index = entryIndex(bit);
+            int[] newKeys = new int[keys.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, index);
+            newKeys[index] = key;
+            System.arraycopy(keys, index, newKeys, index + 1, keys.length - index);
+            Object[] newSlots = new Object[slots.length + 1];
+            System.arraycopy(slots, 0, newSlots, 0, index);
+            newSlots[index] = value;
+            System.arraycopy(slots, index, newSlots, index + 1, slots.length - index);
+            return new Node(entryMap | bit, childMap, newKeys, newSlots);
+        }
+
+        Node withoutEntry(int bit) {
+            int index = entryIndex(bit);
+            int[] newKeys = new int[keys.length - 1];
+            System.arraycopy(keys, 0, newKeys, 0, index);
+            System.arraycopy(keys, index + 1, newKeys, index, newKeys.length - index);
+            Object[] newSlots = new Object[slots.length - 1];
+            System.arraycopy(slots, 0, newSlots, 0, index);
+            System.arraycopy(slots, index + 1, newSlots, index, newSlots.length - index);
+            return new Node(entryMap & ~bit, childMap, newKeys, newSlots);
+        }
+
+        /* replaces the entry on branch bit with child */
+        Node entryToChild(int bit, Node child) {
+            Node without = withoutEntry(bit);
+            int index = without.keys.length + Integer.bitCount(childMap & (bit - 1));
+            Object[] newSlots = new Object[slots.length];
+            System.arraycopy(without.slots, 0, newSlots, 0, index);
+            newSlots[index] = child;
+            System.arraycopy(without.slots, index, newSlots, index + 1, without.slots.length - index);
+            return new Node(without.entryMap, childMap | bit, without.keys, newSlots);
+        }
+
+        /* replaces the child on branch bit with its only entry */
+        Node childToEntry(int bit, int key, Object value) {
+            int index = childIndex(bit);
+            Object[] withoutChild = new Object[slots.length - 1];
+            System.arraycopy(slots, 0, withoutChild, 0, index);
+            System.arraycopy(slots, index + 1, withoutChild, index, withoutChild.length - index);
+            return new Node(entryMap, childMap & ~bit, keys, withoutChild).withEntry(bit, key, value);
+        }
+    }
+
+    private final Node root;
+    private final int size;
+
+
+    private PersistentIntMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+
+    @SuppressWarnings("unchecked")
+    public static <V> PersistentIntMap<V> empty() {
+        return (PersistentIntMap<V>) EMPTY;
+    }
+
+
+    /**
+     * A map with the entries of map, built in one pass rather than one put
+     * at a time.
+     */
+    public static <V> PersistentIntMap<V> copyOf(Map<Integer, ? extends V> map) {
+        int[] keys = new int[map.size()];
+        Object[] values = new Object[map.size()];
+        int count = 0;
+        for (Map.Entry<Integer, ? extends V> entry : map.entrySet()) {
+            if (entry.getValue() == null) {
+                throw new RuntimeException("PersistentIntMap: copyOf : values cannot be null.");
+            }
+            if (count == keys.length) {
+                keys = Arrays.copyOf(keys, count * 2 + 1);
+                values = Arrays.copyOf(values, keys.length);
+            }
+            keys[count] = entry.getKey();
+            values[count++] = entry.getValue();
+        }
+        if (count == 0) {
+            return empty();
+        }
+        /* sorted in trie order, each node's entries are a contiguous run */
+        long[] order = new long[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = (trieOrder(keys[i]) & 0xFFFFFFFFL) << 31 | i;
+        }
+        Arrays.sort(order);
+        int[] sortedKeys = new int[count];
+        Object[] sortedValues = new Object[count];
+        for (int i = 0; i < count; i++) {
+            int from = (int) (order[i] & Integer.MAX_VALUE);
+            sortedKeys[i] = keys[from];
+            sortedValues[i] = values[from];
+        }
+        return new PersistentIntMap<>(build(sortedKeys, sortedValues, 0, count, 0), count);
+    }
+
+
+    /* the key's five-bit branches, the first as the most significant */
+    private static int trieOrder(int key) {
+        int order = 0;
+        for (int shift = 0; shift < 32; shift += BITS) {
+            int width = Math.min(BITS, 32 - shift);
+            order = order << width | (key >>> shift) & ((1 << width) - 1);
+        }
+        return order;
+    }
+
+
+    private static Node build(int[] keys, Object[] values, int from, int to, int shift) {
+        int entryMap = 0;
+        int childMap = 0;
+        int entries = 0;
+        int children = 0;
+        for (int start = from, end; start < to; start = end) {
+            int bit = bitOf(keys[start], shift);
+            for (end = start + 1; end < to && bitOf(keys[end], shift) == bit; end++) {
+            }
+            if (end - start == 1) {
+                entryMap |= bit;
+                entries++;
+            }
+            else {
+                childMap |= bit;
+                children++;
+            }
+        }
+        int[] nodeKeys = entries == 0 ? NO_KEYS : new int[entries];
+        Object[] slots = new Object[entries + children];
+        int entry = 0;
+        int child = entries;
+        for (int start = from, end; start < to; start = end) {
+            int bit = bitOf(keys[start], shift);
+            for (end = start + 1; end < to && bitOf(keys[end], shift) == bit; end++) {
+            }
+            if (end - start == 1) {
+                nodeKeys[entry] = keys[start];
+                slots[entry++] = values[start];
+            }
+            else {
+                slots[child++] = build(keys, values, start, end, shift + BITS);
+            }
+        }
+        return new Node(entryMap, childMap, nodeKeys, slots);
+    }
+
+
+    private static int bitOf(int key, int shift) {
+        return 1 << ((key >>> shift) & MASK);
+    }
+
+
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        Node node = root;
+        for (int shift = 0;; shift += BITS) {
+            int bit = bitOf(key, shift);
+            if ((node.entryMap & bit) != 0) {
+                int index = node.entryIndex(bit);
+                return node.keys[index] == key ? (V) node.slots[index] : null;
+            }
+            if ((node.childMap & bit) == 0) {
+                return null;
+            }
+            node = (Node) node.slots[node.childIndex(bit)];
+        }
+    }
+
+
+    public boolean containsKey(int key) {
+        return get(key) != null;
+    }
+
+
+    /**
+     * This map with value under key. Returns this map if key already has
+     * that very value.
+     */
+    public PersistentIntMap<V> put(int key, V value) {
+        if (value == null) {
+            throw new RuntimeException("PersistentIntMap: put : value cannot be null.");
+        }
+        V previous = get(key);
+        if (previous == value) {
+            return this;
+        }
+        return new PersistentIntMap<>(put(root, key, value, 0), previous == null ? size + 1 : size);
+    }
+
+
+    private static Node put(Node node, int key, Object value, int shift) {
+        int bit = bitOf(key, shift);
+        if ((node.entryMap & bit) != 0) {
+            int index = node.entryIndex(bit);
+            if (node.keys[index] == key) {
+                return node.withSlot(index, value);
+            }
+            return node.entryToChild(bit, pair(node.keys[index], node.slots[index], key, value, shift + BITS));
+        }
+        if ((node.childMap & bit) != 0) {
+            int index = node.childIndex(bit);
+            return node.withSlot(index, put((Node) node.slots[index], key, value, shift + BITS));
+        }
+        return node.withEntry(bit, key, value);
+    }
+
+
+    /* a node holding two entries whose keys agree below shift */
+    private static Node pair(int key, Object value, int otherKey, Object otherValue, int shift) {
+        int chunk = (key >>> shift) & MASK;
+        int otherChunk = (otherKey >>> shift) & MASK;
+        if (chunk == otherChunk) {
+            return new Node(0, 1 << chunk, NO_KEYS, new Object[] {pair(key, value, otherKey, otherValue, shift + BITS)});
+        }
+        if (chunk < otherChunk) {
+            return new Node(1 << chunk | 1 << otherChunk, 0, new int[] {key, otherKey}, new Object[] {value, otherValue});
+        }
+        return new Node(1 << chunk | 1 << otherChunk, 0, new int[] {otherKey, key}, new Object[] {otherValue, value});
+    }
+
+
+    /**
+     * This map without key. Returns this map if key is not in it.
+     */
+    public PersistentIntMap<V> remove(int key) {
+        if (get(key) == null) {
+            return this;
+        }
+        return new PersistentIntMap<>(remove(root, key, 0), size - 1);
+    }
+
+
+    /* key is in the trie under node */
+    private static Node remove(Node node, int key, int shift) {
+        int bit = bitOf(key, shift);
+        if ((node.entryMap & bit) != 0) {
+            return node.withoutEntry(bit);
+        }
+        int index = node.childIndex(bit);
+        Node child = remove((Node) node.slots[index], key, shift + BITS);
+        if (child.childMap == 0 && child.keys.length == 1) {
+            return node.childToEntry(bit, child.keys[0], child.slots[0]);
+        }
+        return node.withSlot(index, child);
+    }
+
+
+    public int size() {
+        return size;
+    }
+
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+
+    /**
+     * Calls action with every entry, in trie order.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEachEntry(IntObjectMap.IntObjectConsumer<? super V> action) {
+        Walk walk = new Walk(root);
+        while (walk.next()) {
+            action.accept(walk.key, (V) walk.value);
+        }
+    }
+
+
+    /**
+     * The values, in trie order, as a read-only collection.
+     */
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new Iterator<V>() {
+                    private final Walk walk = new Walk(root);
+                    private boolean ready = walk.next();
+
+                    @Override
+                    public boolean hasNext() {
+                        return ready;
+                    }
+
+                    @SuppressWarnings("unchecked")
+                    @Override
+                    public V next() {
+                        if (!ready) {
+                            throw new NoSuchElementException();
+                        }
+                        V value = (V) walk.value;
+                        ready = walk.next();
+                        return value;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+
+    /**
+     * A read-only Map view of this map, for code that takes a Map. Its
+     * entrySet iterator allocates one entry per entry.
+     */
+    public Map<Integer, V> asMap() {
+        return new AbstractMap<Integer, V>() {
+            @Override
+            public V get(Object key) {
+                return key instanceof Integer ? PersistentIntMap.this.get(((Integer) key).intValue()) : null;
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return get(key) != null;
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public Collection<V> values() {
+                return PersistentIntMap.this.values();
+            }
+
+            @Override
+            public Set<Map.Entry<Integer, V>> entrySet() {
+                return new AbstractSet<Map.Entry<Integer, V>>() {
+                    @Override
+                    public Iterator<Map.Entry<Integer, V>> iterator() {
+                        return new Iterator<Map.Entry<Integer, V>>() {
+                            private final Walk walk = new Walk(root);
+                            private boolean ready = walk.next();
+
+                            @Override
+                            public boolean hasNext() {
+                                return ready;
+                            }
+
+                            @SuppressWarnings("unchecked")
+                            @Override
+                            public Map.Entry<Integer, V> next() {
+                                if (!ready) {
+                                    throw new NoSuchElementException();
+                                }
+                                Map.Entry<Integer, V> entry = new AbstractMap.SimpleImmutableEntry<>(walk.key, (V) walk.value);
+                                ready = walk.next();
+                                return entry;
+                            }
+                        };
+                    }
+
+                    @Override
+                    public int size() {
+                        return size;
+                    }
+                };
+            }
+        };
+    }
+
+
+    /* depth-first walk over the trie, holding the entry it is at */
+    private static final class Walk {
+        private final Node[] nodes = new Node[MAX_DEPTH + 1];
+        private final int[] positions = new int[MAX_DEPTH + 1];
+        private int depth;
+        int key;
+        Object value;
+
+        Walk(Node root) {
+            nodes[0] = root;
+        }
+
+        boolean next() {
+            while (depth >= 0) {
+                Node node = nodes[depth];
+                int position = positions[depth]++;
+                if (position < node.keys.length) {
+                    key = node.keys[position];
+                    value = node.slots[position];
+                    return true;
+                }
+                if (position < node.slots.length) {
+                    nodes[++depth] = (Node) node.slots[position];
+                    positions[depth] = 0;
+                }
+                else {
+                    depth--;
+                }
+            }
+            return false;
+        }
+    }
+
+}
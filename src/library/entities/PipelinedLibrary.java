@@ -0,0 +1,556 @@
+package library.entities;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
+
+/**
+ * ILibrary whose changes are all made, one after another, by a single writer
+ * thread, instead of by the desks under locks.
+ *
+ * A desk's change is put into a ring buffer of commands as the next in one
+ * sequence shared by all desks; the desk claims its slot with an atomic
+ * increment and does not otherwise wait on the others. The writer applies
+ * the commands in sequence order to a VersionedLibrary and publishes each
+ * batch it finds waiting as one version, then completes the desks' calls,
+ * so a desk reads its own change as soon as its call returns. Changes are
+ * applied in a single, repeatable order, and batchApplied is called once per
+ * batch on the writer thread, which is the place to make a batch durable.
+ *
+ * Queries are not queued; they go to the VersionedLibrary, which answers
+ * them from the latest published version. Use getVersion() to read several
+ * things from the same state of the library.
+ *
+ * When the ring is full the desks wait for the writer, which bounds the
+ * queue and with it the time a change can wait.
+ */
+public class PipelinedLibrary implements ILibrary, AutoCloseable {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+
+    /* times the writer checks for a command before it parks */
+    private static final int SPINS = 100;
+    private static final long FULL_WAIT_NANOS = 1000;
+
+    private final VersionedLibrary library;
+    private final int maxBatchSize;
+    private final LongConsumer batchApplied;
+
+    private final Command[] slots;
+    private final AtomicLongArray published;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();
+    private volatile long consumed;
+
+    private final Thread writer;
+    private volatile boolean writerWaiting;
+    private volatile boolean closed;
+    /* sequence of the command that stopped the writer; commands after it are failed */
+    private volatile long stoppedAt = Long.MAX_VALUE;
+    private volatile long batchCount;
+
+
+    public PipelinedLibrary(VersionedLibrary library) {
+        this(library, DEFAULT_CAPACITY, DEFAULT_MAX_BATCH_SIZE, sequence -> {});
+    }
+
+
+    /**
+     * capacity must be a power of two. batchApplied gets the sequence number
+     * of the last command of each batch, after the batch is published and
+     * before the desks' calls return. If it throws, the batch's calls fail
+     * with its exception and the writer stops, as on close.
+     */
+    public PipelinedLibrary(VersionedLibrary library, int capacity, int maxBatchSize, LongConsumer batchApplied) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1 || maxBatchSize < 1) {
+            throw new RuntimeException("PipelinedLibrary: constructor : invalid capacity or batch size.");
+        }
+        this.library = library;
+        this.maxBatchSize = maxBatchSize;
+        this.batchApplied = batchApplied;
+        slots = new Command[capacity];
+        published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            published.set(i, -1);
+        }
+        mask = capacity - 1;
+        writer = new Thread(this::run, "library-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+
+    /**
+     * The latest published version of the library. A desk's own changes are
+     * in it once the call that made them has returned.
+     */
+    public LibraryVersion getVersion() {
+        return library.getVersion();
+    }
+
+
+    public long getBatchCount() {
+        return batchCount;
+    }
+
+
+    /**
+     * Queues change to be applied by the writer thread, and returns a future
+     * of its result. The future is completed after the change is published.
+     */
+    <T> CompletableFuture<T> submit(Function<? super Library, T> change) {
+        if (closed) {
+            throw new RuntimeException("PipelinedLibrary: submit : library is closed.");
+        }
+        return enqueue(new Command(change));
+    }
+
+
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> enqueue(Command command) {
+        long sequence = claimed.getAndIncrement();
+        while (sequence - consumed >= slots.length) {
+            if (stoppedAt != Long.MAX_VALUE) {
+                command.failClosed();
+                return (CompletableFuture<T>) command.future;
+            }
+            LockSupport.parkNanos(FULL_WAIT_NANOS);
+        }
+        int index = (int) sequence & mask;
+        slots[index] = command;
+        published.set(index, sequence);
+        if (sequence > stoppedAt) {
+            command.failClosed();
+        }
+        else if (writerWaiting) {
+            LockSupport.unpark(writer);
+        }
+        return (CompletableFuture<T>) command.future;
+    }
+
+
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        }
+        catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+
+    /**
+     * Applies the changes already queued and stops the writer thread. Later
+     * changes throw a RuntimeException.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        enqueue(new Command(null));
+        try {
+            writer.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /*
+     * Anything thrown outside a command, by the library or by batchApplied,
+     * stops the writer: the batch it was on fails with it, and the commands
+     * queued after the batch fail as they do after close.
+     */
+    private void run() {
+        Command[] batch = new Command[maxBatchSize];
+        long next = 0;
+        int count = 0;
+        try {
+            while (true) {
+                if (published.get((int) next & mask) != next) {
+                    idle(next);
+                    continue;
+                }
+                boolean stop = false;
+                library.beginChanges();
+                try {
+                    while (count < maxBatchSize && published.get((int) (next + count) & mask) == next + count) {
+                        int index = (int) (next + count) & mask;
+                        Command command = slots[index];
+                        slots[index] = null;
+                        batch[count++] = command;
+                        if (command.change == null) {
+                            stop = true;
+                            break;
+                        }
+                        command.apply(library);
+                    }
+                }
+                finally {
+                    library.endChanges();
+                }
+                long end = next + count;
+                consumed = end;
+                batchApplied.accept(end - 1);
+                batchCount++;
+                for (int i = 0; i < count; i++) {
+                    batch[i].complete();
+                    batch[i] = null;
+                }
+                next = end;
+                count = 0;
+                if (stop) {
+                    stop(next);
+                    return;
+                }
+            }
+        }
+        catch (Throwable e) {
+            for (int i = 0; i < count; i++) {
+                batch[i].fail(e);
+                batch[i] = null;
+            }
+            closed = true;
+            stop(next + count);
+        }
+    }
+
+
+    private void stop(long next) {
+        consumed = next;
+        stoppedAt = next - 1;
+        failQueuedAfter(next);
+    }
+
+
+    private void idle(long next) {
+        int index = (int) next & mask;
+        for (int i = 0; i < SPINS; i++) {
+            if (published.get(index) == next) {
+                return;
+            }
+            Thread.onSpinWait();
+        }
+        writerWaiting = true;
+        if (published.get(index) != next) {
+            LockSupport.park(this);
+        }
+        writerWaiting = false;
+    }
+
+
+    /*
+     * Fails the commands queued after the writer stopped. A desk that queues
+     * one once this has looked at its slot sees stoppedAt and fails it itself.
+     */
+    private void failQueuedAfter(long next) {
+        for (long sequence = next, end = claimed.get(); sequence < end; sequence++) {
+            int index = (int) sequence & mask;
+            if (published.get(index) == sequence) {
+                slots[index].failClosed();
+            }
+        }
+    }
+
+
+    private static final class Command {
+
+        final Function<? super Library, ?> change;
+        final CompletableFuture<Object> future = new CompletableFuture<>();
+        private Object result;
+        private Throwable failure;
+
+
+        Command(Function<? super Library, ?> change) {
+            this.change = change;
+        }
+
+
+        void apply(Library library) {
+            try {
+                result = change.apply(library);
+            }
+            catch (Throwable e) {
+                failure = e;
+            }
+        }
+
+
+        void complete() {
+            if (failure != null) {
+                future.completeExceptionally(failure);
+            }
+            else {
+                future.complete(result);
+            }
+        }
+
+
+        void fail(Throwable e) {
+            future.completeExceptionally(e);
+        }
+
+
+        void failClosed() {
+            future.completeExceptionally(new RuntimeException("PipelinedLibrary: submit : library is closed."));
+        }
+    }
+
+
+    @Override
+    public IPatron addPatron(String lastName, String firstName, String email, long phoneNo) {
+        return await(submit(library -> library.addPatron(lastName, firstName, email, phoneNo)));
+    }
+
+
+    @Override
+    public IBook addBook(String author, String title, String callNumber) {
+        return await(submit(library -> library.addBook(author, title, callNumber)));
+    }
+
+
+    @Override
+    public List<IBook> addBooks(List<String[]> books) {
+        return await(submit(library -> library.addBooks(books)));
+    }
+
+
+    @Override
+    public List<IPatron> getPatronList() {
+        return library.getPatronList();
+    }
+
+
+    @Override
+    public List<IBook> getBookList() {
+        return library.getBookList();
+    }
+
+
+    @Override
+    public List<ILoan> getCurrentLoansList() {
+        return library.getCurrentLoansList();
+    }
+
+
+    @Override
+    public List<ILoan> getAllLoansList() {
+        return library.getAllLoansList();
+    }
+
+
+    @Override
+    public Stream<ILoan> getAllLoans() {
+        return library.getAllLoans();
+    }
+
+
+    @Override
+    public Stream<IBook> getBookStream() {
+        return library.getBookStream();
+    }
+
+
+    @Override
+    public Stream<IPatron> getPatronStream() {
+        return library.getPatronStream();
+    }
+
+
+    @Override
+    public Stream<ILoan> getCurrentLoanStream() {
+        return library.getCurrentLoanStream();
+    }
+
+
+    @Override
+    public List<IBook> getBookPage(int afterId, int limit) {
+        return library.getBookPage(afterId, limit);
+    }
+
+
+    @Override
+    public List<IPatron> getPatronPage(int afterId, int limit) {
+        return library.getPatronPage(afterId, limit);
+    }
+
+
+    @Override
+    public List<ILoan> getCurrentLoanPage(int afterBookId, int limit) {
+        return library.getCurrentLoanPage(afterBookId, limit);
+    }
+
+
+    @Override
+    public List<ILoan> getLoanPage(int afterId, int limit) {
+        return library.getLoanPage(afterId, limit);
+    }
+
+
+    @Override
+    public ILoan getLoanById(int loanId) {
+        return library.getLoanById(loanId);
+    }
+
+
+    @Override
+    public IPatron getPatronById(int patronId) {
+        return library.getPatronById(patronId);
+    }
+
+
+    @Override
+    public IBook getBookById(int bookId) {
+        return library.getBookById(bookId);
+    }
+
+
+    @Override
+    public List<IBook> findBooks(IBook.BookField field, String value) {
+        return library.findBooks(field, value);
+    }
+
+
+    @Override
+    public List<IBook> findBooksByPrefix(IBook.BookField field, String prefix, int limit) {
+        return library.findBooksByPrefix(field, prefix, limit);
+    }
+
+
+    @Override
+    public List<IBook> findBooksInRange(IBook.BookField field, String from, String to, int limit) {
+        return library.findBooksInRange(field, from, to, limit);
+    }
+
+
+    @Override
+    public List<IBook> searchBooks(String query, int limit, boolean availableOnly) {
+        return library.searchBooks(query, limit, availableOnly);
+    }
+
+
+    @Override
+    public List<IPatron> findPatrons(IPatron.PatronField field, String value) {
+        return library.findPatrons(field, value);
+    }
+
+
+    @Override
+    public List<IPatron> findPatronsByPrefix(IPatron.PatronField field, String prefix, int limit) {
+        return library.findPatronsByPrefix(field, prefix, limit);
+    }
+
+
+    @Override
+    public List<IPatron> findPatronsByPhoneNumber(long phoneNo) {
+        return library.findPatronsByPhoneNumber(phoneNo);
+    }
+
+
+    @Override
+    public ILoan getCurrentLoanByBookId(int bookId) {
+        return library.getCurrentLoanByBookId(bookId);
+    }
+
+
+    @Override
+    public boolean patronCanBorrow(IPatron patron) {
+        return library.patronCanBorrow(patron);
+    }
+
+
+    @Override
+    public boolean patronWillReachLoanMax(IPatron patron, int numberOfPendingLoans) {
+        return library.patronWillReachLoanMax(patron, numberOfPendingLoans);
+    }
+
+
+    /* only makes the pending loan, which changes nothing until it is committed */
+    @Override
+    public ILoan issueLoan(IBook book, IPatron patron) {
+        return library.issueLoan(book, patron);
+    }
+
+
+    @Override
+    public void commitLoan(ILoan loan) {
+        await(submit(library -> {
+            library.commitLoan(loan);
+            return null;
+        }));
+    }
+
+
+    @Override
+    public void commitLoans(List<ILoan> pendingLoans) {
+        await(submit(library -> {
+            library.commitLoans(pendingLoans);
+            return null;
+        }));
+    }
+
+
+    @Override
+    public void dischargeLoan(ILoan currentLoan, boolean isDamaged) {
+        await(submit(library -> {
+            library.dischargeLoan(currentLoan, isDamaged);
+            return null;
+        }));
+    }
+
+
+    @Override
+    public List<ILoan> dischargeLoans(List<BookReturn> returns) {
+        return await(submit(library -> library.dischargeLoans(returns)));
+    }
+
+
+    @Override
+    public List<ILoan> checkCurrentLoansOverDue() {
+        return await(submit(Library::checkCurrentLoansOverDue));
+    }
+
+
+    @Override
+    public double calculateOverDueFine(ILoan loan) {
+        return library.calculateOverDueFine(loan);
+    }
+
+
+    @Override
+    public double payFine(IPatron patron, double amount) {
+        return await(submit(library -> library.payFine(patron, amount)));
+    }
+
+
+    @Override
+    public void repairBook(IBook currentBook) {
+        await(submit(library -> {
+            library.repairBook(currentBook);
+            return null;
+        }));
+    }
+
+
+    @Override
+    public CirculationStatistics getStatistics() {
+        return library.getStatistics();
+    }
+
+}
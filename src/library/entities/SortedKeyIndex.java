@@ -0,0 +1,343 @@
+package library.entities;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Entity ids ordered by a key taken from each entity, for exact, prefix and
+ * range lookups without a scan. The library keeps one per book field and
+ * one per patron field.
+ *
+ * Most entries are in two parallel sorted arrays of keys and ids, which cost
+ * eight bytes per entity and share the keys with the entities. Entries added
+ * since the arrays were last built go into a small sorted set, which is
+ * merged into the arrays once it outgrows a sixteenth of them, so adding an
+ * entry costs O(log n) amortized. Entities with no key are not indexed.
+ * Entries are ordered by key and then by id; an entry added twice is
+ * dropped when the set is merged, and never returned twice meanwhile.
+ */
+final class SortedKeyIndex<K> {
+
+    private static final int MIN_MERGE_SIZE = 1024;
+
+    /**
+     * An order of keys, with a prefix of each key in two 64-bit words that,
+     * compared unsigned one after the other, sort the same way wherever two
+     * prefixes differ. Where they tie, the keys are equal too unless the
+     * lowest bit of the second word is set. Sorting compares the prefixes
+     * and looks at the keys only when that bit says it must, which saves
+     * following a pointer into each key for most comparisons.
+     */
+    static final class Order<K> {
+        final Comparator<? super K> comparator;
+        final ToLongFunction<? super K> high;
+        final ToLongFunction<? super K> low;
+
+        Order(Comparator<? super K> comparator, ToLongFunction<? super K> high, ToLongFunction<? super K> low) {
+            this.comparator = comparator;
+            this.high = high;
+            this.low = low;
+        }
+    }
+
+    static final Order<String> NATURAL_ORDER = new Order<>(Comparator.naturalOrder(),
+            key -> prefix(key, 0, false), key -> prefix(key, 8, false));
+    static final Order<String> CASE_INSENSITIVE_ORDER = new Order<>(String.CASE_INSENSITIVE_ORDER,
+            key -> prefix(key, 0, true), key -> prefix(key, 8, true));
+    static final Order<Long> NUMERIC_ORDER = new Order<>(Comparator.naturalOrder(),
+            key -> key ^ Long.MIN_VALUE, key -> 0L);
+
+    interface Stop<K> {
+        boolean isPast(K key);
+    }
+
+    private static final class Entry<K> {
+        final K key;
+        final int id;
+
+        Entry(K key, int id) {
+            this.key = key;
+            this.id = id;
+        }
+    }
+
+    private final Order<K> order;
+    private K[] keys;
+    private int[] ids;
+    private final NavigableSet<Entry<K>> recent;
+
+
+    /**
+     * Indexes values by key, sorting them.
+     */
+    <T> SortedKeyIndex(Collection<T> values, Function<? super T, ? extends K> key, ToIntFunction<? super T> id,
+            Order<K> order) {
+        this.order = order;
+        this.recent = new TreeSet<>((one, other) -> compare(one.key, one.id, other));
+        K[] keys = newArray(values.size());
+        int[] ids = new int[values.size()];
+        int count = 0;
+        for (T value : values) {
+            K valueKey = key.apply(value);
+            if (valueKey != null) {
+                keys[count] = valueKey;
+                ids[count++] = id.applyAsInt(value);
+            }
+        }
+        this.keys = Arrays.copyOf(keys, count);
+        this.ids = Arrays.copyOf(ids, count);
+        sort(this.keys, this.ids);
+    }
+
+
+    /**
+     * An index over keys and ids that are already in index order, as
+     * returned by ids().
+     */
+    SortedKeyIndex(K[] keys, int[] ids, Order<K> order) {
+        this.order = order;
+        this.recent = new TreeSet<>((one, other) -> compare(one.key, one.id, other));
+        this.keys = keys;
+        this.ids = ids;
+    }
+
+
+    /* K is erased, so an Object[] serves as a K[] that never leaves the index */
+    @SuppressWarnings("unchecked")
+    private static <K> K[] newArray(int length) {
+        return (K[]) new Object[length];
+    }
+
+
+    /*
+     * Bottom-up merge sort of the parallel arrays by (key, id), which needs
+     * no object per entry. Each entry's prefix moves along with it, so most
+     * comparisons stay within the arrays.
+     */
+    private void sort(K[] keys, int[] ids) {
+        int length = keys.length;
+        K[] fromKeys = keys;
+        int[] fromIds = ids;
+        long[] fromHigh = new long[length];
+        long[] fromLow = new long[length];
+        for (int i = 0; i < length; i++) {
+            fromHigh[i] = order.high.applyAsLong(keys[i]);
+            fromLow[i] = order.low.applyAsLong(keys[i]);
+        }
+        K[] toKeys = newArray(length);
+        int[] toIds = new int[length];
+        long[] toHigh = new long[length];
+        long[] toLow = new long[length];
+        for (int width = 1; width < length; width *= 2) {
+            for (int start = 0; start < length; start += 2 * width) {
+                int middle = Math.min(start + width, length);
+                int end = Math.min(start + 2 * width, length);
+                int left = start;
+                int right = middle;
+                for (int i = start; i < end; i++) {
+                    boolean takeLeft = right >= end || (left < middle && compare(order,
+                            fromHigh[left], fromLow[left], fromKeys[left], fromIds[left],
+                            fromHigh[right], fromLow[right], fromKeys[right], fromIds[right]) <= 0);
+                    int from = takeLeft ? left++ : right++;
+                    toKeys[i] = fromKeys[from];
+                    toIds[i] = fromIds[from];
+                    toHigh[i] = fromHigh[from];
+                    toLow[i] = fromLow[from];
+                }
+            }
+            K[] swapKeys = fromKeys;
+            fromKeys = toKeys;
+            toKeys = swapKeys;
+            int[] swapIds = fromIds;
+            fromIds = toIds;
+            toIds = swapIds;
+            long[] swapHigh = fromHigh;
+            fromHigh = toHigh;
+            toHigh = swapHigh;
+            long[] swapLow = fromLow;
+            fromLow = toLow;
+            toLow = swapLow;
+        }
+        if (fromKeys != keys) {
+            System.arraycopy(fromKeys, 0, keys, 0, length);
+            System.arraycopy(fromIds, 0, ids, 0, length);
+        }
+    }
+
+
+    /*
+     * Orders two entries by their prefixes, then if need be by their keys,
+     * and then by their ids.
+     */
+    private static <K> int compare(Order<K> order, long high, long low, K key, int id,
+            long otherHigh, long otherLow, K otherKey, int otherId) {
+        int prefixOrder = Long.compareUnsigned(high, otherHigh);
+        if (prefixOrder == 0) {
+            prefixOrder = Long.compareUnsigned(low, otherLow);
+        }
+        if (prefixOrder == 0 && (low & 1) != 0) {
+            prefixOrder = order.comparator.compare(key, otherKey);
+        }
+        return prefixOrder != 0 ? prefixOrder : Integer.compare(id, otherId);
+    }
+
+
+    /*
+     * One word of a string's prefix: chars from, from + 1, ... as one byte
+     * each, compared as the order compares chars. Missing chars count as
+     * zero, which no char sorts below, and the prefix stops after the first
+     * char that is zero itself or needs more than a byte. The high word
+     * holds eight chars and the low word seven, its last byte being 1 if
+     * the prefix does not hold the whole key.
+     */
+    private static long prefix(String key, int from, boolean ignoringCase) {
+        int chars = from == 0 ? 8 : 7;
+        long prefix = 0;
+        for (int i = 0; i < from + chars && i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (ignoringCase) {
+                c = c < 0x80 ? (c >= 'A' && c <= 'Z' ? (char) (c + 'a' - 'A') : c)
+                        : Character.toLowerCase(Character.toUpperCase(c));
+            }
+            if (i >= from) {
+                prefix |= (long) Math.min(c, 0xFF) << (56 - 8 * (i - from));
+            }
+            if (c == 0 || c >= 0xFF) {
+                return from == 0 ? prefix : prefix | 1;
+            }
+        }
+        return from == 0 || key.length() <= from + chars ? prefix : prefix | 1;
+    }
+
+
+    /**
+     * Indexes id under key.
+     */
+    void add(K key, int id) {
+        if (key == null) {
+            return;
+        }
+        recent.add(new Entry<>(key, id));
+        if (recent.size() > Math.max(MIN_MERGE_SIZE, keys.length / 16)) {
+            merge();
+        }
+    }
+
+
+    /**
+     * Ids of the entities whose key is at least from, in index order, until
+     * stop says a key is past the end of the lookup or limit ids were found.
+     */
+    int[] find(K from, Stop<K> stop, int limit) {
+        int[] found = new int[Math.min(limit, 16)];
+        int count = 0;
+        int i = lowerBound(from, Integer.MIN_VALUE);
+        Iterator<Entry<K>> added = recent.tailSet(new Entry<>(from, Integer.MIN_VALUE), true).iterator();
+        Entry<K> next = added.hasNext() ? added.next() : null;
+        while (count < limit) {
+            boolean fromArray;
+            if (i < keys.length && !stop.isPast(keys[i])) {
+                int entryOrder = next == null || stop.isPast(next.key) ? -1 : compare(keys[i], ids[i], next);
+                if (entryOrder == 0) {
+                    next = added.hasNext() ? added.next() : null;
+                }
+                fromArray = entryOrder <= 0;
+            }
+            else if (next != null && !stop.isPast(next.key)) {
+                fromArray = false;
+            }
+            else {
+                break;
+            }
+            if (count == found.length) {
+                found = Arrays.copyOf(found, Math.min(limit, count * 2));
+            }
+            if (fromArray) {
+                found[count++] = ids[i++];
+            }
+            else {
+                found[count++] = next.id;
+                next = added.hasNext() ? added.next() : null;
+            }
+        }
+        return count == found.length ? found : Arrays.copyOf(found, count);
+    }
+
+
+    /**
+     * Every indexed id, in index order.
+     */
+    int[] ids() {
+        if (!recent.isEmpty()) {
+            merge();
+        }
+        return ids.clone();
+    }
+
+
+    private int compare(K key, int id, Entry<K> entry) {
+        return compare(key, id, entry.key, entry.id);
+    }
+
+
+    private int compare(K key, int id, K otherKey, int otherId) {
+        int keyOrder = order.comparator.compare(key, otherKey);
+        return keyOrder != 0 ? keyOrder : Integer.compare(id, otherId);
+    }
+
+
+    /* first position in the arrays not before (key, id) */
+    private int lowerBound(K key, int id) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int keyOrder = order.comparator.compare(keys[middle], key);
+            if (keyOrder < 0 || (keyOrder == 0 && ids[middle] < id)) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+
+    private void merge() {
+        int total = keys.length + recent.size();
+        K[] mergedKeys = newArray(total);
+        int[] mergedIds = new int[total];
+        int i = 0;
+        int count = 0;
+        for (Entry<K> entry : recent) {
+            int entryOrder = 1;
+            while (i < keys.length && (entryOrder = compare(keys[i], ids[i], entry)) <= 0) {
+                mergedKeys[count] = keys[i];
+                mergedIds[count++] = ids[i++];
+                if (entryOrder == 0) {
+                    break;
+                }
+            }
+            if (entryOrder != 0) {
+                mergedKeys[count] = entry.key;
+                mergedIds[count++] = entry.id;
+            }
+        }
+        int remaining = keys.length - i;
+        System.arraycopy(keys, i, mergedKeys, count, remaining);
+        System.arraycopy(ids, i, mergedIds, count, remaining);
+        count += remaining;
+        keys = count == total ? mergedKeys : Arrays.copyOf(mergedKeys, count);
+        ids = count == total ? mergedIds : Arrays.copyOf(mergedIds, count);
+        recent.clear();
+    }
+
+}
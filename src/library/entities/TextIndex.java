@@ -0,0 +1,380 @@
+package library.entities;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+/**
+ * Inverted index over the words of each book's title and author, ranked by
+ * BM25 with the title and author treated as one document.
+ *
+ * Text is tokenized into runs of letters and digits, lower cased, with
+ * accents removed and apostrophes dropped, so "O'Brien" matches "obrien"
+ * and an accented letter matches the plain one. Each word's posting list
+ * holds the ids of the books it occurs in, ascending, with the number of
+ * times it occurs in each, delta encoded as variable-length bytes; most
+ * postings take two bytes.
+ * Book ids are handed out in increasing order, so adding a book appends to
+ * the end of each of its words' lists.
+ */
+final class TextIndex {
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private static final class Postings {
+        byte[] data = new byte[4];
+        int length;
+        int count;
+        int lastId;
+        int maxFrequency;
+        int minLength = Integer.MAX_VALUE;
+
+        void add(int id, int frequency, int length) {
+            maxFrequency = Math.max(maxFrequency, frequency);
+            minLength = Math.min(minLength, length);
+            if (id <= lastId) {
+                insert(id, frequency);
+            }
+            else {
+                append(id, frequency);
+            }
+        }
+
+        private void append(int id, int frequency) {
+            append(id - lastId);
+            append(frequency);
+            lastId = id;
+            count++;
+        }
+
+        /* ids can arrive out of order when books are added concurrently; rare, so rebuild the list */
+        private void insert(int id, int frequency) {
+            int[] ids = new int[count + 1];
+            int[] frequencies = new int[count + 1];
+            Cursor cursor = new Cursor(this, 0);
+            int at = 0;
+            boolean placed = false;
+            while (cursor.next()) {
+                if (cursor.id == id) {
+                    return;
+                }
+                if (!placed && cursor.id > id) {
+                    ids[at] = id;
+                    frequencies[at++] = frequency;
+                    placed = true;
+                }
+                ids[at] = cursor.id;
+                frequencies[at++] = cursor.frequency;
+            }
+            length = 0;
+            count = 0;
+            lastId = 0;
+            for (int i = 0; i < at; i++) {
+                append(ids[i], frequencies[i]);
+            }
+        }
+
+        private void append(int value) {
+            if (length + 5 > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, length + 5));
+            }
+            while ((value & ~0x7F) != 0) {
+                data[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[length++] = (byte) value;
+        }
+    }
+
+    private static final class Cursor {
+        final Postings postings;
+        final double idf;
+        double bound;
+        int position;
+        int id;
+        int frequency;
+
+        Cursor(Postings postings, double idf) {
+            this.postings = postings;
+            this.idf = idf;
+        }
+
+        boolean next() {
+            if (position >= postings.length) {
+                id = Integer.MAX_VALUE;
+                return false;
+            }
+            id += read();
+            frequency = read();
+            return true;
+        }
+
+        void advance(int target) {
+            while (id < target && next()) {
+            }
+        }
+
+        private int read() {
+            byte[] data = postings.data;
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[position++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+    }
+
+    private final Map<String, Postings> postings = new HashMap<>();
+    private int[] lengths = new int[16];
+    private int documents;
+    private long totalLength;
+
+
+    TextIndex(Collection<IBook> books) {
+        IBook[] byId = books.toArray(new IBook[0]);
+        Arrays.sort(byId, Comparator.comparingInt(IBook::getId));
+        for (IBook book : byId) {
+            add(book);
+        }
+    }
+
+
+    /**
+     * Indexes book, unless it is already indexed.
+     */
+    void add(IBook book) {
+        int id = book.getId();
+        if (id < lengths.length && lengths[id] != 0) {
+            return;
+        }
+        List<String> words = tokens(book.getTitle());
+        words.addAll(tokens(book.getAuthor()));
+        if (words.isEmpty()) {
+            return;
+        }
+        if (id >= lengths.length) {
+            lengths = Arrays.copyOf(lengths, Math.max(lengths.length * 2, id + 1));
+        }
+        lengths[id] = words.size();
+        documents++;
+        totalLength += words.size();
+
+        words.sort(null);
+        int start = 0;
+        for (int i = 1; i <= words.size(); i++) {
+            if (i == words.size() || !words.get(i).equals(words.get(start))) {
+                postings.computeIfAbsent(words.get(start), word -> new Postings()).add(id, i - start, words.size());
+                start = i;
+            }
+        }
+    }
+
+
+    /**
+     * Ids of up to limit books matching any word of query that filter
+     * accepts, best BM25 score first and then by id. A null filter accepts
+     * every book.
+     *
+     * Books are scored in id order, merging the posting lists of the query
+     * words (MaxScore). Each list has an upper bound on what it adds to a
+     * score, and once the top books so far outscore the sum of the smallest
+     * bounds, those lists can no longer bring in a book of their own: only
+     * books from the other lists are scored, and the small lists are just
+     * read forward to see whether they contain them. A query mixing a
+     * common word with rarer ones therefore scores about as many books as
+     * the rarer words match. Ties in score go to the lower id, which is the
+     * order books are met in, so the pruning does not change the result.
+     */
+    int[] search(String query, int limit, IntPredicate filter) {
+        List<Cursor> cursors = new ArrayList<>();
+        int candidates = 0;
+        double averageLength = (double) totalLength / documents;
+        for (String word : new LinkedHashSet<>(tokens(query))) {
+            Postings list = postings.get(word);
+            if (list != null) {
+                double idf = Math.log(1 + (documents - list.count + 0.5) / (list.count + 0.5));
+                Cursor cursor = new Cursor(list, idf);
+                cursor.bound = score(idf, list.maxFrequency, list.minLength, averageLength);
+                cursor.next();
+                cursors.add(cursor);
+                candidates += list.count;
+            }
+        }
+        TopScores top = new TopScores(Math.min(limit, candidates));
+        if (top.capacity == 0) {
+            return new int[0];
+        }
+        cursors.sort(Comparator.comparingDouble(cursor -> cursor.bound));
+        double[] bounds = new double[cursors.size()];
+        for (int i = 0; i < bounds.length; i++) {
+            bounds[i] = (i > 0 ? bounds[i - 1] : 0) + cursors.get(i).bound;
+        }
+        /* cursors before essential can only add to books found through the ones after it */
+        int essential = 0;
+        while (essential < bounds.length) {
+            int id = Integer.MAX_VALUE;
+            for (int i = essential; i < bounds.length; i++) {
+                id = Math.min(id, cursors.get(i).id);
+            }
+            if (id == Integer.MAX_VALUE) {
+                break;
+            }
+            double score = 0;
+            for (int i = essential; i < bounds.length; i++) {
+                Cursor cursor = cursors.get(i);
+                if (cursor.id == id) {
+                    score += score(cursor.idf, cursor.frequency, lengths[id], averageLength);
+                    cursor.next();
+                }
+            }
+            for (int i = essential - 1; i >= 0 && top.admits(score + bounds[i], id); i--) {
+                Cursor cursor = cursors.get(i);
+                cursor.advance(id);
+                if (cursor.id == id) {
+                    score += score(cursor.idf, cursor.frequency, lengths[id], averageLength);
+                }
+            }
+            if (top.admits(score, id) && (filter == null || filter.test(id))) {
+                top.add(score, id);
+                while (essential < bounds.length && !top.admits(bounds[essential], Integer.MAX_VALUE)) {
+                    essential++;
+                }
+            }
+        }
+        return top.ids();
+    }
+
+
+    private static double score(double idf, int frequency, int length, double averageLength) {
+        return idf * frequency * (K1 + 1) / (frequency + K1 * (1 - B + B * length / averageLength));
+    }
+
+
+    /* a bounded min-heap of the best (score, id) pairs seen so far, worst at the root */
+    private static final class TopScores {
+        final int capacity;
+        final double[] scores;
+        final int[] ids;
+        int size;
+
+        TopScores(int capacity) {
+            this.capacity = capacity;
+            scores = new double[capacity];
+            ids = new int[capacity];
+        }
+
+        boolean admits(double score, int id) {
+            return size < capacity || worse(scores[0], ids[0], score, id);
+        }
+
+        void add(double score, int id) {
+            if (size < capacity) {
+                int i = size++;
+                while (i > 0) {
+                    int parent = (i - 1) / 2;
+                    if (!worse(score, id, scores[parent], ids[parent])) {
+                        break;
+                    }
+                    scores[i] = scores[parent];
+                    ids[i] = ids[parent];
+                    i = parent;
+                }
+                scores[i] = score;
+                ids[i] = id;
+            }
+            else {
+                siftDown(0, score, id, size);
+            }
+        }
+
+        /* best first */
+        int[] ids() {
+            int[] sorted = new int[size];
+            for (int end = size - 1; end >= 0; end--) {
+                sorted[end] = ids[0];
+                siftDown(0, scores[end], ids[end], end);
+            }
+            return sorted;
+        }
+
+        private void siftDown(int i, double score, int id, int size) {
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && worse(scores[child + 1], ids[child + 1], scores[child], ids[child])) {
+                    child++;
+                }
+                if (!worse(scores[child], ids[child], score, id)) {
+                    break;
+                }
+                scores[i] = scores[child];
+                ids[i] = ids[child];
+                i = child;
+            }
+            if (size > 0) {
+                scores[i] = score;
+                ids[i] = id;
+            }
+        }
+
+        private static boolean worse(double score, int id, double otherScore, int otherId) {
+            return score < otherScore || (score == otherScore && id > otherId);
+        }
+    }
+
+
+    /**
+     * The words of text, in order, normalized as the index stores them.
+     */
+    static List<String> tokens(String text) {
+        List<String> words = new ArrayList<>();
+        if (text == null) {
+            return words;
+        }
+        String folded = isAscii(text) ? text : Normalizer.normalize(text, Normalizer.Form.NFD);
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < folded.length(); i++) {
+            char c = folded.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                word.append(c);
+            }
+            else if (c == '\'' || c == '\u2019' || Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue;
+            }
+            else if (word.length() > 0) {
+                words.add(word.toString().toLowerCase(Locale.ROOT));
+                word.setLength(0);
+            }
+        }
+        if (word.length() > 0) {
+            words.add(word.toString().toLowerCase(Locale.ROOT));
+        }
+        return words;
+    }
+
+
+    private static boolean isAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
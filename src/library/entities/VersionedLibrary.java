@@ -0,0 +1,304 @@
+package library.entities;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import library.entities.helpers.IBookHelper;
+import library.entities.helpers.ILoanHelper;
+import library.entities.helpers.IPatronHelper;
+
+/**
+ * ConcurrentLibrary whose maps are persistent, so that reports and listings
+ * can read a consistent state of the whole library without stopping the
+ * desks.
+ *
+ * The catalog, patrons, loans, current loans and damaged books are held in
+ * one LibraryVersion behind a single atomic reference. getVersion() returns
+ * the current one in O(1) without a lock, and the caller can read it for as
+ * long as it likes. A desk changes the maps by building a new version from
+ * the current one and publishing it with compareAndSet, building it again
+ * on top of the newer version if another desk published first.
+ *
+ * An operation that changes several maps, such as commitLoan putting the
+ * loan into the loans and the current loans, collects its changes and
+ * publishes them as one version before it lets go of its book and patron
+ * locks, so no reader sees half an operation. Those locks still order the
+ * operations on each book and patron, so an operation's changes replayed on
+ * a newer version never undo another desk's. Reads through the library's
+ * own methods see the latest version, plus the desk's own changes while it
+ * is in the middle of an operation.
+ */
+@SuppressWarnings("serial")
+public class VersionedLibrary extends ConcurrentLibrary {
+
+    /* stands for a removed entry among an operation's changes */
+    private static final Object REMOVED = new Object();
+
+    private final transient Versions versions;
+
+
+    public VersionedLibrary(IBookHelper bookHelper, IPatronHelper patronHelper, ILoanHelper loanHelper) {
+        this(bookHelper, patronHelper, loanHelper, new Versions(LibraryVersion.EMPTY), 1, 1, 1);
+    }
+
+
+    /**
+     * A versioned copy of library, for sharing a library loaded by one of
+     * the helpers between desks. The copy shares the original's entities, so
+     * the original must not be used afterwards.
+     */
+    public VersionedLibrary(Library library, IBookHelper bookHelper, IPatronHelper patronHelper,
+            ILoanHelper loanHelper) {
+        this(bookHelper, patronHelper, loanHelper, new Versions(LibraryVersion.copyOf(library)),
+                library.getCurrentlyIssuingBookId(), library.getCurrentlyIssuingPatronId(),
+                library.getCurrentlyIssuingLoanId());
+    }
+
+
+    private VersionedLibrary(IBookHelper bookHelper, IPatronHelper patronHelper, ILoanHelper loanHelper,
+            Versions versions, int currentlyIssuingBookId, int currentlyIssuingPatronId, int currentlyIssuingLoanId) {
+        super(bookHelper, patronHelper, loanHelper, new VersionedMap<>(versions, LibraryVersion.CATALOG),
+                new VersionedMap<>(versions, LibraryVersion.PATRONS), new VersionedMap<>(versions, LibraryVersion.LOANS),
+                new VersionedMap<>(versions, LibraryVersion.CURRENT_LOANS),
+                new VersionedMap<>(versions, LibraryVersion.DAMAGED_BOOKS),
+                currentlyIssuingBookId, currentlyIssuingPatronId, currentlyIssuingLoanId, DEFAULT_STRIPES);
+        this.versions = versions;
+    }
+
+
+    /**
+     * The latest published version of the library's maps. It does not
+     * include the changes of operations still in progress, even those of the
+     * calling thread.
+     */
+    public LibraryVersion getVersion() {
+        return versions.current.get();
+    }
+
+
+    @Override
+    void beginChanges() {
+        versions.begin();
+    }
+
+
+    @Override
+    void endChanges() {
+        versions.end();
+    }
+
+
+    /* one version for the whole batch, rather than one per book */
+    @Override
+    public List<IBook> addBooks(List<String[]> books) {
+        versions.begin();
+        try {
+            return super.addBooks(books);
+        }
+        finally {
+            versions.end();
+        }
+    }
+
+
+    @Override
+    public int archiveDischargedLoans() {
+        versions.begin();
+        try {
+            return super.archiveDischargedLoans();
+        }
+        finally {
+            versions.end();
+        }
+    }
+
+
+    @Override
+    public int dropDischargedLoans() {
+        versions.begin();
+        try {
+            return super.dropDischargedLoans();
+        }
+        finally {
+            versions.end();
+        }
+    }
+
+
+    /*
+     * The published version, and each thread's changes not yet published.
+     * A thread's changes to a map are kept as a persistent map of their
+     * own, with REMOVED for each entry removed.
+     */
+    private static final class Versions {
+        final AtomicReference<LibraryVersion> current;
+        final ThreadLocal<Changes> changes = ThreadLocal.withInitial(Changes::new);
+
+        Versions(LibraryVersion initial) {
+            current = new AtomicReference<>(initial);
+        }
+
+        void begin() {
+            changes.get().depth++;
+        }
+
+        void end() {
+            Changes pending = changes.get();
+            if (--pending.depth == 0 && pending.changed) {
+                publish(pending);
+            }
+        }
+
+        private void publish(Changes pending) {
+            while (true) {
+                LibraryVersion version = current.get();
+                LibraryVersion next = version;
+                for (int map = 0; map < LibraryVersion.MAPS; map++) {
+                    if (!pending.maps[map].isEmpty()) {
+                        next = next.with(map, apply(version.map(map), pending.maps[map]));
+                    }
+                }
+                if (current.compareAndSet(version, next)) {
+                    break;
+                }
+            }
+            pending.clear();
+        }
+
+        private static PersistentIntMap<Object> apply(PersistentIntMap<Object> map, PersistentIntMap<Object> changes) {
+            for (Map.Entry<Integer, Object> change : changes.asMap().entrySet()) {
+                int key = change.getKey();
+                map = change.getValue() == REMOVED ? map.remove(key) : map.put(key, change.getValue());
+            }
+            return map;
+        }
+
+        Object get(int map, int key) {
+            Changes pending = changes.get();
+            if (pending.depth > 0) {
+                Object value = pending.maps[map].get(key);
+                if (value != null) {
+                    return value == REMOVED ? null : value;
+                }
+            }
+            return current.get().map(map).get(key);
+        }
+
+        /* the whole map, with the calling thread's changes */
+        PersistentIntMap<Object> read(int map) {
+            Changes pending = changes.get();
+            PersistentIntMap<Object> published = current.get().map(map);
+            if (pending.depth > 0 && !pending.maps[map].isEmpty()) {
+                return apply(published, pending.maps[map]);
+            }
+            return published;
+        }
+
+        /* puts value under key, or removes key if value is REMOVED, and returns the previous value */
+        Object write(int map, int key, Object value) {
+            Changes pending = changes.get();
+            if (pending.depth > 0) {
+                Object previous = get(map, key);
+                if (previous != value && (previous != null || value != REMOVED)) {
+                    pending.maps[map] = pending.maps[map].put(key, value);
+                    pending.changed = true;
+                }
+                return previous;
+            }
+            while (true) {
+                LibraryVersion version = current.get();
+                PersistentIntMap<Object> before = version.map(map);
+                PersistentIntMap<Object> after = value == REMOVED ? before.remove(key) : before.put(key, value);
+                if (after == before || current.compareAndSet(version, version.with(map, after))) {
+                    return before.get(key);
+                }
+            }
+        }
+    }
+
+
+    private static final class Changes {
+        int depth;
+        boolean changed;
+        final PersistentIntMap<Object>[] maps = newMapArray(LibraryVersion.MAPS);
+
+        Changes() {
+            clear();
+        }
+
+        /* an array of a generic type cannot be created directly */
+        @SuppressWarnings("unchecked")
+        private static PersistentIntMap<Object>[] newMapArray(int length) {
+            return (PersistentIntMap<Object>[]) new PersistentIntMap<?>[length];
+        }
+
+        void clear() {
+            Arrays.fill(maps, PersistentIntMap.empty());
+            changed = false;
+        }
+    }
+
+
+    /*
+     * One of the library's maps, read from and written to the versions.
+     * Iterating it walks the version current when iteration began.
+     */
+    private static final class VersionedMap<V> extends AbstractMap<Integer, V> {
+        private final Versions versions;
+        private final int map;
+
+        VersionedMap(Versions versions, int map) {
+            this.versions = versions;
+            this.map = map;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public V get(Object key) {
+            return key instanceof Integer ? (V) versions.get(map, (Integer) key) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public V put(Integer key, V value) {
+            if (value == null) {
+                throw new RuntimeException("VersionedLibrary: put : value cannot be null.");
+            }
+            return (V) versions.write(map, key, value);
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public V remove(Object key) {
+            return key instanceof Integer ? (V) versions.write(map, (Integer) key, REMOVED) : null;
+        }
+
+        @Override
+        public int size() {
+            return versions.read(map).size();
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public Collection<V> values() {
+            return (Collection<V>) versions.read(map).values();
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public Set<Map.Entry<Integer, V>> entrySet() {
+            return ((Map<Integer, V>) (Map<Integer, ?>) versions.read(map).asMap()).entrySet();
+        }
+    }
+
+}
@@ -0,0 +1,299 @@
+package library.entities.helpers;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.LongSupplier;
+
+import library.entities.ILibrary;
+import library.entities.Library;
+import library.entities.LibraryImage;
+import library.entities.LibrarySnapshotCodec;
+import library.entities.MappedLibrarySnapshot;
+
+/**
+ * ILibraryHelper that writes snapshots on a background thread, so saveLibrary
+ * returns without waiting for the disk.
+ *
+ * saveLibrary counts a mutation and, when the SnapshotPolicy says a snapshot
+ * is due, captures a LibraryImage of the library on the calling thread. The
+ * image is written to a temporary file and renamed over the snapshot by a
+ * single writer thread while the caller carries on changing the library.
+ * Only one write is in flight at a time; a snapshot that falls due meanwhile
+ * is taken on the first saveLibrary after the write finishes.
+ *
+ * Changes made since the last durable snapshot are lost if the process dies;
+ * getMetrics reports how far behind that snapshot is. The interval limit of
+ * the policy is checked when saveLibrary is called.
+ */
+public class BackgroundSnapshotHelper implements ILibraryHelper {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final String SNAPSHOT_FILE = "library.image";
+
+	IBookHelper bookHelper;
+	IPatronHelper patronHelper;
+	ILoanHelper loanHelper;
+
+	private String snapshotFile;
+	private SnapshotPolicy policy;
+	private transient LongSupplier clock;
+	private transient ExecutorService writer;
+	private transient Future<?> pendingWrite;
+
+	/* guarded by this; written by the writer thread on completion */
+	private long mutationCount;
+	private long lastCaptureTime;
+	private long pendingCount;
+	private long pendingCaptureTime;
+	private long firstMutationAfterPending;
+	private long durableCount;
+	private long durableCaptureTime;
+	private long firstMutationAfterDurable;
+	private long snapshotsWritten;
+	private long failedSnapshots;
+	private long lastCaptureMillis;
+	private long lastWriteMillis;
+	private Throwable lastFailure;
+
+
+	public BackgroundSnapshotHelper(IBookHelper bookHelper, IPatronHelper patronHelper, ILoanHelper loanHelper) {
+		this(bookHelper, patronHelper, loanHelper, SNAPSHOT_FILE, SnapshotPolicy.everyMutations(100));
+	}
+
+
+	public BackgroundSnapshotHelper(IBookHelper bookHelper, IPatronHelper patronHelper, ILoanHelper loanHelper,
+			String snapshotFile, SnapshotPolicy policy) {
+		this(bookHelper, patronHelper, loanHelper, snapshotFile, policy, System::currentTimeMillis);
+	}
+
+
+	/* package-private constructor with a settable clock, for testing only */
+	BackgroundSnapshotHelper(IBookHelper bookHelper, IPatronHelper patronHelper, ILoanHelper loanHelper,
+			String snapshotFile, SnapshotPolicy policy, LongSupplier clock) {
+		this.bookHelper = bookHelper;
+		this.patronHelper = patronHelper;
+		this.loanHelper = loanHelper;
+		this.snapshotFile = snapshotFile;
+		this.policy = policy;
+		this.clock = clock;
+	}
+
+
+	/**
+	 * Loads the last durable snapshot, falling back to a library saved by
+	 * LibraryFileHelper if there is none.
+	 */
+	@Override
+	public ILibrary loadLibrary() {
+		awaitSnapshot();
+		ILibrary library;
+		long sequence;
+		Path path = Paths.get(snapshotFile);
+		if (Files.exists(path)) {
+			try {
+				LibrarySnapshotCodec.Snapshot snapshot = MappedLibrarySnapshot.open(path, bookHelper, patronHelper, loanHelper);
+				library = snapshot.getLibrary();
+				sequence = snapshot.getSequence();
+			}
+			catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+		else if (Files.exists(Paths.get(LibraryFileHelper.LIBRARY_FILE))) {
+			library = new LibraryFileHelper(bookHelper, patronHelper, loanHelper).loadLibrary();
+			sequence = 0;
+		}
+		else {
+			library = makeLibrary(bookHelper, patronHelper, loanHelper);
+			sequence = 0;
+		}
+		synchronized (this) {
+			long now = clock.getAsLong();
+			mutationCount = sequence;
+			durableCount = sequence;
+			lastCaptureTime = now;
+			durableCaptureTime = 0;
+			firstMutationAfterDurable = 0;
+		}
+		return library;
+	}
+
+
+	/**
+	 * Counts one mutation and starts a background snapshot if the policy says
+	 * one is due and no write is in flight.
+	 */
+	@Override
+	public void saveLibrary(ILibrary library) {
+		if (library == null) {
+			return;
+		}
+		boolean due;
+		synchronized (this) {
+			long now = clock.getAsLong();
+			if (pendingWrite != null && pendingWrite.isDone()) {
+				pendingWrite = null;
+			}
+			mutationCount++;
+			if (firstMutationAfterDurable == 0) {
+				firstMutationAfterDurable = now;
+			}
+			if (pendingWrite != null && firstMutationAfterPending == 0) {
+				firstMutationAfterPending = now;
+			}
+			due = pendingWrite == null
+				&& policy.isDue(mutationCount - Math.max(durableCount, pendingCount), now - lastCaptureTime);
+		}
+		if (due) {
+			snapshot(library);
+		}
+	}
+
+
+	/**
+	 * Captures library now and queues it to be written, waiting for any write
+	 * already in flight first. Must be called from the thread that mutates the
+	 * library.
+	 */
+	public void snapshot(ILibrary library) {
+		if (!(library instanceof Library)) {
+			throw new RuntimeException("BackgroundSnapshotHelper: snapshot: can only snapshot a Library");
+		}
+		awaitSnapshot();
+
+		long start = System.nanoTime();
+		LibraryImage image = LibraryImage.capture(library);
+		long captureMillis = (System.nanoTime() - start) / 1_000_000;
+
+		long sequence;
+		synchronized (this) {
+			long now = clock.getAsLong();
+			sequence = mutationCount;
+			pendingCount = sequence;
+			pendingCaptureTime = now;
+			firstMutationAfterPending = 0;
+			lastCaptureTime = now;
+			lastCaptureMillis = captureMillis;
+			if (writer == null) {
+				writer = Executors.newSingleThreadExecutor(runnable -> {
+					Thread thread = new Thread(runnable, "library-snapshot-writer");
+					thread.setDaemon(true);
+					return thread;
+				});
+			}
+			pendingWrite = writer.submit(() -> writeImage(image, sequence));
+		}
+	}
+
+
+	/*
+	 * Runs on the writer thread.
+	 */
+	private void writeImage(LibraryImage image, long sequence) {
+		long start = System.nanoTime();
+		Path path = Paths.get(snapshotFile);
+		Path tempPath = Paths.get(snapshotFile + ".tmp");
+		try {
+			MappedLibrarySnapshot.write(image, sequence, tempPath);
+			Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (Exception e) {
+			synchronized (this) {
+				failedSnapshots++;
+				lastFailure = e;
+				pendingCount = durableCount;
+				if (firstMutationAfterPending != 0 && firstMutationAfterDurable == 0) {
+					firstMutationAfterDurable = firstMutationAfterPending;
+				}
+			}
+			throw new RuntimeException(e);
+		}
+		synchronized (this) {
+			durableCount = sequence;
+			durableCaptureTime = pendingCaptureTime;
+			firstMutationAfterDurable = firstMutationAfterPending;
+			snapshotsWritten++;
+			lastWriteMillis = (System.nanoTime() - start) / 1_000_000;
+		}
+	}
+
+
+	/**
+	 * Waits for the write in flight, if any. A failed write is reported in the
+	 * metrics rather than thrown.
+	 */
+	public void awaitSnapshot() {
+		Future<?> write;
+		synchronized (this) {
+			write = pendingWrite;
+		}
+		if (write == null) {
+			return;
+		}
+		try {
+			write.get();
+		}
+		catch (ExecutionException e) {
+			// recorded in lastFailure by writeImage
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		synchronized (this) {
+			if (pendingWrite == write) {
+				pendingWrite = null;
+			}
+		}
+	}
+
+
+	public synchronized SnapshotMetrics getMetrics() {
+		long now = clock.getAsLong();
+		boolean writeInProgress = pendingWrite != null && !pendingWrite.isDone();
+		long stalenessMillis = mutationCount == durableCount || firstMutationAfterDurable == 0
+			? 0 : now - firstMutationAfterDurable;
+		return new SnapshotMetrics(mutationCount - durableCount, stalenessMillis, durableCaptureTime,
+				snapshotsWritten, failedSnapshots, lastCaptureMillis, lastWriteMillis, writeInProgress, lastFailure);
+	}
+
+
+	/**
+	 * Writes a final snapshot if anything changed since the last one, waits
+	 * for it and stops the writer thread.
+	 */
+	public void close(ILibrary library) {
+		awaitSnapshot();
+		boolean behind;
+		synchronized (this) {
+			behind = mutationCount != durableCount;
+		}
+		if (library != null && behind) {
+			snapshot(library);
+			awaitSnapshot();
+		}
+		synchronized (this) {
+			if (writer != null) {
+				writer.shutdown();
+				writer = null;
+			}
+			if (lastFailure != null && mutationCount != durableCount) {
+				throw new RuntimeException("BackgroundSnapshotHelper: close: last snapshot failed", lastFailure);
+			}
+		}
+	}
+
+
+	@Override
+	public ILibrary makeLibrary(IBookHelper bookHelper, IPatronHelper patronHelper, ILoanHelper loanHelper) {
+		return new Library(bookHelper, patronHelper, loanHelper);
+	}
+
+}
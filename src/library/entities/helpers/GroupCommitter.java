@@ -0,0 +1,189 @@
+package library.entities.helpers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Makes journal records durable in batches. Callers that have appended a
+ * record ask for it to be committed and get a future; a single committer
+ * thread gathers the requests, flushes and forces the journal once for the
+ * whole batch and completes every future the force covered.
+ *
+ * A batch is closed when it holds maxBatchSize requests or maxBatchDelay has
+ * passed since its first request, whichever comes first. Requests arriving
+ * while a force is running join the next batch, so even a delay of 0 groups
+ * the commits of concurrent callers.
+ */
+public class GroupCommitter implements AutoCloseable {
+
+	private final LibraryJournal journal;
+	private final long maxBatchDelayNanos;
+	private final int maxBatchSize;
+	private final Thread thread;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition requested = lock.newCondition();
+	private final Condition batchFull = lock.newCondition();
+	private List<Request> requests = new ArrayList<>();
+	private boolean running = true;
+
+	private volatile long durableSequence;
+	private volatile long batchCount;
+	private volatile long commitCount;
+
+
+	public GroupCommitter(LibraryJournal journal, long maxBatchDelay, TimeUnit unit, int maxBatchSize) {
+		if (maxBatchDelay < 0 || maxBatchSize < 1) {
+			throw new RuntimeException("GroupCommitter: invalid batch limits");
+		}
+		this.journal = journal;
+		this.maxBatchDelayNanos = unit.toNanos(maxBatchDelay);
+		this.maxBatchSize = maxBatchSize;
+		this.durableSequence = journal.getLastSequence();
+		this.thread = new Thread(this::run, "library-group-commit");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+
+	/**
+	 * Returns a future completed with the durable sequence number once every
+	 * record up to sequence has been forced to the device.
+	 */
+	public CompletableFuture<Long> commit(long sequence) {
+		long durable = durableSequence;
+		if (sequence <= durable) {
+			return CompletableFuture.completedFuture(durable);
+		}
+		Request request = new Request(sequence);
+		lock.lock();
+		try {
+			if (!running) {
+				throw new RuntimeException("GroupCommitter: commit: committer is closed");
+			}
+			requests.add(request);
+			if (requests.size() == 1) {
+				requested.signal();
+			}
+			if (requests.size() >= maxBatchSize) {
+				batchFull.signal();
+			}
+		}
+		finally {
+			lock.unlock();
+		}
+		return request.future;
+	}
+
+
+	public long getDurableSequence() {
+		return durableSequence;
+	}
+
+
+	public long getBatchCount() {
+		return batchCount;
+	}
+
+
+	public long getCommitCount() {
+		return commitCount;
+	}
+
+
+	/**
+	 * Commits the requests already made and stops the committer thread.
+	 */
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			running = false;
+			requested.signal();
+			batchFull.signal();
+		}
+		finally {
+			lock.unlock();
+		}
+		try {
+			thread.join();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+	private void run() {
+		while (true) {
+			List<Request> batch;
+			lock.lock();
+			try {
+				while (requests.isEmpty() && running) {
+					requested.awaitUninterruptibly();
+				}
+				if (requests.isEmpty()) {
+					return;
+				}
+				long remaining = maxBatchDelayNanos;
+				while (requests.size() < maxBatchSize && remaining > 0 && running) {
+					remaining = batchFull.awaitNanos(remaining);
+				}
+				batch = requests;
+				requests = new ArrayList<>();
+			}
+			catch (InterruptedException e) {
+				batch = requests;
+				requests = new ArrayList<>();
+			}
+			finally {
+				lock.unlock();
+			}
+			commitBatch(batch);
+		}
+	}
+
+
+	private void commitBatch(List<Request> batch) {
+		long sequence;
+		try {
+			sequence = journal.flush();
+			journal.force();
+		}
+		catch (RuntimeException e) {
+			for (Request request : batch) {
+				request.future.completeExceptionally(e);
+			}
+			return;
+		}
+		durableSequence = sequence;
+		batchCount++;
+		commitCount += batch.size();
+		for (Request request : batch) {
+			if (request.sequence <= sequence) {
+				request.future.complete(sequence);
+			}
+			else {
+				request.future.completeExceptionally(new RuntimeException(
+						String.format("GroupCommitter: sequence %d was never appended", request.sequence)));
+			}
+		}
+	}
+
+
+	private static final class Request {
+
+		final long sequence;
+		final CompletableFuture<Long> future = new CompletableFuture<>();
+
+
+		Request(long sequence) {
+			this.sequence = sequence;
+		}
+	}
+
+}
@@ -0,0 +1,330 @@
+package library.entities.helpers;
+
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+import library.entities.BookReturn;
+import library.entities.Calendar;
+import library.entities.CirculationStatistics;
+import library.entities.IBook;
+import library.entities.ILibrary;
+import library.entities.ILoan;
+import library.entities.IPatron;
+
+/**
+ * ILibrary decorator that appends a LibraryMutation to a journal after each
+ * state-changing call succeeds. Queries go straight to the wrapped library.
+ *
+ * Calls are serialized on this object, so several desks can share it and the
+ * journal holds the mutations in the order they were applied. The lock covers
+ * the change in memory and the buffered append only; making the records
+ * durable is left to saveLibrary.
+ *
+ * The wrapped library's streams are read as they are consumed, after the
+ * lock would have been released, so the stream methods walk it a page at a
+ * time instead, in id order, taking the lock for each page. Like the page
+ * methods they are weakly consistent: a change made while a stream is being
+ * read is seen if it lies after the page being read.
+ */
+class JournalingLibrary implements ILibrary {
+
+    /* entities read under the lock at a time by the stream methods */
+    static final int PAGE_SIZE = 256;
+
+    private final ILibrary library;
+    private final LibraryJournal journal;
+
+
+    JournalingLibrary(ILibrary library, LibraryJournal journal) {
+        this.library = library;
+        this.journal = journal;
+    }
+
+
+    /* the undecorated library, for snapshotting */
+    ILibrary getLibrary() {
+        return library;
+    }
+
+
+    @Override
+    public synchronized IPatron addPatron(String lastName, String firstName, String email, long phoneNo) {
+        IPatron patron = library.addPatron(lastName, firstName, email, phoneNo);
+        journal.append(LibraryMutation.addPatron(lastName, firstName, email, phoneNo));
+        return patron;
+    }
+
+
+    @Override
+    public synchronized IBook addBook(String author, String title, String callNumber) {
+        IBook book = library.addBook(author, title, callNumber);
+        journal.append(LibraryMutation.addBook(author, title, callNumber));
+        return book;
+    }
+
+
+    /*
+     * Journaled as one ADD_BOOK per book; replaying them in order hands out
+     * the same consecutive ids.
+     */
+    @Override
+    public synchronized List<IBook> addBooks(List<String[]> books) {
+        List<IBook> added = library.addBooks(books);
+        for (String[] fields : books) {
+            journal.append(LibraryMutation.addBook(fields[0], fields[1], fields[2]));
+        }
+        return added;
+    }
+
+
+    @Override
+    public synchronized List<IPatron> getPatronList() {
+        return library.getPatronList();
+    }
+
+
+    @Override
+    public synchronized List<IBook> getBookList() {
+        return library.getBookList();
+    }
+
+
+    @Override
+    public synchronized List<ILoan> getCurrentLoansList() {
+        return library.getCurrentLoansList();
+    }
+
+
+    @Override
+    public synchronized List<ILoan> getAllLoansList() {
+        return library.getAllLoansList();
+    }
+
+
+    @Override
+    public Stream<ILoan> getAllLoans() {
+        return pages(afterId -> getLoanPage(afterId, PAGE_SIZE), ILoan::getId);
+    }
+
+
+    @Override
+    public Stream<IBook> getBookStream() {
+        return pages(afterId -> getBookPage(afterId, PAGE_SIZE), IBook::getId);
+    }
+
+
+    @Override
+    public Stream<IPatron> getPatronStream() {
+        return pages(afterId -> getPatronPage(afterId, PAGE_SIZE), IPatron::getId);
+    }
+
+
+    @Override
+    public Stream<ILoan> getCurrentLoanStream() {
+        return pages(afterBookId -> getCurrentLoanPage(afterBookId, PAGE_SIZE), loan -> loan.getBook().getId());
+    }
+
+
+    /* the pages from the first on, each fetched when the one before it has been read */
+    private static <T> Stream<T> pages(IntFunction<List<T>> pageAfter, ToIntFunction<T> cursor) {
+        UnaryOperator<List<T>> next = page -> page.size() < PAGE_SIZE ? List.of()
+                : pageAfter.apply(cursor.applyAsInt(page.get(page.size() - 1)));
+        return Stream.iterate(pageAfter.apply(0), page -> !page.isEmpty(), next).flatMap(List::stream);
+    }
+
+
+    @Override
+    public synchronized List<IBook> getBookPage(int afterId, int limit) {
+        return library.getBookPage(afterId, limit);
+    }
+
+
+    @Override
+    public synchronized List<IPatron> getPatronPage(int afterId, int limit) {
+        return library.getPatronPage(afterId, limit);
+    }
+
+
+    @Override
+    public synchronized List<ILoan> getCurrentLoanPage(int afterBookId, int limit) {
+        return library.getCurrentLoanPage(afterBookId, limit);
+    }
+
+
+    @Override
+    public synchronized List<ILoan> getLoanPage(int afterId, int limit) {
+        return library.getLoanPage(afterId, limit);
+    }
+
+
+    @Override
+    public synchronized ILoan getLoanById(int loanId) {
+        return library.getLoanById(loanId);
+    }
+
+
+    @Override
+    public synchronized IPatron getPatronById(int patronId) {
+        return library.getPatronById(patronId);
+    }
+
+
+    @Override
+    public synchronized IBook getBookById(int bookId) {
+        return library.getBookById(bookId);
+    }
+
+
+    @Override
+    public synchronized List<IBook> findBooks(IBook.BookField field, String value) {
+        return library.findBooks(field, value);
+    }
+
+
+    @Override
+    public synchronized List<IBook> findBooksByPrefix(IBook.BookField field, String prefix, int limit) {
+        return library.findBooksByPrefix(field, prefix, limit);
+    }
+
+
+    @Override
+    public synchronized List<IBook> findBooksInRange(IBook.BookField field, String from, String to, int limit) {
+        return library.findBooksInRange(field, from, to, limit);
+    }
+
+
+    @Override
+    public synchronized List<IBook> searchBooks(String query, int limit, boolean availableOnly) {
+        return library.searchBooks(query, limit, availableOnly);
+    }
+
+
+    @Override
+    public synchronized List<IPatron> findPatrons(IPatron.PatronField field, String value) {
+        return library.findPatrons(field, value);
+    }
+
+
+    @Override
+    public synchronized List<IPatron> findPatronsByPrefix(IPatron.PatronField field, String prefix, int limit) {
+        return library.findPatronsByPrefix(field, prefix, limit);
+    }
+
+
+    @Override
+    public synchronized List<IPatron> findPatronsByPhoneNumber(long phoneNo) {
+        return library.findPatronsByPhoneNumber(phoneNo);
+    }
+
+
+    @Override
+    public synchronized ILoan getCurrentLoanByBookId(int bookId) {
+        return library.getCurrentLoanByBookId(bookId);
+    }
+
+
+    @Override
+    public synchronized boolean patronCanBorrow(IPatron patron) {
+        return library.patronCanBorrow(patron);
+    }
+
+
+    @Override
+    public synchronized boolean patronWillReachLoanMax(IPatron patron, int numberOfPendingLoans) {
+        return library.patronWillReachLoanMax(patron, numberOfPendingLoans);
+    }
+
+
+    @Override
+    public synchronized ILoan issueLoan(IBook book, IPatron patron) {
+        return library.issueLoan(book, patron);
+    }
+
+
+    @Override
+    public synchronized void commitLoan(ILoan loan) {
+        library.commitLoan(loan);
+        int bookId = loan.getBook().getId();
+        int patronId = loan.getPatron().getId();
+        journal.append(LibraryMutation.commitLoan(bookId, patronId, Calendar.getInstance().getDate()));
+    }
+
+
+    @Override
+    public synchronized void commitLoans(List<ILoan> pendingLoans) {
+        library.commitLoans(pendingLoans);
+        if (pendingLoans.isEmpty()) {
+            return;
+        }
+        int[] bookIds = pendingLoans.stream().mapToInt(loan -> loan.getBook().getId()).toArray();
+        int patronId = pendingLoans.get(0).getPatron().getId();
+        appendBatch(LibraryMutation.commitLoans(bookIds, patronId, Calendar.getInstance().getDate()));
+    }
+
+
+    @Override
+    public synchronized void dischargeLoan(ILoan currentLoan, boolean isDamaged) {
+        library.dischargeLoan(currentLoan, isDamaged);
+        int bookId = currentLoan.getBook().getId();
+        journal.append(LibraryMutation.dischargeLoan(bookId, isDamaged, Calendar.getInstance().getDate()));
+    }
+
+
+    @Override
+    public synchronized List<ILoan> dischargeLoans(List<BookReturn> returns) {
+        List<ILoan> discharged = library.dischargeLoans(returns);
+        appendBatch(LibraryMutation.dischargeLoans(returns, Calendar.getInstance().getDate()));
+        return discharged;
+    }
+
+
+    /*
+     * A batch too large for one journal record goes in as several, which
+     * replay joins again; holding this lock keeps them together in the
+     * journal and out of a checkpoint's way.
+     */
+    private void appendBatch(LibraryMutation batch) {
+        for (LibraryMutation record : batch.split(LibraryJournal.MAX_RECORD_SIZE)) {
+            journal.append(record);
+        }
+    }
+
+
+    @Override
+    public synchronized List<ILoan> checkCurrentLoansOverDue() {
+        List<ILoan> overdue = library.checkCurrentLoansOverDue();
+        journal.append(LibraryMutation.checkOverDue(Calendar.getInstance().getDate()));
+        return overdue;
+    }
+
+
+    @Override
+    public synchronized double calculateOverDueFine(ILoan loan) {
+        return library.calculateOverDueFine(loan);
+    }
+
+
+    @Override
+    public synchronized double payFine(IPatron patron, double amount) {
+        double change = library.payFine(patron, amount);
+        journal.append(LibraryMutation.payFine(patron.getId(), amount));
+        return change;
+    }
+
+
+    @Override
+    public synchronized void repairBook(IBook currentBook) {
+        library.repairBook(currentBook);
+        journal.append(LibraryMutation.repairBook(currentBook.getId()));
+    }
+
+
+    @Override
+    public synchronized CirculationStatistics getStatistics() {
+        return library.getStatistics();
+    }
+
+}
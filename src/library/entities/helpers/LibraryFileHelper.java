@@ -1,29 +1,43 @@
 package library.entities.helpers;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
 import library.entities.ILibrary;
 import library.entities.Library;
+import library.entities.LibrarySnapshotCodec;
 
 public class LibraryFileHelper implements ILibraryHelper {
-	
+
 	private static final long serialVersionUID = 1L;
 
-	public static final String LIBRARY_FILE = "library.obj";	
+	public static final String LIBRARY_FILE = "library.obj";
+
+	/* first two bytes of a Java serialization stream, written by older versions */
+	private static final int SERIALIZATION_MAGIC = 0xaced;
 
 	ILibrary library;
+	String libraryFile;
 	IBookHelper bookHelper;
 	IPatronHelper patronHelper;
 	ILoanHelper loanHelper;
-	
-	
+
+
 	public LibraryFileHelper(IBookHelper bookHelper, IPatronHelper patronHelper, ILoanHelper loanHelper) {
+		this(bookHelper, patronHelper, loanHelper, LIBRARY_FILE);
+	}
+
+	public LibraryFileHelper(IBookHelper bookHelper, IPatronHelper patronHelper, ILoanHelper loanHelper,
+			String libraryFile) {
+		this.libraryFile = libraryFile;
 		this.bookHelper = bookHelper;
 		this.patronHelper = patronHelper;
 		this.loanHelper = loanHelper;
@@ -31,11 +45,18 @@ public class LibraryFileHelper implements ILibraryHelper {
 
 	@Override
 	public ILibrary loadLibrary() {
-		Path path = Paths.get(LIBRARY_FILE);			
-		if (Files.exists(path)) {	
-			try (ObjectInputStream lof = new ObjectInputStream(new FileInputStream(LIBRARY_FILE));) {		    
-				library = (Library) lof.readObject();
-				lof.close();
+		Path path = Paths.get(libraryFile);
+		if (Files.exists(path)) {
+			try (InputStream lof = new BufferedInputStream(new FileInputStream(libraryFile));) {
+				lof.mark(2);
+				int magic = (lof.read() << 8) | lof.read();
+				lof.reset();
+				if (magic == SERIALIZATION_MAGIC) {
+					library = (Library) new ObjectInputStream(lof).readObject();
+				}
+				else {
+					library = LibrarySnapshotCodec.read(lof, bookHelper, patronHelper, loanHelper).getLibrary();
+				}
 			}
 			catch (Exception e) {
 				throw new RuntimeException(e);
@@ -50,10 +71,8 @@ public class LibraryFileHelper implements ILibraryHelper {
 	@Override
 	public void saveLibrary(ILibrary library) {
 		if (library != null) {
-			try (ObjectOutputStream lof = new ObjectOutputStream(new FileOutputStream(LIBRARY_FILE));) {
-				lof.writeObject(library);
-				lof.flush();
-				lof.close();	
+			try (OutputStream lof = new BufferedOutputStream(new FileOutputStream(libraryFile));) {
+				LibrarySnapshotCodec.write(library, 0L, lof);
 			}
 			catch (Exception e) {
 				throw new RuntimeException(e);
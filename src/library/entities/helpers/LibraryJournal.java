@@ -0,0 +1,475 @@
+package library.entities.helpers;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+import library.entities.ILibrary;
+
+/**
+ * Append-only log of LibraryMutation records.
+ *
+ * The file starts with a fixed header holding the sequence number the log
+ * continues from, followed by framed records:
+ *
+ *   int length | long sequence | payload | int crc32(sequence, payload)
+ *
+ * A record that was only partly written when the process died fails its
+ * length or checksum test and is cut off, together with anything after it,
+ * when the journal is next opened. A payload may be at most MAX_RECORD_SIZE
+ * bytes, so a batch larger than that is appended as several records, which
+ * replay joins back into one mutation.
+ *
+ * roll seals the records written so far into a file beside the journal with
+ * a ".sealed" suffix and carries on in an empty journal, so the sealed
+ * records can be folded into a snapshot without holding up appends. Replay
+ * reads the sealed segment, if there is one, before the journal.
+ *
+ * Methods are safe to call from several threads. force runs outside the
+ * journal lock, so records can be appended while an earlier batch is being
+ * forced to the device.
+ */
+public class LibraryJournal implements AutoCloseable {
+
+    private static final int MAGIC = 0x42524c4a;	// "BRLJ"
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 2 + 8;
+    /* the largest payload a record can hold; a longer one would read back as torn */
+    static final int MAX_RECORD_SIZE = 1 << 20;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path path;
+    private final Path sealedPath;
+    private volatile FileChannel channel;
+    private FileChannel sealedChannel;
+    private DataOutputStream out;
+
+    private long baseSequence;
+    private long lastSequence;
+    private long recordCount;
+    private long sealedSequence;
+
+
+    private LibraryJournal(Path path, FileChannel channel) {
+        this.path = path;
+        this.sealedPath = path.resolveSibling(path.getFileName() + ".sealed");
+        this.channel = channel;
+    }
+
+
+    /**
+     * Opens the journal at path, creating it if needed, and discards any torn
+     * record at its tail.
+     */
+    public static LibraryJournal open(Path path) {
+        try {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            LibraryJournal journal = new LibraryJournal(path, channel);
+            if (Files.exists(journal.sealedPath)) {
+                journal.sealedSequence = lastSequenceOf(journal.sealedPath);
+            }
+            if (channel.size() < HEADER_SIZE) {
+                writeHeader(channel, journal.sealedSequence);
+                channel.truncate(HEADER_SIZE);
+                channel.force(true);
+            }
+            long validLength = journal.scan();
+            if (validLength < channel.size()) {
+                channel.truncate(validLength);
+                channel.force(true);
+            }
+            channel.position(validLength);
+            journal.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+            return journal;
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    public Path getPath() {
+        return path;
+    }
+
+
+    public Path getSealedPath() {
+        return sealedPath;
+    }
+
+
+    /**
+     * Sequence number of the last record appended, or the base sequence if
+     * the log is empty. Sequence numbers keep increasing across truncation.
+     */
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+
+    /**
+     * Number of records currently held in the log, not counting a sealed
+     * segment.
+     */
+    public synchronized long getRecordCount() {
+        return recordCount;
+    }
+
+
+    /**
+     * Buffers a record for the mutation and returns its sequence number. The
+     * record is not durable until sync() returns. A mutation whose payload
+     * is longer than MAX_RECORD_SIZE is refused with a RuntimeException and
+     * nothing is written; split a batch with LibraryMutation.split first.
+     */
+    public synchronized long append(LibraryMutation mutation) {
+        try {
+            ByteArrayOutputStream payloadBytes = new ByteArrayOutputStream(64);
+            mutation.writeTo(new DataOutputStream(payloadBytes));
+            byte[] payload = payloadBytes.toByteArray();
+            if (payload.length > MAX_RECORD_SIZE) {
+                throw new RuntimeException(String.format(
+                        "LibraryJournal: append : record of %d bytes is larger than %d bytes", payload.length,
+                        MAX_RECORD_SIZE));
+            }
+
+            long sequence = lastSequence + 1;
+            out.writeInt(payload.length);
+            out.writeLong(sequence);
+            out.write(payload);
+            out.writeInt(checksum(sequence, payload));
+
+            lastSequence = sequence;
+            recordCount++;
+            return sequence;
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    /**
+     * Writes out buffered records and forces them to the storage device.
+     */
+    public void sync() {
+        flush();
+        force();
+    }
+
+
+    /**
+     * Writes out buffered records without forcing them, and returns the
+     * sequence number of the last one.
+     */
+    public synchronized long flush() {
+        try {
+            out.flush();
+            return lastSequence;
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    /**
+     * Forces records already flushed to the storage device.
+     */
+    public void force() {
+        try {
+            channel.force(false);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    /**
+     * Applies, in order, every record with a sequence number greater than
+     * afterSequence to library, starting with those in the sealed segment.
+     * Returns the number of records applied.
+     */
+    public synchronized long replay(ILibrary library, long afterSequence) {
+        try {
+            out.flush();
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return replaySealed(library, afterSequence) + replay(path, library, afterSequence);
+    }
+
+
+    /**
+     * Applies the records of the sealed segment with a sequence number greater
+     * than afterSequence to library. Does not take the journal lock, so it can
+     * run while records are appended to the journal.
+     */
+    public long replaySealed(ILibrary library, long afterSequence) {
+        if (!Files.exists(sealedPath)) {
+            return 0;
+        }
+        return replay(sealedPath, library, afterSequence);
+    }
+
+
+    public boolean hasSealedSegment() {
+        return Files.exists(sealedPath);
+    }
+
+
+    /**
+     * Sequence number of the last record in the sealed segment, or 0 if there
+     * has never been one.
+     */
+    public synchronized long getSealedSequence() {
+        return sealedSequence;
+    }
+
+
+    /**
+     * Moves every record in the log to the sealed segment and starts an empty
+     * log, returning the sequence number of the last sealed record. Fails if
+     * a sealed segment is already waiting to be dropped.
+     */
+    public synchronized long roll() {
+        if (Files.exists(sealedPath)) {
+            throw new RuntimeException("LibraryJournal: roll: the sealed segment has not been dropped");
+        }
+        try {
+            out.flush();
+            channel.force(true);
+            Files.move(path, sealedPath, StandardCopyOption.ATOMIC_MOVE);
+            FileChannel next = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            writeHeader(next, lastSequence);
+            next.position(HEADER_SIZE);
+            next.force(true);
+            // the old channel stays open until the segment is dropped, for a
+            // force() that read it before the switch
+            sealedChannel = channel;
+            channel = next;
+            out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(next), BUFFER_SIZE));
+            baseSequence = lastSequence;
+            sealedSequence = lastSequence;
+            recordCount = 0;
+            return sealedSequence;
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    /**
+     * Deletes the sealed segment. Called once its records are covered by a
+     * durable snapshot.
+     */
+    public synchronized void dropSealed() {
+        try {
+            if (sealedChannel != null) {
+                sealedChannel.close();
+                sealedChannel = null;
+            }
+            Files.deleteIfExists(sealedPath);
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    /**
+     * Drops every record in the log and the sealed segment. Called once the
+     * records are covered by a durable snapshot; sequence numbering carries
+     * on from the last record.
+     */
+    public synchronized void truncate() {
+        try {
+            out.flush();
+            writeHeader(channel, lastSequence);
+            channel.force(true);
+            channel.truncate(HEADER_SIZE);
+            channel.position(HEADER_SIZE);
+            channel.force(true);
+            baseSequence = lastSequence;
+            recordCount = 0;
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        dropSealed();
+    }
+
+
+    @Override
+    public synchronized void close() {
+        try {
+            out.flush();
+            channel.force(true);
+            channel.close();
+            if (sealedChannel != null) {
+                sealedChannel.close();
+                sealedChannel = null;
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    private static void writeHeader(FileChannel target, long base) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putShort(VERSION).putLong(base).flip();
+        while (header.hasRemaining()) {
+            target.write(header, header.position());
+        }
+    }
+
+
+    private static long replay(Path file, ILibrary library, long afterSequence) {
+        long applied = 0;
+        try (DataInputStream in = openForRead(file, new long[1])) {
+            LibraryMutation mutation;
+            /* the parts read so far of a batch split over several records */
+            LibraryMutation parts = null;
+            int partCount = 0;
+            long[] sequence = new long[1];
+            while ((mutation = readRecord(in, sequence)) != null) {
+                if (sequence[0] > afterSequence) {
+                    if (parts != null) {
+                        mutation = parts.join(mutation);
+                        parts = null;
+                    }
+                    if (mutation.isPart()) {
+                        parts = mutation;
+                        partCount++;
+                    }
+                    else {
+                        mutation.applyTo(library);
+                        applied += 1 + partCount;
+                        partCount = 0;
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return applied;
+    }
+
+
+    /*
+     * Reads the header and every intact record, returning the length of the
+     * valid prefix of the file.
+     */
+    private long scan() throws IOException {
+        long validLength = HEADER_SIZE;
+        long[] base = new long[1];
+        try (DataInputStream in = openForRead(path, base)) {
+            long[] sequence = new long[1];
+            long[] length = new long[1];
+            baseSequence = base[0];
+            lastSequence = baseSequence;
+            while (readRecord(in, sequence, length) != null) {
+                lastSequence = Math.max(lastSequence, sequence[0]);
+                recordCount++;
+                validLength += length[0];
+            }
+        }
+        return validLength;
+    }
+
+
+    private static long lastSequenceOf(Path file) throws IOException {
+        long[] base = new long[1];
+        try (DataInputStream in = openForRead(file, base)) {
+            long last = base[0];
+            long[] sequence = new long[1];
+            while (readRecord(in, sequence) != null) {
+                last = Math.max(last, sequence[0]);
+            }
+            return last;
+        }
+    }
+
+
+    private static DataInputStream openForRead(Path file, long[] base) throws IOException {
+        InputStream fileIn = Files.newInputStream(file);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(fileIn, BUFFER_SIZE));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(String.format("LibraryJournal: %s is not a journal file", file));
+            }
+            short version = in.readShort();
+            if (version != VERSION) {
+                throw new IOException(String.format("LibraryJournal: unsupported version: %d", version));
+            }
+            base[0] = in.readLong();
+        }
+        catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return in;
+    }
+
+
+    private static LibraryMutation readRecord(DataInputStream in, long[] sequence) throws IOException {
+        return readRecord(in, sequence, new long[1]);
+    }
+
+
+    /*
+     * Returns null at end of log, including when the next record is torn.
+     */
+    private static LibraryMutation readRecord(DataInputStream in, long[] sequence, long[] length) throws IOException {
+        try {
+            int size = in.readInt();
+            if (size < 1 || size > MAX_RECORD_SIZE) {
+                return null;
+            }
+            long recordSequence = in.readLong();
+            byte[] payload = new byte[size];
+            in.readFully(payload);
+            int crc = in.readInt();
+            if (crc != checksum(recordSequence, payload)) {
+                return null;
+            }
+            sequence[0] = recordSequence;
+            length[0] = 4 + 8 + size + 4;
+            return LibraryMutation.readFrom(new DataInputStream(new ByteArrayInputStream(payload)));
+        }
+        catch (EOFException e) {
+            return null;
+        }
+    }
+
+
+    private static int checksum(long sequence, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(ByteBuffer.allocate(8).putLong(0, sequence));
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+}
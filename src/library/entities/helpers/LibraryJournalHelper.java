@@ -0,0 +1,415 @@
+package library.entities.helpers;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import library.entities.Calendar;
+import library.entities.ICalendar;
+import library.entities.ILibrary;
+import library.entities.Library;
+import library.entities.LibrarySnapshotCodec;
+import library.entities.LoanArchive;
+import library.entities.MappedLibrarySnapshot;
+
+/**
+ * ILibraryHelper that persists a library as a snapshot plus a write-ahead
+ * journal of the mutations made since that snapshot.
+ *
+ * The library returned by loadLibrary records every mutation in the journal,
+ * so saveLibrary only has to make the new journal records durable; its cost
+ * depends on the size of the change, not the size of the library. The full
+ * snapshot is rewritten by checkpoint, which saveLibrary triggers once the
+ * journal holds checkpointThreshold records.
+ *
+ * Snapshots are written as MappedLibrarySnapshot files, so loading maps the
+ * snapshot and only decodes the entities that replay or later lookups touch.
+ *
+ * Discharged loans are moved to a LoanArchive instead of staying in the
+ * library. Archive blocks are written only after the journal records of the
+ * discharges in them are durable, and the archive is synced before each
+ * checkpoint, so every loan missing from a snapshot is either archived or
+ * discharged again by journal replay.
+ *
+ * With group commit enabled, several desks can share the loaded library and
+ * call saveLibrary at once; their records are forced to the device together
+ * by a GroupCommitter instead of one force per save.
+ *
+ * With background compaction enabled, reaching checkpointThreshold rolls the
+ * journal into a sealed segment instead of checkpointing. A compactor thread
+ * then loads the last snapshot on its own, replays the sealed segment onto
+ * it, renames the result over the snapshot and drops the segment, while the
+ * desks carry on appending to the new journal. Loading never replays more
+ * than the sealed segment and the journal behind it, however long the
+ * library has been running.
+ */
+public class LibraryJournalHelper implements ILibraryHelper {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final String SNAPSHOT_FILE = "library.snapshot";
+	public static final String JOURNAL_FILE = "library.journal";
+	public static final String ARCHIVE_FILE = "library.archive";
+	public static final long DEFAULT_CHECKPOINT_THRESHOLD = 10_000;
+
+	IBookHelper bookHelper;
+	IPatronHelper patronHelper;
+	ILoanHelper loanHelper;
+
+	private String snapshotFile;
+	private String journalFile;
+	private String archiveFile;
+	private long checkpointThreshold;
+
+	private transient LibraryJournal journal;
+	private transient LoanArchive archive;
+	private transient GroupCommitter groupCommitter;
+	private transient ExecutorService compactor;
+	private transient CompletableFuture<Long> compaction;
+	private long groupCommitDelayNanos = -1;
+	private int groupCommitBatchSize;
+	private boolean backgroundCompaction;
+	private volatile long snapshotSequence;
+
+
+	public LibraryJournalHelper(IBookHelper bookHelper, IPatronHelper patronHelper, ILoanHelper loanHelper) {
+		this(bookHelper, patronHelper, loanHelper, SNAPSHOT_FILE, JOURNAL_FILE, ARCHIVE_FILE, DEFAULT_CHECKPOINT_THRESHOLD);
+	}
+
+
+	/**
+	 * Keeps discharged loans in the library, without an archive.
+	 */
+	public LibraryJournalHelper(IBookHelper bookHelper, IPatronHelper patronHelper, ILoanHelper loanHelper,
+			String snapshotFile, String journalFile, long checkpointThreshold) {
+		this(bookHelper, patronHelper, loanHelper, snapshotFile, journalFile, null, checkpointThreshold);
+	}
+
+
+	/**
+	 * archiveFile may be null to keep discharged loans in the library.
+	 */
+	public LibraryJournalHelper(IBookHelper bookHelper, IPatronHelper patronHelper, ILoanHelper loanHelper,
+			String snapshotFile, String journalFile, String archiveFile, long checkpointThreshold) {
+		this.bookHelper = bookHelper;
+		this.patronHelper = patronHelper;
+		this.loanHelper = loanHelper;
+		this.snapshotFile = snapshotFile;
+		this.journalFile = journalFile;
+		this.archiveFile = archiveFile;
+		this.checkpointThreshold = checkpointThreshold;
+	}
+
+
+	/**
+	 * Loads the last snapshot and replays the journal tail on top of it. If
+	 * there is no snapshot yet, a library saved by LibraryFileHelper is used
+	 * as the starting point.
+	 */
+	@Override
+	public ILibrary loadLibrary() {
+		close();
+		long[] sequence = new long[1];
+		ILibrary library = readSnapshot(sequence);
+		snapshotSequence = sequence[0];
+
+
+		if (archiveFile != null && library instanceof Library) {
+			archive = LoanArchive.open(Paths.get(archiveFile));
+			((Library) library).attachLoanArchive(archive);
+		}
+		journal = LibraryJournal.open(Paths.get(journalFile));
+
+		ICalendar calendar = Calendar.getInstance();
+		Date currentDate = calendar.getDate();
+		try {
+			journal.replay(library, snapshotSequence);
+		}
+		finally {
+			calendar.setDate(currentDate);
+		}
+		if (groupCommitDelayNanos >= 0) {
+			groupCommitter = new GroupCommitter(journal, groupCommitDelayNanos, TimeUnit.NANOSECONDS, groupCommitBatchSize);
+		}
+		return new JournalingLibrary(library, journal);
+	}
+
+
+	/*
+	 * The library in the snapshot file, with the last journal sequence it
+	 * covers in sequence[0].
+	 */
+	private ILibrary readSnapshot(long[] sequence) {
+		Path path = Paths.get(snapshotFile);
+		if (Files.exists(path) && MappedLibrarySnapshot.isMappedSnapshot(path)) {
+			try {
+				LibrarySnapshotCodec.Snapshot snapshot = MappedLibrarySnapshot.open(path, bookHelper, patronHelper, loanHelper);
+				sequence[0] = snapshot.getSequence();
+				return snapshot.getLibrary();
+			}
+			catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+		else if (Files.exists(path)) {
+			try (InputStream lof = new BufferedInputStream(new FileInputStream(snapshotFile));) {
+				LibrarySnapshotCodec.Snapshot snapshot = LibrarySnapshotCodec.read(lof, bookHelper, patronHelper, loanHelper);
+				sequence[0] = snapshot.getSequence();
+				return snapshot.getLibrary();
+			}
+			catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+		sequence[0] = 0;
+		if (Files.exists(Paths.get(LibraryFileHelper.LIBRARY_FILE))) {
+			return new LibraryFileHelper(bookHelper, patronHelper, loanHelper).loadLibrary();
+		}
+		return makeLibrary(bookHelper, patronHelper, loanHelper);
+	}
+
+
+	/**
+	 * Commits journal records through a GroupCommitter, which waits up to
+	 * maxBatchDelay for other desks to join a batch before forcing the
+	 * journal. Applies to the loaded library, if any, and later loads.
+	 */
+	public void enableGroupCommit(long maxBatchDelay, TimeUnit unit, int maxBatchSize) {
+		groupCommitDelayNanos = unit.toNanos(maxBatchDelay);
+		groupCommitBatchSize = maxBatchSize;
+		if (journal != null && groupCommitter == null) {
+			groupCommitter = new GroupCommitter(journal, groupCommitDelayNanos, TimeUnit.NANOSECONDS, groupCommitBatchSize);
+		}
+	}
+
+
+	/**
+	 * Compacts the journal in the background instead of checkpointing when it
+	 * reaches checkpointThreshold records.
+	 */
+	public void enableBackgroundCompaction() {
+		backgroundCompaction = true;
+	}
+
+
+	/**
+	 * Makes the journal records written so far durable, waiting for them.
+	 */
+	@Override
+	public void saveLibrary(ILibrary library) {
+		if (library != null) {
+			saveLibraryAsync(library).join();
+		}
+	}
+
+
+	/**
+	 * Makes the journal records written so far durable and returns a future
+	 * completed with the last durable sequence number once they are. Without
+	 * group commit the journal is forced before this returns.
+	 *
+	 * Also writes complete archive blocks, and checkpoints or starts a
+	 * compaction once the journal holds checkpointThreshold records.
+	 */
+	public CompletableFuture<Long> saveLibraryAsync(ILibrary library) {
+		CompletableFuture<Long> durable;
+		if (groupCommitter != null) {
+			durable = groupCommitter.commit(journal.getLastSequence());
+		}
+		else {
+			long sequence = journal.flush();
+			journal.force();
+			durable = CompletableFuture.completedFuture(sequence);
+		}
+		if (archive != null || journal.getRecordCount() >= checkpointThreshold) {
+			synchronized (library) {
+				if (archive != null && archive.getPendingCount() >= LoanArchive.BLOCK_SIZE) {
+					journal.sync();
+					archive.flush();
+				}
+				if (journal.getRecordCount() >= checkpointThreshold) {
+					if (backgroundCompaction) {
+						compact(library);
+					}
+					else {
+						checkpoint(library);
+					}
+				}
+			}
+		}
+		return durable;
+	}
+
+
+	/**
+	 * Writes a full snapshot covering every journal record so far, then empties
+	 * the journal. The snapshot is written to a temporary file and renamed into
+	 * place, and records the last journal sequence it includes, so a crash at
+	 * any point leaves a loadable pair of files. Discharged loans still in the
+	 * library, such as those from a snapshot written before the archive was
+	 * used, are archived first.
+	 */
+	public void checkpoint(ILibrary library) {
+		if (!(library instanceof JournalingLibrary)) {
+			throw new RuntimeException("LibraryJournalHelper: checkpoint: library was not loaded by this helper");
+		}
+		synchronized (library) {
+			writeCheckpoint((JournalingLibrary) library);
+		}
+	}
+
+
+	/**
+	 * Starts folding the journal into the snapshot on the compactor thread,
+	 * unless a compaction is already running, and returns a future completed
+	 * with the last sequence the new snapshot covers.
+	 *
+	 * Rolling the journal and archiving discharged loans are the only steps
+	 * taken holding the library lock. Syncing the archive there makes every
+	 * discharge in the sealed segment durable in the archive, so the new
+	 * snapshot can leave discharged loans out.
+	 */
+	public CompletableFuture<Long> compact(ILibrary library) {
+		if (!(library instanceof JournalingLibrary)) {
+			throw new RuntimeException("LibraryJournalHelper: compact: library was not loaded by this helper");
+		}
+		synchronized (library) {
+			if (compaction != null && !compaction.isDone()) {
+				return compaction;
+			}
+			if (!journal.hasSealedSegment()) {
+				journal.roll();
+			}
+			if (archive != null) {
+				((Library) ((JournalingLibrary) library).getLibrary()).archiveDischargedLoans();
+				archive.sync();
+			}
+			long sequence = journal.getSealedSequence();
+			if (compactor == null) {
+				compactor = Executors.newSingleThreadExecutor(runnable -> {
+					Thread thread = new Thread(runnable, "library-journal-compactor");
+					thread.setDaemon(true);
+					return thread;
+				});
+			}
+			compaction = CompletableFuture.supplyAsync(() -> writeCompaction(sequence), compactor);
+			return compaction;
+		}
+	}
+
+
+	/**
+	 * Waits for a running compaction to finish. Returns the last sequence
+	 * covered by the snapshot.
+	 */
+	public long awaitCompaction() {
+		CompletableFuture<Long> running = compaction;
+		if (running != null) {
+			running.join();
+		}
+		return snapshotSequence;
+	}
+
+
+	/*
+	 * Runs on the compactor thread, against a library of its own read from
+	 * the snapshot file, with its own calendar for the replayed dates.
+	 */
+	private long writeCompaction(long sequence) {
+		Calendar.useThreadCalendar();
+		try {
+			long[] baseSequence = new long[1];
+			ILibrary compacted = readSnapshot(baseSequence);
+			journal.replaySealed(compacted, baseSequence[0]);
+			if (archive != null && compacted instanceof Library) {
+				((Library) compacted).dropDischargedLoans();
+			}
+			writeSnapshot(compacted, sequence);
+			snapshotSequence = sequence;
+			journal.dropSealed();
+			return sequence;
+		}
+		finally {
+			Calendar.releaseThreadCalendar();
+		}
+	}
+
+
+	/*
+	 * Called holding the library lock, so no desk appends meanwhile.
+	 */
+	private void writeCheckpoint(JournalingLibrary library) {
+		if (compaction != null) {
+			compaction.exceptionally(e -> 0L).join();
+		}
+		journal.sync();
+		long sequence = journal.getLastSequence();
+		ILibrary snapshot = library.getLibrary();
+		if (archive != null) {
+			((Library) snapshot).archiveDischargedLoans();
+			archive.sync();
+		}
+
+		writeSnapshot(snapshot, sequence);
+		snapshotSequence = sequence;
+		journal.truncate();
+	}
+
+
+	private void writeSnapshot(ILibrary snapshot, long sequence) {
+		Path path = Paths.get(snapshotFile);
+		Path tempPath = Paths.get(snapshotFile + ".tmp");
+		try {
+			MappedLibrarySnapshot.write(snapshot, sequence, tempPath);
+			Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+
+	/**
+	 * Waits for a running compaction, then flushes and closes the journal and
+	 * the loan archive.
+	 */
+	public void close() {
+		if (compaction != null) {
+			// a failed compaction leaves the sealed segment to be replayed
+			compaction.exceptionally(e -> 0L).join();
+			compaction = null;
+		}
+		if (compactor != null) {
+			compactor.shutdown();
+			compactor = null;
+		}
+		if (groupCommitter != null) {
+			groupCommitter.close();
+			groupCommitter = null;
+		}
+		if (journal != null) {
+			journal.close();
+			journal = null;
+		}
+		if (archive != null) {
+			archive.close();
+			archive = null;
+		}
+	}
+
+
+	@Override
+	public ILibrary makeLibrary(IBookHelper bookHelper, IPatronHelper patronHelper, ILoanHelper loanHelper) {
+		return new Library(bookHelper, patronHelper, loanHelper);
+	}
+
+}
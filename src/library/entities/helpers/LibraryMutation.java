@@ -0,0 +1,413 @@
+package library.entities.helpers;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import library.entities.BookReturn;
+import library.entities.Calendar;
+import library.entities.IBook;
+import library.entities.ILibrary;
+import library.entities.ILoan;
+import library.entities.IPatron;
+
+/**
+ * A single state-changing ILibrary operation, recorded with just enough
+ * information to apply it again on top of an older copy of the library.
+ *
+ * Operations that read the calendar (commit, discharge, overdue check) carry
+ * the date they originally ran on, so replaying them is deterministic.
+ *
+ * A batch too large for one journal record is split into parts, each
+ * holding some of its books, followed by a last record of the batch's own
+ * type. Replay joins the parts to that record and applies the batch once.
+ */
+public final class LibraryMutation {
+
+    public enum MutationType {
+        ADD_PATRON, ADD_BOOK, COMMIT_LOAN, DISCHARGE_LOAN, PAY_FINE, REPAIR_BOOK, CHECK_OVERDUE, COMMIT_LOANS,
+        DISCHARGE_LOANS, COMMIT_LOANS_PART, DISCHARGE_LOANS_PART
+    };
+
+    /* payload bytes of a batch record besides its books, and of each book */
+    private static final int BATCH_OVERHEAD = 1 + 4 + 4 + 8;
+    private static final int COMMIT_BYTES_PER_BOOK = 4;
+    private static final int DISCHARGE_BYTES_PER_BOOK = 4 + 1;
+
+    private final MutationType type;
+    private final int bookId;
+    private final int patronId;
+    private final boolean isDamaged;
+    private final double amount;
+    private final long date;
+    private final String[] text;
+    private final long phoneNo;
+    private final int[] bookIds;
+    private final boolean[] damagedBooks;
+
+
+    private LibraryMutation(MutationType type, int bookId, int patronId, boolean isDamaged,
+            double amount, long date, String[] text, long phoneNo) {
+        this(type, bookId, patronId, isDamaged, amount, date, text, phoneNo, null, null);
+    }
+
+
+    private LibraryMutation(MutationType type, int bookId, int patronId, boolean isDamaged,
+            double amount, long date, String[] text, long phoneNo, int[] bookIds, boolean[] damagedBooks) {
+        this.type = type;
+        this.bookId = bookId;
+        this.patronId = patronId;
+        this.isDamaged = isDamaged;
+        this.amount = amount;
+        this.date = date;
+        this.text = text;
+        this.phoneNo = phoneNo;
+        this.bookIds = bookIds;
+        this.damagedBooks = damagedBooks;
+    }
+
+
+    public static LibraryMutation addPatron(String lastName, String firstName, String email, long phoneNo) {
+        return new LibraryMutation(MutationType.ADD_PATRON, 0, 0, false, 0.0, 0L,
+                new String[] {lastName, firstName, email}, phoneNo);
+    }
+
+
+    public static LibraryMutation addBook(String author, String title, String callNumber) {
+        return new LibraryMutation(MutationType.ADD_BOOK, 0, 0, false, 0.0, 0L,
+                new String[] {author, title, callNumber}, 0L);
+    }
+
+
+    public static LibraryMutation commitLoan(int bookId, int patronId, Date date) {
+        return new LibraryMutation(MutationType.COMMIT_LOAN, bookId, patronId, false, 0.0, date.getTime(), null, 0L);
+    }
+
+
+    public static LibraryMutation commitLoans(int[] bookIds, int patronId, Date date) {
+        return new LibraryMutation(MutationType.COMMIT_LOANS, 0, patronId, false, 0.0, date.getTime(), null, 0L,
+                bookIds, null);
+    }
+
+
+    public static LibraryMutation dischargeLoan(int bookId, boolean isDamaged, Date date) {
+        return new LibraryMutation(MutationType.DISCHARGE_LOAN, bookId, 0, isDamaged, 0.0, date.getTime(), null, 0L);
+    }
+
+
+    public static LibraryMutation dischargeLoans(List<BookReturn> returns, Date date) {
+        int[] bookIds = new int[returns.size()];
+        boolean[] damagedBooks = new boolean[returns.size()];
+        for (int i = 0; i < bookIds.length; i++) {
+            bookIds[i] = returns.get(i).getBookId();
+            damagedBooks[i] = returns.get(i).isDamaged();
+        }
+        return dischargeLoans(bookIds, damagedBooks, date);
+    }
+
+
+    private static LibraryMutation dischargeLoans(int[] bookIds, boolean[] damagedBooks, Date date) {
+        return new LibraryMutation(MutationType.DISCHARGE_LOANS, 0, 0, false, 0.0, date.getTime(), null, 0L,
+                bookIds, damagedBooks);
+    }
+
+
+    public static LibraryMutation payFine(int patronId, double amount) {
+        return new LibraryMutation(MutationType.PAY_FINE, 0, patronId, false, amount, 0L, null, 0L);
+    }
+
+
+    public static LibraryMutation repairBook(int bookId) {
+        return new LibraryMutation(MutationType.REPAIR_BOOK, bookId, 0, false, 0.0, 0L, null, 0L);
+    }
+
+
+    public static LibraryMutation checkOverDue(Date date) {
+        return new LibraryMutation(MutationType.CHECK_OVERDUE, 0, 0, false, 0.0, date.getTime(), null, 0L);
+    }
+
+
+    public MutationType getType() {
+        return type;
+    }
+
+
+    /* a part of a batch, to be joined to the records after it on replay */
+    boolean isPart() {
+        return type == MutationType.COMMIT_LOANS_PART || type == MutationType.DISCHARGE_LOANS_PART;
+    }
+
+
+    /*
+     * This mutation as records whose payloads are at most maxSize bytes:
+     * parts holding the books of a batch in order, then a last record of the
+     * batch's type. Any other mutation is returned as it is.
+     */
+    List<LibraryMutation> split(int maxSize) {
+        if (type != MutationType.COMMIT_LOANS && type != MutationType.DISCHARGE_LOANS) {
+            return List.of(this);
+        }
+        boolean commit = type == MutationType.COMMIT_LOANS;
+        int bytesPerBook = commit ? COMMIT_BYTES_PER_BOOK : DISCHARGE_BYTES_PER_BOOK;
+        int perRecord = Math.max(1, (maxSize - BATCH_OVERHEAD) / bytesPerBook);
+        if (bookIds.length <= perRecord) {
+            return List.of(this);
+        }
+        List<LibraryMutation> records = new ArrayList<>(bookIds.length / perRecord + 1);
+        for (int from = 0; from < bookIds.length || records.isEmpty(); from += perRecord) {
+            int to = Math.min(bookIds.length, from + perRecord);
+            MutationType recordType = to < bookIds.length ? (commit ? MutationType.COMMIT_LOANS_PART
+                    : MutationType.DISCHARGE_LOANS_PART) : type;
+            records.add(withBooks(recordType, Arrays.copyOfRange(bookIds, from, to),
+                    commit ? null : Arrays.copyOfRange(damagedBooks, from, to)));
+        }
+        return records;
+    }
+
+
+    /*
+     * This part followed by the next record of its batch, which is a part
+     * itself or the batch's last record.
+     */
+    LibraryMutation join(LibraryMutation next) {
+        boolean commit = type == MutationType.COMMIT_LOANS_PART;
+        MutationType last = commit ? MutationType.COMMIT_LOANS : MutationType.DISCHARGE_LOANS;
+        if (!isPart() || (next.type != type && next.type != last)) {
+            throw new RuntimeException(String.format("LibraryMutation: %s cannot follow %s", next.type, type));
+        }
+        int[] joinedIds = Arrays.copyOf(bookIds, bookIds.length + next.bookIds.length);
+        System.arraycopy(next.bookIds, 0, joinedIds, bookIds.length, next.bookIds.length);
+        boolean[] joinedDamaged = null;
+        if (!commit) {
+            joinedDamaged = Arrays.copyOf(damagedBooks, damagedBooks.length + next.damagedBooks.length);
+            System.arraycopy(next.damagedBooks, 0, joinedDamaged, damagedBooks.length, next.damagedBooks.length);
+        }
+        return next.withBooks(next.type, joinedIds, joinedDamaged);
+    }
+
+
+    private LibraryMutation withBooks(MutationType recordType, int[] recordBookIds, boolean[] recordDamagedBooks) {
+        return new LibraryMutation(recordType, bookId, patronId, isDamaged, amount, date, text, phoneNo,
+                recordBookIds, recordDamagedBooks);
+    }
+
+
+    /**
+     * Re-runs this operation against the given library. The shared calendar is
+     * moved to the recorded date where the operation depends on it; callers
+     * replaying a sequence of mutations are responsible for restoring it.
+     */
+    public void applyTo(ILibrary library) {
+        switch (type) {
+            case ADD_PATRON:
+                library.addPatron(text[0], text[1], text[2], phoneNo);
+                break;
+
+            case ADD_BOOK:
+                library.addBook(text[0], text[1], text[2]);
+                break;
+
+            case COMMIT_LOAN:
+                Calendar.getInstance().setDate(new Date(date));
+                IBook book = requireBook(library, bookId);
+                IPatron patron = requirePatron(library, patronId);
+                library.commitLoan(library.issueLoan(book, patron));
+                break;
+
+            case COMMIT_LOANS:
+                Calendar.getInstance().setDate(new Date(date));
+                IPatron borrower = requirePatron(library, patronId);
+                List<ILoan> pendingLoans = new ArrayList<>(bookIds.length);
+                for (int id : bookIds) {
+                    pendingLoans.add(library.issueLoan(requireBook(library, id), borrower));
+                }
+                library.commitLoans(pendingLoans);
+                break;
+
+            case DISCHARGE_LOAN:
+                Calendar.getInstance().setDate(new Date(date));
+                ILoan loan = library.getCurrentLoanByBookId(bookId);
+                if (loan == null) {
+                    throw new RuntimeException(String.format("LibraryMutation: no current loan for book: %d", bookId));
+                }
+                library.dischargeLoan(loan, isDamaged);
+                break;
+
+            case DISCHARGE_LOANS:
+                Calendar.getInstance().setDate(new Date(date));
+                List<BookReturn> returns = new ArrayList<>(bookIds.length);
+                for (int i = 0; i < bookIds.length; i++) {
+                    returns.add(new BookReturn(bookIds[i], damagedBooks[i]));
+                }
+                library.dischargeLoans(returns);
+                break;
+
+            case PAY_FINE:
+                library.payFine(requirePatron(library, patronId), amount);
+                break;
+
+            case REPAIR_BOOK:
+                library.repairBook(requireBook(library, bookId));
+                break;
+
+            case CHECK_OVERDUE:
+                Calendar.getInstance().setDate(new Date(date));
+                library.checkCurrentLoansOverDue();
+                break;
+
+            case COMMIT_LOANS_PART:
+            case DISCHARGE_LOANS_PART:
+                throw new RuntimeException(String.format("LibraryMutation: %s applied without the rest of its batch",
+                        type));
+
+            default:
+                throw new RuntimeException(String.format("LibraryMutation: unknown type: %s", type));
+        }
+    }
+
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeByte(type.ordinal());
+        switch (type) {
+            case ADD_PATRON:
+                out.writeUTF(text[0]);
+                out.writeUTF(text[1]);
+                out.writeUTF(text[2]);
+                out.writeLong(phoneNo);
+                break;
+
+            case ADD_BOOK:
+                out.writeUTF(text[0]);
+                out.writeUTF(text[1]);
+                out.writeUTF(text[2]);
+                break;
+
+            case COMMIT_LOAN:
+                out.writeInt(bookId);
+                out.writeInt(patronId);
+                out.writeLong(date);
+                break;
+
+            case COMMIT_LOANS:
+            case COMMIT_LOANS_PART:
+                out.writeInt(bookIds.length);
+                for (int id : bookIds) {
+                    out.writeInt(id);
+                }
+                out.writeInt(patronId);
+                out.writeLong(date);
+                break;
+
+            case DISCHARGE_LOAN:
+                out.writeInt(bookId);
+                out.writeBoolean(isDamaged);
+                out.writeLong(date);
+                break;
+
+            case DISCHARGE_LOANS:
+            case DISCHARGE_LOANS_PART:
+                out.writeInt(bookIds.length);
+                for (int i = 0; i < bookIds.length; i++) {
+                    out.writeInt(bookIds[i]);
+                    out.writeBoolean(damagedBooks[i]);
+                }
+                out.writeLong(date);
+                break;
+
+            case PAY_FINE:
+                out.writeInt(patronId);
+                out.writeDouble(amount);
+                break;
+
+            case REPAIR_BOOK:
+                out.writeInt(bookId);
+                break;
+
+            case CHECK_OVERDUE:
+                out.writeLong(date);
+                break;
+        }
+    }
+
+
+    public static LibraryMutation readFrom(DataInput in) throws IOException {
+        int ordinal = in.readUnsignedByte();
+        MutationType[] types = MutationType.values();
+        if (ordinal >= types.length) {
+            throw new IOException(String.format("LibraryMutation: unknown type ordinal: %d", ordinal));
+        }
+        switch (types[ordinal]) {
+            case ADD_PATRON:
+                return addPatron(in.readUTF(), in.readUTF(), in.readUTF(), in.readLong());
+
+            case ADD_BOOK:
+                return addBook(in.readUTF(), in.readUTF(), in.readUTF());
+
+            case COMMIT_LOAN:
+                return commitLoan(in.readInt(), in.readInt(), new Date(in.readLong()));
+
+            case COMMIT_LOANS:
+            case COMMIT_LOANS_PART:
+                int[] bookIds = new int[in.readInt()];
+                for (int i = 0; i < bookIds.length; i++) {
+                    bookIds[i] = in.readInt();
+                }
+                LibraryMutation commit = commitLoans(bookIds, in.readInt(), new Date(in.readLong()));
+                return commit.withBooks(types[ordinal], commit.bookIds, null);
+
+            case DISCHARGE_LOAN:
+                return dischargeLoan(in.readInt(), in.readBoolean(), new Date(in.readLong()));
+
+            case DISCHARGE_LOANS:
+            case DISCHARGE_LOANS_PART:
+                int[] returnedIds = new int[in.readInt()];
+                boolean[] damagedBooks = new boolean[returnedIds.length];
+                for (int i = 0; i < returnedIds.length; i++) {
+                    returnedIds[i] = in.readInt();
+                    damagedBooks[i] = in.readBoolean();
+                }
+                LibraryMutation discharge = dischargeLoans(returnedIds, damagedBooks, new Date(in.readLong()));
+                return discharge.withBooks(types[ordinal], returnedIds, damagedBooks);
+
+            case PAY_FINE:
+                return payFine(in.readInt(), in.readDouble());
+
+            case REPAIR_BOOK:
+                return repairBook(in.readInt());
+
+            case CHECK_OVERDUE:
+                return checkOverDue(new Date(in.readLong()));
+
+            default:
+                throw new IOException(String.format("LibraryMutation: unknown type: %s", types[ordinal]));
+        }
+    }
+
+
+    private static IBook requireBook(ILibrary library, int bookId) {
+        IBook book = library.getBookById(bookId);
+        if (book == null) {
+            throw new RuntimeException(String.format("LibraryMutation: no such book: %d", bookId));
+        }
+        return book;
+    }
+
+
+    private static IPatron requirePatron(ILibrary library, int patronId) {
+        IPatron patron = library.getPatronById(patronId);
+        if (patron == null) {
+            throw new RuntimeException(String.format("LibraryMutation: no such patron: %d", patronId));
+        }
+        return patron;
+    }
+
+
+    public String toString() {
+        return String.format("LibraryMutation: %s", type);
+    }
+
+}
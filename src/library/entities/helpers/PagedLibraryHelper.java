@@ -0,0 +1,111 @@
+package library.entities.helpers;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import library.entities.ILibrary;
+import library.entities.Library;
+import library.entities.PagedLibraryStore;
+
+/**
+ * ILibraryHelper that keeps the library in a PagedLibraryStore page file
+ * instead of in memory. The library returned by loadLibrary reads entities
+ * from the file as they are needed and writes changes back through a
+ * bounded buffer pool; saveLibrary commits them.
+ */
+public class PagedLibraryHelper implements ILibraryHelper, AutoCloseable {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final String PAGE_FILE = "library.pages";
+	public static final int DEFAULT_BUFFER_PAGES = 4096;
+	public static final int DEFAULT_WORKING_SET = 10000;
+
+	IBookHelper bookHelper;
+	IPatronHelper patronHelper;
+	ILoanHelper loanHelper;
+
+	private final String pageFile;
+	private final int bufferPages;
+	private final int workingSetSize;
+	private transient PagedLibraryStore store;
+
+
+	public PagedLibraryHelper(IBookHelper bookHelper, IPatronHelper patronHelper, ILoanHelper loanHelper) {
+		this(bookHelper, patronHelper, loanHelper, PAGE_FILE, DEFAULT_BUFFER_PAGES, DEFAULT_WORKING_SET);
+	}
+
+
+	public PagedLibraryHelper(IBookHelper bookHelper, IPatronHelper patronHelper, ILoanHelper loanHelper,
+			String pageFile, int bufferPages, int workingSetSize) {
+		this.bookHelper = bookHelper;
+		this.patronHelper = patronHelper;
+		this.loanHelper = loanHelper;
+		this.pageFile = pageFile;
+		this.bufferPages = bufferPages;
+		this.workingSetSize = workingSetSize;
+	}
+
+
+	/**
+	 * Opens the page file. If there is none yet, a library saved by
+	 * LibraryFileHelper is copied into it.
+	 */
+	@Override
+	public ILibrary loadLibrary() {
+		close();
+		store = PagedLibraryStore.open(Paths.get(pageFile), bookHelper, patronHelper, loanHelper,
+				bufferPages, workingSetSize);
+		if (!store.exists() && Files.exists(Paths.get(LibraryFileHelper.LIBRARY_FILE))) {
+			store.importLibrary(new LibraryFileHelper(bookHelper, patronHelper, loanHelper).loadLibrary());
+		}
+		return store.getLibrary();
+	}
+
+
+	/**
+	 * Commits the changes made to the loaded library. A library that was not
+	 * loaded by this helper replaces the contents of an empty page file.
+	 */
+	@Override
+	public void saveLibrary(ILibrary library) {
+		if (library == null) {
+			return;
+		}
+		if (store == null) {
+			store = PagedLibraryStore.open(Paths.get(pageFile), bookHelper, patronHelper, loanHelper,
+					bufferPages, workingSetSize);
+		}
+		if (library == store.getLibrary()) {
+			store.commit();
+		}
+		else {
+			store.importLibrary(library);
+		}
+	}
+
+
+	/* package-private getter for testing only */
+	PagedLibraryStore getStore() {
+		return store;
+	}
+
+
+	/**
+	 * Closes the page file. Changes not saved are lost.
+	 */
+	@Override
+	public void close() {
+		if (store != null) {
+			store.close();
+			store = null;
+		}
+	}
+
+
+	@Override
+	public ILibrary makeLibrary(IBookHelper bookHelper, IPatronHelper patronHelper, ILoanHelper loanHelper) {
+		return new Library(bookHelper, patronHelper, loanHelper);
+	}
+
+}
@@ -0,0 +1,314 @@
+package library.entities.helpers;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import library.entities.BookReturn;
+import library.entities.CirculationStatistics;
+import library.entities.DirtySegments;
+import library.entities.IBook;
+import library.entities.ILibrary;
+import library.entities.ILoan;
+import library.entities.IPatron;
+import library.entities.LibrarySegmentStore.SegmentType;
+
+/**
+ * ILibrary decorator that marks the segments touched by each state-changing
+ * call as dirty. Queries go straight to the wrapped library.
+ */
+class SegmentTrackingLibrary implements ILibrary {
+
+    private final ILibrary library;
+    private final DirtySegments dirty;
+
+
+    SegmentTrackingLibrary(ILibrary library, DirtySegments dirty) {
+        this.library = library;
+        this.dirty = dirty;
+    }
+
+
+    /* the undecorated library, for flushing */
+    ILibrary getLibrary() {
+        return library;
+    }
+
+
+    @Override
+    public IPatron addPatron(String lastName, String firstName, String email, long phoneNo) {
+        IPatron patron = library.addPatron(lastName, firstName, email, phoneNo);
+        dirty.mark(SegmentType.PATRONS, patron.getId());
+        return patron;
+    }
+
+
+    @Override
+    public IBook addBook(String author, String title, String callNumber) {
+        IBook book = library.addBook(author, title, callNumber);
+        dirty.mark(SegmentType.BOOKS, book.getId());
+        return book;
+    }
+
+
+    @Override
+    public List<IBook> addBooks(List<String[]> books) {
+        List<IBook> added = library.addBooks(books);
+        for (IBook book : added) {
+            dirty.mark(SegmentType.BOOKS, book.getId());
+        }
+        return added;
+    }
+
+
+    @Override
+    public List<IPatron> getPatronList() {
+        return library.getPatronList();
+    }
+
+
+    @Override
+    public List<IBook> getBookList() {
+        return library.getBookList();
+    }
+
+
+    @Override
+    public List<ILoan> getCurrentLoansList() {
+        return library.getCurrentLoansList();
+    }
+
+
+    @Override
+    public List<ILoan> getAllLoansList() {
+        return library.getAllLoansList();
+    }
+
+
+    @Override
+    public Stream<ILoan> getAllLoans() {
+        return library.getAllLoans();
+    }
+
+
+    @Override
+    public Stream<IBook> getBookStream() {
+        return library.getBookStream();
+    }
+
+
+    @Override
+    public Stream<IPatron> getPatronStream() {
+        return library.getPatronStream();
+    }
+
+
+    @Override
+    public Stream<ILoan> getCurrentLoanStream() {
+        return library.getCurrentLoanStream();
+    }
+
+
+    @Override
+    public List<IBook> getBookPage(int afterId, int limit) {
+        return library.getBookPage(afterId, limit);
+    }
+
+
+    @Override
+    public List<IPatron> getPatronPage(int afterId, int limit) {
+        return library.getPatronPage(afterId, limit);
+    }
+
+
+    @Override
+    public List<ILoan> getCurrentLoanPage(int afterBookId, int limit) {
+        return library.getCurrentLoanPage(afterBookId, limit);
+    }
+
+
+    @Override
+    public List<ILoan> getLoanPage(int afterId, int limit) {
+        return library.getLoanPage(afterId, limit);
+    }
+
+
+    @Override
+    public ILoan getLoanById(int loanId) {
+        return library.getLoanById(loanId);
+    }
+
+
+    @Override
+    public IPatron getPatronById(int patronId) {
+        return library.getPatronById(patronId);
+    }
+
+
+    @Override
+    public IBook getBookById(int bookId) {
+        return library.getBookById(bookId);
+    }
+
+
+    @Override
+    public List<IBook> findBooks(IBook.BookField field, String value) {
+        return library.findBooks(field, value);
+    }
+
+
+    @Override
+    public List<IBook> findBooksByPrefix(IBook.BookField field, String prefix, int limit) {
+        return library.findBooksByPrefix(field, prefix, limit);
+    }
+
+
+    @Override
+    public List<IBook> findBooksInRange(IBook.BookField field, String from, String to, int limit) {
+        return library.findBooksInRange(field, from, to, limit);
+    }
+
+
+    @Override
+    public List<IBook> searchBooks(String query, int limit, boolean availableOnly) {
+        return library.searchBooks(query, limit, availableOnly);
+    }
+
+
+    @Override
+    public List<IPatron> findPatrons(IPatron.PatronField field, String value) {
+        return library.findPatrons(field, value);
+    }
+
+
+    @Override
+    public List<IPatron> findPatronsByPrefix(IPatron.PatronField field, String prefix, int limit) {
+        return library.findPatronsByPrefix(field, prefix, limit);
+    }
+
+
+    @Override
+    public List<IPatron> findPatronsByPhoneNumber(long phoneNo) {
+        return library.findPatronsByPhoneNumber(phoneNo);
+    }
+
+
+    @Override
+    public ILoan getCurrentLoanByBookId(int bookId) {
+        return library.getCurrentLoanByBookId(bookId);
+    }
+
+
+    @Override
+    public boolean patronCanBorrow(IPatron patron) {
+        return library.patronCanBorrow(patron);
+    }
+
+
+    @Override
+    public boolean patronWillReachLoanMax(IPatron patron, int numberOfPendingLoans) {
+        return library.patronWillReachLoanMax(patron, numberOfPendingLoans);
+    }
+
+
+    @Override
+    public ILoan issueLoan(IBook book, IPatron patron) {
+        return library.issueLoan(book, patron);
+    }
+
+
+    @Override
+    public void commitLoan(ILoan loan) {
+        library.commitLoan(loan);
+        int bookId = loan.getBook().getId();
+        dirty.mark(SegmentType.LOANS, loan.getId());
+        dirty.mark(SegmentType.BOOKS, bookId);
+        dirty.mark(SegmentType.CURRENT_LOANS, bookId);
+        dirty.mark(SegmentType.PATRONS, loan.getPatron().getId());
+    }
+
+
+    @Override
+    public void commitLoans(List<ILoan> pendingLoans) {
+        library.commitLoans(pendingLoans);
+        for (ILoan loan : pendingLoans) {
+            int bookId = loan.getBook().getId();
+            dirty.mark(SegmentType.LOANS, loan.getId());
+            dirty.mark(SegmentType.BOOKS, bookId);
+            dirty.mark(SegmentType.CURRENT_LOANS, bookId);
+            dirty.mark(SegmentType.PATRONS, loan.getPatron().getId());
+        }
+    }
+
+
+    @Override
+    public void dischargeLoan(ILoan currentLoan, boolean isDamaged) {
+        library.dischargeLoan(currentLoan, isDamaged);
+        int bookId = currentLoan.getBook().getId();
+        dirty.mark(SegmentType.LOANS, currentLoan.getId());
+        dirty.mark(SegmentType.BOOKS, bookId);
+        dirty.mark(SegmentType.CURRENT_LOANS, bookId);
+        dirty.mark(SegmentType.PATRONS, currentLoan.getPatron().getId());
+        if (isDamaged) {
+            dirty.mark(SegmentType.DAMAGED_BOOKS, bookId);
+        }
+    }
+
+
+    @Override
+    public List<ILoan> dischargeLoans(List<BookReturn> returns) {
+        List<ILoan> discharged = library.dischargeLoans(returns);
+        for (ILoan loan : discharged) {
+            int bookId = loan.getBook().getId();
+            dirty.mark(SegmentType.LOANS, loan.getId());
+            dirty.mark(SegmentType.BOOKS, bookId);
+            dirty.mark(SegmentType.CURRENT_LOANS, bookId);
+            dirty.mark(SegmentType.PATRONS, loan.getPatron().getId());
+        }
+        for (BookReturn bookReturn : returns) {
+            if (bookReturn.isDamaged()) {
+                dirty.mark(SegmentType.DAMAGED_BOOKS, bookReturn.getBookId());
+            }
+        }
+        return discharged;
+    }
+
+
+    @Override
+    public List<ILoan> checkCurrentLoansOverDue() {
+        List<ILoan> overdue = library.checkCurrentLoansOverDue();
+        for (ILoan loan : overdue) {
+            dirty.mark(SegmentType.LOANS, loan.getId());
+            dirty.mark(SegmentType.PATRONS, loan.getPatron().getId());
+        }
+        return overdue;
+    }
+
+
+    @Override
+    public double calculateOverDueFine(ILoan loan) {
+        return library.calculateOverDueFine(loan);
+    }
+
+
+    @Override
+    public double payFine(IPatron patron, double amount) {
+        double change = library.payFine(patron, amount);
+        dirty.mark(SegmentType.PATRONS, patron.getId());
+        return change;
+    }
+
+
+    @Override
+    public void repairBook(IBook currentBook) {
+        library.repairBook(currentBook);
+        dirty.mark(SegmentType.BOOKS, currentBook.getId());
+        dirty.mark(SegmentType.DAMAGED_BOOKS, currentBook.getId());
+    }
+
+
+    @Override
+    public CirculationStatistics getStatistics() {
+        return library.getStatistics();
+    }
+
+}
@@ -0,0 +1,117 @@
+package library.entities.helpers;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import library.entities.DirtySegments;
+import library.entities.ILibrary;
+import library.entities.Library;
+import library.entities.LibrarySegmentStore;
+
+/**
+ * ILibraryHelper that persists a library as a LibrarySegmentStore directory.
+ *
+ * The library returned by loadLibrary marks the segments each mutation
+ * touches, so saveLibrary rewrites only those: adding a patron rewrites one
+ * patron segment, not the catalog or the loan history. Loading reads the
+ * segment files in parallel.
+ */
+public class SegmentedLibraryHelper implements ILibraryHelper {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final String SEGMENT_DIRECTORY = "library.segments";
+
+	IBookHelper bookHelper;
+	IPatronHelper patronHelper;
+	ILoanHelper loanHelper;
+
+	private transient LibrarySegmentStore store;
+	private transient DirtySegments dirty;
+
+
+	public SegmentedLibraryHelper(IBookHelper bookHelper, IPatronHelper patronHelper, ILoanHelper loanHelper) {
+		this(bookHelper, patronHelper, loanHelper, SEGMENT_DIRECTORY);
+	}
+
+
+	public SegmentedLibraryHelper(IBookHelper bookHelper, IPatronHelper patronHelper, ILoanHelper loanHelper,
+			String segmentDirectory) {
+		this.bookHelper = bookHelper;
+		this.patronHelper = patronHelper;
+		this.loanHelper = loanHelper;
+		this.store = new LibrarySegmentStore(Paths.get(segmentDirectory));
+		this.dirty = new DirtySegments();
+	}
+
+
+	/**
+	 * Loads the segment store. If there is none yet, a library saved by
+	 * LibraryFileHelper is used and written out in full on the first save.
+	 */
+	@Override
+	public ILibrary loadLibrary() {
+		ILibrary library;
+		dirty.clear();
+		if (store.exists()) {
+			try {
+				library = store.load(bookHelper, patronHelper, loanHelper);
+			}
+			catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+		else if (Files.exists(Paths.get(LibraryFileHelper.LIBRARY_FILE))) {
+			library = new LibraryFileHelper(bookHelper, patronHelper, loanHelper).loadLibrary();
+			try {
+				store.flushAll(library);
+			}
+			catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+		else {
+			library = makeLibrary(bookHelper, patronHelper, loanHelper);
+		}
+		return new SegmentTrackingLibrary(library, dirty);
+	}
+
+
+	/**
+	 * Rewrites the segments changed since the last save. A library that was
+	 * not loaded by this helper is written in full.
+	 */
+	@Override
+	public void saveLibrary(ILibrary library) {
+		if (library == null) {
+			return;
+		}
+		try {
+			if (library instanceof SegmentTrackingLibrary) {
+				if (!dirty.isEmpty()) {
+					store.flush(((SegmentTrackingLibrary) library).getLibrary(), dirty);
+					dirty.clear();
+				}
+			}
+			else {
+				store.flushAll(library);
+			}
+		}
+		catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+
+	/* package-private getter for testing only */
+	LibrarySegmentStore getStore() {
+		return store;
+	}
+
+
+	@Override
+	public ILibrary makeLibrary(IBookHelper bookHelper, IPatronHelper patronHelper, ILoanHelper loanHelper) {
+		return new Library(bookHelper, patronHelper, loanHelper);
+	}
+
+}
@@ -0,0 +1,103 @@
+package library.entities.helpers;
+
+/**
+ * How far the last durable snapshot written by BackgroundSnapshotHelper lags
+ * behind the library in memory, taken at one moment.
+ */
+public final class SnapshotMetrics {
+
+	private final long mutationsBehind;
+	private final long stalenessMillis;
+	private final long lastSnapshotTime;
+	private final long snapshotsWritten;
+	private final long failedSnapshots;
+	private final long lastCaptureMillis;
+	private final long lastWriteMillis;
+	private final boolean writeInProgress;
+	private final Throwable lastFailure;
+
+
+	SnapshotMetrics(long mutationsBehind, long stalenessMillis, long lastSnapshotTime, long snapshotsWritten,
+			long failedSnapshots, long lastCaptureMillis, long lastWriteMillis, boolean writeInProgress,
+			Throwable lastFailure) {
+		this.mutationsBehind = mutationsBehind;
+		this.stalenessMillis = stalenessMillis;
+		this.lastSnapshotTime = lastSnapshotTime;
+		this.snapshotsWritten = snapshotsWritten;
+		this.failedSnapshots = failedSnapshots;
+		this.lastCaptureMillis = lastCaptureMillis;
+		this.lastWriteMillis = lastWriteMillis;
+		this.writeInProgress = writeInProgress;
+		this.lastFailure = lastFailure;
+	}
+
+
+	/**
+	 * Mutations saved since the state held by the last durable snapshot.
+	 */
+	public long getMutationsBehind() {
+		return mutationsBehind;
+	}
+
+
+	/**
+	 * How long the oldest mutation missing from the durable snapshot has been
+	 * waiting, or 0 if the snapshot is up to date.
+	 */
+	public long getStalenessMillis() {
+		return stalenessMillis;
+	}
+
+
+	/**
+	 * When the state in the last durable snapshot was captured, in
+	 * milliseconds since the epoch, or 0 if none has been written.
+	 */
+	public long getLastSnapshotTime() {
+		return lastSnapshotTime;
+	}
+
+
+	public long getSnapshotsWritten() {
+		return snapshotsWritten;
+	}
+
+
+	public long getFailedSnapshots() {
+		return failedSnapshots;
+	}
+
+
+	/**
+	 * Time the caller was held capturing the last snapshot.
+	 */
+	public long getLastCaptureMillis() {
+		return lastCaptureMillis;
+	}
+
+
+	/**
+	 * Time the background thread took to write and rename the last snapshot.
+	 */
+	public long getLastWriteMillis() {
+		return lastWriteMillis;
+	}
+
+
+	public boolean isWriteInProgress() {
+		return writeInProgress;
+	}
+
+
+	public Throwable getLastFailure() {
+		return lastFailure;
+	}
+
+
+	@Override
+	public String toString() {
+		return String.format("Snapshot: %d mutations behind, stale for %d ms, %d written, %d failed, last capture %d ms, last write %d ms",
+				mutationsBehind, stalenessMillis, snapshotsWritten, failedSnapshots, lastCaptureMillis, lastWriteMillis);
+	}
+
+}
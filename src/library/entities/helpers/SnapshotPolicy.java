@@ -0,0 +1,58 @@
+package library.entities.helpers;
+
+/**
+ * Decides when BackgroundSnapshotHelper starts a new snapshot: after a number
+ * of mutations, after an interval has passed, or whichever comes first. A
+ * limit of 0 is not checked.
+ */
+public final class SnapshotPolicy {
+
+	private final long mutationLimit;
+	private final long intervalMillis;
+
+
+	public SnapshotPolicy(long mutationLimit, long intervalMillis) {
+		if (mutationLimit < 0 || intervalMillis < 0) {
+			throw new RuntimeException("SnapshotPolicy: limits must not be negative");
+		}
+		if (mutationLimit == 0 && intervalMillis == 0) {
+			throw new RuntimeException("SnapshotPolicy: at least one limit must be set");
+		}
+		this.mutationLimit = mutationLimit;
+		this.intervalMillis = intervalMillis;
+	}
+
+
+	public static SnapshotPolicy everyMutations(long mutationLimit) {
+		return new SnapshotPolicy(mutationLimit, 0);
+	}
+
+
+	public static SnapshotPolicy everySeconds(long seconds) {
+		return new SnapshotPolicy(0, seconds * 1000);
+	}
+
+
+	/**
+	 * True if a snapshot is due, given the mutations made and the time passed
+	 * since the last snapshot was started. Never due without a mutation.
+	 */
+	public boolean isDue(long mutations, long elapsedMillis) {
+		if (mutations == 0) {
+			return false;
+		}
+		return (mutationLimit > 0 && mutations >= mutationLimit)
+			|| (intervalMillis > 0 && elapsedMillis >= intervalMillis);
+	}
+
+
+	public long getMutationLimit() {
+		return mutationLimit;
+	}
+
+
+	public long getIntervalMillis() {
+		return intervalMillis;
+	}
+
+}
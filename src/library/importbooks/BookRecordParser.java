@@ -0,0 +1,227 @@
+package library.importbooks;
+
+/**
+ * Parses one line of an import file into author, title and call number, or
+ * returns null if the line is not a valid record.
+ *
+ *   CSV         - author,title,call number; fields may be quoted with ",
+ *                 and "" inside quotes stands for one "
+ *   JSON lines  - {"author": "...", "title": "...", "callNumber": "..."}
+ *
+ * Records cannot span lines. Blank lines and a CSV header line starting with
+ * "author" are skipped by the caller through isHeaderOrBlank.
+ */
+abstract class BookRecordParser {
+
+    static final BookRecordParser CSV = new CsvParser();
+    static final BookRecordParser JSON_LINES = new JsonLinesParser();
+
+
+    abstract String[] parse(String line);
+
+
+    boolean isHeaderOrBlank(String line) {
+        return line.trim().isEmpty();
+    }
+
+
+    private static boolean isComplete(String[] fields) {
+        for (String field : fields) {
+            if (field == null || field.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    private static final class CsvParser extends BookRecordParser {
+
+        @Override
+        boolean isHeaderOrBlank(String line) {
+            return super.isHeaderOrBlank(line) || line.trim().toLowerCase().startsWith("author,");
+        }
+
+
+        @Override
+        String[] parse(String line) {
+            String[] fields = new String[3];
+            int field = 0;
+            StringBuilder value = new StringBuilder();
+            int i = 0;
+            while (i <= line.length()) {
+                if (field == fields.length) {
+                    return null;
+                }
+                if (i < line.length() && line.charAt(i) == '"') {
+                    i++;
+                    while (true) {
+                        if (i >= line.length()) {
+                            return null;
+                        }
+                        char c = line.charAt(i++);
+                        if (c == '"') {
+                            if (i < line.length() && line.charAt(i) == '"') {
+                                value.append('"');
+                                i++;
+                            }
+                            else {
+                                break;
+                            }
+                        }
+                        else {
+                            value.append(c);
+                        }
+                    }
+                    if (i < line.length() && line.charAt(i) != ',') {
+                        return null;
+                    }
+                }
+                else {
+                    int end = line.indexOf(',', i);
+                    if (end < 0) {
+                        end = line.length();
+                    }
+                    value.append(line, i, end);
+                    i = end;
+                }
+                fields[field++] = value.toString().trim();
+                value.setLength(0);
+                i++;
+            }
+            return field == fields.length && isComplete(fields) ? fields : null;
+        }
+    }
+
+
+    /*
+     * Reads flat objects of string members only; other members are ignored
+     * as long as their values are strings too.
+     */
+    private static final class JsonLinesParser extends BookRecordParser {
+
+        @Override
+        String[] parse(String line) {
+            String[] fields = new String[3];
+            int[] position = {skipSpace(line, 0)};
+            if (!expect(line, position, '{')) {
+                return null;
+            }
+            if (peek(line, position) == '}') {
+                return null;
+            }
+            while (true) {
+                String name = readString(line, position);
+                if (name == null || !expect(line, position, ':')) {
+                    return null;
+                }
+                String value = readString(line, position);
+                if (value == null) {
+                    return null;
+                }
+                switch (name) {
+                case "author":
+                    fields[0] = value;
+                    break;
+                case "title":
+                    fields[1] = value;
+                    break;
+                case "callNumber":
+                    fields[2] = value;
+                    break;
+                default:
+                    break;
+                }
+                if (expect(line, position, ',')) {
+                    continue;
+                }
+                if (expect(line, position, '}') && skipSpace(line, position[0]) == line.length()) {
+                    break;
+                }
+                return null;
+            }
+            return isComplete(fields) ? fields : null;
+        }
+
+
+        private static int skipSpace(String line, int i) {
+            while (i < line.length() && Character.isWhitespace(line.charAt(i))) {
+                i++;
+            }
+            return i;
+        }
+
+
+        private static char peek(String line, int[] position) {
+            position[0] = skipSpace(line, position[0]);
+            return position[0] < line.length() ? line.charAt(position[0]) : 0;
+        }
+
+
+        private static boolean expect(String line, int[] position, char c) {
+            if (peek(line, position) != c) {
+                return false;
+            }
+            position[0]++;
+            return true;
+        }
+
+
+        private static String readString(String line, int[] position) {
+            if (!expect(line, position, '"')) {
+                return null;
+            }
+            StringBuilder value = new StringBuilder();
+            int i = position[0];
+            while (i < line.length()) {
+                char c = line.charAt(i++);
+                if (c == '"') {
+                    position[0] = i;
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                if (i >= line.length()) {
+                    return null;
+                }
+                char escaped = line.charAt(i++);
+                switch (escaped) {
+                case 'n':
+                    value.append('\n');
+                    break;
+                case 't':
+                    value.append('\t');
+                    break;
+                case 'r':
+                    value.append('\r');
+                    break;
+                case 'b':
+                    value.append('\b');
+                    break;
+                case 'f':
+                    value.append('\f');
+                    break;
+                case 'u':
+                    if (i + 4 > line.length()) {
+                        return null;
+                    }
+                    try {
+                        value.append((char) Integer.parseInt(line.substring(i, i + 4), 16));
+                    }
+                    catch (NumberFormatException e) {
+                        return null;
+                    }
+                    i += 4;
+                    break;
+                default:
+                    value.append(escaped);
+                    break;
+                }
+            }
+            return null;
+        }
+    }
+
+}
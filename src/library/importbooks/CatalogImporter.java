@@ -0,0 +1,253 @@
+package library.importbooks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import library.entities.ILibrary;
+
+/**
+ * Adds the books listed in a CSV or JSON-lines file to a library.
+ *
+ * The calling thread reads the file in batches of lines, which a pool of
+ * parser threads turns into book records. Parsed batches are added to the
+ * catalog in file order with ILibrary.addBooks, so each batch gets one block
+ * of consecutive ids. At most two batches per parser thread are in flight,
+ * which bounds memory however large the file is.
+ *
+ * The importer does not save the library; callers save it once when the
+ * import returns, rather than once per book.
+ */
+public class CatalogImporter {
+
+    public enum Format {
+        CSV(BookRecordParser.CSV),
+        JSON_LINES(BookRecordParser.JSON_LINES);
+
+        private final BookRecordParser parser;
+
+        Format(BookRecordParser parser) {
+            this.parser = parser;
+        }
+
+        /**
+         * JSON_LINES for files ending in .jsonl, .ndjson or .json, otherwise CSV.
+         */
+        public static Format of(Path path) {
+            String name = path.getFileName().toString().toLowerCase();
+            if (name.endsWith(".jsonl") || name.endsWith(".ndjson") || name.endsWith(".json")) {
+                return JSON_LINES;
+            }
+            return CSV;
+        }
+    }
+
+
+    public interface ProgressListener {
+        void progress(ImportProgress progress);
+    }
+
+
+    public static final class ImportProgress {
+
+        private final long booksImported;
+        private final long linesRead;
+        private final long linesRejected;
+        private final long elapsedMillis;
+        private final boolean finished;
+
+        ImportProgress(long booksImported, long linesRead, long linesRejected, long elapsedMillis,
+                boolean finished) {
+            this.booksImported = booksImported;
+            this.linesRead = linesRead;
+            this.linesRejected = linesRejected;
+            this.elapsedMillis = elapsedMillis;
+            this.finished = finished;
+        }
+
+        public long getBooksImported() {
+            return booksImported;
+        }
+
+        public long getLinesRead() {
+            return linesRead;
+        }
+
+        /**
+         * Lines that were neither blank, a header nor a valid record.
+         */
+        public long getLinesRejected() {
+            return linesRejected;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        public double getBooksPerSecond() {
+            return elapsedMillis == 0 ? 0.0 : booksImported * 1000.0 / elapsedMillis;
+        }
+
+        public boolean isFinished() {
+            return finished;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d books imported, %d lines rejected, %.1f s, %.0f books/s",
+                    booksImported, linesRejected, elapsedMillis / 1000.0, getBooksPerSecond());
+        }
+    }
+
+
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    public static final long PROGRESS_INTERVAL_MILLIS = 1000;
+
+    private final ILibrary library;
+    private final int parserThreads;
+    private final int batchSize;
+
+
+    public CatalogImporter(ILibrary library) {
+        this(library, Runtime.getRuntime().availableProcessors(), DEFAULT_BATCH_SIZE);
+    }
+
+
+    public CatalogImporter(ILibrary library, int parserThreads, int batchSize) {
+        if (library == null) {
+            throw new RuntimeException("CatalogImporter: constructor : library cannot be null.");
+        }
+        if (parserThreads < 1 || batchSize < 1) {
+            throw new RuntimeException("CatalogImporter: constructor : parserThreads and batchSize must be positive.");
+        }
+        this.library = library;
+        this.parserThreads = parserThreads;
+        this.batchSize = batchSize;
+    }
+
+
+    public ImportProgress importFile(Path path, ProgressListener listener) {
+        return importFile(path, Format.of(path), listener);
+    }
+
+
+    /**
+     * Imports every valid record in the file, reporting to listener (which
+     * may be null) about once a second and when the import finishes. Books
+     * added before a read error stay in the catalog.
+     */
+    public ImportProgress importFile(Path path, Format format, ProgressListener listener) {
+        long start = System.nanoTime();
+        long lastReport = start;
+        long linesRead = 0;
+        long booksImported = 0;
+        long linesRejected = 0;
+
+        ExecutorService parsers = Executors.newFixedThreadPool(parserThreads, runnable -> {
+            Thread thread = new Thread(runnable, "catalog-import-parser");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Deque<Future<ParsedBatch>> inFlight = new ArrayDeque<>();
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            List<String> lines = new ArrayList<>(batchSize);
+            boolean endOfFile = false;
+            while (!endOfFile || !inFlight.isEmpty()) {
+                while (!endOfFile && inFlight.size() < 2 * parserThreads) {
+                    String line = reader.readLine();
+                    if (line == null) {
+                        endOfFile = true;
+                    }
+                    else {
+                        linesRead++;
+                        lines.add(line);
+                    }
+                    if (lines.size() == batchSize || (endOfFile && !lines.isEmpty())) {
+                        List<String> batch = lines;
+                        inFlight.add(parsers.submit(() -> parse(format.parser, batch)));
+                        lines = new ArrayList<>(batchSize);
+                    }
+                }
+                if (inFlight.isEmpty()) {
+                    break;
+                }
+                ParsedBatch parsed = inFlight.poll().get();
+                if (!parsed.books.isEmpty()) {
+                    library.addBooks(parsed.books);
+                }
+                booksImported += parsed.books.size();
+                linesRejected += parsed.rejected;
+
+                long now = System.nanoTime();
+                if (listener != null && now - lastReport >= PROGRESS_INTERVAL_MILLIS * 1_000_000) {
+                    lastReport = now;
+                    listener.progress(new ImportProgress(booksImported, linesRead, linesRejected,
+                            (now - start) / 1_000_000, false));
+                }
+            }
+        }
+        catch (IOException e) {
+            throw new RuntimeException("CatalogImporter: importFile : cannot read " + path, e);
+        }
+        catch (ExecutionException e) {
+            throw new RuntimeException("CatalogImporter: importFile : parsing failed", e.getCause());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("CatalogImporter: importFile : interrupted", e);
+        }
+        finally {
+            for (Future<ParsedBatch> future : inFlight) {
+                future.cancel(true);
+            }
+            parsers.shutdownNow();
+        }
+
+        ImportProgress result = new ImportProgress(booksImported, linesRead, linesRejected,
+                (System.nanoTime() - start) / 1_000_000, true);
+        if (listener != null) {
+            listener.progress(result);
+        }
+        return result;
+    }
+
+
+    private static ParsedBatch parse(BookRecordParser parser, List<String> lines) {
+        ParsedBatch parsed = new ParsedBatch(lines.size());
+        for (String line : lines) {
+            if (parser.isHeaderOrBlank(line)) {
+                continue;
+            }
+            String[] book = parser.parse(line);
+            if (book == null) {
+                parsed.rejected++;
+            }
+            else {
+                parsed.books.add(book);
+            }
+        }
+        return parsed;
+    }
+
+
+    private static final class ParsedBatch {
+
+        final List<String[]> books;
+        int rejected;
+
+        ParsedBatch(int capacity) {
+            books = new ArrayList<>(capacity);
+        }
+    }
+
+}
@@ -0,0 +1,513 @@
+package library.storage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * B+tree from int keys to byte array values, held in the pages of a
+ * PageStore.
+ *
+ *   leaf      - type | count | (key, length, value bytes)*
+ *   internal  - type | count | child0 | (key, child)*
+ *
+ * Child i of an internal node holds the keys below key i, and each key is the
+ * smallest in the subtree to its right. Lookups read pages in place; a node
+ * is decoded only to change it.
+ *
+ * Pages are copied on write: the first change to a page that belongs to the
+ * last committed state goes to a newly allocated page, and every node on the
+ * path up to the root is repointed the same way, so the committed tree is
+ * left intact on disk until PageStore.commit replaces it. Pages already
+ * copied in the current transaction are changed in place. Removing keys does
+ * not merge nodes; a leaf left empty stays in the tree until it is refilled.
+ *
+ * Not thread-safe.
+ */
+public class BPlusTree {
+
+	public static final int MAX_VALUE_SIZE = PageFile.PAGE_SIZE / 4;
+
+	private static final byte LEAF = 1;
+	private static final byte INTERNAL = 2;
+	private static final int HEADER_SIZE = 3;
+	private static final int LEAF_ENTRY_OVERHEAD = 6;
+	private static final int INTERNAL_ENTRY_SIZE = 8;
+
+	private final PageStore store;
+	private int root;
+	private int height;
+	private long size;
+
+
+	BPlusTree(PageStore store, int root, int height, long size) {
+		this.store = store;
+		this.root = root;
+		this.height = height;
+		this.size = size;
+	}
+
+
+	/* package-private getters for the PageStore header */
+	int getRoot() {
+		return root;
+	}
+
+
+	int getHeight() {
+		return height;
+	}
+
+
+	public long size() {
+		return size;
+	}
+
+
+	public byte[] get(int key) {
+		if (root == 0) {
+			return null;
+		}
+		int pageNo = root;
+		BufferPool pool = store.getBufferPool();
+		while (true) {
+			BufferPool.Frame frame = pool.pin(pageNo);
+			try {
+				ByteBuffer page = frame.getData();
+				if (page.get(0) == INTERNAL) {
+					pageNo = childFor(page, key);
+					continue;
+				}
+				int count = page.getShort(1);
+				int offset = HEADER_SIZE;
+				for (int i = 0; i < count; i++) {
+					int entryKey = page.getInt(offset);
+					int length = page.getShort(offset + 4);
+					if (entryKey == key) {
+						byte[] value = new byte[length];
+						page.position(offset + LEAF_ENTRY_OVERHEAD);
+						page.get(value);
+						page.clear();
+						return value;
+					}
+					if (entryKey > key) {
+						return null;
+					}
+					offset += LEAF_ENTRY_OVERHEAD + length;
+				}
+				return null;
+			}
+			finally {
+				pool.unpin(frame, false);
+			}
+		}
+	}
+
+
+	public boolean containsKey(int key) {
+		return get(key) != null;
+	}
+
+
+	/**
+	 * Stores value under key, replacing any value already there. Returns true
+	 * if the key is new.
+	 */
+	public boolean put(int key, byte[] value) {
+		if (value.length > MAX_VALUE_SIZE) {
+			throw new RuntimeException(String.format(
+					"BPlusTree: put: value of %d bytes is larger than %d", value.length, MAX_VALUE_SIZE));
+		}
+		if (root == 0) {
+			Node leaf = new Node(true);
+			leaf.keys.add(key);
+			leaf.values.add(value);
+			root = write(0, leaf);
+			height = 1;
+			size = 1;
+			return true;
+		}
+		Change change = insert(root, key, value);
+		if (change.split != null) {
+			Node newRoot = new Node(false);
+			newRoot.children.add(change.pageNo);
+			newRoot.keys.add(change.split.key);
+			newRoot.children.add(change.split.pageNo);
+			root = write(0, newRoot);
+			height++;
+		}
+		else {
+			root = change.pageNo;
+		}
+		if (change.added) {
+			size++;
+		}
+		return change.added;
+	}
+
+
+	/**
+	 * Removes key. Returns true if it was present.
+	 */
+	public boolean remove(int key) {
+		if (root == 0) {
+			return false;
+		}
+		int pageNo = delete(root, key);
+		if (pageNo < 0) {
+			return false;
+		}
+		root = pageNo;
+		size--;
+		return true;
+	}
+
+
+	/**
+	 * Up to limit keys, in order, starting at the first key not below from.
+	 */
+	public int[] keysFrom(int from, int limit) {
+		List<Integer> keys = new ArrayList<>(Math.min(limit, 1024));
+		if (root != 0 && limit > 0) {
+			collect(root, from, limit, keys);
+		}
+		int[] result = new int[keys.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = keys.get(i);
+		}
+		return result;
+	}
+
+
+	/**
+	 * Calls visitor with the number of every page in the tree, for rebuilding
+	 * the free page list. Only internal nodes are read.
+	 */
+	void visitPages(IntConsumer visitor) {
+		if (root != 0) {
+			visit(root, height, visitor);
+		}
+	}
+
+
+	private void visit(int pageNo, int level, IntConsumer visitor) {
+		visitor.accept(pageNo);
+		if (level == 1) {
+			return;
+		}
+		Node node = read(pageNo);
+		for (int child : node.children) {
+			visit(child, level - 1, visitor);
+		}
+	}
+
+
+	private void collect(int pageNo, int from, int limit, List<Integer> keys) {
+		Node node = read(pageNo);
+		if (node.leaf) {
+			for (int i = 0; i < node.keys.size() && keys.size() < limit; i++) {
+				if (node.keys.get(i) >= from) {
+					keys.add(node.keys.get(i));
+				}
+			}
+			return;
+		}
+		for (int i = node.childIndex(from); i < node.children.size() && keys.size() < limit; i++) {
+			collect(node.children.get(i), from, limit, keys);
+		}
+	}
+
+
+	private Change insert(int pageNo, int key, byte[] value) {
+		Change change = new Change();
+		Node node;
+		int childPage = childPage(pageNo, key);
+		if (childPage != 0) {
+			Change childChange = insert(childPage, key, value);
+			change.added = childChange.added;
+			if (childChange.pageNo == childPage && childChange.split == null) {
+				change.pageNo = pageNo;
+				return change;
+			}
+			node = read(pageNo);
+			int index = node.childIndex(key);
+			node.children.set(index, childChange.pageNo);
+			if (childChange.split != null) {
+				node.keys.add(index, childChange.split.key);
+				node.children.add(index + 1, childChange.split.pageNo);
+			}
+		}
+		else {
+			node = read(pageNo);
+			int index = node.search(key);
+			if (index >= 0) {
+				node.values.set(index, value);
+			}
+			else {
+				index = -index - 1;
+				node.keys.add(index, key);
+				node.values.add(index, value);
+				change.added = true;
+			}
+		}
+		if (node.encodedSize() > PageFile.PAGE_SIZE) {
+			Node right = node.split();
+			Split split = new Split();
+			split.key = right.leaf ? right.keys.get(0) : node.separator;
+			split.pageNo = write(0, right);
+			change.split = split;
+		}
+		change.pageNo = write(pageNo, node);
+		return change;
+	}
+
+
+	/*
+	 * Returns the page now holding the subtree, or -1 if key was not found and
+	 * nothing changed.
+	 */
+	private int delete(int pageNo, int key) {
+		Node node;
+		int childPage = childPage(pageNo, key);
+		if (childPage != 0) {
+			int moved = delete(childPage, key);
+			if (moved < 0 || moved == childPage) {
+				return moved < 0 ? -1 : pageNo;
+			}
+			node = read(pageNo);
+			node.children.set(node.childIndex(key), moved);
+		}
+		else {
+			node = read(pageNo);
+			int index = node.search(key);
+			if (index < 0) {
+				return -1;
+			}
+			node.keys.remove(index);
+			node.values.remove(index);
+		}
+		return write(pageNo, node);
+	}
+
+
+	/*
+	 * Writes node to pageNo if that page was allocated in this transaction, or
+	 * to a new page otherwise. A pageNo of 0 always takes a new page.
+	 */
+	private int write(int pageNo, Node node) {
+		int target = pageNo == 0 ? store.allocate() : store.writable(pageNo);
+		BufferPool pool = store.getBufferPool();
+		BufferPool.Frame frame = pool.pinNew(target);
+		try {
+			node.encode(frame.getData());
+		}
+		finally {
+			pool.unpin(frame, true);
+		}
+		return target;
+	}
+
+
+	/*
+	 * The child of internal node pageNo that covers key, or 0 if pageNo is a
+	 * leaf, without decoding the node.
+	 */
+	private int childPage(int pageNo, int key) {
+		BufferPool pool = store.getBufferPool();
+		BufferPool.Frame frame = pool.pin(pageNo);
+		try {
+			ByteBuffer page = frame.getData();
+			return page.get(0) == INTERNAL ? childFor(page, key) : 0;
+		}
+		finally {
+			pool.unpin(frame, false);
+		}
+	}
+
+
+	private Node read(int pageNo) {
+		BufferPool pool = store.getBufferPool();
+		BufferPool.Frame frame = pool.pin(pageNo);
+		try {
+			return Node.decode(frame.getData());
+		}
+		finally {
+			pool.unpin(frame, false);
+		}
+	}
+
+
+	private static int childFor(ByteBuffer page, int key) {
+		int low = 0;
+		int high = page.getShort(1) - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (page.getInt(HEADER_SIZE + 4 + mid * INTERNAL_ENTRY_SIZE) <= key) {
+				low = mid + 1;
+			}
+			else {
+				high = mid - 1;
+			}
+		}
+		return page.getInt(HEADER_SIZE + low * INTERNAL_ENTRY_SIZE);
+	}
+
+
+	private static final class Change {
+
+		int pageNo;
+		boolean added;
+		Split split;
+	}
+
+
+	private static final class Split {
+
+		int key;
+		int pageNo;
+	}
+
+
+	/*
+	 * Decoded page. Leaves use keys and values, internal nodes keys and
+	 * children, with one more child than keys.
+	 */
+	private static final class Node {
+
+		final boolean leaf;
+		final List<Integer> keys = new ArrayList<>();
+		final List<byte[]> values;
+		final List<Integer> children;
+		int separator;
+
+
+		Node(boolean leaf) {
+			this.leaf = leaf;
+			this.values = leaf ? new ArrayList<>() : null;
+			this.children = leaf ? null : new ArrayList<>();
+		}
+
+
+		int search(int key) {
+			int low = 0;
+			int high = keys.size() - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				int midKey = keys.get(mid);
+				if (midKey < key) {
+					low = mid + 1;
+				}
+				else if (midKey > key) {
+					high = mid - 1;
+				}
+				else {
+					return mid;
+				}
+			}
+			return -(low + 1);
+		}
+
+
+		int childIndex(int key) {
+			int index = search(key);
+			return index >= 0 ? index + 1 : -index - 1;
+		}
+
+
+		int encodedSize() {
+			if (!leaf) {
+				return HEADER_SIZE + 4 + keys.size() * INTERNAL_ENTRY_SIZE;
+			}
+			int size = HEADER_SIZE;
+			for (byte[] value : values) {
+				size += LEAF_ENTRY_OVERHEAD + value.length;
+			}
+			return size;
+		}
+
+
+		/*
+		 * Moves the upper part of this node to a new node and returns it. A
+		 * leaf is split at half its encoded size; for an internal node the
+		 * middle key moves up to the parent and is left in separator.
+		 */
+		Node split() {
+			Node right = new Node(leaf);
+			if (leaf) {
+				int half = encodedSize() / 2;
+				int used = HEADER_SIZE;
+				int at = 0;
+				while (at < keys.size() - 1 && used + LEAF_ENTRY_OVERHEAD + values.get(at).length <= half) {
+					used += LEAF_ENTRY_OVERHEAD + values.get(at).length;
+					at++;
+				}
+				at = Math.max(at, 1);
+				right.keys.addAll(keys.subList(at, keys.size()));
+				right.values.addAll(values.subList(at, values.size()));
+				keys.subList(at, keys.size()).clear();
+				values.subList(at, values.size()).clear();
+			}
+			else {
+				int mid = keys.size() / 2;
+				separator = keys.get(mid);
+				right.keys.addAll(keys.subList(mid + 1, keys.size()));
+				right.children.addAll(children.subList(mid + 1, children.size()));
+				keys.subList(mid, keys.size()).clear();
+				children.subList(mid + 1, children.size()).clear();
+			}
+			return right;
+		}
+
+
+		void encode(ByteBuffer page) {
+			page.clear();
+			page.put(leaf ? LEAF : INTERNAL);
+			page.putShort((short) keys.size());
+			if (leaf) {
+				for (int i = 0; i < keys.size(); i++) {
+					page.putInt(keys.get(i));
+					page.putShort((short) values.get(i).length);
+					page.put(values.get(i));
+				}
+			}
+			else {
+				page.putInt(children.get(0));
+				for (int i = 0; i < keys.size(); i++) {
+					page.putInt(keys.get(i));
+					page.putInt(children.get(i + 1));
+				}
+			}
+			page.clear();
+		}
+
+
+		static Node decode(ByteBuffer page) {
+			byte type = page.get(0);
+			if (type != LEAF && type != INTERNAL) {
+				throw new RuntimeException(String.format("BPlusTree: bad page type: %d", type));
+			}
+			Node node = new Node(type == LEAF);
+			int count = page.getShort(1);
+			page.position(HEADER_SIZE);
+			if (node.leaf) {
+				for (int i = 0; i < count; i++) {
+					node.keys.add(page.getInt());
+					byte[] value = new byte[page.getShort()];
+					page.get(value);
+					node.values.add(value);
+				}
+			}
+			else {
+				node.children.add(page.getInt());
+				for (int i = 0; i < count; i++) {
+					node.keys.add(page.getInt());
+					node.children.add(page.getInt());
+				}
+			}
+			page.clear();
+			return node;
+		}
+	}
+
+}
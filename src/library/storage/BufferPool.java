@@ -0,0 +1,184 @@
+package library.storage;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fixed number of page frames caching a PageFile, replaced by the clock
+ * algorithm: each frame has a reference bit set when it is used, and the
+ * clock hand clears bits until it finds an unpinned frame whose bit is
+ * already clear. Dirty frames are written back when they are evicted or
+ * flushed.
+ *
+ * Not thread-safe.
+ */
+public class BufferPool {
+
+	private final PageFile file;
+	private final Frame[] frames;
+	private final Map<Integer, Frame> pageTable = new HashMap<>();
+	private int hand;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+
+	public BufferPool(PageFile file, int capacity) {
+		if (capacity < 8) {
+			throw new RuntimeException("BufferPool: capacity must be at least 8 pages");
+		}
+		this.file = file;
+		this.frames = new Frame[capacity];
+		for (int i = 0; i < capacity; i++) {
+			frames[i] = new Frame();
+		}
+	}
+
+
+	/**
+	 * A page held in the pool. Its data may only be used while it is pinned.
+	 */
+	public static final class Frame {
+
+		private final ByteBuffer data = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+		private int pageNo = -1;
+		private int pinCount;
+		private boolean dirty;
+		private boolean referenced;
+
+
+		public ByteBuffer getData() {
+			return data;
+		}
+
+
+		public int getPageNo() {
+			return pageNo;
+		}
+	}
+
+
+	/**
+	 * Pins the page, reading it from the file if it is not in the pool.
+	 */
+	public Frame pin(int pageNo) {
+		Frame frame = pageTable.get(pageNo);
+		if (frame != null) {
+			hits++;
+		}
+		else {
+			misses++;
+			frame = claim(pageNo);
+			file.read(pageNo, frame.data);
+		}
+		frame.pinCount++;
+		frame.referenced = true;
+		return frame;
+	}
+
+
+	/**
+	 * Pins a frame for a page whose old contents are not needed, zeroed.
+	 */
+	public Frame pinNew(int pageNo) {
+		Frame frame = pageTable.get(pageNo);
+		if (frame == null) {
+			frame = claim(pageNo);
+		}
+		frame.data.clear();
+		frame.data.put(new byte[PageFile.PAGE_SIZE]);
+		frame.data.clear();
+		frame.pinCount++;
+		frame.referenced = true;
+		frame.dirty = true;
+		return frame;
+	}
+
+
+	public void unpin(Frame frame, boolean dirty) {
+		if (frame.pinCount <= 0) {
+			throw new RuntimeException("BufferPool: unpin: page is not pinned");
+		}
+		frame.pinCount--;
+		frame.dirty |= dirty;
+	}
+
+
+	/**
+	 * Drops the page from the pool without writing it back.
+	 */
+	public void discard(int pageNo) {
+		Frame frame = pageTable.remove(pageNo);
+		if (frame != null) {
+			if (frame.pinCount > 0) {
+				throw new RuntimeException("BufferPool: discard: page is pinned");
+			}
+			frame.pageNo = -1;
+			frame.dirty = false;
+			frame.referenced = false;
+		}
+	}
+
+
+	/**
+	 * Writes every dirty page back to the file, without forcing it.
+	 */
+	public void flush() {
+		for (Frame frame : frames) {
+			if (frame.pageNo >= 0 && frame.dirty) {
+				file.write(frame.pageNo, frame.data);
+				frame.dirty = false;
+			}
+		}
+	}
+
+
+	public int getCapacity() {
+		return frames.length;
+	}
+
+
+	public long getHits() {
+		return hits;
+	}
+
+
+	public long getMisses() {
+		return misses;
+	}
+
+
+	public long getEvictions() {
+		return evictions;
+	}
+
+
+	private Frame claim(int pageNo) {
+		for (int scanned = 0; scanned < frames.length * 2; scanned++) {
+			Frame frame = frames[hand];
+			hand = (hand + 1) % frames.length;
+			if (frame.pinCount > 0) {
+				continue;
+			}
+			if (frame.referenced) {
+				frame.referenced = false;
+				continue;
+			}
+			if (frame.pageNo >= 0) {
+				if (frame.dirty) {
+					file.write(frame.pageNo, frame.data);
+					frame.dirty = false;
+				}
+				pageTable.remove(frame.pageNo);
+				evictions++;
+			}
+			frame.pageNo = pageNo;
+			pageTable.put(pageNo, frame);
+			return frame;
+		}
+		throw new RuntimeException("BufferPool: every page is pinned");
+	}
+
+}
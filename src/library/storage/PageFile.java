@@ -0,0 +1,113 @@
+package library.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * File made of fixed-size pages, addressed by page number.
+ */
+public class PageFile implements AutoCloseable {
+
+	public static final int PAGE_SIZE = 4096;
+
+	private final Path path;
+	private final FileChannel channel;
+
+
+	private PageFile(Path path, FileChannel channel) {
+		this.path = path;
+		this.channel = channel;
+	}
+
+
+	public static PageFile open(Path path) {
+		try {
+			return new PageFile(path, FileChannel.open(path, StandardOpenOption.CREATE,
+					StandardOpenOption.READ, StandardOpenOption.WRITE));
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+
+	public Path getPath() {
+		return path;
+	}
+
+
+	/**
+	 * Number of whole pages in the file.
+	 */
+	public int getPageCount() {
+		try {
+			return (int) (channel.size() / PAGE_SIZE);
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+
+	/**
+	 * Fills buffer, which must hold PAGE_SIZE bytes, with the page. A page past
+	 * the end of the file reads as zeros.
+	 */
+	public void read(int pageNo, ByteBuffer buffer) {
+		buffer.clear();
+		try {
+			long offset = (long) pageNo * PAGE_SIZE;
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, offset + buffer.position()) < 0) {
+					while (buffer.hasRemaining()) {
+						buffer.put((byte) 0);
+					}
+				}
+			}
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		buffer.clear();
+	}
+
+
+	public void write(int pageNo, ByteBuffer buffer) {
+		buffer.clear();
+		try {
+			long offset = (long) pageNo * PAGE_SIZE;
+			while (buffer.hasRemaining()) {
+				channel.write(buffer, offset + buffer.position());
+			}
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		buffer.clear();
+	}
+
+
+	public void force() {
+		try {
+			channel.force(false);
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+
+	@Override
+	public void close() {
+		try {
+			channel.close();
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+}
@@ -0,0 +1,247 @@
+package library.storage;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.zip.CRC32;
+
+/**
+ * Set of B+trees and a few counters kept in one PageFile, cached through a
+ * BufferPool and changed in transactions.
+ *
+ * Pages 0 and 1 are alternate headers. Each records a commit number, the
+ * number of pages in use, the root, height and size of every tree and the
+ * counters, with a checksum; the valid header with the highest commit number
+ * is the current state. Trees copy pages on write, so commit only has to
+ * write the dirty pages, force the file, write the header the last commit
+ * did not use and force again. A crash at any point leaves the last committed
+ * state readable, and changes made since it are dropped on open.
+ *
+ *   header  - magic | version | commit | page count | tree count
+ *             | (root, height, size)* | counter count | counter* | crc32
+ *
+ * Free pages are not recorded; open finds them by walking the internal nodes
+ * of every tree.
+ *
+ * Not thread-safe.
+ */
+public class PageStore implements AutoCloseable {
+
+	private static final int MAGIC = 0x42524c50;	// "BRLP"
+	private static final int VERSION = 1;
+	private static final int HEADER_PAGES = 2;
+
+	private final PageFile file;
+	private final BufferPool pool;
+	private final BPlusTree[] trees;
+	private final long[] counters;
+
+	private long commitNumber;
+	private int pageCount;
+	private final BitSet free = new BitSet();
+	private final BitSet freedInTransaction = new BitSet();
+	private final BitSet allocatedInTransaction = new BitSet();
+
+
+	private PageStore(PageFile file, int bufferPages, int treeCount, int counterCount) {
+		this.file = file;
+		this.pool = new BufferPool(file, bufferPages);
+		this.trees = new BPlusTree[treeCount];
+		this.counters = new long[counterCount];
+		this.pageCount = HEADER_PAGES;
+	}
+
+
+	/**
+	 * Opens the store at path, creating it with empty trees and zero counters
+	 * if the file does not exist or has no valid header.
+	 */
+	public static PageStore open(Path path, int treeCount, int counterCount, int bufferPages) {
+		PageStore store = new PageStore(PageFile.open(path), bufferPages, treeCount, counterCount);
+		try {
+			store.readHeader();
+		}
+		catch (RuntimeException e) {
+			store.file.close();
+			throw e;
+		}
+		return store;
+	}
+
+
+	public BPlusTree getTree(int index) {
+		return trees[index];
+	}
+
+
+	public long getCounter(int index) {
+		return counters[index];
+	}
+
+
+	public void setCounter(int index, long value) {
+		counters[index] = value;
+	}
+
+
+	/**
+	 * True once something has been committed to the file.
+	 */
+	public boolean isCommitted() {
+		return commitNumber > 0;
+	}
+
+
+	public BufferPool getBufferPool() {
+		return pool;
+	}
+
+
+	public int getPageCount() {
+		return pageCount;
+	}
+
+
+	public int getFreePageCount() {
+		return free.cardinality() + freedInTransaction.cardinality();
+	}
+
+
+	/**
+	 * Makes the trees and counters as they are now the state the file opens
+	 * with.
+	 */
+	public void commit() {
+		pool.flush();
+		file.force();
+		long next = commitNumber + 1;
+		file.write((int) (next % HEADER_PAGES), encodeHeader(next));
+		file.force();
+		commitNumber = next;
+		free.or(freedInTransaction);
+		freedInTransaction.clear();
+		allocatedInTransaction.clear();
+	}
+
+
+	/**
+	 * Closes the file. Changes since the last commit are lost.
+	 */
+	@Override
+	public void close() {
+		file.close();
+	}
+
+
+	/*
+	 * A page no committed tree refers to, for this transaction to write.
+	 */
+	int allocate() {
+		int pageNo = free.nextSetBit(HEADER_PAGES);
+		if (pageNo < 0) {
+			pageNo = pageCount++;
+		}
+		else {
+			free.clear(pageNo);
+		}
+		allocatedInTransaction.set(pageNo);
+		return pageNo;
+	}
+
+
+	/*
+	 * The page to write a changed copy of pageNo to: pageNo itself if this
+	 * transaction allocated it, otherwise a new page, with pageNo released
+	 * once the change is committed.
+	 */
+	int writable(int pageNo) {
+		if (allocatedInTransaction.get(pageNo)) {
+			return pageNo;
+		}
+		freedInTransaction.set(pageNo);
+		return allocate();
+	}
+
+
+	private void readHeader() {
+		ByteBuffer best = null;
+		long bestCommit = 0;
+		ByteBuffer page = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+		for (int pageNo = 0; pageNo < HEADER_PAGES; pageNo++) {
+			file.read(pageNo, page);
+			if (isValidHeader(page) && page.getLong(8) > bestCommit) {
+				bestCommit = page.getLong(8);
+				best = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+				best.put(page);
+				best.clear();
+			}
+		}
+		if (best == null) {
+			for (int i = 0; i < trees.length; i++) {
+				trees[i] = new BPlusTree(this, 0, 0, 0);
+			}
+			return;
+		}
+		best.position(16);
+		commitNumber = bestCommit;
+		pageCount = best.getInt();
+		if (best.getInt() != trees.length) {
+			throw new RuntimeException(String.format("PageStore: %s does not hold %d trees", file.getPath(), trees.length));
+		}
+		for (int i = 0; i < trees.length; i++) {
+			trees[i] = new BPlusTree(this, best.getInt(), best.getInt(), best.getLong());
+		}
+		if (best.getInt() != counters.length) {
+			throw new RuntimeException(String.format("PageStore: %s does not hold %d counters", file.getPath(), counters.length));
+		}
+		for (int i = 0; i < counters.length; i++) {
+			counters[i] = best.getLong();
+		}
+
+		BitSet used = new BitSet(pageCount);
+		for (BPlusTree tree : trees) {
+			tree.visitPages(used::set);
+		}
+		free.set(HEADER_PAGES, pageCount);
+		free.andNot(used);
+	}
+
+
+	private boolean isValidHeader(ByteBuffer page) {
+		if (page.getInt(0) != MAGIC || page.getInt(4) != VERSION) {
+			return false;
+		}
+		int length = 24 + trees.length * 16 + 4 + counters.length * 8;
+		if (page.getInt(20) != trees.length || length + 4 > PageFile.PAGE_SIZE) {
+			return false;
+		}
+		CRC32 crc = new CRC32();
+		crc.update(page.array(), 0, length);
+		return page.getInt(length) == (int) crc.getValue();
+	}
+
+
+	private ByteBuffer encodeHeader(long commit) {
+		ByteBuffer page = ByteBuffer.allocate(PageFile.PAGE_SIZE);
+		page.putInt(MAGIC);
+		page.putInt(VERSION);
+		page.putLong(commit);
+		page.putInt(pageCount);
+		page.putInt(trees.length);
+		for (BPlusTree tree : trees) {
+			page.putInt(tree.getRoot());
+			page.putInt(tree.getHeight());
+			page.putLong(tree.size());
+		}
+		page.putInt(counters.length);
+		for (long counter : counters) {
+			page.putLong(counter);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(page.array(), 0, page.position());
+		page.putInt((int) crc.getValue());
+		page.clear();
+		return page;
+	}
+
+}
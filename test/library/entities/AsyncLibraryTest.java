@@ -0,0 +1,130 @@
+package library.entities;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import library.entities.helpers.BookHelper;
+import library.entities.helpers.LoanHelper;
+import library.entities.helpers.PatronHelper;
+import library.test.TestUtilities;
+
+@ExtendWith(MockitoExtension.class)
+@RunWith(MockitoJUnitRunner.class)
+class AsyncLibraryTest {
+
+	ConcurrentLibrary library;
+	AsyncLibrary async;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		Calendar.getInstance().setDate(TestUtilities.dateOf(2020, 2, 20));
+		library = new ConcurrentLibrary(new BookHelper(), new PatronHelper(), new LoanHelper());
+		async = new AsyncLibrary(library, 2, 4);
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		async.close();
+	}
+
+	@Test
+	void commitLoan_ChainedOnLookupsMadeTogether_CommitsLoan() throws Exception {
+		// arrange
+		IBook book = library.addBook("Stephen King", "The Shining", "call123");
+		IPatron patron = library.addPatron("Mustermann", "Max", "max@example.com", 198765432);
+		// act
+		CompletableFuture<IPatron> patronLookup = async.getPatronById(patron.getId());
+		CompletableFuture<IBook> bookLookup = async.getBookById(book.getId());
+		CompletableFuture<Void> committed = patronLookup.thenCombine(bookLookup, (p, b) -> library.issueLoan(b, p))
+				.thenCompose(async::commitLoan);
+		committed.get(5, TimeUnit.SECONDS);
+		// assert
+		assertTrue(book.isOnLoan());
+		assertEquals(1, async.getCurrentLoansList().get(5, TimeUnit.SECONDS).size());
+		assertEquals(1, async.call(ILibrary::getCurrentLoansList).get(5, TimeUnit.SECONDS).size());
+	}
+
+	@Test
+	void commitLoan_BookAlreadyOnLoan_FailsFutureWithLibraryException() throws Exception {
+		// arrange
+		IBook book = library.addBook("Stephen King", "The Shining", "call123");
+		IPatron patron = library.addPatron("Mustermann", "Max", "max@example.com", 198765432);
+		library.commitLoan(library.issueLoan(book, patron));
+		// act
+		CompletableFuture<Void> again = async.commitLoan(library.issueLoan(book, patron));
+		ExecutionException thrown = assertThrows(ExecutionException.class,
+				() -> { again.get(5, TimeUnit.SECONDS); } );
+		// assert
+		assertEquals(RuntimeException.class, thrown.getCause().getClass());
+		assertEquals(4, async.getAvailablePermits());
+	}
+
+	@Test
+	void call_WorkThrowsError_FailsFutureAndReleasesPermit() throws Exception {
+		// arrange
+		AssertionError error = new AssertionError("broken request");
+		// act
+		CompletableFuture<Object> failed = async.call(library -> { throw error; });
+		ExecutionException thrown = assertThrows(ExecutionException.class,
+				() -> { failed.get(5, TimeUnit.SECONDS); } );
+		// assert
+		assertSame(error, thrown.getCause());
+		assertEquals(4, async.getAvailablePermits());
+	}
+
+	@Test
+	void call_MaxInFlightReached_WaitsForAnEarlierRequest() throws Exception {
+		// arrange
+		CountDownLatch release = new CountDownLatch(1);
+		for (int i = 0; i < 4; i++) {
+			async.call(library -> {
+				try {
+					release.await();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return null;
+			});
+		}
+		CountDownLatch made = new CountDownLatch(1);
+		// act
+		Thread caller = new Thread(() -> {
+			async.getBookList();
+			made.countDown();
+		});
+		caller.start();
+		boolean madeWhileFull = made.await(200, TimeUnit.MILLISECONDS);
+		release.countDown();
+		boolean madeAfterwards = made.await(5, TimeUnit.SECONDS);
+		// assert
+		assertFalse(madeWhileFull);
+		assertTrue(madeAfterwards);
+		caller.join();
+	}
+
+	@Test
+	void close_RequestsAlreadyMade_FinishesThemAndRejectsLaterOnes() throws Exception {
+		// arrange
+		CompletableFuture<IBook> added = async.addBook("Stephen King", "The Shining", "call123");
+		// act
+		async.close();
+		// assert
+		assertTrue(added.isDone());
+		assertEquals("The Shining", added.get().getTitle());
+		assertThrows(RuntimeException.class, () -> { async.getBookList(); } );
+	}
+
+}
@@ -2,6 +2,13 @@ package library.entities;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -170,4 +177,88 @@ class BookTest {
 		assertEquals(expected, actual);
 	}
 
+	@Test
+	void returnToLibrary_WhenStateOnLoanAndDamaged_SetsStateDamaged() {
+		// arrange
+		IBook onLoanBook = new Book(author, title, callNumber, id, IBook.BookState.ON_LOAN);
+		// act
+		onLoanBook.returnToLibrary(true);
+		// assert
+		assertEquals(IBook.BookState.DAMAGED, ((Book) onLoanBook).getState());
+	}
+
+	@Test
+	void returnToLibrary_WhenStateOnLoanAndUndamaged_SetsStateAvailable() {
+		// arrange
+		IBook onLoanBook = new Book(author, title, callNumber, id, IBook.BookState.ON_LOAN);
+		// act
+		onLoanBook.returnToLibrary(false);
+		// assert
+		assertTrue(onLoanBook.isAvailable());
+	}
+
+	@Test
+	void returnToLibrary_WhenStateAvailable_ThrowsAndLeavesStateUnchanged() {
+		// arrange
+		// act
+		assertThrows(RuntimeException.class, () -> {defaultBook.returnToLibrary(false);});
+		// assert
+		assertTrue(defaultBook.isAvailable());
+	}
+
+	@Test
+	void repair_WhenStateDamaged_SetsStateAvailable() {
+		// arrange
+		IBook damagedBook = new Book(author, title, callNumber, id, IBook.BookState.DAMAGED);
+		// act
+		damagedBook.repair();
+		// assert
+		assertTrue(damagedBook.isAvailable());
+	}
+
+	@Test
+	void repair_WhenStateOnLoan_ThrowsAndLeavesStateUnchanged() {
+		// arrange
+		IBook onLoanBook = new Book(author, title, callNumber, id, IBook.BookState.ON_LOAN);
+		// act
+		assertThrows(RuntimeException.class, () -> {onLoanBook.repair();});
+		// assert
+		assertTrue(onLoanBook.isOnLoan());
+	}
+
+	@Test
+	void borrowFromLibrary_ManyThreadsAtOnce_OnlyOneSucceeds() throws Exception {
+		// arrange
+		int threads = 8;
+		ExecutorService desks = Executors.newFixedThreadPool(threads);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<Boolean>> borrows = new ArrayList<>();
+		// act
+		try {
+			for (int i = 0; i < threads; i++) {
+				borrows.add(desks.submit(() -> {
+					start.await();
+					try {
+						defaultBook.borrowFromLibrary();
+						return true;
+					}
+					catch (RuntimeException e) {
+						return false;
+					}
+				}));
+			}
+			start.countDown();
+			int borrowed = 0;
+			for (Future<Boolean> borrow : borrows) {
+				borrowed += borrow.get() ? 1 : 0;
+			}
+			// assert
+			assertEquals(1, borrowed);
+			assertTrue(defaultBook.isOnLoan());
+		}
+		finally {
+			desks.shutdownNow();
+		}
+	}
+
 }
@@ -0,0 +1,114 @@
+package library.entities;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import library.entities.helpers.BookHelper;
+import library.entities.helpers.LoanHelper;
+import library.entities.helpers.PatronHelper;
+
+/**
+ * Mixed borrow/return throughput of ConcurrentLibrary against a Library
+ * behind one lock, for 1 to 16 desks. Each operation picks a random book and
+ * returns it if it is on loan, otherwise lends it to a random patron.
+ *
+ * Not a unit test; run it with the test classpath:
+ *
+ *   java -cp target/classes:target/test-classes library.entities.ConcurrentLibraryBenchmark [seconds]
+ */
+public class ConcurrentLibraryBenchmark {
+
+	static final int BOOKS = 100000;
+	static final int PATRONS = 50000;
+	static final int[] DESKS = {1, 2, 4, 8, 16};
+
+	interface Desk {
+		void serve(ILibrary library);
+	}
+
+	public static void main(String[] args) throws Exception {
+		long millis = args.length > 0 ? Long.parseLong(args[0]) * 1000 : 3000;
+		System.out.printf("%d processors, %d ms per run%n", Runtime.getRuntime().availableProcessors(), millis);
+		System.out.printf("%6s %16s %16s%n", "desks", "single lock/s", "striped/s");
+		for (int desks : DESKS) {
+			Library locked = populate(new Library(new BookHelper(), new PatronHelper(), new LoanHelper()));
+			double single = run(locked, desks, millis, library -> {
+				synchronized (library) {
+					circulate(library);
+				}
+			});
+			Library striped = populate(new ConcurrentLibrary(new BookHelper(), new PatronHelper(), new LoanHelper()));
+			double concurrent = run(striped, desks, millis, ConcurrentLibraryBenchmark::circulate);
+			System.out.printf("%6d %16.0f %16.0f%n", desks, single, concurrent);
+		}
+	}
+
+	static Library populate(Library library) {
+		for (int i = 0; i < BOOKS; i++) {
+			library.addBook("Author " + i, "Title " + i, "call" + i);
+		}
+		for (int i = 0; i < PATRONS; i++) {
+			library.addPatron("Patron" + i, "Max", "max@example.com", 198765432);
+		}
+		return library;
+	}
+
+	static void circulate(ILibrary library) {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		IBook book = library.getBookById(1 + random.nextInt(BOOKS));
+		try {
+			ILoan loan = library.getCurrentLoanByBookId(book.getId());
+			if (loan != null) {
+				library.dischargeLoan(loan, false);
+			}
+			else {
+				IPatron patron = library.getPatronById(1 + random.nextInt(PATRONS));
+				if (library.patronCanBorrow(patron)) {
+					library.commitLoan(library.issueLoan(book, patron));
+				}
+			}
+		}
+		catch (RuntimeException e) {
+			// another desk got to the book or patron first
+		}
+	}
+
+	static double run(ILibrary library, int desks, long millis, Desk desk) throws Exception {
+		for (long end = System.currentTimeMillis() + millis / 3; System.currentTimeMillis() < end;) {
+			desk.serve(library);
+		}
+		LongAdder operations = new LongAdder();
+		CountDownLatch start = new CountDownLatch(1);
+		long[] deadline = new long[1];
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < desks; i++) {
+			Thread thread = new Thread(() -> {
+				try {
+					start.await();
+				}
+				catch (InterruptedException e) {
+					return;
+				}
+				long count = 0;
+				while ((count & 255) != 0 || System.nanoTime() < deadline[0]) {
+					desk.serve(library);
+					count++;
+				}
+				operations.add(count);
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		long begin = System.nanoTime();
+		deadline[0] = begin + millis * 1_000_000;
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		return operations.sum() * 1e9 / (System.nanoTime() - begin);
+	}
+
+}
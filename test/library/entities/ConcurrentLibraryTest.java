@@ -0,0 +1,372 @@
+package library.entities;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import library.entities.helpers.BookHelper;
+import library.entities.helpers.LoanHelper;
+import library.entities.helpers.PatronHelper;
+import library.test.TestUtilities;
+
+@ExtendWith(MockitoExtension.class)
+@RunWith(MockitoJUnitRunner.class)
+class ConcurrentLibraryTest {
+
+	static final int THREADS = 8;
+
+	ConcurrentLibrary library;
+	ExecutorService desks;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		Calendar.getInstance().setDate(TestUtilities.dateOf(2020, 2, 20));
+		library = new ConcurrentLibrary(new BookHelper(), new PatronHelper(), new LoanHelper(), 4);
+		desks = Executors.newFixedThreadPool(THREADS);
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		desks.shutdownNow();
+	}
+
+	void runOnDesks(Runnable work) throws Exception {
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int i = 0; i < THREADS; i++) {
+			futures.add(desks.submit(() -> {
+				start.await();
+				work.run();
+				return null;
+			}));
+		}
+		start.countDown();
+		for (Future<?> future : futures) {
+			future.get();
+		}
+	}
+
+	@Test
+	void addBook_ConcurrentDesks_IssuesDistinctIds() throws Exception {
+		// arrange
+		int perDesk = 2000;
+		// act
+		runOnDesks(() -> {
+			for (int i = 0; i < perDesk; i++) {
+				library.addBook("Stephen King", "The Shining", "call123");
+			}
+		});
+		// assert
+		Set<Integer> ids = new HashSet<>();
+		for (IBook book : library.getBookList()) {
+			ids.add(book.getId());
+		}
+		assertEquals(THREADS * perDesk, ids.size());
+		assertEquals(THREADS * perDesk + 1, library.getCurrentlyIssuingBookId());
+	}
+
+	@Test
+	void commitLoan_SameBookOnEveryDesk_OnlyOneSucceeds() throws Exception {
+		// arrange
+		IBook book = library.addBook("Stephen King", "The Shining", "call123");
+		List<IPatron> patrons = new ArrayList<>();
+		for (int i = 0; i < THREADS; i++) {
+			patrons.add(library.addPatron("Mustermann", "Max" + i, "max@example.com", 198765432));
+		}
+		AtomicInteger desk = new AtomicInteger();
+		AtomicInteger committed = new AtomicInteger();
+		// act
+		runOnDesks(() -> {
+			IPatron patron = patrons.get(desk.getAndIncrement());
+			try {
+				library.commitLoan(library.issueLoan(book, patron));
+				committed.incrementAndGet();
+			}
+			catch (RuntimeException e) {
+				// another desk lent the book first
+			}
+		});
+		// assert
+		assertEquals(1, committed.get());
+		int patronLoans = 0;
+		for (IPatron patron : patrons) {
+			patronLoans += patron.getNumberOfCurrentLoans();
+		}
+		assertEquals(1, patronLoans);
+		assertEquals(1, library.getCurrentLoansList().size());
+	}
+
+	@Test
+	void commitLoans_OverlappingBatchesOnEveryDesk_CommitsWholeBatchesOnly() throws Exception {
+		// arrange
+		List<IBook> books = new ArrayList<>();
+		for (int i = 0; i < 6; i++) {
+			books.add(library.addBook("Stephen King", "Title " + i, "call" + i));
+		}
+		List<IPatron> patrons = new ArrayList<>();
+		for (int i = 0; i < THREADS; i++) {
+			patrons.add(library.addPatron("Mustermann", "Max" + i, "max@example.com", 198765432));
+		}
+		AtomicInteger desk = new AtomicInteger();
+		// act
+		runOnDesks(() -> {
+			int number = desk.getAndIncrement();
+			IPatron patron = patrons.get(number);
+			// books in different stripes, listed in a different order on each desk
+			IBook first = books.get(number % books.size());
+			IBook second = books.get((number + 3) % books.size());
+			try {
+				library.commitLoans(List.of(library.issueLoan(first, patron), library.issueLoan(second, patron)));
+			}
+			catch (RuntimeException e) {
+				// another desk lent one of the books first
+			}
+		});
+		// assert
+		int patronLoans = 0;
+		for (IPatron patron : patrons) {
+			assertTrue(patron.getNumberOfCurrentLoans() == 0 || patron.getNumberOfCurrentLoans() == 2);
+			patronLoans += patron.getNumberOfCurrentLoans();
+		}
+		assertEquals(patronLoans, library.getCurrentLoansList().size());
+		assertEquals(books.size(), patronLoans);
+		for (IBook book : books) {
+			assertEquals(book.getId(), library.getCurrentLoanByBookId(book.getId()).getBook().getId());
+		}
+	}
+
+	@Test
+	void dischargeLoan_MixedBorrowAndReturn_KeepsLoansConsistent() throws Exception {
+		// arrange
+		int books = 200;
+		int patrons = 50;
+		for (int i = 0; i < books; i++) {
+			library.addBook("Stephen King", "Title " + i, "call" + i);
+		}
+		for (int i = 0; i < patrons; i++) {
+			library.addPatron("Mustermann", "Max" + i, "max@example.com", 198765432);
+		}
+		AtomicInteger seed = new AtomicInteger();
+		// act
+		runOnDesks(() -> {
+			Random random = new Random(seed.incrementAndGet());
+			for (int i = 0; i < 5000; i++) {
+				IBook book = library.getBookById(1 + random.nextInt(books));
+				try {
+					ILoan loan = library.getCurrentLoanByBookId(book.getId());
+					if (loan != null) {
+						library.dischargeLoan(loan, false);
+					}
+					else {
+						IPatron patron = library.getPatronById(1 + random.nextInt(patrons));
+						library.commitLoan(library.issueLoan(book, patron));
+					}
+				}
+				catch (RuntimeException e) {
+					// lost a race with another desk
+				}
+			}
+		});
+		// assert
+		int patronLoans = 0;
+		for (IPatron patron : library.getPatronList()) {
+			patronLoans += patron.getNumberOfCurrentLoans();
+		}
+		List<ILoan> current = library.getCurrentLoansList();
+		assertEquals(current.size(), patronLoans);
+		for (IBook book : library.getBookList()) {
+			assertEquals(book.isOnLoan(), library.getCurrentLoanByBookId(book.getId()) != null);
+		}
+		assertEquals(library.getCurrentlyIssuingLoanId() - 1, library.getAllLoansList().size());
+	}
+
+	@Test
+	void dischargeLoans_BookDropsWhileDesksCirculate_KeepsLoansConsistent() throws Exception {
+		// arrange
+		int books = 200;
+		int patrons = 50;
+		for (int i = 0; i < books; i++) {
+			library.addBook("Stephen King", "Title " + i, "call" + i);
+		}
+		for (int i = 0; i < patrons; i++) {
+			library.addPatron("Mustermann", "Max" + i, "max@example.com", 198765432);
+		}
+		AtomicInteger seed = new AtomicInteger();
+		AtomicInteger discharged = new AtomicInteger();
+		// act
+		runOnDesks(() -> {
+			int desk = seed.incrementAndGet();
+			Random random = new Random(desk);
+			for (int i = 0; i < 2000; i++) {
+				try {
+					if (desk % 2 == 0 && i % 10 == 0) {
+						List<BookReturn> returns = new ArrayList<>();
+						for (int j = 0; j < 20; j++) {
+							returns.add(new BookReturn(1 + random.nextInt(books), random.nextInt(10) == 0));
+						}
+						discharged.addAndGet(library.dischargeLoans(returns).size());
+						continue;
+					}
+					IBook book = library.getBookById(1 + random.nextInt(books));
+					if (library.getCurrentLoanByBookId(book.getId()) == null && book.isAvailable()) {
+						IPatron patron = library.getPatronById(1 + random.nextInt(patrons));
+						library.commitLoan(library.issueLoan(book, patron));
+					}
+					else if (library.getDamagedBooks().containsKey(book.getId())) {
+						library.repairBook(book);
+					}
+				}
+				catch (RuntimeException e) {
+					// lost a race with another desk
+				}
+			}
+		});
+		// assert
+		int patronLoans = 0;
+		for (IPatron patron : library.getPatronList()) {
+			patronLoans += patron.getNumberOfCurrentLoans();
+		}
+		List<ILoan> current = library.getCurrentLoansList();
+		assertEquals(current.size(), patronLoans);
+		for (IBook book : library.getBookList()) {
+			assertEquals(book.isOnLoan(), library.getCurrentLoanByBookId(book.getId()) != null);
+		}
+		assertTrue(discharged.get() > 0);
+		assertEquals(library.getCurrentlyIssuingLoanId() - 1, current.size() + discharged.get());
+	}
+
+	@Test
+	void getStatistics_CountingStartsWhileDesksCirculate_MatchesScan() throws Exception {
+		// arrange
+		int books = 200;
+		int patrons = 50;
+		for (int i = 0; i < books; i++) {
+			library.addBook("Stephen King", "Title " + i, "call" + i);
+		}
+		for (int i = 0; i < patrons; i++) {
+			library.addPatron("Mustermann", "Max" + i, "max@example.com", 198765432);
+		}
+		AtomicInteger seed = new AtomicInteger();
+		// act
+		runOnDesks(() -> {
+			Random random = new Random(seed.incrementAndGet());
+			for (int i = 0; i < 3000; i++) {
+				if (i == 500) {
+					library.getStatistics();
+				}
+				IBook book = library.getBookById(1 + random.nextInt(books));
+				IPatron patron = library.getPatronById(1 + random.nextInt(patrons));
+				try {
+					ILoan loan = library.getCurrentLoanByBookId(book.getId());
+					if (library.getDamagedBooks().containsKey(book.getId())) {
+						library.repairBook(book);
+					}
+					else if (loan != null) {
+						library.dischargeLoan(loan, random.nextInt(3) == 0);
+					}
+					else if (random.nextInt(4) == 0) {
+						library.payFine(patron, 1.0);
+					}
+					else {
+						library.commitLoan(library.issueLoan(book, patron));
+					}
+				}
+				catch (RuntimeException e) {
+					// lost a race with another desk
+				}
+			}
+		});
+		// assert
+		CirculationStatistics actual = library.getStatistics();
+		double fines = 0;
+		for (IPatron patron : library.getPatronList()) {
+			fines += patron.getFinesPayable();
+		}
+		assertEquals(fines, actual.getFinesOwed(), 1e-9);
+		assertTrue(fines > 0);
+		assertEquals(library.getCurrentLoansList().size(), actual.getBooksOnLoan());
+		assertEquals(library.getDamagedBooks().size(), actual.getDamagedBooks());
+		assertEquals(books, actual.getAvailableBooks() + actual.getBooksOnLoan() + actual.getDamagedBooks());
+		assertEquals(0, actual.getOverDueLoans());
+	}
+
+	@Test
+	void checkCurrentLoansOverDue_FirstCheckWhileDesksCommit_IndexesEveryLoan() throws Exception {
+		// arrange
+		int perDesk = 200;
+		for (int i = 0; i < THREADS * perDesk; i++) {
+			library.addBook("Stephen King", "Title " + i, "call" + i);
+			library.addPatron("Mustermann", "Max" + i, "max@example.com", 198765432);
+		}
+		AtomicInteger desk = new AtomicInteger();
+		// act
+		runOnDesks(() -> {
+			int number = desk.getAndIncrement();
+			for (int i = 0; i < perDesk; i++) {
+				int id = 1 + number * perDesk + i;
+				if (number == 0 && i == perDesk / 2) {
+					library.checkCurrentLoansOverDue();
+				}
+				library.commitLoan(library.issueLoan(library.getBookById(id), library.getPatronById(id)));
+			}
+		});
+		Calendar.getInstance().incrementDate(ILibrary.LOAN_PERIOD + 1);
+		List<ILoan> overdue = library.checkCurrentLoansOverDue();
+		// assert
+		assertEquals(THREADS * perDesk, library.getCurrentLoansList().size());
+		assertEquals(THREADS * perDesk, overdue.size());
+	}
+
+	@Test
+	void patronCanBorrow_AskedWhileLoansGoOverDue_RefusesEveryPatronWithOverDueLoan() throws Exception {
+		// arrange
+		int patrons = 2000;
+		Library loaded = new Library(new BookHelper(), new PatronHelper(), new LoanHelper());
+		for (int i = 0; i < patrons; i++) {
+			IBook book = loaded.addBook("Stephen King", "Title " + i, "call" + i);
+			IPatron patron = loaded.addPatron("Mustermann", "Max" + i, "max@example.com", 198765432);
+			loaded.commitLoan(loaded.issueLoan(book, patron));
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		LibrarySnapshotCodec.write(loaded, 0L, bytes);
+		Library reloaded = (Library) LibrarySnapshotCodec.read(new ByteArrayInputStream(bytes.toByteArray()),
+				new BookHelper(), new PatronHelper(), new LoanHelper()).getLibrary();
+		library = new ConcurrentLibrary(reloaded, new BookHelper(), new PatronHelper(), new LoanHelper());
+		Calendar.getInstance().incrementDate(ILibrary.LOAN_PERIOD + 1);
+		AtomicInteger desk = new AtomicInteger();
+		// act
+		runOnDesks(() -> {
+			if (desk.getAndIncrement() == 0) {
+				library.checkCurrentLoansOverDue();
+				return;
+			}
+			for (int id = 1; id <= patrons; id++) {
+				library.patronCanBorrow(library.getPatronById(id));
+			}
+		});
+		// assert
+		for (int id = 1; id <= patrons; id++) {
+			assertFalse(library.patronCanBorrow(library.getPatronById(id)));
+		}
+	}
+
+}
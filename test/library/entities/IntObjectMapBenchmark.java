@@ -0,0 +1,84 @@
+package library.entities;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.IntFunction;
+
+/**
+ * Heap per entry and random lookup latency of IntObjectMap against HashMap,
+ * keyed by sequential ids as the library issues them. Every entry maps to
+ * the same value, so only the map's own memory is counted.
+ *
+ * Not a unit test; run it with the test classpath and a large heap:
+ *
+ *   java -Xmx4g -cp target/classes:target/test-classes library.entities.IntObjectMapBenchmark [entries]
+ */
+public class IntObjectMapBenchmark {
+
+	static final int LOOKUPS = 20_000_000;
+
+	public static void main(String[] args) {
+		int entries = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+		int[] probes = new int[LOOKUPS];
+		Random random = new Random(1);
+		for (int i = 0; i < LOOKUPS; i++) {
+			probes[i] = 1 + random.nextInt(entries);
+		}
+		System.out.printf("%,d entries, %,d random lookups%n", entries, LOOKUPS);
+		System.out.printf("%-14s %14s %14s%n", "map", "bytes/entry", "ns/lookup");
+
+		for (int round = 0; round < 2; round++) {
+			long before = usedHeap();
+			HashMap<Integer, Object> hashMap = new HashMap<>();
+			fill(hashMap, entries);
+			long hashBytes = usedHeap() - before;
+			double hashNanos = time(probes, hashMap::get);
+			report("HashMap", hashBytes, entries, hashNanos);
+			hashMap = null;
+
+			before = usedHeap();
+			IntObjectMap<Object> intMap = new IntObjectMap<>();
+			fill(intMap, entries);
+			long intBytes = usedHeap() - before;
+			double intNanos = time(probes, intMap::get);
+			report("IntObjectMap", intBytes, entries, intNanos);
+			intMap = null;
+		}
+	}
+
+	static void fill(Map<Integer, Object> map, int entries) {
+		Object value = new Object();
+		for (int id = 1; id <= entries; id++) {
+			map.put(id, value);
+		}
+	}
+
+	static double time(int[] probes, IntFunction<Object> lookup) {
+		int found = 0;
+		long start = System.nanoTime();
+		for (int probe : probes) {
+			if (lookup.apply(probe) != null) {
+				found++;
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+		if (found != probes.length) {
+			throw new RuntimeException("IntObjectMapBenchmark: lookups missed");
+		}
+		return (double) elapsed / probes.length;
+	}
+
+	static void report(String name, long bytes, int entries, double nanos) {
+		System.out.printf("%-14s %14.1f %14.1f%n", name, (double) bytes / entries, nanos);
+	}
+
+	static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+}
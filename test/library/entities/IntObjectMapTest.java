@@ -0,0 +1,150 @@
+package library.entities;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+@RunWith(MockitoJUnitRunner.class)
+class IntObjectMapTest {
+
+	IntObjectMap<String> map;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		map = new IntObjectMap<>();
+	}
+
+	@Test
+	void put_RandomPutsAndRemoves_MatchesHashMap() {
+		// arrange
+		Random random = new Random(12);
+		Map<Integer, String> expected = new HashMap<>();
+		// act
+		for (int i = 0; i < 100000; i++) {
+			// keys 1024 apart share home slots, which exercises long probe runs
+			int key = random.nextBoolean() ? random.nextInt(2000) : random.nextInt(64) * 1024 - 20000;
+			if (random.nextInt(3) == 0) {
+				assertEquals(expected.remove(key), map.remove(key));
+			}
+			else {
+				assertEquals(expected.put(key, "v" + i), map.put(key, "v" + i));
+			}
+		}
+		// assert
+		assertEquals(expected, map);
+		assertEquals(expected.size(), map.size());
+		for (int key = -20000; key < 50000; key++) {
+			assertEquals(expected.get(key), map.get(key));
+		}
+	}
+
+	@Test
+	void iterator_RemoveWhileIterating_VisitsEveryEntryOnce() {
+		// arrange
+		Random random = new Random(3);
+		Map<Integer, String> expected = new HashMap<>();
+		for (int i = 0; i < 5000; i++) {
+			int key = random.nextInt(64) * 256 + random.nextInt(8);
+			expected.put(key, "v" + key);
+			map.put(key, "v" + key);
+		}
+		List<Integer> visited = new ArrayList<>();
+		// act
+		for (Iterator<Integer> keys = map.keySet().iterator(); keys.hasNext();) {
+			int key = keys.next();
+			visited.add(key);
+			if (key % 2 == 0) {
+				keys.remove();
+				expected.remove(key);
+			}
+		}
+		// assert
+		assertEquals(visited.size(), visited.stream().distinct().count());
+		assertEquals(expected.size() + visited.stream().filter(key -> key % 2 == 0).count(), visited.size());
+		assertEquals(expected, map);
+	}
+
+	@Test
+	void iterator_SequentialIds_IteratesInIdOrder() {
+		// arrange
+		for (int id = 1; id <= 1000; id++) {
+			map.put(id, "v" + id);
+		}
+		List<Integer> ids = new ArrayList<>();
+		// act
+		map.forEachEntry((id, value) -> ids.add(id));
+		// assert
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(i + 1, ids.get(i));
+		}
+		assertEquals(ids, new ArrayList<>(map.keySet()));
+	}
+
+	@Test
+	void keysAfter_DenseKeys_ReturnsNextKeysInOrder() {
+		// arrange
+		for (int id = 1; id <= 100; id++) {
+			map.put(id, "v" + id);
+		}
+		map.remove(12);
+		// act
+		int[] actual = map.keysAfter(10, 3);
+		// assert
+		assertArrayEquals(new int[] {11, 13, 14}, actual);
+		assertArrayEquals(new int[] {99, 100}, map.keysAfter(98, 3));
+		assertEquals(0, map.keysAfter(100, 3).length);
+	}
+
+	@Test
+	void keysAfter_SparseKeys_ReturnsNextKeysInOrder() {
+		// arrange
+		for (int id = 1; id <= 100; id++) {
+			map.put(id * 1_000_000, "v" + id);
+		}
+		// act
+		int[] actual = map.keysAfter(5_000_000, 3);
+		// assert
+		assertArrayEquals(new int[] {6_000_000, 7_000_000, 8_000_000}, actual);
+		assertArrayEquals(new int[] {100_000_000}, map.keysAfter(99_000_000, 3));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void serialize_RoundTrip_KeepsEntries() throws Exception {
+		// arrange
+		for (int id = 1; id <= 100; id++) {
+			map.put(id * 7, "v" + id);
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		// act
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(map);
+		}
+		IntObjectMap<String> actual;
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			actual = (IntObjectMap<String>) in.readObject();
+		}
+		// assert
+		assertEquals(map, actual);
+		actual.put(701, "new");
+		assertEquals("new", actual.get(701));
+	}
+
+}
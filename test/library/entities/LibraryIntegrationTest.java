@@ -11,8 +11,10 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.mock;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -192,4 +194,281 @@ class LibraryIntegrationTest {
 		assertTrue(thrown.getClass().equals(RuntimeException.class));
 	}
 
+	@Test
+	void checkCurrentLoansOverDue_DateMovesPastSomeDueDates_MarksOnlyThoseLoans() {
+		// arrange
+		Calendar.getInstance().setDate(TestUtilities.dateOf(2020, 2, 20));
+		IBook first = library.addBook(author, title, callNumber);
+		IBook second = library.addBook(author, "Carrie", "call456");
+		IPatron borrower = library.addPatron(lastName, firstName, emailAddress, phoneNumber);
+		ILoan firstLoan = library.issueLoan(first, borrower);
+		library.commitLoan(firstLoan);
+		assertTrue(library.checkCurrentLoansOverDue().isEmpty());
+		Calendar.getInstance().incrementDate(1);
+		ILoan secondLoan = library.issueLoan(second, borrower);
+		library.commitLoan(secondLoan);
+		Calendar.getInstance().incrementDate(2);
+		// act
+		List<ILoan> actual = library.checkCurrentLoansOverDue();
+		// assert
+		assertEquals(List.of(firstLoan), actual);
+		assertTrue(firstLoan.isOverDue());
+		assertFalse(secondLoan.isOverDue());
+	}
+
+	@Test
+	void checkCurrentLoansOverDue_LargeJump_MarksEveryLoanDue() {
+		// arrange
+		Calendar.getInstance().setDate(TestUtilities.dateOf(2020, 2, 20));
+		List<ILoan> loans = new ArrayList<>();
+		for (int day = 0; day < 10; day++) {
+			IPatron borrower = library.addPatron(lastName, firstName + day, emailAddress, phoneNumber);
+			ILoan current = library.issueLoan(library.addBook(author, title + day, callNumber), borrower);
+			library.commitLoan(current);
+			loans.add(current);
+			library.checkCurrentLoansOverDue();
+			Calendar.getInstance().incrementDate(1);
+		}
+		Calendar.getInstance().incrementDate(365);
+		// act
+		List<ILoan> actual = library.checkCurrentLoansOverDue();
+		// assert
+		assertEquals(3, actual.size());
+		for (ILoan current : loans) {
+			assertTrue(current.isOverDue());
+		}
+		assertTrue(library.checkCurrentLoansOverDue().isEmpty());
+	}
+
+	@Test
+	void checkCurrentLoansOverDue_LoanDischargedBeforeDueDate_IsNotMarked() {
+		// arrange
+		Calendar.getInstance().setDate(TestUtilities.dateOf(2020, 2, 20));
+		IPatron borrower = library.addPatron(lastName, firstName, emailAddress, phoneNumber);
+		ILoan current = library.issueLoan(library.addBook(author, title, callNumber), borrower);
+		library.commitLoan(current);
+		library.checkCurrentLoansOverDue();
+		library.dischargeLoan(current, false);
+		Calendar.getInstance().incrementDate(30);
+		// act
+		List<ILoan> actual = library.checkCurrentLoansOverDue();
+		// assert
+		assertTrue(actual.isEmpty());
+		assertFalse(current.isOverDue());
+		assertEquals(0.0, borrower.getFinesPayable());
+	}
+
+	@Test
+	void findBooks_BooksAddedAfterFirstQuery_AreFound() {
+		// arrange
+		library.addBook(author, title, callNumber);
+		library.addBook("Stephen Fry", "Moab Is My Washpot", "call456");
+		assertEquals(1, library.findBooks(IBook.BookField.AUTHOR, author).size());
+		// act
+		IBook added = library.addBook(author, "Carrie", "call789");
+		library.addBooks(List.<String[]>of(new String[] {"Terry Pratchett", "Mort", "call999"}));
+		// assert
+		List<IBook> byAuthor = library.findBooks(IBook.BookField.AUTHOR, author);
+		assertEquals(2, byAuthor.size());
+		assertSame(added, byAuthor.get(1));
+		assertEquals(List.of("call456", "call789"), library.findBooksInRange(IBook.BookField.CALL_NUMBER, "call2", "call9", 10)
+				.stream().map(IBook::getCallNumber).collect(Collectors.toList()));
+		assertEquals(3, library.findBooksByPrefix(IBook.BookField.AUTHOR, "Ste", 10).size());
+		assertEquals(1, library.findBooksByPrefix(IBook.BookField.AUTHOR, "Ste", 1).size());
+		assertEquals("Mort", library.findBooks(IBook.BookField.TITLE, "Mort").get(0).getTitle());
+	}
+
+	@Test
+	void findPatrons_PatronsAddedAfterFirstLookup_AreFoundIgnoringCase() {
+		// arrange
+		IPatron first = library.addPatron(lastName, firstName, emailAddress, phoneNumber);
+		library.addPatron("Musterfrau", "Erika", "erika@example.com", 123456789);
+		assertEquals(List.of(first), library.findPatrons(IPatron.PatronField.LAST_NAME, "mustermann"));
+		// act
+		IPatron added = library.addPatron("MUSTERMANN", "Moritz", "moritz@example.com", phoneNumber);
+		// assert
+		assertEquals(List.of(first, added), library.findPatrons(IPatron.PatronField.LAST_NAME, "Mustermann"));
+		assertEquals(3, library.findPatronsByPrefix(IPatron.PatronField.LAST_NAME, "muster", 10).size());
+		assertEquals(List.of(added), library.findPatronsByPrefix(IPatron.PatronField.FIRST_NAME, "mor", 10));
+		assertEquals(List.of(added), library.findPatrons(IPatron.PatronField.EMAIL_ADDRESS, "Moritz@Example.com"));
+		assertEquals(List.of(first, added), library.findPatronsByPhoneNumber(phoneNumber));
+		assertTrue(library.findPatronsByPhoneNumber(555).isEmpty());
+	}
+
+	@Test
+	void searchBooks_AvailableOnly_LeavesOutBooksOnLoan() {
+		// arrange
+		IBook shining = library.addBook(author, title, callNumber);
+		library.addBook(author, "Carrie", "call456");
+		IPatron borrower = library.addPatron(lastName, firstName, emailAddress, phoneNumber);
+		assertEquals(2, library.searchBooks("king", 10, true).size());
+		// act
+		library.commitLoan(library.issueLoan(shining, borrower));
+		IBook added = library.addBook("Stephen King", "The Shining Girls", "call789");
+		// assert
+		assertEquals(List.of(shining, added), library.searchBooks("shining", 10, false));
+		assertEquals(List.of(added), library.searchBooks("shining", 10, true));
+	}
+
+	@Test
+	void getStatistics_LoansGoOverDueAndFinesArePaid_KeepsFiguresUpToDate() {
+		// arrange
+		Calendar.getInstance().setDate(TestUtilities.dateOf(2020, 2, 20));
+		IBook first = library.addBook(author, title, callNumber);
+		IBook second = library.addBook(author, "Carrie", "call456");
+		library.addBook(author, "Misery", "call789");
+		IPatron borrower = library.addPatron(lastName, firstName, emailAddress, phoneNumber);
+		assertEquals(3, library.getStatistics().getAvailableBooks());
+		ILoan firstLoan = library.issueLoan(first, borrower);
+		library.commitLoan(firstLoan);
+		library.commitLoan(library.issueLoan(second, borrower));
+		Calendar.getInstance().incrementDate(5);
+		// act
+		library.checkCurrentLoansOverDue();
+		CirculationStatistics overdue = library.getStatistics();
+		library.dischargeLoan(firstLoan, true);
+		CirculationStatistics returned = library.getStatistics();
+		library.payFine(borrower, 1.0);
+		CirculationStatistics paid = library.getStatistics();
+		// assert
+		assertEquals(1, overdue.getAvailableBooks());
+		assertEquals(2, overdue.getBooksOnLoan());
+		assertEquals(2, overdue.getOverDueLoans());
+		assertEquals(0.0, overdue.getFinesOwed());
+		assertEquals(1, returned.getAvailableBooks());
+		assertEquals(1, returned.getBooksOnLoan());
+		assertEquals(1, returned.getDamagedBooks());
+		assertEquals(1, returned.getOverDueLoans());
+		assertEquals(3.0 + ILibrary.DAMAGE_FEE, returned.getFinesOwed());
+		assertEquals(borrower.getFinesPayable(), paid.getFinesOwed());
+		assertEquals(returned.getFinesOwed() - 1.0, paid.getFinesOwed());
+	}
+
+	@Test
+	void getBookPage_FollowingLastIdOfEachPage_ListsEveryBookOnceInIdOrder() {
+		// arrange
+		List<IBook> expected = new ArrayList<>();
+		for (int i = 0; i < 45; i++) {
+			expected.add(library.addBook(author, title + " " + i, callNumber + i));
+		}
+		List<IBook> actual = new ArrayList<>();
+		int afterId = 0;
+		// act
+		for (List<IBook> page = library.getBookPage(afterId, 20); !page.isEmpty(); page = library.getBookPage(afterId, 20)) {
+			actual.addAll(page);
+			afterId = page.get(page.size() - 1).getId();
+		}
+		// assert
+		assertEquals(expected, actual);
+		assertEquals(45, library.getBookStream().count());
+		assertEquals(5, library.getBookPage(40, 20).size());
+	}
+
+	@Test
+	void getCurrentLoanPage_SomeBooksOnLoan_ListsTheirLoansInBookIdOrder() {
+		// arrange
+		List<IBook> books = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			books.add(library.addBook(author, title + " " + i, callNumber + i));
+		}
+		IPatron borrower = library.addPatron(lastName, firstName, emailAddress, phoneNumber);
+		ILoan last = library.issueLoan(books.get(3), borrower);
+		library.commitLoan(last);
+		ILoan second = library.issueLoan(books.get(1), borrower);
+		library.commitLoan(second);
+		// act
+		List<ILoan> firstPage = library.getCurrentLoanPage(0, 1);
+		List<ILoan> secondPage = library.getCurrentLoanPage(firstPage.get(0).getBook().getId(), 1);
+		// assert
+		assertEquals(List.of(second), firstPage);
+		assertEquals(List.of(last), secondPage);
+		assertTrue(library.getCurrentLoanPage(books.get(3).getId(), 1).isEmpty());
+		assertEquals(List.of(last, second), library.getLoanPage(0, 10));
+		assertEquals(2, borrower.getLoanStream().count());
+	}
+
+	@Test
+	void commitLoans_SeveralBooks_CommitsThemDueTheSameDay() {
+		// arrange
+		List<ILoan> pendingLoans = new ArrayList<>();
+		IPatron borrower = library.addPatron(lastName, firstName, emailAddress, phoneNumber);
+		for (int i = 0; i < 2; i++) {
+			pendingLoans.add(library.issueLoan(library.addBook(author, title + " " + i, callNumber + i), borrower));
+		}
+		// act
+		library.commitLoans(pendingLoans);
+		// assert
+		assertEquals(pendingLoans, library.getCurrentLoanPage(0, 10));
+		assertEquals(pendingLoans.get(0).getDueDate(), pendingLoans.get(1).getDueDate());
+		assertEquals(pendingLoans.get(0).getId() + 1, pendingLoans.get(1).getId());
+		assertEquals(2, borrower.getNumberOfCurrentLoans());
+		assertTrue(pendingLoans.get(1).getBook().isOnLoan());
+	}
+
+	@Test
+	void commitLoans_OneBookNotAvailable_CommitsNone() {
+		// arrange
+		IPatron borrower = library.addPatron(lastName, firstName, emailAddress, phoneNumber);
+		IBook available = library.addBook(author, title, callNumber);
+		IBook lent = library.addBook(author, "Carrie", "call456");
+		List<ILoan> pendingLoans = List.of(library.issueLoan(available, borrower), library.issueLoan(lent, borrower));
+		library.commitLoan(library.issueLoan(lent, library.addPatron(lastName, "Erika", emailAddress, phoneNumber)));
+		// act
+		RuntimeException thrown = assertThrows(RuntimeException.class,
+				() -> { library.commitLoans(pendingLoans); } );
+		// assert
+		assertEquals(RuntimeException.class, thrown.getClass());
+		assertTrue(available.isAvailable());
+		assertTrue(pendingLoans.get(0).isPending());
+		assertEquals(0, borrower.getNumberOfCurrentLoans());
+		assertEquals(1, library.getCurrentLoansList().size());
+	}
+
+	Library lendOverDue(List<IPatron> borrowers) {
+		Library lending = new Library(bookHelper, patronHelper, loanHelper);
+		borrowers.add(lending.addPatron(lastName, firstName, emailAddress, phoneNumber));
+		borrowers.add(lending.addPatron(lastName, "Erika", emailAddress, phoneNumber));
+		Calendar.getInstance().setDate(TestUtilities.dateOf(2020, 2, 1));
+		for (int i = 0; i < 4; i++) {
+			IBook lent = lending.addBook(author, title + " " + i, callNumber + i);
+			lending.commitLoan(lending.issueLoan(lent, borrowers.get(i % 2)));
+			Calendar.getInstance().incrementDate(1);
+		}
+		Calendar.getInstance().setDate(TestUtilities.dateOf(2020, 3, 1));
+		lending.checkCurrentLoansOverDue();
+		return lending;
+	}
+
+	@Test
+	void dischargeLoans_BookDropOfTwoPatrons_ChargesSameAsSingleReturns() {
+		// arrange
+		List<IPatron> expected = new ArrayList<>();
+		Library single = lendOverDue(expected);
+		List<IPatron> borrowers = new ArrayList<>();
+		Library batch = lendOverDue(borrowers);
+		List<BookReturn> returns = List.of(new BookReturn(1, false), new BookReturn(2, true),
+				new BookReturn(4, false), new BookReturn(99, false));
+		single.getStatistics();
+		batch.getStatistics();
+		// act
+		for (BookReturn bookReturn : returns) {
+			ILoan current = single.getCurrentLoanByBookId(bookReturn.getBookId());
+			if (current != null) {
+				single.dischargeLoan(current, bookReturn.isDamaged());
+			}
+		}
+		List<ILoan> discharged = batch.dischargeLoans(returns);
+		// assert
+		assertEquals(List.of(1, 2, 4), discharged.stream().map(ILoan::getId).collect(Collectors.toList()));
+		assertEquals(List.of(3), batch.getCurrentLoansList().stream().map(ILoan::getId).collect(Collectors.toList()));
+		for (int i = 0; i < 2; i++) {
+			assertEquals(expected.get(i).getFinesPayable(), borrowers.get(i).getFinesPayable(), 0.001);
+			assertEquals(expected.get(i).getNumberOfCurrentLoans(), borrowers.get(i).getNumberOfCurrentLoans());
+		}
+		assertTrue(borrowers.get(0).getFinesPayable() > 0);
+		assertTrue(batch.getDamagedBooks().containsKey(2));
+		assertEquals(single.getStatistics().getFinesOwed(), batch.getStatistics().getFinesOwed(), 0.001);
+		assertEquals(single.getStatistics().getOverDueLoans(), batch.getStatistics().getOverDueLoans());
+	}
+
 }
@@ -0,0 +1,172 @@
+package library.entities;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import library.entities.IPatron.PatronState;
+import library.entities.helpers.BookHelper;
+import library.entities.helpers.IBookHelper;
+import library.entities.helpers.ILoanHelper;
+import library.entities.helpers.IPatronHelper;
+import library.entities.helpers.LoanHelper;
+import library.entities.helpers.PatronHelper;
+import library.test.TestUtilities;
+
+@ExtendWith(MockitoExtension.class)
+@RunWith(MockitoJUnitRunner.class)
+class LibrarySnapshotCodecTest {
+
+	ILibrary library;
+	IBookHelper bookHelper;
+	IPatronHelper patronHelper;
+	ILoanHelper loanHelper;
+	IPatron patron;
+	IBook currentBook;
+	IBook damagedBook;
+
+	String author = "Stephen King";
+
+	@BeforeEach
+	void setUp() throws Exception {
+		bookHelper = new BookHelper();
+		patronHelper = new PatronHelper();
+		loanHelper = new LoanHelper();
+		library = new Library(bookHelper, patronHelper, loanHelper);
+		Calendar.getInstance().setDate(TestUtilities.dateOf(2020, 2, 20));
+
+		patron = library.addPatron("Mustermann", "Max", "max.mustermann@example.com", 198765432);
+		currentBook = library.addBook(author, "The Shining", "call123");
+		damagedBook = library.addBook(author, "Carrie", "call456");
+		library.addBook(author, "It", "call789");
+		library.commitLoan(library.issueLoan(damagedBook, patron));
+		library.dischargeLoan(library.getCurrentLoanByBookId(damagedBook.getId()), true);
+		library.payFine(patron, ILibrary.DAMAGE_FEE);
+		library.commitLoan(library.issueLoan(currentBook, patron));
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+	}
+	
+	ILibrary roundTrip(ILibrary source) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		LibrarySnapshotCodec.write(source, 0L, out);
+		ByteArrayInputStream in = new ByteArrayInputStream(out.toByteArray());
+		return LibrarySnapshotCodec.read(in, bookHelper, patronHelper, loanHelper).getLibrary();
+	}
+
+	@Test
+	void read_WrittenLibrary_RestoresEntities() throws Exception {
+		// arrange
+		// act
+		ILibrary actual = roundTrip(library);
+		// assert
+		assertEquals(3, actual.getBookList().size());
+		assertEquals(1, actual.getPatronList().size());
+		assertEquals(2, actual.getAllLoansList().size());
+		IBook book = actual.getBookById(currentBook.getId());
+		assertEquals("The Shining", book.getTitle());
+		assertEquals(author, book.getAuthor());
+		assertEquals("call123", book.getCallNumber());
+		assertTrue(book.isOnLoan());
+		IPatron actualPatron = actual.getPatronById(patron.getId());
+		assertEquals("max.mustermann@example.com", actualPatron.getEmailAddress());
+		assertEquals(198765432, actualPatron.getPhoneNumber());
+		assertEquals(PatronState.CAN_BORROW, ((Patron) actualPatron).getState());
+	}
+
+	@Test
+	void read_WrittenLibrary_RelinksCurrentLoans() throws Exception {
+		// arrange
+		// act
+		ILibrary actual = roundTrip(library);
+		// assert
+		ILoan loan = actual.getCurrentLoanByBookId(currentBook.getId());
+		IPatron actualPatron = actual.getPatronById(patron.getId());
+		assertSame(actual.getBookById(currentBook.getId()), loan.getBook());
+		assertSame(actualPatron, loan.getPatron());
+		assertEquals(1, actualPatron.getNumberOfCurrentLoans());
+		assertTrue(actualPatron.getLoans().contains(loan));
+		assertEquals(library.getCurrentLoanByBookId(currentBook.getId()).getDueDate(), loan.getDueDate());
+	}
+
+	@Test
+	void read_WrittenLibrary_ContinuesIdSequences() throws Exception {
+		// arrange
+		ILibrary actual = roundTrip(library);
+		// act
+		IBook book = actual.addBook(author, "Misery", "call999");
+		// assert
+		assertEquals(4, book.getId());
+	}
+
+	@Test
+	void read_WrittenLibrary_KeepsDamagedBooksRepairable() throws Exception {
+		// arrange
+		ILibrary actual = roundTrip(library);
+		IBook book = actual.getBookById(damagedBook.getId());
+		// act
+		actual.repairBook(book);
+		// assert
+		assertTrue(book.isAvailable());
+	}
+
+	@Test
+	void read_WrittenLibrary_RestoresPatronIndexes() throws Exception {
+		// arrange
+		library.addPatron("Musterfrau", "Erika", "erika@example.com", 123456789);
+		library.findPatrons(IPatron.PatronField.LAST_NAME, "x");
+		IPatron added = library.addPatron("Mustermann", "Moritz", "moritz@example.com", 198765432);
+		// act
+		ILibrary actual = roundTrip(library);
+		IPatron later = actual.addPatron("Muster", "Anna", "anna@example.com", 5);
+		// assert
+		assertEquals(List.of(patron.getId(), added.getId()), actual.findPatrons(IPatron.PatronField.LAST_NAME, "MUSTERMANN")
+				.stream().map(IPatron::getId).collect(Collectors.toList()));
+		assertEquals(4, actual.findPatronsByPrefix(IPatron.PatronField.LAST_NAME, "muster", 10).size());
+		assertEquals(2, actual.findPatronsByPhoneNumber(198765432).size());
+		assertEquals(List.of(later), actual.findPatronsByPhoneNumber(5));
+	}
+
+	@Test
+	void read_PatronIndexNamesMissingPatron_ThrowsException() throws Exception {
+		// arrange
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		LibrarySnapshotCodec.write(library, 0L, out);
+		byte[] bytes = out.toByteArray();
+		bytes[bytes.length - 1] = 9;
+		// act
+		IOException thrown = assertThrows(IOException.class, () -> {LibrarySnapshotCodec.read(
+				new ByteArrayInputStream(bytes), bookHelper, patronHelper, loanHelper);});
+		// assert
+		assertTrue(thrown.getMessage().contains("patron indexes"));
+	}
+
+	@Test
+	void read_UnsupportedVersion_ThrowsException() throws Exception {
+		// arrange
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		LibrarySnapshotCodec.write(library, 0L, out);
+		byte[] bytes = out.toByteArray();
+		bytes[4] = (byte) (LibrarySnapshotCodec.VERSION + 1);
+		// act
+		IOException thrown = assertThrows(IOException.class, () -> {LibrarySnapshotCodec.read(
+				new ByteArrayInputStream(bytes), bookHelper, patronHelper, loanHelper);});
+		// assert
+		assertTrue(thrown.getMessage().contains("version"));
+	}
+
+}
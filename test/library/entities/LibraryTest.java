@@ -206,7 +206,6 @@ class LibraryTest {
 	void getBookById_MatchingBook_ReturnsBook() {
 		// arrange
 		int bookId = 1;
-		when(catalog.containsKey(bookId)).thenReturn(true);
 		when(catalog.get(bookId)).thenReturn(book);
 		// act
 		IBook actual = library.getBookById(bookId);
@@ -218,7 +217,7 @@ class LibraryTest {
 	void getBookById_NoMatchingBook_ReturnsNull() {
 		// arrange
 		int bookId = 1;
-		when(catalog.containsKey(anyInt())).thenReturn(false);
+		when(catalog.get(anyInt())).thenReturn(null);
 		// act
 		IBook actual = library.getBookById(bookId);
 		// assert
@@ -229,7 +228,6 @@ class LibraryTest {
 	void getPatronById_MatchingPatron_ReturnsPatron() {
 		// arrange
 		int patronId = 1;
-		when(patrons.containsKey(patronId)).thenReturn(true);
 		when(patrons.get(patronId)).thenReturn(patron);
 		// act
 		IPatron actual = library.getPatronById(patronId);
@@ -241,7 +239,7 @@ class LibraryTest {
 	void getPatronById_NoMatchingPatron_ReturnsNull() {
 		// arrange
 		int patronId = 1;
-		when(patrons.containsKey(patronId)).thenReturn(false);
+		when(patrons.get(patronId)).thenReturn(null);
 		// act
 		IPatron actual = library.getPatronById(patronId);
 		// assert
@@ -0,0 +1,164 @@
+package library.entities;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.FileOutputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import library.entities.helpers.BookHelper;
+import library.entities.helpers.LoanHelper;
+import library.entities.helpers.PatronHelper;
+import library.test.TestUtilities;
+
+@ExtendWith(MockitoExtension.class)
+@RunWith(MockitoJUnitRunner.class)
+class LoanArchiveTest {
+
+	@TempDir Path directory;
+
+	Path archiveFile;
+	LoanArchive archive;
+	Library library;
+	IPatron patron;
+	IBook book;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		archiveFile = directory.resolve("library.archive");
+		archive = LoanArchive.open(archiveFile);
+		library = new Library(new BookHelper(), new PatronHelper(), new LoanHelper());
+		Calendar.getInstance().setDate(TestUtilities.dateOf(2020, 2, 20));
+		patron = library.addPatron("Mustermann", "Max", "max.mustermann@example.com", 198765432);
+		book = library.addBook("Stephen King", "The Shining", "call123");
+		library.attachLoanArchive(archive);
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		archive.close();
+	}
+
+	ILoan borrowAndReturn() {
+		ILoan loan = library.issueLoan(book, patron);
+		library.commitLoan(loan);
+		library.dischargeLoan(loan, false);
+		return loan;
+	}
+
+	LoanArchive reopen() {
+		archive.close();
+		archive = LoanArchive.open(archiveFile);
+		library.attachLoanArchive(archive);
+		return archive;
+	}
+
+	@Test
+	void dischargeLoan_ArchiveAttached_MovesLoanOutOfLoansMap() {
+		// arrange
+		// act
+		ILoan loan = borrowAndReturn();
+		// assert
+		assertFalse(library.getLoans().containsKey(loan.getId()));
+		assertTrue(archive.contains(loan.getId()));
+		assertEquals(loan.getDueDate(), library.getLoanById(loan.getId()).getDueDate());
+	}
+
+	@Test
+	void getLoan_AfterSyncAndReopen_RebuildsLoan() {
+		// arrange
+		ILoan loan = borrowAndReturn();
+		archive.sync();
+		// act
+		ILoan actual = reopen().getLoan(loan.getId(), library.getCatalog()::get, library.getPatrons()::get);
+		// assert
+		assertEquals(loan.getId(), actual.getId());
+		assertSame(book, actual.getBook());
+		assertSame(patron, actual.getPatron());
+		assertEquals(loan.getDueDate(), actual.getDueDate());
+		assertEquals(ILoan.LoanState.DISCHARGED, ((Loan) actual).getState());
+	}
+
+	@Test
+	void append_LoanAlreadyArchived_IgnoresIt() {
+		// arrange
+		ILoan loan = borrowAndReturn();
+		archive.sync();
+		// act
+		reopen().append(loan);
+		// assert
+		assertEquals(1, archive.getLoanCount());
+	}
+
+	@Test
+	void getAllLoans_MoreThanOneBlock_StreamsHotThenArchivedLoans() {
+		// arrange
+		for (int i = 0; i < LoanArchive.BLOCK_SIZE + 3; i++) {
+			borrowAndReturn();
+		}
+		archive.flush();
+		ILoan current = library.issueLoan(book, patron);
+		library.commitLoan(current);
+		// act
+		List<Integer> actual = library.getAllLoans().map(ILoan::getId).collect(Collectors.toList());
+		// assert
+		assertEquals(LoanArchive.BLOCK_SIZE + 4, actual.size());
+		assertEquals(current.getId(), actual.get(0));
+		for (int i = 1; i < actual.size(); i++) {
+			assertEquals(i, actual.get(i));
+		}
+	}
+
+	@Test
+	void getLoanPage_MoreThanOneBlock_MergesHotAndArchivedLoansInIdOrder() {
+		// arrange
+		for (int i = 0; i < LoanArchive.BLOCK_SIZE + 3; i++) {
+			borrowAndReturn();
+		}
+		archive.flush();
+		borrowAndReturn();
+		ILoan current = library.issueLoan(book, patron);
+		library.commitLoan(current);
+		int afterId = LoanArchive.BLOCK_SIZE - 2;
+		// act
+		List<ILoan> actual = library.getLoanPage(afterId, 10);
+		// assert
+		assertEquals(7, actual.size());
+		for (int i = 0; i < actual.size(); i++) {
+			assertEquals(afterId + 1 + i, actual.get(i).getId());
+		}
+		assertSame(current, actual.get(6));
+		assertSame(book, actual.get(0).getBook());
+		assertEquals(List.of(current), library.getLoanPage(current.getId() - 1, 10));
+	}
+
+	@Test
+	void open_TornTailBlock_DiscardsIt() throws Exception {
+		// arrange
+		ILoan loan = borrowAndReturn();
+		archive.sync();
+		archive.close();
+		try (FileOutputStream out = new FileOutputStream(archiveFile.toFile(), true)) {
+			out.write(new byte[] {0, 0, 0, 1, 0, 0, 0, 20, 0, 0});
+		}
+		// act
+		archive = LoanArchive.open(archiveFile);
+		library.attachLoanArchive(archive);
+		borrowAndReturn();
+		reopen();
+		// assert
+		assertEquals(2, archive.getLoanCount());
+		assertNotNull(archive.getLoan(loan.getId(), library.getCatalog()::get, library.getPatrons()::get));
+	}
+
+}
@@ -114,4 +114,23 @@ class LoanPatronBookIntegrationTest {
 		assertFalse(loan.isCurrent());
 	}
 
+	@Test
+	void commit_BookTakenByAnotherPatronsLoan_LeavesLoserPendingWithoutPatronLoan() {
+		// arrange
+		IPatron other = new Patron("Musterfrau", "Erika", "erika@example.com", 198765433, 2);
+		ILoan rival = new Loan(book, other);
+		loan.commit(loanId, earlierDate);
+		
+		// act
+		assertThrows(RuntimeException.class, 
+				() -> { rival.commit(loanId + 1, laterDate); });
+		
+		// assert
+		assertTrue(((Loan) rival).isPending());
+		assertNull(rival.getDueDate());
+		assertEquals(0, other.getNumberOfCurrentLoans());
+		assertTrue(book.isOnLoan());
+		assertTrue(patron.getLoans().contains(loan));
+	}
+
 }
@@ -121,4 +121,25 @@ class LoanPatronIntegrationTest {
 		assertEquals(expected, actual);
 	}
 
+	@Test
+	void hasOverDueLoans_OverDueLoansDischargedAfterCounting_KeepsCountUpToDate() {
+		// arrange
+		ILoan other = new Loan(book, patron);
+		loan.commit(loanId, earlierDate);
+		other.commit(loanId + 1, earlierDate);
+		assertFalse(patron.hasOverDueLoans());
+		loan.checkOverDue(laterDate);
+		other.checkOverDue(laterDate);
+		assertTrue(patron.hasOverDueLoans());
+		// act
+		loan.discharge(false);
+		boolean oneLeft = patron.hasOverDueLoans();
+		other.discharge(false);
+		boolean noneLeft = patron.hasOverDueLoans();
+		// assert
+		assertTrue(oneLeft);
+		assertFalse(noneLeft);
+		assertEquals(0, patron.getNumberOfCurrentLoans());
+	}
+
 }
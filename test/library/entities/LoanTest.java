@@ -3,6 +3,11 @@ package library.entities;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -260,5 +265,145 @@ class LoanTest {
 		assertEquals(expected, actual);
 	}
 
+	@Test
+	void commit_WhenBookBorrowFails_LeavesStatePendingAndPatronUntouched() {
+		// arrange
+		ILoan pendingLoan = new Loan(book, patron);
+		doThrow(new RuntimeException("on loan")).when(book).borrowFromLibrary();
+		// act
+		assertThrows(RuntimeException.class, () -> { pendingLoan.commit(loanId, laterDate); });
+		// assert
+		assertTrue(((Loan) pendingLoan).isPending());
+		assertNull(pendingLoan.getDueDate());
+		verify(patron, never()).takeOutLoan(pendingLoan);
+	}
+
+	@Test
+	void commit_WhenPatronTakeOutLoanFails_ReturnsBookAndLeavesStatePending() {
+		// arrange
+		ILoan pendingLoan = new Loan(book, patron);
+		doThrow(new RuntimeException("restricted")).when(patron).takeOutLoan(pendingLoan);
+		// act
+		assertThrows(RuntimeException.class, () -> { pendingLoan.commit(loanId, laterDate); });
+		// assert
+		assertTrue(((Loan) pendingLoan).isPending());
+		assertEquals(0, pendingLoan.getId());
+		assertNull(pendingLoan.getDueDate());
+		verify(book).borrowFromLibrary();
+		verify(book).returnToLibrary(false);
+	}
+
+	@Test
+	void commit_SameLoanOnTwoThreads_CommitsItOnce() throws Exception {
+		// arrange
+		int rounds = 500;
+		int committed = 0;
+		ExecutorService desks = Executors.newFixedThreadPool(2);
+		// act
+		try {
+			for (int i = 0; i < rounds; i++) {
+				IBook availableBook = new Book("Stephen King", "The Shining", "call123", i + 1);
+				ILoan pendingLoan = new Loan(availableBook, patron);
+				CyclicBarrier start = new CyclicBarrier(2);
+				Callable<Boolean> commit = () -> {
+					start.await();
+					try {
+						pendingLoan.commit(loanId, laterDate);
+						return true;
+					}
+					catch (RuntimeException e) {
+						return false;
+					}
+				};
+				Future<Boolean> first = desks.submit(commit);
+				Future<Boolean> second = desks.submit(commit);
+				// assert
+				assertTrue(first.get() ^ second.get());
+				assertTrue(pendingLoan.isCurrent());
+				assertTrue(availableBook.isOnLoan());
+				committed++;
+			}
+		}
+		finally {
+			desks.shutdownNow();
+		}
+		verify(patron, times(committed)).takeOutLoan(any());
+	}
+
+	@Test
+	void discharge_WhenStateCurrent_SetsStateDischargedAndReleasesBookAndPatron() {
+		// arrange
+		ILoan currentLoan = new Loan(book, patron, loanId, laterDate, LoanState.CURRENT);
+		// act
+		currentLoan.discharge(true);
+		// assert
+		assertEquals(LoanState.DISCHARGED, ((Loan) currentLoan).getState());
+		verify(patron).dischargeLoan(currentLoan);
+		verify(book).returnToLibrary(true);
+	}
+
+	@Test
+	void discharge_WhenStateOverdue_SetsStateDischarged() {
+		// arrange
+		ILoan overdueLoan = new Loan(book, patron, loanId, earlierDate, LoanState.OVER_DUE);
+		// act
+		overdueLoan.discharge(false);
+		// assert
+		assertEquals(LoanState.DISCHARGED, ((Loan) overdueLoan).getState());
+	}
+
+	@Test
+	void discharge_WhenStatePending_ThrowsAndLeavesStateUnchanged() {
+		// arrange
+		ILoan pendingLoan = new Loan(book, patron);
+		// act
+		assertThrows(RuntimeException.class, () -> { pendingLoan.discharge(false); });
+		// assert
+		assertTrue(((Loan) pendingLoan).isPending());
+		verifyNoInteractions(book, patron);
+	}
+
+	@Test
+	void discharge_WhenStateDischarged_ThrowsWithoutReleasingAgain() {
+		// arrange
+		ILoan currentLoan = new Loan(book, patron, loanId, laterDate, LoanState.CURRENT);
+		currentLoan.discharge(false);
+		// act
+		assertThrows(RuntimeException.class, () -> { currentLoan.discharge(false); });
+		// assert
+		verify(patron, times(1)).dischargeLoan(currentLoan);
+		verify(book, times(1)).returnToLibrary(false);
+	}
+
+	@Test
+	void discharge_RacingCheckOverDue_EndsDischarged() throws Exception {
+		// arrange
+		int rounds = 500;
+		ExecutorService desks = Executors.newFixedThreadPool(2);
+		// act
+		try {
+			for (int i = 0; i < rounds; i++) {
+				Loan currentLoan = new Loan(book, patron, loanId, earlierDate, LoanState.CURRENT);
+				CyclicBarrier start = new CyclicBarrier(2);
+				Future<?> discharge = desks.submit(() -> {
+					start.await();
+					currentLoan.discharge(false);
+					return null;
+				});
+				Future<Boolean> overDue = desks.submit(() -> {
+					start.await();
+					return currentLoan.checkOverDue(laterDate);
+				});
+				discharge.get();
+				overDue.get();
+				// assert
+				assertEquals(LoanState.DISCHARGED, currentLoan.getState());
+			}
+		}
+		finally {
+			desks.shutdownNow();
+		}
+		verify(patron, times(rounds)).dischargeLoan(any());
+	}
 
 }
@@ -0,0 +1,192 @@
+package library.entities;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import library.entities.helpers.BookHelper;
+import library.entities.helpers.IBookHelper;
+import library.entities.helpers.ILoanHelper;
+import library.entities.helpers.IPatronHelper;
+import library.entities.helpers.LoanHelper;
+import library.entities.helpers.PatronHelper;
+import library.test.TestUtilities;
+
+@ExtendWith(MockitoExtension.class)
+@RunWith(MockitoJUnitRunner.class)
+class MappedLibrarySnapshotTest {
+
+	@TempDir Path directory;
+	
+	Path snapshotFile;
+	ILibrary library;
+	IBookHelper bookHelper;
+	IPatronHelper patronHelper;
+	ILoanHelper loanHelper;
+	IPatron patron;
+	IBook currentBook;
+	IBook damagedBook;
+
+	String author = "Stephen King";
+
+	@BeforeEach
+	void setUp() throws Exception {
+		snapshotFile = directory.resolve("library.snapshot");
+		bookHelper = new BookHelper();
+		patronHelper = new PatronHelper();
+		loanHelper = new LoanHelper();
+		library = new Library(bookHelper, patronHelper, loanHelper);
+		Calendar.getInstance().setDate(TestUtilities.dateOf(2020, 2, 20));
+
+		patron = library.addPatron("Mustermann", "Max", "max.mustermann@example.com", 198765432);
+		library.addPatron("Musterfrau", "Erika", "erika@example.com", 198765433);
+		currentBook = library.addBook(author, "The Shining", "call123");
+		damagedBook = library.addBook(author, "Carrie", "call456");
+		library.addBook(author, "It", "call789");
+		library.commitLoan(library.issueLoan(damagedBook, patron));
+		library.dischargeLoan(library.getCurrentLoanByBookId(damagedBook.getId()), true);
+		library.payFine(patron, ILibrary.DAMAGE_FEE);
+		library.commitLoan(library.issueLoan(currentBook, patron));
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+	}
+	
+	ILibrary writeAndOpen() throws Exception {
+		MappedLibrarySnapshot.write(library, 7L, snapshotFile);
+		return MappedLibrarySnapshot.open(snapshotFile, bookHelper, patronHelper, loanHelper).getLibrary();
+	}
+
+	@Test
+	void open_WrittenSnapshot_ReturnsSequence() throws Exception {
+		// arrange
+		MappedLibrarySnapshot.write(library, 7L, snapshotFile);
+		// act
+		long actual = MappedLibrarySnapshot.open(snapshotFile, bookHelper, patronHelper, loanHelper).getSequence();
+		// assert
+		assertTrue(MappedLibrarySnapshot.isMappedSnapshot(snapshotFile));
+		assertEquals(7L, actual);
+	}
+
+	@Test
+	void getBookById_OpenedSnapshot_DecodesBook() throws Exception {
+		// arrange
+		ILibrary actual = writeAndOpen();
+		// act
+		IBook book = actual.getBookById(currentBook.getId());
+		// assert
+		assertEquals("The Shining", book.getTitle());
+		assertEquals(author, book.getAuthor());
+		assertEquals("call123", book.getCallNumber());
+		assertTrue(book.isOnLoan());
+		assertSame(book, actual.getBookById(currentBook.getId()));
+		assertNull(actual.getBookById(99));
+	}
+
+	@Test
+	void getCurrentLoanByBookId_OpenedSnapshot_LinksSameInstances() throws Exception {
+		// arrange
+		ILibrary actual = writeAndOpen();
+		// act
+		ILoan loan = actual.getCurrentLoanByBookId(currentBook.getId());
+		// assert
+		IPatron actualPatron = actual.getPatronById(patron.getId());
+		assertSame(actualPatron, loan.getPatron());
+		assertSame(actual.getBookById(currentBook.getId()), loan.getBook());
+		assertEquals(1, actualPatron.getNumberOfCurrentLoans());
+		assertTrue(actualPatron.getLoans().contains(loan));
+		assertEquals(patron.getEmailAddress(), actualPatron.getEmailAddress());
+		assertEquals(patron.getFinesPayable(), actualPatron.getFinesPayable());
+	}
+
+	@Test
+	void getPatronById_LoanDecodedFirst_LinksSameInstances() throws Exception {
+		// arrange
+		ILibrary actual = writeAndOpen();
+		ILoan loan = actual.getCurrentLoanByBookId(currentBook.getId());
+		// act
+		IPatron actualPatron = actual.getPatronById(patron.getId());
+		// assert
+		assertSame(loan, actualPatron.getLoans().get(0));
+	}
+
+	@Test
+	void lists_OpenedSnapshotAfterMutations_IncludeSnapshotAndNewEntries() throws Exception {
+		// arrange
+		ILibrary actual = writeAndOpen();
+		IBook book = actual.addBook(author, "Misery", "call999");
+		// act
+		actual.dischargeLoan(actual.getCurrentLoanByBookId(currentBook.getId()), false);
+		actual.repairBook(actual.getBookById(damagedBook.getId()));
+		// assert
+		assertEquals(4, book.getId());
+		assertEquals(4, actual.getBookList().size());
+		assertEquals(2, actual.getPatronList().size());
+		assertEquals(2, actual.getAllLoansList().size());
+		assertTrue(actual.getCurrentLoansList().isEmpty());
+		assertNull(actual.getCurrentLoanByBookId(currentBook.getId()));
+		assertTrue(actual.getBookById(damagedBook.getId()).isAvailable());
+	}
+
+	@Test
+	void getBookList_OpenedSnapshot_HoldsDecodedBooksOnlyWhileInUse() throws Exception {
+		// arrange
+		Library actual = (Library) writeAndOpen();
+		LazyEntityMap<IBook> catalog = (LazyEntityMap<IBook>) actual.getCatalog();
+		List<IBook> books = actual.getBookList();
+		// act
+		IBook book = actual.getBookById(damagedBook.getId());
+		boolean sameWhileInUse = books.contains(book);
+		books = null;
+		book = null;
+		for (int i = 0; i < 10 && catalog.getResidentCount() > 0; i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		// assert
+		assertTrue(sameWhileInUse);
+		assertEquals(0, catalog.getResidentCount());
+		assertEquals("Carrie", actual.getBookById(damagedBook.getId()).getTitle());
+	}
+
+	@Test
+	void findPatrons_OpenedSnapshot_UsesStoredPatronIndexes() throws Exception {
+		// arrange
+		library.findPatrons(IPatron.PatronField.LAST_NAME, "x");
+		IPatron added = library.addPatron("Mustermann", "Moritz", "moritz@example.com", 198765432);
+		ILibrary actual = writeAndOpen();
+		// act
+		List<IPatron> found = actual.findPatrons(IPatron.PatronField.LAST_NAME, "MUSTERMANN");
+		IPatron later = actual.addPatron("Muster", "Anna", "anna@example.com", 5);
+		// assert
+		assertEquals(List.of(patron.getId(), added.getId()), found.stream().map(IPatron::getId).collect(Collectors.toList()));
+		assertEquals(4, actual.findPatronsByPrefix(IPatron.PatronField.LAST_NAME, "muster", 10).size());
+		assertEquals(2, actual.findPatronsByPhoneNumber(198765432).size());
+		assertEquals(List.of(later), actual.findPatronsByPhoneNumber(5));
+	}
+
+	@Test
+	void findPatrons_PatronAddedBeforeFirstLookup_SortsPatronsAfresh() throws Exception {
+		// arrange
+		ILibrary actual = writeAndOpen();
+		IPatron added = actual.addPatron("Mustermann", "Moritz", "moritz@example.com", 198765432);
+		// act
+		List<IPatron> found = actual.findPatrons(IPatron.PatronField.LAST_NAME, "mustermann");
+		// assert
+		assertEquals(List.of(patron.getId(), added.getId()), found.stream().map(IPatron::getId).collect(Collectors.toList()));
+		assertEquals(3, actual.findPatronsByPrefix(IPatron.PatronField.LAST_NAME, "muster", 10).size());
+	}
+
+}
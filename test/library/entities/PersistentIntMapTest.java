@@ -0,0 +1,100 @@
+package library.entities;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+@RunWith(MockitoJUnitRunner.class)
+class PersistentIntMapTest {
+
+	void assertMatches(Map<Integer, String> expected, PersistentIntMap<String> actual) {
+		assertEquals(expected.size(), actual.size());
+		assertEquals(expected, actual.asMap());
+		for (Map.Entry<Integer, String> entry : expected.entrySet()) {
+			assertEquals(entry.getValue(), actual.get(entry.getKey()));
+		}
+		assertEquals(new HashSet<>(expected.values()), new HashSet<>(actual.values()));
+	}
+
+	@Test
+	void put_RandomPutsAndRemoves_MatchesHashMapAndKeepsOldVersions() {
+		// arrange
+		Random random = new Random(18);
+		Map<Integer, String> expected = new HashMap<>();
+		PersistentIntMap<String> map = PersistentIntMap.empty();
+		List<Map<Integer, String>> oldExpected = new ArrayList<>();
+		List<PersistentIntMap<String>> oldMaps = new ArrayList<>();
+		// act
+		for (int i = 0; i < 50000; i++) {
+			// keys agreeing in their low bits share a path down the trie
+			int key = random.nextBoolean() ? random.nextInt(3000) : random.nextInt(16) << 20 | 7;
+			if (random.nextInt(3) == 0) {
+				expected.remove(key);
+				map = map.remove(key);
+			}
+			else {
+				expected.put(key, "v" + i);
+				map = map.put(key, "v" + i);
+			}
+			if (i % 5000 == 0) {
+				oldExpected.add(new HashMap<>(expected));
+				oldMaps.add(map);
+			}
+		}
+		// assert
+		assertMatches(expected, map);
+		for (int i = 0; i < oldMaps.size(); i++) {
+			assertMatches(oldExpected.get(i), oldMaps.get(i));
+		}
+		assertNull(map.get(-1));
+		assertNull(map.get(Integer.MIN_VALUE));
+	}
+
+	@Test
+	void copyOf_SparseAndNegativeKeys_MatchesMapBuiltByPuts() {
+		// arrange
+		Random random = new Random(5);
+		Map<Integer, String> expected = new HashMap<>();
+		for (int i = 0; i < 20000; i++) {
+			int key = random.nextInt(4) == 0 ? random.nextInt() : random.nextInt(30000);
+			expected.put(key, "v" + key);
+		}
+		// act
+		PersistentIntMap<String> copy = PersistentIntMap.copyOf(expected);
+		// assert
+		assertMatches(expected, copy);
+		for (Integer key : new ArrayList<>(expected.keySet()).subList(0, 10000)) {
+			expected.remove(key);
+			copy = copy.remove(key);
+		}
+		assertMatches(expected, copy);
+		assertEquals(0, PersistentIntMap.copyOf(new HashMap<Integer, String>()).size());
+	}
+
+	@Test
+	void put_SameValueAgain_ReturnsSameMap() {
+		// arrange
+		String value = "v";
+		PersistentIntMap<String> map = PersistentIntMap.<String>empty().put(1, value).put(33, "w");
+		// act
+		PersistentIntMap<String> again = map.put(1, value);
+		// assert
+		assertSame(map, again);
+		assertSame(map, map.remove(2));
+		assertEquals(1, map.remove(33).size());
+		assertEquals("w", map.get(33));
+	}
+
+}
@@ -0,0 +1,103 @@
+package library.entities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import library.entities.helpers.BookHelper;
+import library.entities.helpers.LoanHelper;
+import library.entities.helpers.PatronHelper;
+
+/**
+ * Circulation throughput and latency of PipelinedLibrary against
+ * ConcurrentLibrary, for 1 to 16 desks running the mixed borrow/return
+ * operation of ConcurrentLibraryBenchmark. Latencies are of whole desk
+ * operations, percentiles over every operation of the run.
+ *
+ * Not a unit test; run it with the test classpath:
+ *
+ *   java -cp target/classes:target/test-classes library.entities.PipelinedLibraryBenchmark [seconds]
+ */
+public class PipelinedLibraryBenchmark {
+
+	static final int[] DESKS = {1, 2, 4, 8, 16};
+	static final int MAX_SAMPLES = 1 << 22;
+
+	public static void main(String[] args) throws Exception {
+		long millis = args.length > 0 ? Long.parseLong(args[0]) * 1000 : 3000;
+		System.out.printf("%d processors, %d ms per run%n", Runtime.getRuntime().availableProcessors(), millis);
+		System.out.printf("%6s %-10s %12s %10s %10s %10s%n", "desks", "library", "ops/s", "p50 us", "p99 us",
+				"p99.9 us");
+		for (int desks : DESKS) {
+			ILibrary striped = ConcurrentLibraryBenchmark.populate(
+					new ConcurrentLibrary(new BookHelper(), new PatronHelper(), new LoanHelper()));
+			report(desks, "striped", run(striped, desks, millis));
+			try (PipelinedLibrary pipelined = new PipelinedLibrary((VersionedLibrary) ConcurrentLibraryBenchmark
+					.populate(new VersionedLibrary(new BookHelper(), new PatronHelper(), new LoanHelper())))) {
+				report(desks, "pipelined", run(pipelined, desks, millis));
+			}
+		}
+	}
+
+	static void report(int desks, String name, long[] nanos) {
+		long[] latencies = Arrays.copyOfRange(nanos, 1, nanos.length);
+		Arrays.sort(latencies);
+		System.out.printf("%6d %-10s %12.0f %10.1f %10.1f %10.1f%n", desks, name, latencies.length * 1e9 / nanos[0],
+				percentile(latencies, 0.5), percentile(latencies, 0.99), percentile(latencies, 0.999));
+	}
+
+	static double percentile(long[] sorted, double fraction) {
+		return sorted.length == 0 ? 0 : sorted[(int) Math.min(sorted.length - 1, sorted.length * fraction)] / 1000.0;
+	}
+
+	/* the run's length in nanoseconds, followed by the latency of each operation */
+	static long[] run(ILibrary library, int desks, long millis) throws Exception {
+		for (long end = System.currentTimeMillis() + millis / 3; System.currentTimeMillis() < end;) {
+			ConcurrentLibraryBenchmark.circulate(library);
+		}
+		CountDownLatch start = new CountDownLatch(1);
+		long[] deadline = new long[1];
+		long[][] samples = new long[desks][];
+		int[] counts = new int[desks];
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < desks; i++) {
+			int desk = i;
+			samples[desk] = new long[MAX_SAMPLES / desks];
+			Thread thread = new Thread(() -> {
+				try {
+					start.await();
+				}
+				catch (InterruptedException e) {
+					return;
+				}
+				long[] own = samples[desk];
+				int count = 0;
+				while (count < own.length && System.nanoTime() < deadline[0]) {
+					long began = System.nanoTime();
+					ConcurrentLibraryBenchmark.circulate(library);
+					own[count++] = System.nanoTime() - began;
+				}
+				counts[desk] = count;
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		long begin = System.nanoTime();
+		deadline[0] = begin + millis * 1_000_000;
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		long elapsed = System.nanoTime() - begin;
+		int total = Arrays.stream(counts).sum();
+		long[] result = new long[1 + total];
+		result[0] = elapsed;
+		for (int i = 0, at = 1; i < desks; i++) {
+			System.arraycopy(samples[i], 0, result, at, counts[i]);
+			at += counts[i];
+		}
+		return result;
+	}
+
+}
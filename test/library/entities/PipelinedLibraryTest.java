@@ -0,0 +1,202 @@
+package library.entities;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import library.entities.helpers.BookHelper;
+import library.entities.helpers.LoanHelper;
+import library.entities.helpers.PatronHelper;
+import library.test.TestUtilities;
+
+@ExtendWith(MockitoExtension.class)
+@RunWith(MockitoJUnitRunner.class)
+class PipelinedLibraryTest {
+
+	static final int THREADS = 4;
+
+	PipelinedLibrary library;
+	AtomicLong lastApplied;
+	ExecutorService desks;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		Calendar.getInstance().setDate(TestUtilities.dateOf(2020, 2, 20));
+		lastApplied = new AtomicLong(-1);
+		library = new PipelinedLibrary(new VersionedLibrary(new BookHelper(), new PatronHelper(), new LoanHelper()),
+				64, 16, lastApplied::set);
+		desks = Executors.newFixedThreadPool(THREADS);
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		desks.shutdownNow();
+		library.close();
+	}
+
+	@Test
+	void commitLoan_BookAlreadyOnLoan_ThrowsAndWriterCarriesOn() {
+		// arrange
+		IBook book = library.addBook("Stephen King", "The Shining", "call123");
+		IPatron patron = library.addPatron("Mustermann", "Max", "max@example.com", 198765432);
+		IPatron other = library.addPatron("Mustermann", "Erika", "max@example.com", 198765432);
+		ILoan loan = library.issueLoan(book, patron);
+		library.commitLoan(loan);
+		// act
+		RuntimeException thrown = assertThrows(RuntimeException.class,
+				() -> { library.commitLoan(library.issueLoan(book, other)); } );
+		library.dischargeLoan(loan, false);
+		// assert
+		assertEquals(RuntimeException.class, thrown.getClass());
+		assertTrue(book.isAvailable());
+		assertEquals(0, other.getNumberOfCurrentLoans());
+		assertEquals(1, library.getVersion().getLoanStream().count());
+		assertEquals(5, lastApplied.get());
+	}
+
+	@Test
+	void submit_ManyDesksAtOnce_AppliesEveryChangeOnceAndInEachDesksOrder() throws Exception {
+		// arrange
+		int perDesk = 500;
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<?>> futures = new ArrayList<>();
+		AtomicInteger desk = new AtomicInteger();
+		// act
+		for (int i = 0; i < THREADS; i++) {
+			futures.add(desks.submit(() -> {
+				int number = desk.incrementAndGet();
+				start.await();
+				for (int j = 0; j < perDesk; j++) {
+					library.addBook("Author " + number, "Title " + j, "call" + j);
+				}
+				return null;
+			}));
+		}
+		start.countDown();
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		// assert
+		List<IBook> books = library.getBookPage(0, THREADS * perDesk);
+		assertEquals(THREADS * perDesk, books.size());
+		int[] lastTitle = new int[THREADS + 1];
+		for (IBook book : books) {
+			int number = Integer.parseInt(book.getAuthor().substring("Author ".length()));
+			int title = Integer.parseInt(book.getTitle().substring("Title ".length()));
+			assertEquals(lastTitle[number], title);
+			lastTitle[number]++;
+		}
+		assertEquals(THREADS * perDesk - 1, lastApplied.get());
+		assertTrue(library.getBatchCount() <= THREADS * perDesk);
+	}
+
+	@Test
+	void dischargeLoan_DesksCirculateThroughWriter_KeepsLoansConsistent() throws Exception {
+		// arrange
+		int books = 50;
+		int patrons = 20;
+		for (int i = 0; i < books; i++) {
+			library.addBook("Stephen King", "Title " + i, "call" + i);
+		}
+		for (int i = 0; i < patrons; i++) {
+			library.addPatron("Mustermann", "Max" + i, "max@example.com", 198765432);
+		}
+		AtomicInteger seed = new AtomicInteger();
+		List<Future<?>> futures = new ArrayList<>();
+		// act
+		for (int i = 0; i < THREADS; i++) {
+			futures.add(desks.submit(() -> {
+				Random random = new Random(seed.incrementAndGet());
+				for (int op = 0; op < 2000; op++) {
+					IBook book = library.getBookById(1 + random.nextInt(books));
+					try {
+						ILoan loan = library.getCurrentLoanByBookId(book.getId());
+						if (loan != null) {
+							library.dischargeLoan(loan, false);
+						}
+						else {
+							IPatron patron = library.getPatronById(1 + random.nextInt(patrons));
+							library.commitLoan(library.issueLoan(book, patron));
+						}
+					}
+					catch (RuntimeException e) {
+						// another desk's change was applied first
+					}
+				}
+				return null;
+			}));
+		}
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		// assert
+		LibraryVersion version = library.getVersion();
+		int patronLoans = 0;
+		for (IPatron patron : library.getPatronList()) {
+			patronLoans += patron.getNumberOfCurrentLoans();
+		}
+		assertEquals(version.getCurrentLoanCount(), patronLoans);
+		for (IBook book : library.getBookList()) {
+			assertEquals(book.isOnLoan(), version.getCurrentLoanByBookId(book.getId()) != null);
+		}
+	}
+
+	@Test
+	void close_ChangesQueuedBefore_AppliesThemAndRejectsLaterOnes() {
+		// arrange
+		library.addBook("Stephen King", "The Shining", "call123");
+		// act
+		library.close();
+		// assert
+		assertThrows(RuntimeException.class, () -> { library.addBook("Stephen King", "Carrie", "call456"); } );
+		assertEquals(1, library.getVersion().getBookCount());
+		assertEquals(1, library.getBookList().size());
+	}
+
+	@Test
+	void submit_ChangeThrowsError_FailsThatCallAndWriterCarriesOn() {
+		// arrange
+		AssertionError error = new AssertionError("broken change");
+		// act
+		CompletableFuture<Object> future = library.submit(versioned -> { throw error; });
+		// assert
+		CompletionException thrown = assertThrows(CompletionException.class, future::join);
+		assertSame(error, thrown.getCause());
+		assertEquals(1, library.addBook("Stephen King", "The Shining", "call123").getId());
+	}
+
+	@Test
+	void addBook_BatchAppliedThrows_FailsBatchAndRejectsLaterChanges() {
+		// arrange
+		library.close();
+		RuntimeException failure = new RuntimeException("journal full");
+		library = new PipelinedLibrary(new VersionedLibrary(new BookHelper(), new PatronHelper(), new LoanHelper()),
+				64, 16, sequence -> { throw failure; });
+		// act
+		RuntimeException thrown = assertThrows(RuntimeException.class,
+				() -> { library.addBook("Stephen King", "The Shining", "call123"); } );
+		// assert
+		assertSame(failure, thrown);
+		assertThrows(RuntimeException.class, () -> { library.addBook("Stephen King", "Carrie", "call456"); } );
+		assertThrows(RuntimeException.class, () -> { library.submit(versioned -> null).join(); } );
+	}
+
+}
@@ -0,0 +1,113 @@
+package library.entities;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+
+import library.entities.helpers.BookHelper;
+import library.entities.helpers.LoanHelper;
+import library.entities.helpers.PatronHelper;
+
+/**
+ * Save and load times and file sizes of a synthetic library written with
+ * Java serialization, as LibraryFileHelper did before, and with
+ * LibrarySnapshotCodec. Every loan but the last one of each patron is
+ * discharged. Each format is saved and loaded twice and the second run is
+ * reported, after the JIT has compiled both.
+ *
+ * Not a unit test; run it with the test classpath and a heap large enough
+ * for the library, e.g. -Xmx5g for the defaults:
+ *
+ *   java -cp target/classes:target/test-classes library.entities.SnapshotCodecBenchmark [books] [patrons] [loans]
+ */
+public class SnapshotCodecBenchmark {
+
+	interface Format {
+		void save(Library library, OutputStream out) throws Exception;
+		Library load(InputStream in) throws Exception;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int books = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int patrons = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		int loans = args.length > 2 ? Integer.parseInt(args[2]) : 5000000;
+		Library library = populate(books, patrons, loans);
+		System.out.printf("%d books, %d patrons, %d loans, %d MB max heap%n", books, patrons, loans,
+				Runtime.getRuntime().maxMemory() >> 20);
+		System.out.printf("%-20s %10s %10s %10s%n", "format", "save s", "load s", "MB");
+		Path file = Files.createTempFile("library", ".bench");
+		try {
+			run("Java serialization", library, file, new Format() {
+				public void save(Library library, OutputStream out) throws Exception {
+					ObjectOutputStream objects = new ObjectOutputStream(out);
+					objects.writeObject(library);
+					objects.flush();
+				}
+
+				public Library load(InputStream in) throws Exception {
+					return (Library) new ObjectInputStream(in).readObject();
+				}
+			});
+			run("codec", library, file, new Format() {
+				public void save(Library library, OutputStream out) throws Exception {
+					LibrarySnapshotCodec.write(library, 0L, out);
+				}
+
+				public Library load(InputStream in) throws Exception {
+					return (Library) LibrarySnapshotCodec.read(in, new BookHelper(), new PatronHelper(),
+							new LoanHelper()).getLibrary();
+				}
+			});
+		}
+		finally {
+			Files.deleteIfExists(file);
+		}
+	}
+
+	static Library populate(int books, int patrons, int loans) {
+		Calendar.getInstance().setDate(new Date());
+		Library library = new Library(new BookHelper(), new PatronHelper(), new LoanHelper());
+		for (int i = 0; i < books; i++) {
+			library.addBook("Author " + i % 20000, "Title " + i, "call" + i);
+		}
+		for (int i = 0; i < patrons; i++) {
+			library.addPatron("Patron" + i, "Max", "patron" + i + "@example.com", 198765432L + i);
+		}
+		for (int i = 0; i < loans; i++) {
+			IBook book = library.getBookById(1 + i % books);
+			ILoan loan = library.issueLoan(book, library.getPatronById(1 + i % patrons));
+			library.commitLoan(loan);
+			if (i < loans - patrons) {
+				library.dischargeLoan(loan, false);
+			}
+		}
+		return library;
+	}
+
+	static void run(String name, Library library, Path file, Format format) throws Exception {
+		double save = 0;
+		double load = 0;
+		for (int round = 0; round < 2; round++) {
+			System.gc();
+			long began = System.nanoTime();
+			try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)) {
+				format.save(library, out);
+			}
+			save = (System.nanoTime() - began) / 1e9;
+			System.gc();
+			began = System.nanoTime();
+			try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 1 << 16)) {
+				format.load(in);
+			}
+			load = (System.nanoTime() - began) / 1e9;
+		}
+		System.out.printf("%-20s %10.1f %10.1f %10.0f%n", name, save, load, Files.size(file) / 1e6);
+	}
+
+}
@@ -0,0 +1,139 @@
+package library.entities;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+@RunWith(MockitoJUnitRunner.class)
+class SortedKeyIndexTest {
+
+	List<IBook> books;
+	Random random;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		books = new ArrayList<>();
+		random = new Random(5);
+	}
+
+	IBook makeBook(int id) {
+		String author = "Author " + (char) ('A' + random.nextInt(26)) + random.nextInt(50);
+		return new Book(author, "Title " + id, "call" + id, id);
+	}
+
+	SortedKeyIndex<String> authorIndex(List<IBook> books) {
+		return new SortedKeyIndex<>(books, IBook::getAuthor, IBook::getId, SortedKeyIndex.NATURAL_ORDER);
+	}
+
+	int[] expected(String from, SortedKeyIndex.Stop<String> stop, int limit) {
+		return books.stream()
+				.filter(book -> book.getAuthor().compareTo(from) >= 0 && !stop.isPast(book.getAuthor()))
+				.sorted(Comparator.comparing(IBook::getAuthor).thenComparingInt(IBook::getId))
+				.limit(limit)
+				.mapToInt(IBook::getId)
+				.toArray();
+	}
+
+	@Test
+	void find_BuiltAndAddedBooks_MatchesScan() {
+		// arrange
+		for (int id = 1; id <= 3000; id++) {
+			books.add(makeBook(id));
+		}
+		SortedKeyIndex<String> index = authorIndex(books);
+		for (int id = 3001; id <= 6000; id++) {
+			IBook book = makeBook(id);
+			books.add(book);
+			index.add(book.getAuthor(), id);
+		}
+		// act
+		// assert
+		for (int i = 0; i < 200; i++) {
+			String prefix = "Author " + (char) ('A' + random.nextInt(26)) + random.nextInt(10);
+			SortedKeyIndex.Stop<String> pastPrefix = key -> !key.startsWith(prefix);
+			assertArrayEquals(expected(prefix, pastPrefix, Integer.MAX_VALUE), index.find(prefix, pastPrefix, Integer.MAX_VALUE));
+			assertArrayEquals(expected(prefix, pastPrefix, 7), index.find(prefix, pastPrefix, 7));
+		}
+		SortedKeyIndex.Stop<String> pastRange = key -> key.compareTo("Author C") >= 0;
+		assertArrayEquals(expected("Author B", pastRange, 100000), index.find("Author B", pastRange, 100000));
+	}
+
+	@Test
+	void ids_AwkwardKeys_SortedAsTheirComparator() {
+		// arrange
+		char[] chars = {'a', 'A', 'b', 'z', '\0', '\u00b5', '\u00ff', '\u0178', '\u03bc', '\u039c', '\u4e2d'};
+		List<String> keys = new ArrayList<>();
+		for (int i = 0; i < 5000; i++) {
+			StringBuilder key = new StringBuilder();
+			for (int length = random.nextInt(11); length > 0; length--) {
+				key.append(chars[random.nextInt(chars.length)]);
+			}
+			keys.add(key.toString());
+		}
+		List<Integer> positions = new ArrayList<>();
+		for (int i = 0; i < keys.size(); i++) {
+			positions.add(i);
+		}
+		for (SortedKeyIndex.Order<String> order : List.of(SortedKeyIndex.NATURAL_ORDER, SortedKeyIndex.CASE_INSENSITIVE_ORDER)) {
+			// act
+			int[] ids = new SortedKeyIndex<>(positions, keys::get, Integer::intValue, order).ids();
+			// assert
+			int[] expected = positions.stream()
+					.sorted(Comparator.comparing(keys::get, order.comparator).thenComparingInt(Integer::intValue))
+					.mapToInt(Integer::intValue)
+					.toArray();
+			assertArrayEquals(expected, ids);
+		}
+	}
+
+	@Test
+	void add_BookAlreadyIndexed_IsNotIndexedTwice() {
+		// arrange
+		IBook book = new Book("Stephen King", "The Shining", "call123", 1);
+		books.add(book);
+		SortedKeyIndex<String> index = authorIndex(books);
+		// act
+		index.add(book.getAuthor(), book.getId());
+		// assert
+		assertArrayEquals(new int[] {1}, index.find("Stephen King", key -> !key.equals("Stephen King"), 10));
+		for (int id = 2; id <= 2000; id++) {
+			index.add("Author " + id, id);
+		}
+		assertArrayEquals(new int[] {1}, index.find("Stephen King", key -> !key.equals("Stephen King"), 10));
+		assertEquals(2000, index.ids().length);
+	}
+
+	@Test
+	void ids_RestoredInOrder_IndexMatchesOriginal() {
+		// arrange
+		for (int id = 1; id <= 3000; id++) {
+			books.add(makeBook(id));
+		}
+		SortedKeyIndex<String> original = new SortedKeyIndex<>(books, IBook::getAuthor, IBook::getId, SortedKeyIndex.CASE_INSENSITIVE_ORDER);
+		original.add("author a1", 3001);
+		int[] ids = original.ids();
+		String[] keys = new String[ids.length];
+		for (int i = 0; i < ids.length; i++) {
+			keys[i] = ids[i] == 3001 ? "author a1" : books.get(ids[i] - 1).getAuthor();
+		}
+		// act
+		SortedKeyIndex<String> restored = new SortedKeyIndex<>(keys, ids, SortedKeyIndex.CASE_INSENSITIVE_ORDER);
+		// assert
+		SortedKeyIndex.Stop<String> pastKey = key -> !key.equalsIgnoreCase("AUTHOR A1");
+		int[] found = restored.find("AUTHOR A1", pastKey, 100);
+		assertArrayEquals(original.find("AUTHOR A1", pastKey, 100), found);
+		assertEquals(3001, found[found.length - 1]);
+	}
+
+}
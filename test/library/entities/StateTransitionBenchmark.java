@@ -0,0 +1,120 @@
+package library.entities;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contention on the compareAndSet state machines of Book and Loan, for 1 to
+ * 8 threads sharing a few books with no lock around them. Each attempt picks
+ * a book and lends it if it looks available, or discharges its loan if it
+ * looks on loan. An attempt fails when another thread changed the book first
+ * and the transition throws.
+ *
+ * Reports successful transitions per second and the share of attempts that
+ * failed. The cost of a failed transition, mostly that of creating its
+ * RuntimeException, is timed first on one thread, as timing the failures
+ * under contention would mostly measure threads being descheduled.
+ *
+ * Not a unit test; run it with the test classpath:
+ *
+ *   java -cp target/classes:target/test-classes library.entities.StateTransitionBenchmark [seconds]
+ */
+public class StateTransitionBenchmark {
+
+	static final int[] BOOKS = {4, 64};
+	static final int[] THREADS = {1, 2, 4, 8};
+
+	public static void main(String[] args) throws Exception {
+		long millis = args.length > 0 ? Long.parseLong(args[0]) * 1000 : 2000;
+		System.out.printf("%d processors, %d ms per run%n", Runtime.getRuntime().availableProcessors(), millis);
+		System.out.printf("%.0f ns per failed transition%n", failureNanos(millis));
+		System.out.printf("%6s %8s %16s %10s%n", "books", "threads", "transitions/s", "failed");
+		for (int books : BOOKS) {
+			for (int threads : THREADS) {
+				run(books, threads, millis);
+			}
+		}
+	}
+
+	/* mean time of a transition that throws because the book is in the wrong state */
+	static double failureNanos(long millis) {
+		Book book = new Book("Author", "Title", "call", 1);
+		long failures = 0;
+		long begin = System.nanoTime();
+		for (long end = begin + millis * 1_000_000; System.nanoTime() < end;) {
+			try {
+				book.repair();
+			}
+			catch (RuntimeException e) {
+				failures++;
+			}
+		}
+		return (double) (System.nanoTime() - begin) / failures;
+	}
+
+	static void run(int bookCount, int threads, long millis) throws Exception {
+		Book[] books = new Book[bookCount];
+		ILoan[] loans = new ILoan[bookCount];
+		for (int i = 0; i < bookCount; i++) {
+			books[i] = new Book("Author", "Title " + i, "call" + i, i + 1);
+		}
+		LongAdder transitions = new LongAdder();
+		LongAdder failures = new LongAdder();
+		CountDownLatch start = new CountDownLatch(1);
+		long[] deadline = new long[1];
+		List<Thread> workers = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			IPatron patron = new Patron("Patron" + t, "Max", "max@example.com", 198765432, t + 1);
+			Thread worker = new Thread(() -> {
+				try {
+					start.await();
+				}
+				catch (InterruptedException e) {
+					return;
+				}
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				long succeeded = 0;
+				int loanId = 0;
+				while (System.nanoTime() < deadline[0]) {
+					int i = random.nextInt(bookCount);
+					Book book = books[i];
+					try {
+						if (book.isAvailable()) {
+							ILoan loan = new Loan(book, patron);
+							loan.commit(++loanId, null);
+							loans[i] = loan;
+						}
+						else {
+							ILoan loan = loans[i];
+							if (loan == null || loan.getPatron() != patron) {
+								continue;
+							}
+							loan.discharge(false);
+						}
+						succeeded++;
+					}
+					catch (RuntimeException e) {
+						failures.increment();
+					}
+				}
+				transitions.add(succeeded);
+			});
+			worker.start();
+			workers.add(worker);
+		}
+		long begin = System.nanoTime();
+		deadline[0] = begin + millis * 1_000_000;
+		start.countDown();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		double nanos = System.nanoTime() - begin;
+		long attempts = transitions.sum() + failures.sum();
+		System.out.printf("%6d %8d %16.0f %9.4f%%%n", bookCount, threads, transitions.sum() / (nanos / 1e9),
+				100.0 * failures.sum() / Math.max(1, attempts));
+	}
+
+}
@@ -0,0 +1,105 @@
+package library.entities;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+@RunWith(MockitoJUnitRunner.class)
+class TextIndexTest {
+
+	List<IBook> books;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		books = new ArrayList<>();
+		books.add(new Book("Stephen King", "The Shining", "call1", 1));
+		books.add(new Book("Stephen King", "Doctor Sleep", "call2", 2));
+		books.add(new Book("Stephen Fry", "Moab Is My Washpot", "call3", 3));
+		books.add(new Book("Flann O'Brien", "The Third Policeman", "call4", 4));
+		books.add(new Book("Gabriel Garc\u00eda M\u00e1rquez", "One Hundred Years of Solitude", "call5", 5));
+	}
+
+	@Test
+	void tokens_MixedText_AreNormalized() {
+		// arrange
+		// act
+		List<String> tokens = TextIndex.tokens("Gabriel Garc\u00eda-M\u00e1rquez: O\u2019Brien's 2nd");
+		// assert
+		assertEquals(List.of("gabriel", "garcia", "marquez", "obriens", "2nd"), tokens);
+	}
+
+	@Test
+	void search_SeveralWords_RanksBooksMatchingMoreWordsFirst() {
+		// arrange
+		TextIndex index = new TextIndex(books);
+		// act
+		int[] found = index.search("stephen king shining", 10, null);
+		// assert
+		assertArrayEquals(new int[] {1, 2, 3}, found);
+		assertArrayEquals(new int[] {1, 2}, index.search("stephen king shining", 2, null));
+		assertArrayEquals(new int[] {4}, index.search("obrien", 10, null));
+		assertArrayEquals(new int[] {5}, index.search("MARQUEZ", 10, null));
+		assertArrayEquals(new int[0], index.search("zombies", 10, null));
+	}
+
+	@Test
+	void search_Filter_LeavesOutRejectedBooks() {
+		// arrange
+		TextIndex index = new TextIndex(books);
+		// act
+		int[] found = index.search("stephen king", 2, id -> id != 1);
+		// assert
+		assertArrayEquals(new int[] {2, 3}, found);
+	}
+
+	@Test
+	void search_Limit_MatchesTopOfFullRanking() {
+		// arrange
+		Random random = new Random(3);
+		String[] words = {"red", "green", "blue", "cat", "dog", "night", "day", "sea", "war", "peace", "stone", "fire"};
+		for (int id = 6; id <= 3000; id++) {
+			StringBuilder title = new StringBuilder();
+			for (int i = 1 + random.nextInt(6); i > 0; i--) {
+				title.append(words[Math.min(random.nextInt(words.length), random.nextInt(words.length))]).append(' ');
+			}
+			books.add(new Book("Author " + random.nextInt(100), title.toString(), "call" + id, id));
+		}
+		TextIndex index = new TextIndex(books);
+		// act
+		// assert
+		for (int i = 0; i < 100; i++) {
+			String query = words[random.nextInt(words.length)] + " " + words[random.nextInt(words.length)] + " " + random.nextInt(100);
+			int[] all = index.search(query, Integer.MAX_VALUE, null);
+			assertArrayEquals(Arrays.copyOf(all, Math.min(7, all.length)), index.search(query, 7, null));
+		}
+	}
+
+	@Test
+	void add_BooksOutOfIdOrder_AreFoundOnce() {
+		// arrange
+		TextIndex index = new TextIndex(books);
+		IBook later = new Book("Stephen King", "Carrie", "call7", 7);
+		IBook earlier = new Book("Stephen King", "Misery", "call6", 6);
+		// act
+		index.add(later);
+		index.add(earlier);
+		index.add(earlier);
+		// assert
+		assertArrayEquals(new int[] {6}, index.search("misery", 10, null));
+		int[] found = index.search("king", 10, null);
+		assertEquals(4, found.length);
+		assertArrayEquals(new int[] {1, 2, 6, 7}, Arrays.stream(found).sorted().toArray());
+	}
+
+}
@@ -0,0 +1,127 @@
+package library.entities;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+import library.entities.helpers.BookHelper;
+import library.entities.helpers.LoanHelper;
+import library.entities.helpers.PatronHelper;
+
+/**
+ * Report throughput while desks commit and discharge loans, for 1 to 8
+ * desks and 2 report readers. A report walks every current loan and looks
+ * up its book and patron in the same state of the library.
+ *
+ * Three ways of reading are compared: a Library behind one lock, which the
+ * desks and reports share, so a report stops circulation while it runs; a
+ * ConcurrentLibrary read without locks, which is fast but may see half of
+ * an operation; and VersionedLibrary, whose reports read the version
+ * current when they start.
+ *
+ * Not a unit test; run it with the test classpath:
+ *
+ *   java -cp target/classes:target/test-classes library.entities.VersionedLibraryBenchmark [seconds]
+ */
+public class VersionedLibraryBenchmark {
+
+	static final int READERS = 2;
+	static final int[] DESKS = {1, 2, 4, 8};
+
+	interface Report {
+		long read();
+	}
+
+	public static void main(String[] args) throws Exception {
+		long millis = args.length > 0 ? Long.parseLong(args[0]) * 1000 : 3000;
+		System.out.printf("%d processors, %d ms per run, %d readers%n", Runtime.getRuntime().availableProcessors(),
+				millis, READERS);
+		System.out.printf("%6s %14s %14s %14s %14s %14s %14s%n", "desks", "locked ops/s", "reports/s",
+				"striped ops/s", "reports/s", "versioned/s", "reports/s");
+		for (int desks : DESKS) {
+			Library locked = ConcurrentLibraryBenchmark.populate(
+					new Library(new BookHelper(), new PatronHelper(), new LoanHelper()));
+			double[] single = run(desks, millis, () -> {
+				synchronized (locked) {
+					ConcurrentLibraryBenchmark.circulate(locked);
+				}
+			}, () -> {
+				synchronized (locked) {
+					return report(locked.getCurrentLoans().values(), locked::getBookById, locked::getPatronById);
+				}
+			});
+			ConcurrentLibrary striped = (ConcurrentLibrary) ConcurrentLibraryBenchmark.populate(
+					new ConcurrentLibrary(new BookHelper(), new PatronHelper(), new LoanHelper()));
+			double[] unlocked = run(desks, millis, () -> ConcurrentLibraryBenchmark.circulate(striped),
+					() -> report(striped.getCurrentLoans().values(), striped::getBookById, striped::getPatronById));
+			VersionedLibrary versioned = (VersionedLibrary) ConcurrentLibraryBenchmark.populate(
+					new VersionedLibrary(new BookHelper(), new PatronHelper(), new LoanHelper()));
+			double[] snapshot = run(desks, millis, () -> ConcurrentLibraryBenchmark.circulate(versioned), () -> {
+				LibraryVersion version = versioned.getVersion();
+				return report(version.getCurrentLoanStream()::iterator, version::getBookById, version::getPatronById);
+			});
+			System.out.printf("%6d %14.0f %14.1f %14.0f %14.1f %14.0f %14.1f%n", desks, single[0], single[1],
+					unlocked[0], unlocked[1], snapshot[0], snapshot[1]);
+		}
+	}
+
+	interface Lookup<T> {
+		T byId(int id);
+	}
+
+	static long report(Iterable<ILoan> currentLoans, Lookup<IBook> books, Lookup<IPatron> patrons) {
+		long found = 0;
+		for (ILoan loan : currentLoans) {
+			if (books.byId(loan.getBook().getId()) != null && patrons.byId(loan.getPatron().getId()) != null) {
+				found++;
+			}
+		}
+		return found;
+	}
+
+	/* circulation operations per second and reports per second */
+	static double[] run(int desks, long millis, Runnable desk, Report report) throws Exception {
+		for (long end = System.currentTimeMillis() + millis / 3; System.currentTimeMillis() < end;) {
+			desk.run();
+		}
+		LongAdder operations = new LongAdder();
+		LongAdder reports = new LongAdder();
+		CountDownLatch start = new CountDownLatch(1);
+		long[] deadline = new long[1];
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < desks + READERS; i++) {
+			boolean reader = i >= desks;
+			Thread thread = new Thread(() -> {
+				try {
+					start.await();
+				}
+				catch (InterruptedException e) {
+					return;
+				}
+				long count = 0;
+				while (System.nanoTime() < deadline[0]) {
+					if (reader) {
+						report.read();
+					}
+					else {
+						desk.run();
+					}
+					count++;
+				}
+				(reader ? reports : operations).add(count);
+			});
+			thread.start();
+			threads.add(thread);
+		}
+		long begin = System.nanoTime();
+		deadline[0] = begin + millis * 1_000_000;
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		double seconds = (System.nanoTime() - begin) / 1e9;
+		return new double[] {operations.sum() / seconds, reports.sum() / seconds};
+	}
+
+}
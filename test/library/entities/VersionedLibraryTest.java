@@ -0,0 +1,164 @@
+package library.entities;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import library.entities.helpers.BookHelper;
+import library.entities.helpers.LoanHelper;
+import library.entities.helpers.PatronHelper;
+import library.test.TestUtilities;
+
+@ExtendWith(MockitoExtension.class)
+@RunWith(MockitoJUnitRunner.class)
+class VersionedLibraryTest {
+
+	static final int THREADS = 4;
+
+	VersionedLibrary library;
+	ExecutorService desks;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		Calendar.getInstance().setDate(TestUtilities.dateOf(2020, 2, 20));
+		library = new VersionedLibrary(new BookHelper(), new PatronHelper(), new LoanHelper());
+		desks = Executors.newFixedThreadPool(THREADS + 1);
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		desks.shutdownNow();
+	}
+
+	@Test
+	void getVersion_TakenBeforeLoansChange_IsUnchanged() {
+		// arrange
+		IBook book = library.addBook("Stephen King", "The Shining", "call123");
+		IPatron patron = library.addPatron("Mustermann", "Max", "max@example.com", 198765432);
+		LibraryVersion before = library.getVersion();
+		// act
+		ILoan loan = library.issueLoan(book, patron);
+		library.commitLoan(loan);
+		LibraryVersion lent = library.getVersion();
+		library.dischargeLoan(loan, true);
+		LibraryVersion returned = library.getVersion();
+		// assert
+		assertNull(before.getCurrentLoanByBookId(book.getId()));
+		assertEquals(0, before.getLoanStream().count());
+		assertSame(loan, lent.getCurrentLoanByBookId(book.getId()));
+		assertSame(loan, lent.getLoanById(loan.getId()));
+		assertFalse(lent.isDamaged(book.getId()));
+		assertNull(returned.getCurrentLoanByBookId(book.getId()));
+		assertTrue(returned.isDamaged(book.getId()));
+		assertEquals(1, returned.getBookCount());
+		assertSame(book, returned.getBookById(book.getId()));
+	}
+
+	@Test
+	void copy_LoadedLibrary_KeepsEntitiesAndIds() {
+		// arrange
+		Library loaded = new Library(new BookHelper(), new PatronHelper(), new LoanHelper());
+		for (int i = 0; i < 100; i++) {
+			loaded.addBook("Stephen King", "Title " + i, "call" + i);
+		}
+		IPatron patron = loaded.addPatron("Mustermann", "Max", "max@example.com", 198765432);
+		loaded.commitLoan(loaded.issueLoan(loaded.getBookById(7), patron));
+		// act
+		VersionedLibrary copy = new VersionedLibrary(loaded, new BookHelper(), new PatronHelper(), new LoanHelper());
+		IBook added = copy.addBook("Stephen King", "Carrie", "call100");
+		// assert
+		assertEquals(101, added.getId());
+		assertEquals(101, copy.getBookList().size());
+		assertSame(loaded.getBookById(50), copy.getBookById(50));
+		assertEquals(1, copy.getVersion().getCurrentLoanCount());
+		assertNotNull(copy.getCurrentLoanByBookId(7));
+	}
+
+	@Test
+	void getVersion_ReadWhileDesksCirculate_NeverShowsHalfAnOperation() throws Exception {
+		// arrange
+		int books = 100;
+		int patrons = 40;
+		for (int i = 0; i < books; i++) {
+			library.addBook("Stephen King", "Title " + i, "call" + i);
+		}
+		for (int i = 0; i < patrons; i++) {
+			library.addPatron("Mustermann", "Max" + i, "max@example.com", 198765432);
+		}
+		AtomicInteger seed = new AtomicInteger();
+		AtomicBoolean circulating = new AtomicBoolean(true);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<?>> futures = new ArrayList<>();
+		// act
+		for (int i = 0; i < THREADS; i++) {
+			futures.add(desks.submit(() -> {
+				start.await();
+				Random random = new Random(seed.incrementAndGet());
+				for (int op = 0; op < 5000; op++) {
+					IBook book = library.getBookById(1 + random.nextInt(books));
+					try {
+						ILoan loan = library.getCurrentLoanByBookId(book.getId());
+						if (library.getVersion().isDamaged(book.getId())) {
+							library.repairBook(book);
+						}
+						else if (loan != null) {
+							library.dischargeLoan(loan, random.nextInt(4) == 0);
+						}
+						else {
+							IPatron patron = library.getPatronById(1 + random.nextInt(patrons));
+							library.commitLoan(library.issueLoan(book, patron));
+						}
+					}
+					catch (RuntimeException e) {
+						// lost a race with another desk
+					}
+				}
+				return null;
+			}));
+		}
+		Future<Integer> reader = desks.submit(() -> {
+			start.await();
+			int checked = 0;
+			while (circulating.get() || checked == 0) {
+				LibraryVersion version = library.getVersion();
+				version.getCurrentLoanStream().forEach(loan -> {
+					assertSame(loan, version.getLoanById(loan.getId()));
+					assertFalse(version.isDamaged(loan.getBook().getId()));
+				});
+				assertEquals(version.getCurrentLoanCount(), version.getCurrentLoanStream().count());
+				checked++;
+			}
+			return checked;
+		});
+		start.countDown();
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		circulating.set(false);
+		// assert
+		assertTrue(reader.get() > 0);
+		LibraryVersion last = library.getVersion();
+		assertEquals(library.getCurrentlyIssuingLoanId() - 1, last.getLoanStream().count());
+		for (IBook book : library.getBookList()) {
+			assertEquals(book.isOnLoan(), last.getCurrentLoanByBookId(book.getId()) != null);
+			assertEquals(!book.isAvailable() && !book.isOnLoan(), last.isDamaged(book.getId()));
+		}
+	}
+
+}
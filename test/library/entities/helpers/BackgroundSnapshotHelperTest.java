@@ -0,0 +1,156 @@
+package library.entities.helpers;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import library.entities.Calendar;
+import library.entities.IBook;
+import library.entities.ILibrary;
+import library.entities.IPatron;
+import library.test.TestUtilities;
+
+@ExtendWith(MockitoExtension.class)
+@RunWith(MockitoJUnitRunner.class)
+class BackgroundSnapshotHelperTest {
+
+	@TempDir Path directory;
+
+	BackgroundSnapshotHelper helper;
+	String snapshotFile;
+	AtomicLong clock;
+	ILibrary library;
+
+	String author = "Stephen King";
+	String title = "The Shining";
+	String callNumber = "call123";
+
+	@BeforeEach
+	void setUp() throws Exception {
+		snapshotFile = directory.resolve("library.image").toString();
+		clock = new AtomicLong(1_000_000L);
+		Calendar.getInstance().setDate(TestUtilities.dateOf(2020, 2, 20));
+		helper = makeHelper(new SnapshotPolicy(3, 60_000));
+		library = helper.loadLibrary();
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		helper.close(null);
+	}
+
+	BackgroundSnapshotHelper makeHelper(SnapshotPolicy policy) {
+		return new BackgroundSnapshotHelper(new BookHelper(), new PatronHelper(), new LoanHelper(),
+				snapshotFile, policy, clock::get);
+	}
+
+	ILibrary reload() {
+		helper.close(null);
+		helper = makeHelper(new SnapshotPolicy(3, 60_000));
+		return helper.loadLibrary();
+	}
+
+	void addBooks(int count) {
+		for (int i = 0; i < count; i++) {
+			library.addBook(author, title, callNumber + i);
+			helper.saveLibrary(library);
+		}
+	}
+
+	@Test
+	void saveLibrary_BelowMutationLimit_WritesNoSnapshot() {
+		// arrange
+		// act
+		addBooks(2);
+		helper.awaitSnapshot();
+		// assert
+		assertFalse(Files.exists(Paths.get(snapshotFile)));
+		assertEquals(2, helper.getMetrics().getMutationsBehind());
+	}
+
+	@Test
+	void saveLibrary_MutationLimitReached_WritesSnapshot() {
+		// arrange
+		// act
+		addBooks(3);
+		helper.awaitSnapshot();
+		long written = helper.getMetrics().getSnapshotsWritten();
+		ILibrary actual = reload();
+		// assert
+		assertEquals(1, written);
+		assertEquals(3, actual.getBookList().size());
+	}
+
+	@Test
+	void saveLibrary_IntervalElapsed_WritesSnapshot() {
+		// arrange
+		addBooks(1);
+		clock.addAndGet(60_000);
+		// act
+		addBooks(1);
+		helper.awaitSnapshot();
+		SnapshotMetrics actual = helper.getMetrics();
+		// assert
+		assertEquals(1, actual.getSnapshotsWritten());
+		assertEquals(0, actual.getMutationsBehind());
+		assertEquals(0, actual.getStalenessMillis());
+		assertEquals(clock.get(), actual.getLastSnapshotTime());
+	}
+
+	@Test
+	void getMetrics_MutationsAfterSnapshot_ReportsStaleness() {
+		// arrange
+		addBooks(3);
+		helper.awaitSnapshot();
+		clock.addAndGet(1_000);
+		addBooks(1);
+		clock.addAndGet(500);
+		// act
+		SnapshotMetrics actual = helper.getMetrics();
+		// assert
+		assertEquals(1, actual.getMutationsBehind());
+		assertEquals(500, actual.getStalenessMillis());
+		assertFalse(actual.isWriteInProgress());
+	}
+
+	@Test
+	void snapshot_LibraryChangedAfterCapture_WritesCapturedState() {
+		// arrange
+		IPatron patron = library.addPatron("Mustermann", "Max", "max.mustermann@example.com", 198765432);
+		IBook book = library.addBook(author, title, callNumber);
+		// act
+		helper.snapshot(library);
+		library.commitLoan(library.issueLoan(book, patron));
+		library.addBook(author, "Carrie", "call456");
+		helper.awaitSnapshot();
+		ILibrary actual = reload();
+		// assert
+		assertEquals(1, actual.getBookList().size());
+		assertTrue(actual.getBookById(book.getId()).isAvailable());
+		assertNull(actual.getCurrentLoanByBookId(book.getId()));
+	}
+
+	@Test
+	void close_MutationsPending_WritesFinalSnapshot() {
+		// arrange
+		addBooks(2);
+		// act
+		helper.close(library);
+		ILibrary actual = reload();
+		// assert
+		assertEquals(2, actual.getBookList().size());
+	}
+
+}
@@ -0,0 +1,92 @@
+package library.entities.helpers;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import library.entities.ILibrary;
+
+/**
+ * Commits per second of LibraryJournalHelper for 1 to 64 writers, each
+ * adding a book and saving the library in a loop: forcing the journal on
+ * every save, and with group commit at a batch delay of 0 and 1 ms. The
+ * journal lives in a temporary directory, so run it on the file system
+ * being measured, e.g. with -Djava.io.tmpdir.
+ *
+ * Not a unit test; run it with the test classpath:
+ *
+ *   java -cp target/classes:target/test-classes library.entities.helpers.GroupCommitBenchmark [seconds]
+ */
+public class GroupCommitBenchmark {
+
+	static final int[] WRITERS = {1, 4, 16, 64};
+	static final int MAX_BATCH_SIZE = 64;
+
+	public static void main(String[] args) throws Exception {
+		long millis = args.length > 0 ? Long.parseLong(args[0]) * 1000 : 3000;
+		System.out.printf("%d processors, %d ms per run%n", Runtime.getRuntime().availableProcessors(), millis);
+		System.out.printf("%8s %16s %14s %14s%n", "writers", "fsync per save", "group, 0 ms", "group, 1 ms");
+		for (int writers : WRITERS) {
+			double single = run(writers, millis, -1);
+			double group = run(writers, millis, 0);
+			double delayed = run(writers, millis, 1);
+			System.out.printf("%8d %16.0f %14.0f %14.0f%n", writers, single, group, delayed);
+		}
+	}
+
+	/* commits per second; a negative delay forces the journal on every save */
+	static double run(int writers, long millis, long delayMillis) throws Exception {
+		Path directory = Files.createTempDirectory("group-commit");
+		LibraryJournalHelper helper = new LibraryJournalHelper(new BookHelper(), new PatronHelper(), new LoanHelper(),
+				directory.resolve("library.snapshot").toString(), directory.resolve("library.journal").toString(),
+				LibraryJournalHelper.DEFAULT_CHECKPOINT_THRESHOLD);
+		try {
+			if (delayMillis >= 0) {
+				helper.enableGroupCommit(delayMillis, TimeUnit.MILLISECONDS, MAX_BATCH_SIZE);
+			}
+			ILibrary library = helper.loadLibrary();
+			LongAdder commits = new LongAdder();
+			CountDownLatch start = new CountDownLatch(1);
+			long[] deadline = new long[1];
+			List<Thread> threads = new ArrayList<>();
+			for (int i = 0; i < writers; i++) {
+				int writer = i;
+				Thread thread = new Thread(() -> {
+					try {
+						start.await();
+					}
+					catch (InterruptedException e) {
+						return;
+					}
+					for (int n = 0; System.nanoTime() < deadline[0]; n++) {
+						library.addBook("Author " + writer, "Title " + n, "call" + n);
+						helper.saveLibrary(library);
+						commits.increment();
+					}
+				});
+				thread.start();
+				threads.add(thread);
+			}
+			long begin = System.nanoTime();
+			deadline[0] = begin + millis * 1_000_000;
+			start.countDown();
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			return commits.sum() * 1e9 / (System.nanoTime() - begin);
+		}
+		finally {
+			helper.close();
+			try (Stream<Path> files = Files.walk(directory)) {
+				files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+			}
+		}
+	}
+
+}
@@ -0,0 +1,96 @@
+package library.entities.helpers;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+@RunWith(MockitoJUnitRunner.class)
+class GroupCommitterTest {
+
+	@TempDir Path directory;
+
+	LibraryJournal journal;
+	GroupCommitter committer;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		journal = LibraryJournal.open(directory.resolve("library.journal"));
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		if (committer != null) {
+			committer.close();
+		}
+		journal.close();
+	}
+
+	long append(int i) {
+		return journal.append(LibraryMutation.addBook("Stephen King", "Title " + i, "call" + i));
+	}
+
+	@Test
+	void commit_ConcurrentCallersFillBatch_CommitsThemWithOneForce() throws Exception {
+		// arrange
+		int callers = 8;
+		committer = new GroupCommitter(journal, 10, TimeUnit.SECONDS, callers);
+		ExecutorService desks = Executors.newFixedThreadPool(callers);
+		List<Future<Long>> results = new ArrayList<>();
+		// act
+		for (int i = 0; i < callers; i++) {
+			int book = i;
+			results.add(desks.submit(() -> committer.commit(append(book)).get(5, TimeUnit.SECONDS)));
+		}
+		for (Future<Long> result : results) {
+			result.get(5, TimeUnit.SECONDS);
+		}
+		desks.shutdown();
+		// assert
+		assertEquals(1, committer.getBatchCount());
+		assertEquals(callers, committer.getCommitCount());
+		assertEquals(callers, committer.getDurableSequence());
+	}
+
+	@Test
+	void commit_SequenceAlreadyDurable_CompletesImmediately() {
+		// arrange
+		committer = new GroupCommitter(journal, 0, TimeUnit.MILLISECONDS, 16);
+		long sequence = append(1);
+		committer.commit(sequence).join();
+		// act
+		CompletableFuture<Long> actual = committer.commit(sequence);
+		// assert
+		assertTrue(actual.isDone());
+		assertEquals(1, committer.getBatchCount());
+	}
+
+	@Test
+	void close_RequestWaitingForBatch_CommitsIt() throws Exception {
+		// arrange
+		committer = new GroupCommitter(journal, 10, TimeUnit.SECONDS, 16);
+		CompletableFuture<Long> pending = committer.commit(append(1));
+		// act
+		committer.close();
+		// assert
+		assertEquals(1L, pending.get(5, TimeUnit.SECONDS));
+		committer = null;
+	}
+
+}
@@ -0,0 +1,94 @@
+package library.entities.helpers;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import library.entities.Calendar;
+import library.entities.IBook;
+import library.entities.ILibrary;
+import library.entities.ILoan;
+import library.entities.IPatron;
+import library.test.TestUtilities;
+
+@ExtendWith(MockitoExtension.class)
+@RunWith(MockitoJUnitRunner.class)
+class LibraryFileHelperTest {
+
+	/*
+	 * Java-serialized by the first release: books 1 to 3 and patrons 1 and 2,
+	 * book 1 on loan to patron 1 since 2020-02-20, and book 2 lent to patron 2
+	 * and returned damaged 20 days later, with the fine unpaid.
+	 */
+	static final String BASELINE_LIBRARY = "baseline-library.obj";
+
+	@TempDir Path directory;
+
+	String libraryFile;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		libraryFile = directory.resolve("library.obj").toString();
+		try (InputStream fixture = getClass().getResourceAsStream(BASELINE_LIBRARY)) {
+			Files.copy(fixture, directory.resolve("library.obj"));
+		}
+		Calendar.getInstance().setDate(TestUtilities.dateOf(2020, 3, 20));
+	}
+
+	LibraryFileHelper makeHelper() {
+		return new LibraryFileHelper(new BookHelper(), new PatronHelper(), new LoanHelper(), libraryFile);
+	}
+
+	@Test
+	void loadLibrary_JavaSerializedByFirstRelease_LoadsBooksPatronsAndLoans() {
+		// arrange
+		LibraryFileHelper helper = makeHelper();
+		// act
+		ILibrary library = helper.loadLibrary();
+		// assert
+		assertEquals(3, library.getBookList().size());
+		assertEquals(2, library.getPatronList().size());
+		assertEquals(2, library.getAllLoansList().size());
+		ILoan loan = library.getCurrentLoanByBookId(1);
+		assertSame(library.getPatronById(1), loan.getPatron());
+		assertSame(library.getBookById(1), loan.getBook());
+		assertTrue(library.getBookById(1).isOnLoan());
+		assertEquals(1, library.getPatronById(1).getNumberOfCurrentLoans());
+		assertEquals(20.0, library.getPatronById(2).getFinesPayable());
+		assertEquals("Curtain", library.getBookById(3).getTitle());
+	}
+
+	@Test
+	void saveLibrary_AfterLoadingJavaSerializedLibrary_MigratesToSnapshotCodec() throws Exception {
+		// arrange
+		ILibrary library = makeHelper().loadLibrary();
+		library.dischargeLoan(library.getCurrentLoanByBookId(1), false);
+		IBook book = library.addBook("Agatha Christie", "Sleeping Murder", "call012");
+		IPatron patron = library.addPatron("Mustermann", "Maxi", "maxi@example.com", 198765434);
+		// act
+		makeHelper().saveLibrary(library);
+		ILibrary reloaded = makeHelper().loadLibrary();
+		// assert
+		byte[] saved = Files.readAllBytes(directory.resolve("library.obj"));
+		assertFalse(saved[0] == (byte) 0xac && saved[1] == (byte) 0xed);
+		assertEquals(4, book.getId());
+		assertEquals(3, patron.getId());
+		assertEquals(4, reloaded.getBookList().size());
+		assertEquals(2, reloaded.getAllLoansList().size());
+		assertEquals(0, reloaded.getCurrentLoansList().size());
+		assertTrue(reloaded.getBookById(1).isAvailable());
+		assertEquals(20.0, reloaded.getPatronById(2).getFinesPayable());
+		assertEquals(5, reloaded.addBook("Agatha Christie", "Nemesis", "call345").getId());
+	}
+
+}
@@ -0,0 +1,317 @@
+package library.entities.helpers;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import library.entities.BookReturn;
+import library.entities.Calendar;
+import library.entities.IBook;
+import library.entities.ILibrary;
+import library.entities.ILoan;
+import library.entities.IPatron;
+import library.entities.LoanArchive;
+import library.test.TestUtilities;
+
+@ExtendWith(MockitoExtension.class)
+@RunWith(MockitoJUnitRunner.class)
+class LibraryJournalHelperIntegrationTest {
+
+	@TempDir Path directory;
+	
+	LibraryJournalHelper helper;
+	String snapshotFile;
+	String journalFile;
+	
+	String author = "Stephen King";
+	String title = "The Shining";
+	String callNumber = "call123";
+
+	@BeforeEach
+	void setUp() throws Exception {
+		snapshotFile = directory.resolve("library.snapshot").toString();
+		journalFile = directory.resolve("library.journal").toString();
+		helper = makeHelper();
+		Calendar.getInstance().setDate(TestUtilities.dateOf(2020, 2, 20));
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		helper.close();
+	}
+	
+	LibraryJournalHelper makeHelper() {
+		return new LibraryJournalHelper(new BookHelper(), new PatronHelper(), new LoanHelper(),
+				snapshotFile, journalFile, LibraryJournalHelper.DEFAULT_CHECKPOINT_THRESHOLD);
+	}
+	
+	ILibrary reload() {
+		helper.close();
+		helper = makeHelper();
+		return helper.loadLibrary();
+	}
+
+	@Test
+	void loadLibrary_AfterJournaledMutations_ReplaysThem() {
+		// arrange
+		ILibrary library = helper.loadLibrary();
+		IPatron patron = library.addPatron("Mustermann", "Max", "max@example.com", 198765432);
+		IBook book = library.addBook(author, title, callNumber);
+		library.addBook(author, "Carrie", "call456");
+		library.commitLoan(library.issueLoan(book, patron));
+		Calendar.getInstance().setDate(TestUtilities.dateOf(2020, 2, 25));
+		library.checkCurrentLoansOverDue();
+		library.dischargeLoan(library.getCurrentLoanByBookId(book.getId()), true);
+		helper.saveLibrary(library);
+		// act
+		ILibrary reloaded = reload();
+		// assert
+		assertEquals(1, reloaded.getPatronList().size());
+		assertEquals(2, reloaded.getBookList().size());
+		assertEquals(1, reloaded.getAllLoansList().size());
+		assertTrue(reloaded.getCurrentLoansList().isEmpty());
+		assertEquals(patron.getFinesPayable(), reloaded.getPatronById(patron.getId()).getFinesPayable());
+		assertFalse(reloaded.getBookById(book.getId()).isAvailable());
+	}
+
+	@Test
+	void loadLibrary_AfterBatchCheckout_ReplaysItAsOneRecord() throws Exception {
+		// arrange
+		ILibrary library = helper.loadLibrary();
+		IPatron patron = library.addPatron("Mustermann", "Max", "max@example.com", 198765432);
+		IBook book = library.addBook(author, title, callNumber);
+		IBook other = library.addBook(author, "Carrie", "call456");
+		helper.saveLibrary(library);
+		long before = Files.size(Paths.get(journalFile));
+		List<ILoan> pendingLoans = List.of(library.issueLoan(book, patron), library.issueLoan(other, patron));
+		library.commitLoans(pendingLoans);
+		helper.saveLibrary(library);
+		long batch = Files.size(Paths.get(journalFile)) - before;
+		// act
+		ILibrary reloaded = reload();
+		// assert
+		// a single COMMIT_LOAN record takes 33 bytes
+		assertTrue(batch > 0 && batch < 2 * 33);
+		assertEquals(2, reloaded.getCurrentLoansList().size());
+		assertEquals(2, reloaded.getPatronById(patron.getId()).getNumberOfCurrentLoans());
+		assertEquals(pendingLoans.get(1).getDueDate(), reloaded.getCurrentLoanByBookId(other.getId()).getDueDate());
+		assertTrue(reloaded.getBookById(book.getId()).isOnLoan());
+	}
+
+	@Test
+	void loadLibrary_AfterBookDrop_ReplaysReturnsAndFines() {
+		// arrange
+		ILibrary library = helper.loadLibrary();
+		IPatron patron = library.addPatron("Mustermann", "Max", "max@example.com", 198765432);
+		IBook book = library.addBook(author, title, callNumber);
+		IBook other = library.addBook(author, "Carrie", "call456");
+		library.commitLoans(List.of(library.issueLoan(book, patron), library.issueLoan(other, patron)));
+		Calendar.getInstance().setDate(TestUtilities.dateOf(2020, 3, 20));
+		library.checkCurrentLoansOverDue();
+		library.dischargeLoans(List.of(new BookReturn(book.getId(), true), new BookReturn(other.getId(), false)));
+		helper.saveLibrary(library);
+		// act
+		ILibrary reloaded = reload();
+		// assert
+		assertTrue(reloaded.getCurrentLoansList().isEmpty());
+		assertEquals(2, reloaded.getAllLoansList().size());
+		assertTrue(patron.getFinesPayable() > 0);
+		assertEquals(patron.getFinesPayable(), reloaded.getPatronById(patron.getId()).getFinesPayable(), 0.001);
+		assertFalse(reloaded.getBookById(book.getId()).isAvailable());
+		assertTrue(reloaded.getBookById(other.getId()).isAvailable());
+	}
+
+	@Test
+	void loadLibrary_AfterCheckpoint_ReplaysOnlyLaterMutations() {
+		// arrange
+		ILibrary library = helper.loadLibrary();
+		IPatron patron = library.addPatron("Mustermann", "Max", "max@example.com", 198765432);
+		IBook book = library.addBook(author, title, callNumber);
+		helper.checkpoint(library);
+		ILoan loan = library.issueLoan(book, patron);
+		library.commitLoan(loan);
+		helper.saveLibrary(library);
+		// act
+		ILibrary reloaded = reload();
+		// assert
+		assertEquals(1, reloaded.getPatronList().size());
+		assertEquals(1, reloaded.getBookList().size());
+		assertEquals(1, reloaded.getCurrentLoansList().size());
+		assertTrue(reloaded.getBookById(book.getId()).isOnLoan());
+	}
+
+	@Test
+	void checkpoint_WithLoanArchive_MovesDischargedLoansToArchive() {
+		// arrange
+		String archiveFile = directory.resolve("library.archive").toString();
+		helper = new LibraryJournalHelper(new BookHelper(), new PatronHelper(), new LoanHelper(),
+				snapshotFile, journalFile, archiveFile, LibraryJournalHelper.DEFAULT_CHECKPOINT_THRESHOLD);
+		ILibrary library = helper.loadLibrary();
+		IPatron patron = library.addPatron("Mustermann", "Max", "max@example.com", 198765432);
+		IBook book = library.addBook(author, title, callNumber);
+		ILoan loan = library.issueLoan(book, patron);
+		library.commitLoan(loan);
+		library.dischargeLoan(loan, false);
+		library.commitLoan(library.issueLoan(book, patron));
+		// act
+		helper.checkpoint(library);
+		helper.close();
+		LoanArchive archive = LoanArchive.open(Paths.get(archiveFile));
+		long archived = archive.getLoanCount();
+		archive.close();
+		helper = new LibraryJournalHelper(new BookHelper(), new PatronHelper(), new LoanHelper(),
+				snapshotFile, journalFile, archiveFile, LibraryJournalHelper.DEFAULT_CHECKPOINT_THRESHOLD);
+		ILibrary reloaded = helper.loadLibrary();
+		// assert
+		assertEquals(1, archived);
+		assertEquals(2, reloaded.getAllLoans().count());
+		assertEquals(1, reloaded.getCurrentLoansList().size());
+		assertEquals(patron.getId(), reloaded.getLoanById(loan.getId()).getPatron().getId());
+		assertSame(reloaded.getBookById(book.getId()), reloaded.getLoanById(loan.getId()).getBook());
+	}
+
+	@Test
+	void saveLibrary_GroupCommitWithConcurrentDesks_KeepsEveryMutation() throws Exception {
+		// arrange
+		int desks = 4;
+		int booksPerDesk = 50;
+		helper.enableGroupCommit(1, TimeUnit.MILLISECONDS, desks);
+		ILibrary library = helper.loadLibrary();
+		ExecutorService pool = Executors.newFixedThreadPool(desks);
+		List<Future<?>> results = new ArrayList<>();
+		// act
+		for (int desk = 0; desk < desks; desk++) {
+			results.add(pool.submit(() -> {
+				for (int i = 0; i < booksPerDesk; i++) {
+					library.addBook(author, title, callNumber);
+					helper.saveLibrary(library);
+				}
+			}));
+		}
+		for (Future<?> result : results) {
+			result.get(30, TimeUnit.SECONDS);
+		}
+		pool.shutdown();
+		ILibrary reloaded = reload();
+		// assert
+		assertEquals(desks * booksPerDesk, reloaded.getBookList().size());
+	}
+
+	@Test
+	void getBookStream_BookAddedWhileStreaming_ReadsPagesWithoutHoldingTheLock() {
+		// arrange
+		ILibrary library = helper.loadLibrary();
+		int books = JournalingLibrary.PAGE_SIZE * 2 + 10;
+		for (int i = 0; i < books; i++) {
+			library.addBook(author, title, callNumber);
+		}
+		List<Integer> ids = new ArrayList<>();
+		// act
+		library.getBookStream().forEach(book -> {
+			ids.add(book.getId());
+			if (book.getId() == 1) {
+				CompletableFuture.runAsync(() -> library.addBook(author, title, callNumber))
+						.orTimeout(5, TimeUnit.SECONDS).join();
+			}
+		});
+		// assert
+		assertEquals(books + 1, ids.size());
+		for (int i = 0; i < ids.size(); i++) {
+			assertEquals(i + 1, ids.get(i));
+		}
+	}
+
+	@Test
+	void loadLibrary_TornJournalTail_IgnoresPartialRecord() throws Exception {
+		// arrange
+		ILibrary library = helper.loadLibrary();
+		library.addBook(author, title, callNumber);
+		helper.saveLibrary(library);
+		helper.close();
+		try (FileOutputStream out = new FileOutputStream(journalFile, true)) {
+			out.write(new byte[] {0, 0, 0, 40, 0, 0, 0});
+		}
+		// act
+		ILibrary reloaded = reload();
+		reloaded.addBook(author, "Carrie", "call456");
+		helper.saveLibrary(reloaded);
+		ILibrary reloadedAgain = reload();
+		// assert
+		assertEquals(2, reloadedAgain.getBookList().size());
+	}
+
+	@Test
+	void saveLibrary_BackgroundCompaction_FoldsJournalIntoSnapshot() {
+		// arrange
+		String archiveFile = directory.resolve("library.archive").toString();
+		helper = new LibraryJournalHelper(new BookHelper(), new PatronHelper(), new LoanHelper(),
+				snapshotFile, journalFile, archiveFile, 10);
+		helper.enableBackgroundCompaction();
+		ILibrary library = helper.loadLibrary();
+		IPatron patron = library.addPatron("Mustermann", "Max", "max@example.com", 198765432);
+		// act
+		for (int i = 0; i < 30; i++) {
+			IBook book = library.addBook(author, title, callNumber);
+			library.commitLoan(library.issueLoan(book, patron));
+			library.dischargeLoan(library.getCurrentLoanByBookId(book.getId()), false);
+			helper.saveLibrary(library);
+		}
+		long compacted = helper.awaitCompaction();
+		helper.close();
+		helper = new LibraryJournalHelper(new BookHelper(), new PatronHelper(), new LoanHelper(),
+				snapshotFile, journalFile, archiveFile, 10);
+		ILibrary reloaded = helper.loadLibrary();
+		// assert
+		assertTrue(compacted > 10);
+		assertFalse(Files.exists(Paths.get(journalFile + ".sealed")));
+		assertEquals(TestUtilities.dateOf(2020, 2, 20), Calendar.getInstance().getDate());
+		assertEquals(30, reloaded.getBookList().size());
+		assertEquals(30, reloaded.getAllLoans().count());
+		assertTrue(reloaded.getCurrentLoansList().isEmpty());
+	}
+
+	@Test
+	void loadLibrary_SealedSegmentLeftByCrash_ReplaysAndCompactsIt() {
+		// arrange
+		ILibrary library = helper.loadLibrary();
+		for (int i = 0; i < 3; i++) {
+			library.addBook(author, title, callNumber);
+		}
+		helper.saveLibrary(library);
+		helper.close();
+		try (LibraryJournal journal = LibraryJournal.open(Paths.get(journalFile))) {
+			journal.roll();
+		}
+		// act
+		ILibrary reloaded = reload();
+		reloaded.addBook(author, "Carrie", "call456");
+		helper.saveLibrary(reloaded);
+		long compacted = helper.compact(reloaded).join();
+		ILibrary actual = reload();
+		// assert
+		assertEquals(3, compacted);
+		assertFalse(Files.exists(Paths.get(journalFile + ".sealed")));
+		assertEquals(4, actual.getBookList().size());
+		assertEquals("Carrie", actual.getBookById(4).getTitle());
+	}
+
+}
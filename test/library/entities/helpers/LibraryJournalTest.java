@@ -0,0 +1,168 @@
+package library.entities.helpers;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import library.entities.Book;
+import library.entities.BookReturn;
+import library.entities.Calendar;
+import library.entities.ILibrary;
+import library.entities.ILoan;
+import library.entities.IPatron;
+import library.entities.Library;
+import library.entities.Loan;
+import library.entities.Patron;
+import library.test.TestUtilities;
+
+@ExtendWith(MockitoExtension.class)
+@RunWith(MockitoJUnitRunner.class)
+class LibraryJournalTest {
+
+	@TempDir Path directory;
+
+	/* books in the largest COMMIT_LOANS record: a type byte, a count, a patron id and a date, then the ids */
+	static final int COMMIT_BOOKS_PER_RECORD = (LibraryJournal.MAX_RECORD_SIZE - 17) / 4;
+
+	Path journalFile;
+	LibraryJournal journal;
+	@Mock ILibrary library;
+	@Mock IPatron patron;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		journalFile = directory.resolve("library.journal");
+		journal = LibraryJournal.open(journalFile);
+		Calendar.getInstance().setDate(TestUtilities.dateOf(2020, 2, 20));
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		journal.close();
+	}
+
+	@Test
+	void append_RecordOverMaxSize_RefusesItAndKeepsLaterRecords() {
+		// arrange
+		int[] bookIds = new int[LibraryJournal.MAX_RECORD_SIZE / 4 + 1];
+		journal.append(LibraryMutation.addBook("Stephen King", "The Shining", "call123"));
+		// act
+		assertThrows(RuntimeException.class,
+				() -> { journal.append(LibraryMutation.commitLoans(bookIds, 1, new Date())); } );
+		journal.append(LibraryMutation.addBook("Stephen King", "Carrie", "call456"));
+		journal.sync();
+		journal.close();
+		journal = LibraryJournal.open(journalFile);
+		// assert
+		Library library = new Library(new BookHelper(), new PatronHelper(), new LoanHelper());
+		assertEquals(2, journal.getLastSequence());
+		assertEquals(2, journal.replay(library, 0));
+		assertEquals("Carrie", library.getBookById(2).getTitle());
+	}
+
+	LibraryJournal reopen() {
+		journal.sync();
+		journal.close();
+		journal = LibraryJournal.open(journalFile);
+		return journal;
+	}
+
+	List<ILoan> pendingLoans(int count) {
+		IPatron borrower = new Patron("Mustermann", "Max", "max.mustermann@example.com", 198765432, 1);
+		List<ILoan> pendingLoans = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			pendingLoans.add(new Loan(new Book("Stephen King", "The Shining", "call123", i + 1), borrower));
+		}
+		return pendingLoans;
+	}
+
+	Library libraryWithBooks(int count) {
+		Library library = new Library(new BookHelper(), new PatronHelper(), new LoanHelper());
+		library.addPatron("Mustermann", "Max", "max.mustermann@example.com", 198765432);
+		for (int i = 0; i < count; i++) {
+			library.addBook("Stephen King", "Title " + i, "call" + i);
+		}
+		return library;
+	}
+
+	@Test
+	void commitLoans_BatchAtRecordLimit_JournalsAndReplaysItAsOneRecord() {
+		// arrange
+		JournalingLibrary journaling = new JournalingLibrary(library, journal);
+		List<ILoan> pendingLoans = pendingLoans(COMMIT_BOOKS_PER_RECORD);
+		Library replayedLibrary = libraryWithBooks(pendingLoans.size());
+		// act
+		journaling.commitLoans(pendingLoans);
+		long replayed = reopen().replay(replayedLibrary, 0);
+		// assert
+		assertEquals(1, journal.getLastSequence());
+		assertEquals(1, replayed);
+		verify(library).commitLoans(pendingLoans);
+		assertEquals(COMMIT_BOOKS_PER_RECORD, replayedLibrary.getPatronById(1).getNumberOfCurrentLoans());
+	}
+
+	@Test
+	void commitLoans_BatchOverRecordLimit_SplitsItAndReplaysItOnce() {
+		// arrange
+		JournalingLibrary journaling = new JournalingLibrary(library, journal);
+		List<ILoan> pendingLoans = pendingLoans(COMMIT_BOOKS_PER_RECORD + 1);
+		Library replayedLibrary = libraryWithBooks(pendingLoans.size());
+		// act
+		journaling.commitLoans(pendingLoans);
+		long replayed = reopen().replay(replayedLibrary, 0);
+		// assert
+		assertEquals(2, journal.getLastSequence());
+		assertEquals(2, replayed);
+		verify(library).commitLoans(pendingLoans);
+		assertEquals(COMMIT_BOOKS_PER_RECORD + 1, replayedLibrary.getPatronById(1).getNumberOfCurrentLoans());
+		assertTrue(replayedLibrary.getBookById(COMMIT_BOOKS_PER_RECORD + 1).isOnLoan());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void dischargeLoans_BookDropOverRecordLimit_SplitsItAndReplaysReturnsInOrder() {
+		// arrange
+		JournalingLibrary journaling = new JournalingLibrary(library, journal);
+		int count = LibraryJournal.MAX_RECORD_SIZE / 5 * 2;
+		List<BookReturn> returns = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			returns.add(new BookReturn(i + 1, i % 7 == 0));
+		}
+		ArgumentCaptor<List<BookReturn>> discharged = ArgumentCaptor.forClass(List.class);
+		// act
+		journaling.dischargeLoans(returns);
+		journaling.payFine(patron, 1.0);
+		when(library.getPatronById(0)).thenReturn(patron);
+		long replayed = reopen().replay(library, 0);
+		// assert
+		assertEquals(4, journal.getLastSequence());
+		assertEquals(4, replayed);
+		verify(library, times(2)).dischargeLoans(discharged.capture());
+		List<BookReturn> actual = discharged.getValue();
+		assertEquals(count, actual.size());
+		for (int i = 0; i < count; i++) {
+			assertEquals(i + 1, actual.get(i).getBookId());
+			assertEquals(i % 7 == 0, actual.get(i).isDamaged());
+		}
+		verify(library, times(2)).payFine(patron, 1.0);
+	}
+
+}
@@ -0,0 +1,120 @@
+package library.entities.helpers;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import library.entities.Calendar;
+import library.entities.IBook;
+import library.entities.ILibrary;
+import library.entities.ILoan;
+import library.entities.IPatron;
+import library.test.TestUtilities;
+
+@ExtendWith(MockitoExtension.class)
+@RunWith(MockitoJUnitRunner.class)
+class PagedLibraryHelperTest {
+
+	@TempDir Path directory;
+
+	PagedLibraryHelper helper;
+	Path pageFile;
+	ILibrary library;
+	IPatron patron;
+	IBook currentBook;
+	IBook damagedBook;
+
+	String author = "Stephen King";
+
+	@BeforeEach
+	void setUp() throws Exception {
+		pageFile = directory.resolve("library.pages");
+		Calendar.getInstance().setDate(TestUtilities.dateOf(2020, 2, 20));
+		helper = makeHelper(16, 4);
+		library = helper.loadLibrary();
+
+		patron = library.addPatron("Mustermann", "Max", "max.mustermann@example.com", 198765432);
+		currentBook = library.addBook(author, "The Shining", "call123");
+		damagedBook = library.addBook(author, "Carrie", "call456");
+		library.commitLoan(library.issueLoan(damagedBook, patron));
+		library.dischargeLoan(library.getCurrentLoanByBookId(damagedBook.getId()), true);
+		library.payFine(patron, ILibrary.DAMAGE_FEE);
+		library.commitLoan(library.issueLoan(currentBook, patron));
+		helper.saveLibrary(library);
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		helper.close();
+	}
+
+	PagedLibraryHelper makeHelper(int bufferPages, int workingSetSize) {
+		return new PagedLibraryHelper(new BookHelper(), new PatronHelper(), new LoanHelper(), pageFile.toString(),
+				bufferPages, workingSetSize);
+	}
+
+	ILibrary reload() {
+		helper.close();
+		helper = makeHelper(16, 4);
+		return helper.loadLibrary();
+	}
+
+	@Test
+	void loadLibrary_SavedLibrary_RestoresState() {
+		// arrange
+		// act
+		ILibrary actual = reload();
+		// assert
+		IPatron actualPatron = actual.getPatronById(patron.getId());
+		ILoan currentLoan = actual.getCurrentLoanByBookId(currentBook.getId());
+		assertEquals(2, actual.getAllLoansList().size());
+		assertEquals(patron.getFinesPayable(), actualPatron.getFinesPayable());
+		assertSame(actualPatron, currentLoan.getPatron());
+		assertSame(currentLoan, actualPatron.getLoans().get(0));
+		assertDoesNotThrow(() -> actual.repairBook(actual.getBookById(damagedBook.getId())));
+		assertEquals(3, actual.addBook(author, "It", "call789").getId());
+	}
+
+	@Test
+	void loadLibrary_ChangesNotSaved_AreLost() {
+		// arrange
+		library.addPatron("Musterfrau", "Erika", "erika@example.com", 198765433);
+		library.dischargeLoan(library.getCurrentLoanByBookId(currentBook.getId()), false);
+		// act
+		ILibrary actual = reload();
+		// assert
+		assertEquals(1, actual.getPatronList().size());
+		assertNotNull(actual.getCurrentLoanByBookId(currentBook.getId()));
+		assertEquals(1, actual.getPatronById(patron.getId()).getNumberOfCurrentLoans());
+	}
+
+	@Test
+	void saveLibrary_MoreEntitiesThanBufferPool_ReadsThemAllBack() {
+		// arrange
+		int count = 5000;
+		for (int i = 0; i < count; i++) {
+			library.addBook(author, "Title " + i, "call" + i);
+		}
+		helper.saveLibrary(library);
+		// act
+		ILibrary actual = reload();
+		List<IBook> books = actual.getBookList();
+		// assert
+		assertEquals(count + 2, books.size());
+		for (int i = 0; i < count; i++) {
+			assertEquals("Title " + i, actual.getBookById(i + 3).getTitle());
+		}
+		assertTrue(helper.getStore().getBufferPool().getEvictions() > 0);
+	}
+
+}
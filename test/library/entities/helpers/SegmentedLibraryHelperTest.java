@@ -0,0 +1,138 @@
+package library.entities.helpers;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import library.entities.Calendar;
+import library.entities.IBook;
+import library.entities.ILibrary;
+import library.entities.ILoan;
+import library.entities.IPatron;
+import library.test.TestUtilities;
+
+@ExtendWith(MockitoExtension.class)
+@RunWith(MockitoJUnitRunner.class)
+class SegmentedLibraryHelperTest {
+
+	@TempDir Path directory;
+
+	SegmentedLibraryHelper helper;
+	Path segmentDirectory;
+	ILibrary library;
+	IPatron patron;
+	IBook currentBook;
+	IBook damagedBook;
+
+	String author = "Stephen King";
+
+	@BeforeEach
+	void setUp() throws Exception {
+		segmentDirectory = directory.resolve("library.segments");
+		Calendar.getInstance().setDate(TestUtilities.dateOf(2020, 2, 20));
+		helper = makeHelper();
+		library = helper.loadLibrary();
+
+		patron = library.addPatron("Mustermann", "Max", "max.mustermann@example.com", 198765432);
+		currentBook = library.addBook(author, "The Shining", "call123");
+		damagedBook = library.addBook(author, "Carrie", "call456");
+		library.commitLoan(library.issueLoan(damagedBook, patron));
+		library.dischargeLoan(library.getCurrentLoanByBookId(damagedBook.getId()), true);
+		library.payFine(patron, ILibrary.DAMAGE_FEE);
+		library.commitLoan(library.issueLoan(currentBook, patron));
+		helper.saveLibrary(library);
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+	}
+
+	SegmentedLibraryHelper makeHelper() {
+		return new SegmentedLibraryHelper(new BookHelper(), new PatronHelper(), new LoanHelper(), segmentDirectory.toString());
+	}
+
+	ILibrary reload() {
+		helper = makeHelper();
+		return helper.loadLibrary();
+	}
+
+	Set<String> segmentFiles() throws Exception {
+		try (Stream<Path> files = Files.list(segmentDirectory)) {
+			return files.map(file -> file.getFileName().toString())
+				.filter(name -> name.endsWith(".seg"))
+				.collect(Collectors.toCollection(TreeSet::new));
+		}
+	}
+
+	@Test
+	void loadLibrary_SavedLibrary_RestoresState() {
+		// arrange
+		// act
+		ILibrary actual = reload();
+		// assert
+		IPatron actualPatron = actual.getPatronById(patron.getId());
+		ILoan currentLoan = actual.getCurrentLoanByBookId(currentBook.getId());
+		assertEquals(2, actual.getAllLoansList().size());
+		assertEquals(patron.getFinesPayable(), actualPatron.getFinesPayable());
+		assertSame(actualPatron, currentLoan.getPatron());
+		assertSame(currentLoan, actualPatron.getLoans().get(0));
+		assertDoesNotThrow(() -> actual.repairBook(actual.getBookById(damagedBook.getId())));
+	}
+
+	@Test
+	void saveLibrary_PatronAdded_RewritesOnlyPatronSegment() throws Exception {
+		// arrange
+		Set<String> before = segmentFiles();
+		// act
+		library.addPatron("Musterfrau", "Erika", "erika@example.com", 198765433);
+		helper.saveLibrary(library);
+		Set<String> after = segmentFiles();
+		// assert
+		Set<String> added = new TreeSet<>(after);
+		added.removeAll(before);
+		Set<String> removed = new TreeSet<>(before);
+		removed.removeAll(after);
+		assertEquals(1, added.size());
+		assertTrue(added.iterator().next().startsWith("patrons-000000-"));
+		assertEquals(1, removed.size());
+		assertTrue(removed.iterator().next().startsWith("patrons-000000-"));
+		assertEquals(2, reload().getPatronList().size());
+	}
+
+	@Test
+	void saveLibrary_NothingChanged_WritesNothing() {
+		// arrange
+		long generation = helper.getStore().getGeneration();
+		// act
+		helper.saveLibrary(library);
+		// assert
+		assertEquals(generation, helper.getStore().getGeneration());
+	}
+
+	@Test
+	void loadLibrary_UncommittedSegmentFile_IgnoresAndDeletesIt() throws Exception {
+		// arrange
+		Path stray = segmentDirectory.resolve("books-000000-99.seg");
+		Files.write(stray, new byte[] {1, 2, 3});
+		// act
+		ILibrary actual = reload();
+		// assert
+		assertEquals(2, actual.getBookList().size());
+		assertFalse(Files.exists(stray));
+	}
+
+}
@@ -0,0 +1,125 @@
+package library.importbooks;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import library.entities.IBook;
+import library.entities.ILibrary;
+import library.entities.Library;
+import library.entities.helpers.BookHelper;
+import library.entities.helpers.LoanHelper;
+import library.entities.helpers.PatronHelper;
+import library.importbooks.CatalogImporter.Format;
+import library.importbooks.CatalogImporter.ImportProgress;
+
+@ExtendWith(MockitoExtension.class)
+@RunWith(MockitoJUnitRunner.class)
+class CatalogImporterTest {
+
+    @TempDir Path directory;
+
+    ILibrary library;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        library = new Library(new BookHelper(), new PatronHelper(), new LoanHelper());
+        library.addBook("Stephen King", "Carrie", "call000");
+    }
+
+    Path write(String fileName, String... lines) throws Exception {
+        Path path = directory.resolve(fileName);
+        Files.write(path, List.of(lines), StandardCharsets.UTF_8);
+        return path;
+    }
+
+    @Test
+    void importFile_CsvWithHeaderAndQuotes_AddsBooks() throws Exception {
+        // arrange
+        Path path = write("books.csv",
+                "author,title,call number",
+                "Stephen King,The Shining,call123",
+                "\"King, Stephen\",\"It \"\"Returns\"\"\",call456",
+                "");
+        CatalogImporter importer = new CatalogImporter(library, 2, 1);
+        // act
+        ImportProgress actual = importer.importFile(path, null);
+        // assert
+        assertEquals(2, actual.getBooksImported());
+        assertEquals(0, actual.getLinesRejected());
+        assertEquals("The Shining", library.getBookById(2).getTitle());
+        assertEquals("King, Stephen", library.getBookById(3).getAuthor());
+        assertEquals("It \"Returns\"", library.getBookById(3).getTitle());
+    }
+
+    @Test
+    void importFile_JsonLines_AddsBooks() throws Exception {
+        // arrange
+        Path path = write("books.jsonl",
+                "{\"author\": \"Stephen King\", \"title\": \"The Shining\", \"callNumber\": \"call123\"}",
+                "{\"callNumber\":\"call456\",\"year\":\"1986\",\"title\":\"It \\u00e9\\\"\",\"author\":\"Stephen King\"}");
+        CatalogImporter importer = new CatalogImporter(library, 2, 10);
+        // act
+        ImportProgress actual = importer.importFile(path, null);
+        // assert
+        assertEquals(2, actual.getBooksImported());
+        assertEquals("call123", library.getBookById(2).getCallNumber());
+        assertEquals("It \u00e9\"", library.getBookById(3).getTitle());
+    }
+
+    @Test
+    void importFile_MalformedLines_AreRejected() throws Exception {
+        // arrange
+        Path path = write("books.csv",
+                "Stephen King,The Shining,call123",
+                "Stephen King,Only two fields",
+                "Stephen King,\"Unterminated,call456",
+                "Stephen King,Too,many,fields",
+                "Stephen King,It,call789");
+        CatalogImporter importer = new CatalogImporter(library, 2, 2);
+        // act
+        ImportProgress actual = importer.importFile(path, Format.CSV, null);
+        // assert
+        assertEquals(2, actual.getBooksImported());
+        assertEquals(3, actual.getLinesRejected());
+        assertEquals(5, actual.getLinesRead());
+        assertEquals("It", library.getBookById(3).getTitle());
+    }
+
+    @Test
+    void importFile_ManyBatches_KeepsFileOrderAndConsecutiveIds() throws Exception {
+        // arrange
+        int count = 10000;
+        String[] lines = new String[count];
+        for (int i = 0; i < count; i++) {
+            lines[i] = "Author " + i + ",Title " + i + ",call" + i;
+        }
+        Path path = write("books.csv", lines);
+        CatalogImporter importer = new CatalogImporter(library, 4, 64);
+        List<ImportProgress> reports = new ArrayList<>();
+        // act
+        ImportProgress actual = importer.importFile(path, reports::add);
+        // assert
+        assertEquals(count, actual.getBooksImported());
+        assertTrue(reports.get(reports.size() - 1).isFinished());
+        List<IBook> books = library.getBookList();
+        assertEquals(count + 1, books.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals("Title " + i, library.getBookById(i + 2).getTitle());
+        }
+        assertEquals(count + 2, library.addBook("Stephen King", "It", "call789").getId());
+    }
+
+}
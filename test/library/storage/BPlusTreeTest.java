@@ -0,0 +1,145 @@
+package library.storage;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+@RunWith(MockitoJUnitRunner.class)
+class BPlusTreeTest {
+
+	@TempDir Path directory;
+
+	Path path;
+	PageStore store;
+	BPlusTree tree;
+
+	@BeforeEach
+	void setUp() throws Exception {
+		path = directory.resolve("test.pages");
+		store = PageStore.open(path, 1, 1, 16);
+		tree = store.getTree(0);
+	}
+
+	@AfterEach
+	void tearDown() throws Exception {
+		store.close();
+	}
+
+	void reopen() {
+		store.close();
+		store = PageStore.open(path, 1, 1, 16);
+		tree = store.getTree(0);
+	}
+
+	static byte[] value(int key, int length) {
+		StringBuilder value = new StringBuilder();
+		while (value.length() < length) {
+			value.append(key).append(',');
+		}
+		return value.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	static void assertContains(Map<Integer, byte[]> expected, BPlusTree tree) {
+		assertEquals(expected.size(), tree.size());
+		int[] keys = tree.keysFrom(Integer.MIN_VALUE, Integer.MAX_VALUE);
+		assertArrayEquals(expected.keySet().stream().mapToInt(Integer::intValue).toArray(), keys);
+		for (Map.Entry<Integer, byte[]> entry : expected.entrySet()) {
+			assertArrayEquals(entry.getValue(), tree.get(entry.getKey()));
+		}
+	}
+
+	@Test
+	void put_RandomPutsAndRemoves_MatchesTreeMap() {
+		// arrange
+		Random random = new Random(8);
+		Map<Integer, byte[]> expected = new TreeMap<>();
+		// act
+		for (int i = 0; i < 20000; i++) {
+			int key = random.nextInt(5000);
+			if (random.nextInt(4) == 0) {
+				assertEquals(expected.remove(key) != null, tree.remove(key));
+			}
+			else {
+				byte[] value = value(key, random.nextInt(200));
+				assertEquals(expected.put(key, value) == null, tree.put(key, value));
+			}
+		}
+		// assert
+		assertContains(expected, tree);
+		assertTrue(store.getBufferPool().getEvictions() > 0);
+	}
+
+	@Test
+	void commit_Reopened_KeepsCommittedEntries() {
+		// arrange
+		Map<Integer, byte[]> expected = new TreeMap<>();
+		for (int key = 1; key <= 3000; key++) {
+			expected.put(key, value(key, 50));
+			tree.put(key, value(key, 50));
+		}
+		store.setCounter(0, 3001);
+		// act
+		store.commit();
+		reopen();
+		// assert
+		assertContains(expected, tree);
+		assertEquals(3001, store.getCounter(0));
+	}
+
+	@Test
+	void close_UncommittedChanges_AreDiscarded() {
+		// arrange
+		Map<Integer, byte[]> expected = new TreeMap<>();
+		for (int key = 1; key <= 3000; key++) {
+			expected.put(key, value(key, 50));
+			tree.put(key, value(key, 50));
+		}
+		store.commit();
+		// act
+		for (int key = 1; key <= 3000; key += 2) {
+			tree.remove(key);
+		}
+		for (int key = 3001; key <= 6000; key++) {
+			tree.put(key, value(key, 50));
+		}
+		reopen();
+		// assert
+		assertContains(expected, tree);
+	}
+
+	@Test
+	void commit_PagesReplacedByLaterCommits_AreReused() {
+		// arrange
+		for (int key = 1; key <= 3000; key++) {
+			tree.put(key, value(key, 50));
+		}
+		store.commit();
+		int pageCount = store.getPageCount();
+		// act
+		for (int round = 0; round < 10; round++) {
+			for (int key = 1; key <= 3000; key++) {
+				tree.put(key, value(key + round, 50));
+			}
+			store.commit();
+		}
+		// assert
+		assertTrue(store.getPageCount() <= pageCount * 2 + 2);
+		reopen();
+		assertArrayEquals(value(3009, 50), tree.get(3000));
+	}
+
+}